@@ -143,7 +143,8 @@ public class AbstrController {
 	}
 	
 	/**
-	 * Funzione adoperata per aggiornare la view, mandando un messaggio al ViewListener.
+	 * Funzione adoperata per richiedere l'aggiornamento della view. Non attende l'aggiornamento, e le richieste ravvicinate
+	 * vengono accorpate dalla view (vedi {@link view.ViewRefresher}).
 	 */
 	public void updateView() {
 		if(view != null) {
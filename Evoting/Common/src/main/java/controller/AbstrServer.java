@@ -1,12 +1,17 @@
 package controller;
 
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import exceptions.PEException;
 import model.Terminals;
+import utils.Constants;
 
 /**
  * Server astratto, classe base per le operazioni comuni a Server e TestServer.
@@ -18,19 +23,79 @@ public abstract class AbstrServer extends Thread {
 	
 	protected volatile boolean running;
 	
+	//Numero di thread del pool di ripiego, se i virtual thread sono stati richiesti ma la JVM non li supporta (0 altrimenti)
+	private int fallbackThreads = 0;
+	
 	/**
-	 * Costruttore del server astratto (classi derivate: Server e TestServer)
+	 * Costruttore del server astratto (classi derivate: Server e TestServer).
+	 * La modalità di esecuzione dei Service è quella indicata da {@link Constants#virtualThreads}.
 	 * @param numConnections	La dimensione del pool di thread del server (e quindi il numero massimo di connessioni simultanee).
 	 * @param factory			La factory che produce i service (necessaria a realizzare il paradigma Factory) che variano a seconda del tipo di terminale.
 	 * @param name				Il nome dato al tipo di terminale (utile in fase di testing per tenere d'occhio i thread).
 	 */
 	public AbstrServer(int numConnections, ServiceFactory factory, Terminals.Type type) {
+		this(numConnections, factory, type, Constants.virtualThreads);
+	}
+	
+	/**
+	 * Costruttore del server astratto con modalità di esecuzione esplicita.
+	 * @param numConnections	La dimensione del pool di thread del server, ignorata se i Service sono eseguiti su virtual thread.
+	 * @param factory			La factory che produce i service (necessaria a realizzare il paradigma Factory) che variano a seconda del tipo di terminale.
+	 * @param name				Il nome dato al tipo di terminale (utile in fase di testing per tenere d'occhio i thread).
+	 * @param virtualThreads	Se vero ogni Service viene eseguito su un proprio virtual thread, senza limite al numero di connessioni simultanee.
+	 */
+	public AbstrServer(int numConnections, ServiceFactory factory, Terminals.Type type, boolean virtualThreads) {
 		super(type.toString());
-		this.pool = Executors.newFixedThreadPool(numConnections);
+		this.pool = newServicePool(numConnections, virtualThreads);
 		this.factory = factory;
 		this.running = true;
 	}
 	
+	/**
+	 * Crea l'executor che eseguirà i Service.
+	 * <br/>
+	 * I virtual thread sono disponibili solo da Java 21 (prima come preview), per cui l'executor viene ottenuto tramite reflection.
+	 * Se la JVM non li supporta lo si segnala e si ripiega su un pool di al più {@link Constants#maxServiceThreads} thread ordinari,
+	 * che terminano dopo un minuto di inattività.
+	 * <br/>
+	 * Un virtual thread esegue un solo Service e non viene riutilizzato: i Cipher che {@link encryption.CryptoContext} conserva per thread
+	 * vengono quindi ricreati ad ogni Service che cifra o firma, annullando il riuso ottenuto con un pool.
+	 * @param numConnections	La dimensione del pool, se non si adoperano i virtual thread.
+	 * @param virtualThreads	Se vero ogni Service viene eseguito su un proprio thread.
+	 * @return					L'executor dei Service.
+	 */
+	private ExecutorService newServicePool(int numConnections, boolean virtualThreads) {
+		if(!virtualThreads)
+			return Executors.newFixedThreadPool(numConnections);
+		
+		try {
+			Method virtualExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtualExecutor.invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			//JVM precedente a Java 21 (o con i virtual thread in preview non abilitati): segnalato all'utente da setController
+			fallbackThreads = Math.max(numConnections, Constants.maxServiceThreads);
+			
+			ThreadPoolExecutor fallback = new ThreadPoolExecutor(fallbackThreads, fallbackThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+			fallback.allowCoreThreadTimeOut(true);
+			return fallback;
+		}
+	}
+	
+	/**
+	 * Verifica se la JVM supporta i virtual thread (vedi {@link Constants#virtualThreads}).
+	 * @return True se i Service possono essere eseguiti su virtual thread.
+	 */
+	public static boolean supportsVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
 	/**
 	 * Setta il controller di questo server.
 	 * Chiamata dal costruttore classe AbstrServer.
@@ -39,6 +104,9 @@ public abstract class AbstrServer extends Thread {
 	 */
 	public void setController(TerminalController controller) {
 		this.controller = controller;
+		
+		if(controller != null && fallbackThreads > 0)
+			controller.printError("Virtual thread non supportati dalla JVM", "Le richieste verranno servite da un pool di " + fallbackThreads + " thread.");
 	}
 	
 	/**
@@ -82,6 +150,22 @@ public abstract class AbstrServer extends Thread {
 	 */
 	protected abstract Link createLink(InetAddress ip, int port, Integer timeout, String error) throws PEException;
 	
+	/**
+	 * Funzione che affida ad un Service, eseguito dal pool, un link aperto dall'altra parte su una connessione in ingresso.
+	 * @param link Il link da servire.
+	 */
+	protected void serve(Link link) {
+		String name = "Server " + (controller != null ? controller.getClass().toString() : getName());
+		
+		try {
+			pool.execute(factory.createService(controller, link, name));
+		}
+		catch (RejectedExecutionException e) {
+			//Il server è in fase di spegnimento
+			link.close();
+		}
+	}
+	
 	/**
 	 * Funzione generica che varia a seconda se si tratta di un Server o di un TestServer.
 	 */
@@ -9,6 +9,9 @@ public abstract class AbstrService extends Thread{
 	protected TerminalController controller;
 	protected Link link;
 	protected InetAddress ip;
+	
+	//Vero se il link è stato affidato ad altri (es. un lease) e non va chiuso al termine del Service
+	private boolean detached = false;
 
 	public AbstrService(TerminalController controller, Link link, String name){
 		super(name);
@@ -23,7 +26,15 @@ public abstract class AbstrService extends Thread{
 			execute();
 		}
 
-		link.close();
+		if(!detached)
+			link.close();
+	}
+	
+	/**
+	 * Funzione richiamata dal service che affida il link ad altri: il link non verrà chiuso al termine del Service.
+	 */
+	protected void detachLink() {
+		detached = true;
 	}
 	
 	/**
@@ -0,0 +1,290 @@
+package controller;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import utils.Constants;
+
+/**
+ * Connessione persistente (eventualmente SSL) tra due terminali, sulla quale vengono multiplexati più {@link Link} logici.
+ * Evita di ripetere apertura della socket e handshake SSL per ogni scambio di messaggi.
+ * <br/>
+ * Chi apre la connessione invia per prima la riga {@link #hello}, quindi ogni riga scambiata ha la forma
+ * <i>"id O"</i> (apertura di un nuovo link), <i>"id D contenuto"</i> (una riga di messaggio) oppure <i>"id E"</i> (chiusura del link da parte del mittente).
+ * Le righe <i>"0 P"</i> (ping, inviato periodicamente da chi ha aperto la connessione) e <i>"0 A"</i> (la risposta dell'altra parte)
+ * non riguardano alcun link: una connessione sulla quale non arriva alcuna riga per tre intervalli di ping
+ * (vedi {@link Constants#channelPingInterval}) viene chiusa, terminando i suoi link.
+ * <br/>
+ * Gli identificativi dei link vengono assegnati in ordine crescente da chi ha aperto la connessione, e le relative righe di apertura
+ * vengono inviate nello stesso ordine. L'altra parte crea un nuovo link ad ogni riga di apertura, e lo affida all'{@link Acceptor}
+ * (e quindi ad un nuovo Service) solo all'arrivo della prima riga di messaggio, così che un link aperto e mai adoperato non occupi un thread.
+ * <br/>
+ * Questa classe gestisce solo il protocollo: il trasporto delle righe è demandato alle classi derivate
+ * ({@link StreamChannel}, con un thread per connessione, e {@link NioChannel}, gestita dal selector di {@link NioServer}).
+ */
+abstract class Channel {
+	/**
+	 * Riga di apertura della connessione, che ne identifica il protocollo.
+	 */
+	static final String hello = "SECUREBALLOT-MUX/1";
+
+	/**
+	 * Lunghezza massima di una riga ricevuta: i messaggi scambiati dai terminali, anche i più grandi (es. le schede di una procedura),
+	 * ne restano ben al di sotto, mentre una riga più lunga fa chiudere la connessione.
+	 */
+	static final int maxLineLength = 4 * 1024 * 1024;
+
+	/**
+	 * Numero massimo di link aperti contemporaneamente dall'altra parte sulla stessa connessione: le aperture in eccesso
+	 * vengono rifiutate chiudendo subito il link.
+	 */
+	static final int maxLinks = 256;
+
+	private static final char open = 'O';
+	private static final char data = 'D';
+	private static final char end = 'E';
+	private static final char ping = 'P';
+	private static final char ack = 'A';
+
+	//Un solo thread per tutte le connessioni del terminale: invia i ping e chiude le connessioni silenziose
+	private static final ScheduledExecutorService keepAlive = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "Channel Keepalive");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Interfaccia che riceve i link aperti dall'altra parte della connessione (lato server).
+	 */
+	interface Acceptor {
+		void accept(Link link);
+	}
+
+	private final InetAddress ip;
+
+	//Null per le connessioni aperte da questo terminale, che non accettano link dall'altra parte
+	private final Acceptor acceptor;
+	private final Consumer<Channel> onClose;
+
+	private final Map<Integer, ChannelLink> links = new ConcurrentHashMap<>();
+	private final AtomicInteger lastId = new AtomicInteger(0);
+	private final Object opening = new Object();
+
+	private final AtomicBoolean alive = new AtomicBoolean(true);
+
+	private volatile long lastReceived = System.currentTimeMillis();
+	private ScheduledFuture<?> keepAliveTask = null;
+
+	//Le connessioni in ingresso devono presentarsi con la riga di apertura del protocollo
+	private boolean greeted;
+
+	/**
+	 * @param ip		L'indirizzo del terminale all'altro capo della connessione.
+	 * @param acceptor	Chi riceve i link aperti dall'altra parte, o null se la connessione è stata aperta da questo terminale.
+	 * @param onClose	Operazione da eseguire alla chiusura della connessione, o null.
+	 */
+	Channel(InetAddress ip, Acceptor acceptor, Consumer<Channel> onClose) {
+		this.ip = ip;
+		this.acceptor = acceptor;
+		this.onClose = onClose;
+		this.greeted = acceptor == null;
+	}
+
+	InetAddress getIp() {
+		return ip;
+	}
+
+	boolean isOpen() {
+		return alive.get();
+	}
+
+	/**
+	 * Avvia le verifiche periodiche della connessione, da richiamare una volta avviata la ricezione delle righe.
+	 */
+	protected synchronized void startKeepAlive() {
+		if(keepAliveTask != null || !alive.get())
+			return;
+
+		int interval = Constants.channelPingInterval;
+		keepAliveTask = keepAlive.scheduleWithFixedDelay(this::checkAlive, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Funzione eseguita periodicamente dal thread di keepalive: chiude la connessione se l'altra parte non invia nulla da troppo tempo,
+	 * altrimenti (solo da parte di chi l'ha aperta) invia un ping.
+	 */
+	private void checkAlive() {
+		if(System.currentTimeMillis() - lastReceived > 3L * Constants.channelPingInterval) {
+			close();
+			return;
+		}
+
+		if(acceptor == null)
+			sendPing("0 " + ping);
+	}
+
+	/**
+	 * Funzione che invia un ping dal thread di keepalive, condiviso da tutte le connessioni. La classe derivata può ridefinirla
+	 * per non attendere una connessione occupata (che non ha comunque bisogno di ping).
+	 */
+	protected void sendPing(String line) {
+		sendLine(line);
+	}
+
+	/**
+	 * Funzione che apre un nuovo link logico sulla connessione (lato client).
+	 * @return Il link, già terminato se la connessione è stata chiusa nel frattempo.
+	 */
+	Link openLink() {
+		ChannelLink link;
+
+		//Identificativo e riga di apertura sotto lo stesso lock, così che l'altra parte riceva le aperture in ordine crescente
+		synchronized(opening) {
+			link = new ChannelLink(this, lastId.incrementAndGet());
+			links.put(link.getId(), link);
+			sendLine(link.getId() + " " + open);
+		}
+
+		//Se la connessione si è chiusa durante l'apertura, il link potrebbe non essere stato terminato dalla close
+		if(!alive.get())
+			link.remoteEnd();
+
+		return link;
+	}
+
+	/**
+	 * Funzione che invia una riga di messaggio relativa ad un link.
+	 */
+	void sendData(int id, String line) {
+		sendLine(id + " " + data + " " + line);
+	}
+
+	/**
+	 * Funzione che comunica all'altra parte la chiusura di un link, e lo rimuove dalla connessione.
+	 */
+	void sendEnd(int id) {
+		links.remove(id);
+		sendLine(id + " " + end);
+	}
+
+	/**
+	 * Funzione che chiude la connessione, terminando tutti i link ancora aperti.
+	 */
+	void close() {
+		if(!alive.compareAndSet(true, false))
+			return;
+
+		synchronized(this) {
+			if(keepAliveTask != null)
+				keepAliveTask.cancel(false);
+		}
+
+		closeTransport();
+
+		for(ChannelLink link : links.values())
+			link.remoteEnd();
+		links.clear();
+
+		if(onClose != null)
+			onClose.accept(this);
+	}
+
+	/**
+	 * Funzione richiamata dalla classe derivata per ogni riga ricevuta, nell'ordine di arrivo e sempre dallo stesso thread.
+	 */
+	protected void receive(String frame) {
+		lastReceived = System.currentTimeMillis();
+
+		if(!greeted) {
+			if(hello.equals(frame))
+				greeted = true;
+			else
+				close();
+
+			return;
+		}
+
+		int sep = frame.indexOf(' ');
+		if(sep <= 0 || frame.length() < sep + 2)
+			return;
+
+		int id;
+		try {
+			id = Integer.parseInt(frame.substring(0, sep));
+		} catch (NumberFormatException e) {
+			return;
+		}
+
+		char type = frame.charAt(sep + 1);
+
+		if(id == 0) {
+			//Ping e risposte servono solo ad aggiornare l'istante dell'ultima ricezione
+			if(type == ping && acceptor != null)
+				sendLine("0 " + ack);
+
+			return;
+		}
+
+		if(type == open) {
+			//Solo le connessioni in ingresso accettano nuovi link, e ogni identificativo può essere aperto una sola volta
+			if(acceptor == null || id <= lastId.get())
+				return;
+
+			lastId.set(id);
+
+			if(links.size() >= maxLinks) {
+				sendLine(id + " " + end);
+				return;
+			}
+
+			links.put(id, new ChannelLink(this, id));
+			return;
+		}
+
+		ChannelLink link = links.get(id);
+
+		//Le righe relative a link sconosciuti o già chiusi vengono ignorate
+		if(link == null)
+			return;
+
+		if(type == end) {
+			//Un link chiuso senza aver inviato alcuna riga non viene affidato ad alcun Service
+			if(acceptor != null && !link.isAccepted())
+				links.remove(id);
+			else
+				link.remoteEnd();
+
+			return;
+		}
+
+		if(type != data)
+			return;
+
+		link.deliver(frame.length() > sep + 3 ? frame.substring(sep + 3) : "");
+
+		if(acceptor != null && !link.isAccepted()) {
+			link.setAccepted();
+			acceptor.accept(link);
+		}
+	}
+
+	/**
+	 * Funzione che invia una riga all'altra parte. Le righe inviate da uno stesso thread devono arrivare nello stesso ordine,
+	 * e righe inviate da thread diversi non devono mescolarsi.
+	 * Se l'invio non è possibile la connessione va chiusa.
+	 */
+	protected abstract void sendLine(String line);
+
+	/**
+	 * Funzione che rilascia le risorse del trasporto (socket, buffer etc).
+	 */
+	protected abstract void closeTransport();
+}
@@ -0,0 +1,163 @@
+package controller;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utils.Constants;
+
+/**
+ * Link logico multiplexato su un {@link Channel}. Espone lo stesso comportamento di un Link su socket:
+ * {@link #hasNextLine()} resta in attesa finché non arriva una riga o l'altra parte non chiude il link (o la connessione).
+ * <br/>
+ * Un link sul quale non arriva nulla per {@link Constants#linkReadTimeout} ms viene chiuso, e un link che accumula più di
+ * {@link #maxQueuedChars} caratteri non ancora letti viene chiuso scartandoli: un terminale bloccato o che invia senza sosta
+ * non può quindi trattenere per sempre un thread né esaurire la memoria.
+ */
+class ChannelLink extends Link {
+	//Riga fittizia che segnala la chiusura del link da parte dell'altra parte, confrontata per identità
+	private static final String endOfLink = new String("");
+
+	//Separatori di riga riconosciuti da Scanner.nextLine, adoperato dai Link su socket
+	private static final String lineSeparators = "\r\n|[\n\r\u2028\u2029\u0085]";
+
+	//Caratteri accodati oltre i quali il link viene chiuso: una richiesta o una risposta occupa al più un paio di righe di lunghezza massima
+	static final long maxQueuedChars = 2L * Channel.maxLineLength;
+
+	private final Channel channel;
+	private final int id;
+
+	private final LinkedBlockingQueue<String> incoming = new LinkedBlockingQueue<>();
+	private final AtomicLong queuedChars = new AtomicLong(0);
+	private String next = null;
+	private boolean ended = false;
+	private volatile boolean closed = false;
+
+	//Impostato quando l'altra parte chiude il link o la connessione cade, anche se le righe ricevute non sono ancora state lette
+	private volatile boolean remoteEnded = false;
+
+	//Lato server: indica se il link è già stato affidato ad un Service (vedi Channel)
+	private boolean accepted = false;
+
+	ChannelLink(Channel channel, int id) {
+		super(channel.getIp());
+		this.channel = channel;
+		this.id = id;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	boolean isAccepted() {
+		return accepted;
+	}
+
+	void setAccepted() {
+		accepted = true;
+	}
+
+	@Override
+	public void write(Object message) {
+		if(closed)
+			return;
+
+		//Come per la println su socket, un messaggio su più righe viene ricevuto come più righe distinte
+		for(String line : String.valueOf(message).split(lineSeparators, -1))
+			channel.sendData(id, line);
+	}
+
+	@Override
+	public boolean hasNextLine() {
+		if(next != null)
+			return true;
+
+		if(ended)
+			return false;
+
+		try {
+			String line = incoming.poll(Constants.linkReadTimeout, TimeUnit.MILLISECONDS);
+
+			if(line == null) {
+				//L'altra parte non risponde: il link viene chiuso, così che nemmeno lei resti in attesa
+				ended = true;
+				close();
+				return false;
+			}
+
+			if(line == endOfLink) {
+				ended = true;
+				return false;
+			}
+
+			queuedChars.addAndGet(-line.length());
+			next = line;
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public String read() {
+		if(!hasNextLine())
+			throw new NoSuchElementException("No line found");
+
+		String line = next;
+		next = null;
+		return line;
+	}
+
+	@Override
+	public String waitNRead() {
+		return hasNextLine() ? read() : null;
+	}
+
+	/**
+	 * Il link risulta chiuso anche quando è l'altra parte ad averlo chiuso: chi scrive senza mai leggere (es. i lease dell'urna)
+	 * può così accorgersene.
+	 */
+	@Override
+	public boolean isClosed() {
+		return closed || remoteEnded || !channel.isOpen();
+	}
+
+	@Override
+	public void close() {
+		if(closed)
+			return;
+
+		closed = true;
+		channel.sendEnd(id);
+
+		//Un thread eventualmente in attesa di righe sul link viene sbloccato
+		incoming.add(endOfLink);
+	}
+
+	/**
+	 * Funzione richiamata dal Channel alla ricezione di una riga destinata al link.
+	 */
+	void deliver(String line) {
+		if(closed)
+			return;
+
+		if(queuedChars.addAndGet(line.length()) > maxQueuedChars) {
+			incoming.clear();
+			close();
+			return;
+		}
+
+		incoming.add(line);
+	}
+
+	/**
+	 * Funzione richiamata dal Channel quando l'altra parte chiude il link o la connessione cade.
+	 */
+	void remoteEnd() {
+		remoteEnded = true;
+		incoming.add(endOfLink);
+	}
+}
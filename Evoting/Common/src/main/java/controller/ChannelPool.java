@@ -0,0 +1,138 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import exceptions.CNNException;
+import exceptions.PEException;
+import utils.Constants;
+
+/**
+ * Insieme delle connessioni persistenti aperte da un terminale verso gli altri, una per ogni coppia ip-porta.
+ * Ogni {@link #connect(InetAddress, int, Integer, String) connect} apre un nuovo link logico sulla connessione esistente,
+ * riaprendola in modo trasparente se è caduta.
+ * <br/>
+ * Se la connessione verso un terminale non riesce, i tentativi successivi vengono rimandati con un intervallo che raddoppia
+ * ad ogni fallimento (da {@link #minBackoff} a {@link #maxBackoff} ms): nel frattempo le richieste verso quel terminale falliscono subito,
+ * senza attendere il timeout di connessione.
+ */
+class ChannelPool {
+	private static final long minBackoff = 100;
+	private static final long maxBackoff = 5000;
+
+	private final ConcurrentHashMap<InetSocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+	private final AtomicInteger opened = new AtomicInteger(0);
+	private volatile boolean closed = false;
+
+	/**
+	 * Funzione che restituisce un link verso il terminale indicato, con lo stesso comportamento del costruttore client di {@link Link}.
+	 * @param ip		L'indirizzo ip del terminale destinatario.
+	 * @param port		La porta del terminale destinatario.
+	 * @param timeout	Timeout per l'eventuale apertura della connessione (se null, quello di default).
+	 * @param error		Se non null, la connessione fallita comporta il lancio di un'eccezione; altrimenti viene restituito un link chiuso.
+	 * @return Il link verso il terminale.
+	 * @throws PEException Se non è possibile connettersi al terminale ed error non è null.
+	 */
+	Link connect(InetAddress ip, int port, Integer timeout, String error) throws PEException {
+		Endpoint endpoint = endpoints.computeIfAbsent(new InetSocketAddress(ip, port), Endpoint::new);
+
+		try {
+			return endpoint.getChannel(timeout).openLink();
+		}
+		catch (IOException e) {
+			if(error != null)
+				throw CNNException.CNN_1("terminale", ip.getHostAddress(), e);
+
+			return new Link(ip, null, null);
+		}
+	}
+
+	/**
+	 * @return Il numero di connessioni aperte dalla creazione del pool, comprese le riconnessioni.
+	 */
+	int getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Funzione che chiude tutte le connessioni e impedisce di aprirne di nuove.
+	 */
+	void close() {
+		closed = true;
+
+		for(Endpoint endpoint : new ArrayList<>(endpoints.values()))
+			endpoint.close();
+
+		endpoints.clear();
+	}
+
+	/**
+	 * Connessione verso un singolo terminale, con lo stato dei tentativi di riconnessione.
+	 * L'apertura avviene possedendo il lock sull'endpoint, così che le richieste concorrenti verso lo stesso terminale
+	 * attendano la stessa connessione, senza bloccare quelle verso gli altri terminali.
+	 */
+	private class Endpoint {
+		private final InetSocketAddress address;
+
+		private Channel channel = null;
+		private int failures = 0;
+		private long retryAt = 0;
+		private IOException lastError = null;
+
+		private Endpoint(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		private synchronized Channel getChannel(Integer timeout) throws IOException {
+			if(closed)
+				throw new IOException("Il server è stato spento");
+
+			if(channel != null && channel.isOpen())
+				return channel;
+
+			channel = null;
+
+			if(System.currentTimeMillis() < retryAt)
+				throw new IOException("Nuovo tentativo di connessione rimandato", lastError);
+
+			Socket socket = null;
+			try {
+				socket = Link.createSocket(address.getAddress(), address.getPort(), timeout, Constants.linkSSL);
+
+				StreamChannel opening = new StreamChannel(socket, null, null);
+				opening.start();
+
+				opened.incrementAndGet();
+				failures = 0;
+				retryAt = 0;
+				lastError = null;
+
+				channel = opening;
+				return channel;
+			}
+			catch (IOException e) {
+				if(socket != null)
+					try {
+						socket.close();
+					} catch (IOException ignored) {}
+
+				failures++;
+				retryAt = System.currentTimeMillis() + Math.min(maxBackoff, minBackoff << Math.min(failures - 1, 16));
+				lastError = e;
+				throw e;
+			}
+		}
+
+		private synchronized void close() {
+			if(channel != null)
+				channel.close();
+
+			channel = null;
+		}
+	}
+}
@@ -57,6 +57,13 @@ public class Link implements AutoCloseable {
 		in = new Scanner(socket.getInputStream());
 	}
 
+	//Costruttore per i link che non adoperano direttamente una socket (es. ChannelLink)
+	protected Link(InetAddress ip) {
+		socket = null;
+		this.ip = ip;
+		closed = false;
+	}
+
 	//Costruttore per il testing
 	public Link(InetAddress ip, Scanner in, PrintWriter out) {
 		socket = null;
@@ -0,0 +1,351 @@
+package controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * {@link Channel} in ingresso su una socket non bloccante, gestita dal selector di un {@link NioServer}.
+ * <br/>
+ * Letture, scritture e handshake SSL (tramite {@link SSLEngine}) vengono eseguiti solo dal thread del selector, quando la socket è pronta:
+ * le righe ricevute vengono smistate ai link, mentre quelle inviate dai Service vengono accodate e il selector viene avvisato.
+ * Nessun thread resta quindi bloccato in attesa di un terminale lento.
+ */
+class NioChannel extends Channel {
+	private static final int bufferSize = 16 * 1024;
+
+	//Limite oltre il quale la connessione viene chiusa: un terminale che non legge le risposte (per le righe troppo lunghe vedi Channel)
+	private static final long maxPendingBytes = 64 * 1024 * 1024;
+
+	private static final ByteBuffer empty = ByteBuffer.allocate(0);
+
+	private final NioServer server;
+	private final SocketChannel socket;
+	private final SelectionKey key;
+
+	//Null se la connessione non è cifrata
+	private final SSLEngine engine;
+
+	//Buffer adoperati solo dal thread del selector: dati ricevuti (cifrati e in chiaro), riga in costruzione e dati pronti per la socket
+	private ByteBuffer netIn;
+	private ByteBuffer appIn;
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+	private ByteBuffer netOut = empty;
+
+	//Righe in attesa di essere inviate, accodate dai Service
+	private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+	private long pendingBytes = 0;
+
+	/**
+	 * @param server	Il server il cui selector gestisce la connessione.
+	 * @param socket	La socket accettata, già non bloccante.
+	 * @param key		La chiave con cui la socket è registrata nel selector.
+	 * @param engine	L'SSLEngine lato server, o null se la connessione non è cifrata.
+	 * @param acceptor	Chi riceve i link aperti dall'altra parte.
+	 * @param onClose	Operazione da eseguire alla chiusura della connessione, o null.
+	 */
+	NioChannel(NioServer server, SocketChannel socket, SelectionKey key, SSLEngine engine, Acceptor acceptor, Consumer<Channel> onClose) {
+		super(socket.socket().getInetAddress(), acceptor, onClose);
+
+		this.server = server;
+		this.socket = socket;
+		this.key = key;
+		this.engine = engine;
+
+		if(engine != null) {
+			netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+		}
+		else {
+			appIn = ByteBuffer.allocate(bufferSize);
+		}
+	}
+
+	/**
+	 * Funzione richiamata dal selector quando la socket ha dati da leggere.
+	 */
+	void onReadable() throws IOException {
+		if(engine == null) {
+			if(socket.read(appIn) < 0) {
+				close();
+				return;
+			}
+
+			consume();
+			return;
+		}
+
+		if(socket.read(netIn) < 0) {
+			try {
+				engine.closeInbound();
+			} catch (SSLException ignored) {}
+
+			close();
+			return;
+		}
+
+		unwrap();
+	}
+
+	/**
+	 * Funzione richiamata dal selector quando la socket può accettare altri dati, o quando un Service ha accodato delle righe.
+	 */
+	void onWritable() throws IOException {
+		flush();
+
+		//Durante l'handshake i dati già ricevuti possono restare in attesa che venga inviata la risposta
+		if(engine != null && isOpen() && netIn.position() > 0)
+			unwrap();
+	}
+
+	@Override
+	protected void sendLine(String line) {
+		byte[] bytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+		boolean overflow;
+
+		synchronized(pending) {
+			pending.add(ByteBuffer.wrap(bytes));
+			pendingBytes += bytes.length;
+			overflow = pendingBytes > maxPendingBytes;
+		}
+
+		if(overflow)
+			close();
+		else
+			server.requestWrite(this);
+	}
+
+	@Override
+	protected void closeTransport() {
+		key.cancel();
+
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+
+	/**
+	 * Decifra i dati ricevuti, gestendo le fasi dell'handshake, e smista le righe complete.
+	 */
+	private void unwrap() throws IOException {
+		netIn.flip();
+
+		try {
+			while(isOpen()) {
+				HandshakeStatus status = engine.getHandshakeStatus();
+
+				if(status == HandshakeStatus.NEED_TASK) {
+					runTasks();
+					continue;
+				}
+
+				if(status == HandshakeStatus.NEED_WRAP) {
+					//La risposta dell'handshake viene inviata prima di proseguire; se la socket non la accetta si riprende in onWritable
+					flush();
+					if(engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+						break;
+
+					continue;
+				}
+
+				if(!netIn.hasRemaining())
+					break;
+
+				SSLEngineResult result = engine.unwrap(netIn, appIn);
+
+				switch(result.getStatus()) {
+					case OK:
+						consume();
+						if(result.bytesConsumed() == 0 && result.bytesProduced() == 0 && engine.getHandshakeStatus() == status)
+							return;
+						break;
+
+					case BUFFER_OVERFLOW:
+						//Le righe già decifrate vengono smistate, liberando il buffer (che viene ingrandito se la sessione lo richiede)
+						consume();
+						if(appIn.capacity() < engine.getSession().getApplicationBufferSize())
+							appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+						break;
+
+					case BUFFER_UNDERFLOW:
+						//Record incompleto: si attendono altri dati, eventualmente con un buffer più grande
+						if(netIn.capacity() < engine.getSession().getPacketBufferSize()) {
+							netIn.compact();
+							netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+							netIn.flip();
+						}
+						return;
+
+					case CLOSED:
+						close();
+						return;
+				}
+			}
+		}
+		finally {
+			if(isOpen())
+				netIn.compact();
+		}
+	}
+
+	/**
+	 * Invia quanto possibile dei dati in attesa, cifrandoli se necessario.
+	 * Se la socket non accetta altri dati viene richiesto al selector di avvisare quando sarà di nuovo scrivibile.
+	 */
+	private void flush() throws IOException {
+		while(isOpen()) {
+			if(netOut.hasRemaining()) {
+				socket.write(netOut);
+
+				if(netOut.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+
+			if(!fill()) {
+				key.interestOps(SelectionKey.OP_READ);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Prepara in netOut i prossimi dati da inviare.
+	 * @return False se non c'è altro da inviare (o se l'handshake attende dati dall'altra parte).
+	 */
+	private boolean fill() throws SSLException {
+		if(engine == null) {
+			ByteBuffer next = poll();
+			if(next == null)
+				return false;
+
+			netOut = next;
+			return true;
+		}
+
+		while(true) {
+			HandshakeStatus status = engine.getHandshakeStatus();
+			ByteBuffer source;
+
+			if(status == HandshakeStatus.NEED_TASK) {
+				runTasks();
+				continue;
+			}
+			else if(status == HandshakeStatus.NEED_WRAP) {
+				source = empty;
+			}
+			else if(status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED) {
+				source = peek();
+				if(source == null)
+					return false;
+			}
+			else {
+				return false;
+			}
+
+			if(netOut.capacity() < engine.getSession().getPacketBufferSize())
+				netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+
+			netOut.clear();
+			SSLEngineResult result = engine.wrap(source, netOut);
+			netOut.flip();
+
+			if(source != empty && !source.hasRemaining())
+				poll();
+
+			switch(result.getStatus()) {
+				case BUFFER_OVERFLOW:
+					netOut = ByteBuffer.allocate(netOut.capacity() * 2);
+					netOut.flip();
+					continue;
+
+				case CLOSED:
+					if(!netOut.hasRemaining())
+						close();
+					return netOut.hasRemaining();
+
+				default:
+					if(netOut.hasRemaining())
+						return true;
+
+					if(result.bytesConsumed() == 0)
+						return false;
+			}
+		}
+	}
+
+	/**
+	 * Aggiunge i dati in chiaro ricevuti alla riga in costruzione, e smista ogni riga completa.
+	 * Il carattere '\n' non compare mai all'interno di caratteri UTF-8 multibyte, per cui la divisione può avvenire sui byte.
+	 */
+	private void consume() {
+		appIn.flip();
+
+		byte[] bytes = appIn.array();
+		int start = appIn.position(), limit = appIn.limit();
+
+		for(int i = start; i < limit && isOpen(); i++) {
+			if(bytes[i] != '\n')
+				continue;
+
+			line.write(bytes, start, i - start);
+			start = i + 1;
+
+			byte[] frame = line.toByteArray();
+			line.reset();
+
+			int length = frame.length;
+			if(length > 0 && frame[length - 1] == '\r')
+				length--;
+
+			receive(new String(frame, 0, length, StandardCharsets.UTF_8));
+		}
+
+		line.write(bytes, start, limit - start);
+		appIn.clear();
+
+		if(line.size() > maxLineLength)
+			close();
+	}
+
+	private void runTasks() {
+		//I task dell'handshake (es. verifica dei certificati) vengono eseguiti dal thread del selector: sono rari, uno per connessione
+		Runnable task;
+		while((task = engine.getDelegatedTask()) != null)
+			task.run();
+	}
+
+	private ByteBuffer peek() {
+		synchronized(pending) {
+			return pending.peek();
+		}
+	}
+
+	private ByteBuffer poll() {
+		synchronized(pending) {
+			ByteBuffer next = pending.poll();
+			if(next != null)
+				pendingBytes -= next.capacity();
+
+			return next;
+		}
+	}
+
+	private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+		ByteBuffer enlarged = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+		buffer.flip();
+		enlarged.put(buffer);
+		return enlarged;
+	}
+}
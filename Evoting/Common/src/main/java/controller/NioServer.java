@@ -0,0 +1,248 @@
+package controller;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import exceptions.FLRException;
+import exceptions.PEException;
+import model.Terminals;
+import utils.Constants;
+
+/**
+ * Server reale non bloccante, alternativo a {@link Server}: tutte le connessioni in ingresso sono gestite da un unico thread
+ * tramite un selector NIO (con {@link SSLEngine} se le connessioni sono sicure), mentre i Service vengono eseguiti da un pool
+ * di dimensione fissa (o su virtual thread, vedi {@link Constants#virtualThreads}).
+ * <br/>
+ * Il protocollo è lo stesso delle connessioni persistenti di {@link Server} (vedi {@link Channel}), per cui i client non cambiano.
+ * Un Service viene creato solo quando sul suo link arriva la prima riga, e le righe ricevute vengono accodate al link dal selector:
+ * le connessioni aperte ma inattive, o i terminali lenti ad inviare una richiesta, non occupano thread del pool.
+ * In questo modo il numero di connessioni contemporanee è limitato solo dai descrittori disponibili, non dal numero di thread.
+ * <br/>
+ * I link in uscita sono gli stessi di {@link Server} (connessioni persistenti verso gli altri terminali).
+ */
+public class NioServer extends AbstrServer {
+	private final Selector selector;
+	private final ServerSocketChannel welcomeChannel;
+
+	//Null se le connessioni non sono cifrate
+	private final SSLContext sslContext;
+
+	private final ChannelPool outgoing = new ChannelPool();
+	private final Set<NioChannel> incoming = ConcurrentHashMap.newKeySet();
+
+	//Connessioni con righe accodate dai Service, da inviare dal thread del selector
+	private final Queue<NioChannel> writeRequests = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Costruttore, adopera il contesto SSL di default (configurato con keystore e truststore del terminale) se {@link Constants#linkSSL} è vero.
+	 * @param factory		La factory che produrrà i Service che gestiscono i link in ingresso.
+	 * @param port			La porta sulla quale il server si metterà in ascolto.
+	 * @param numWorkers	Dimensione del thread pool che eseguirà i Service (ignorata se si adoperano i virtual thread).
+	 * @param type			Tipo di terminale, adoperato come nome del thread server.
+	 * @throws PEException	Se non è possibile mettersi in ascolto sulla porta o accedere al keystore.
+	 */
+	public NioServer(ServiceFactory factory, int port, int numWorkers, Terminals.Type type) throws PEException {
+		this(factory, port, numWorkers, type, defaultContext());
+	}
+
+	/**
+	 * Costruttore con un contesto SSL esplicito.
+	 * @param factory		La factory che produrrà i Service che gestiscono i link in ingresso.
+	 * @param port			La porta sulla quale il server si metterà in ascolto.
+	 * @param numWorkers	Dimensione del thread pool che eseguirà i Service.
+	 * @param type			Tipo di terminale, adoperato come nome del thread server.
+	 * @param sslContext	Il contesto da cui ottenere gli SSLEngine, o null per connessioni non cifrate.
+	 * @throws PEException	Se non è possibile mettersi in ascolto sulla porta.
+	 */
+	protected NioServer(ServiceFactory factory, int port, int numWorkers, Terminals.Type type, SSLContext sslContext) throws PEException {
+		super(numWorkers, factory, type);
+
+		this.sslContext = sslContext;
+
+		try {
+			selector = Selector.open();
+			welcomeChannel = ServerSocketChannel.open();
+		}
+		catch(IOException e) {
+			throw FLRException.FLR_13(false, e);
+		}
+
+		try {
+			welcomeChannel.bind(new InetSocketAddress(port));
+			welcomeChannel.configureBlocking(false);
+			welcomeChannel.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		catch(BindException e) {
+			closeQuietly();
+			throw FLRException.FLR_13(port, e);
+		}
+		catch(IOException e) {
+			closeQuietly();
+			throw FLRException.FLR_13(false, e);
+		}
+	}
+
+	private static SSLContext defaultContext() throws PEException {
+		if(!Constants.linkSSL)
+			return null;
+
+		Server.configureSSL();
+
+		try {
+			return SSLContext.getDefault();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw FLRException.FLR_13(true, e);
+		}
+	}
+
+	/**
+	 * Crea un link logico sulla connessione persistente verso il terminale, aprendola (o riaprendola) se necessario.
+	 */
+	@Override
+	protected Link createLink(InetAddress ip, int port, Integer timeout, String error) throws PEException {
+		return outgoing.connect(ip, port, timeout, error);
+	}
+
+	/**
+	 * @return Il numero di connessioni in ingresso attualmente aperte.
+	 */
+	public int getIncomingConnections() {
+		return incoming.size();
+	}
+
+	/**
+	 * Un'iterazione del selector: accetta le nuove connessioni, legge i dati disponibili e invia quelli accodati dai Service.
+	 */
+	@Override
+	protected void exec() {
+		try {
+			selector.select();
+
+			NioChannel requested;
+			while((requested = writeRequests.poll()) != null)
+				handle(requested, false);
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if(!key.isValid())
+					continue;
+
+				if(key.isAcceptable()) {
+					accept();
+					continue;
+				}
+
+				NioChannel channel = (NioChannel) key.attachment();
+
+				if(key.isReadable())
+					handle(channel, true);
+
+				if(key.isValid() && key.isWritable())
+					handle(channel, false);
+			}
+		}
+		catch (ClosedSelectorException e) {
+			//Il server è stato spento
+		}
+		catch (IOException e) {
+			//se running è false abbiamo semplicemente chiuso il programma
+			//altrimenti c'è stato un problema imprevisto.
+			if(isRunning()) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Funzione richiamata da una connessione quando un Service accoda delle righe da inviare.
+	 */
+	void requestWrite(NioChannel channel) {
+		writeRequests.add(channel);
+		selector.wakeup();
+	}
+
+	@Override
+	protected void shutDownOps() {
+		outgoing.close();
+
+		for(NioChannel channel : incoming)
+			channel.close();
+
+		closeQuietly();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel socket = welcomeChannel.accept();
+		if(socket == null)
+			return;
+
+		try {
+			socket.configureBlocking(false);
+			socket.socket().setKeepAlive(true);
+			socket.socket().setTcpNoDelay(true);
+
+			SSLEngine engine = null;
+			if(sslContext != null) {
+				engine = sslContext.createSSLEngine();
+				engine.setUseClientMode(false);
+				engine.beginHandshake();
+			}
+
+			SelectionKey key = socket.register(selector, SelectionKey.OP_READ);
+			NioChannel channel = new NioChannel(this, socket, key, engine, this::serve, incoming::remove);
+			key.attach(channel);
+			incoming.add(channel);
+			channel.startKeepAlive();
+		}
+		catch (IOException e) {
+			socket.close();
+		}
+	}
+
+	private void handle(NioChannel channel, boolean readable) {
+		if(!channel.isOpen())
+			return;
+
+		try {
+			if(readable)
+				channel.onReadable();
+			else
+				channel.onWritable();
+		}
+		catch (IOException | CancelledKeyException e) {
+			//Connessione caduta (o chiusa da un Service) o handshake SSL fallito
+			channel.close();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			welcomeChannel.close();
+		} catch (IOException ignored) {}
+
+		try {
+			selector.close();
+		} catch (IOException ignored) {}
+	}
+}
@@ -4,7 +4,11 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.net.ssl.SSLServerSocketFactory;
 
 import exceptions.FLRException;
@@ -15,12 +19,19 @@ import utils.Constants;
 
 /**
  * Classe Server reale, gestisce connessioni sicure o non sicure a seconda del parametro enableSSL.
- * Inoltre permette di creare connessioni in uscita wrappando le socket nella classe Link.
+ * <br/>
+ * Le connessioni tra due terminali sono persistenti: ogni {@link Link} in uscita è un link logico multiplexato sulla connessione
+ * già aperta verso il destinatario (vedi {@link Channel} e {@link ChannelPool}), e ogni link aperto dall'altra parte
+ * su una connessione in ingresso viene affidato ad un nuovo Service.
  */
 public class Server extends AbstrServer {
 	//Porta sulla quale il server si mette in ascolto.
 	private ServerSocket welcomeSocket;
 	
+	//Connessioni in uscita, una per terminale destinatario, e connessioni in ingresso ancora aperte
+	private final ChannelPool outgoing = new ChannelPool();
+	private final Set<Channel> incoming = ConcurrentHashMap.newKeySet();
+	
 	/**
 	 * Costruttore
 	 * @param factory			La factory che produrrà i Service che gestiscono le connessioni in ingresso.
@@ -32,15 +43,8 @@ public class Server extends AbstrServer {
 	public Server(ServiceFactory factory, int port, int numConnections, Terminals.Type type) throws PEException {
 		super(numConnections, factory, type);
 		
-		//Se usiamo SSL dobbiamo indicare posizione e password di truststore e keystore,
-		//A meno che non si usino quelli di default della macchina (sconsigliato).
-		if(Constants.linkSSL) {
-			System.setProperty("javax.net.ssl.keyStore", "ssl/keystore.jks");
-			System.setProperty("javax.net.ssl.keyStorePassword", CfgManager.getPassword("ks"));
-			
-			System.setProperty("javax.net.ssl.trustStore", "ssl/truststore.jks");
-			System.setProperty("javax.net.ssl.trustStorePassword", CfgManager.getPassword("ts"));
-		}
+		if(Constants.linkSSL)
+			configureSSL();
 		
 		try {
 			//Se usiamo SSL vogliamo una ServerSocket SSL
@@ -65,22 +69,51 @@ public class Server extends AbstrServer {
 	}
 	
 	/**
-	 * Crea un link che è il wrapper di una socket.
+	 * Se usiamo SSL dobbiamo indicare posizione e password di truststore e keystore,
+	 * a meno che non si usino quelli di default della macchina (sconsigliato).
+	 * @throws PEException Se non è possibile leggere le password.
+	 */
+	static void configureSSL() throws PEException {
+		System.setProperty("javax.net.ssl.keyStore", "ssl/keystore.jks");
+		System.setProperty("javax.net.ssl.keyStorePassword", CfgManager.getPassword("ks"));
+		
+		System.setProperty("javax.net.ssl.trustStore", "ssl/truststore.jks");
+		System.setProperty("javax.net.ssl.trustStorePassword", CfgManager.getPassword("ts"));
+	}
+	
+	/**
+	 * Crea un link logico sulla connessione persistente verso il terminale, aprendola (o riaprendola) se necessario.
 	 */
 	@Override
 	protected Link createLink(InetAddress ip, int port, Integer timeout, String error) throws PEException {
-		return new Link(ip, port, timeout, error);
+		return outgoing.connect(ip, port, timeout, error);
+	}
+	
+	/**
+	 * @return Il numero di connessioni aperte verso gli altri terminali, comprese le riconnessioni.
+	 */
+	public int getOpenedConnections() {
+		return outgoing.getOpened();
 	}
 
 	/**
 	 * Funzione richiamata in risposta a una connessione in ingresso.
-	 * Viene richiamata la factory per produrre un Service che verrà eseguito-
+	 * La connessione viene affidata ad un {@link Channel}, che per ogni link aperto dall'altra parte
+	 * richiama la factory per produrre un Service che verrà eseguito.
 	 */
 	@Override
 	protected void exec() {
 		try {
-			//pool.execute(factory.createService(controller, welcomeSocket.accept()));
-			pool.execute(factory.createService(controller, new Link(welcomeSocket.accept()), "Server " + controller.getClass().toString()));
+			Socket socket = welcomeSocket.accept();
+			
+			try {
+				StreamChannel channel = new StreamChannel(socket, this::serve, incoming::remove);
+				incoming.add(channel);
+				channel.start();
+			}
+			catch (IOException e) {
+				socket.close();
+			}
 		} catch (IOException e) {
 			//se running è false abbiamo semplicemente chiuso il programma
 			//altrimenti c'è stato un problema imprevisto.
@@ -96,6 +129,11 @@ public class Server extends AbstrServer {
 	 */
 	@Override
 	protected void shutDownOps() {
+		outgoing.close();
+		
+		for(Channel channel : incoming)
+			channel.close();
+		
 		try {
 			if(welcomeSocket != null) {
 				welcomeSocket.close();
@@ -105,5 +143,4 @@ public class Server extends AbstrServer {
 			e.printStackTrace();
 		}
 	}
-
 }
@@ -0,0 +1,153 @@
+package controller;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * {@link Channel} su una socket bloccante, con un thread dedicato che legge le righe in arrivo e le smista ai link.
+ * Adoperata per tutte le connessioni in uscita e per quelle in ingresso del {@link Server}.
+ */
+class StreamChannel extends Channel {
+	private final Socket socket;
+	private final Reader in;
+	private final PrintWriter out;
+	private final Thread reader;
+	private final ReentrantLock sending = new ReentrantLock();
+
+	//Adoperati solo dal thread di lettura: caratteri ricevuti e riga in costruzione
+	private final char[] buffer = new char[8192];
+	private int position = 0, limit = 0;
+	private final StringBuilder partial = new StringBuilder();
+
+	/**
+	 * @param socket	La socket già connessa.
+	 * @param acceptor	Chi riceve i link aperti dall'altra parte, o null se la connessione è stata aperta da questo terminale.
+	 * @param onClose	Operazione da eseguire alla chiusura della connessione, o null.
+	 * @throws IOException Se non è possibile ottenere gli stream della socket.
+	 */
+	StreamChannel(Socket socket, Acceptor acceptor, Consumer<Channel> onClose) throws IOException {
+		super(socket.getInetAddress(), acceptor, onClose);
+
+		this.socket = socket;
+
+		socket.setKeepAlive(true);
+		in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+		out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+
+		reader = new Thread(this::read, "Channel " + socket.getInetAddress().getHostAddress());
+		reader.setDaemon(true);
+
+		if(acceptor == null)
+			sendLine(hello);
+	}
+
+	/**
+	 * Avvia il thread che legge le righe in arrivo.
+	 */
+	void start() {
+		reader.start();
+		startKeepAlive();
+	}
+
+	private void read() {
+		try {
+			String frame;
+			while(isOpen() && (frame = readFrame()) != null)
+				receive(frame);
+		}
+		catch (IOException ignored) {
+			//La connessione è stata chiusa o è caduta: i link aperti vengono terminati dalla close
+		}
+		finally {
+			close();
+		}
+	}
+
+	/**
+	 * Legge la prossima riga, terminata da '\n' (eventualmente preceduto da '\r').
+	 * @return La riga, o null se la connessione è terminata.
+	 * @throws IOException Se la lettura fallisce o la riga supera {@link Channel#maxLineLength} caratteri.
+	 */
+	private String readFrame() throws IOException {
+		partial.setLength(0);
+
+		while(true) {
+			if(position == limit) {
+				int read = in.read(buffer);
+				if(read < 0)
+					return null;
+
+				position = 0;
+				limit = read;
+			}
+
+			for(int i = position; i < limit; i++) {
+				if(buffer[i] != '\n')
+					continue;
+
+				partial.append(buffer, position, i - position);
+				position = i + 1;
+
+				int length = partial.length();
+				if(length > 0 && partial.charAt(length - 1) == '\r')
+					partial.setLength(length - 1);
+
+				return partial.toString();
+			}
+
+			partial.append(buffer, position, limit - position);
+			position = limit;
+
+			if(partial.length() > maxLineLength)
+				throw new IOException("Riga troppo lunga");
+		}
+	}
+
+	@Override
+	protected void sendLine(String line) {
+		boolean failed;
+
+		sending.lock();
+		try {
+			out.print(line);
+			out.print('\n');
+			out.flush();
+			failed = out.checkError();
+		}
+		finally {
+			sending.unlock();
+		}
+
+		if(failed)
+			close();
+	}
+
+	@Override
+	protected void sendPing(String line) {
+		//Il thread di keepalive non attende un invio in corso, che potrebbe essere bloccato da un terminale che non legge più:
+		//sarà la chiusura per inattività a sbloccarlo
+		if(!sending.tryLock())
+			return;
+
+		try {
+			sendLine(line);
+		}
+		finally {
+			sending.unlock();
+		}
+	}
+
+	@Override
+	protected void closeTransport() {
+		try {
+			socket.close();
+		} catch (IOException ignored) {}
+	}
+}
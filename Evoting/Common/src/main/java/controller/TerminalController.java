@@ -2,12 +2,9 @@ package controller;
 
 import java.net.InetAddress;
 
-import exceptions.CNNException;
 import exceptions.PEException;
-import model.Message;
 import model.Terminals;
 import rfid.RfidCardReader;
-import utils.Constants;
 import utils.Protocol;
 import view.ViewInterface;
 
@@ -20,7 +17,7 @@ public abstract class TerminalController extends AbstrController {
 	//Server adoperato (Server reale o TestServer per lo unitTesting)
 	protected AbstrServer server;
 	
-	protected UrnPolling urnThread;
+	protected UrnLease urnThread;
 	
 	//Lettore RFID
 	protected CardReader cardReader;
@@ -69,35 +66,6 @@ public abstract class TerminalController extends AbstrController {
 		}
 	}
 	
-	public boolean checkAuthentication(InetAddress urnIp, Terminals.Type type) {
-		Message request = new Message(Protocol.checkTerminalAuthentication);
-		request.setElement("terminal", type);
-		
-		Message response = null;
-		try (Link link = createLink(urnIp, Constants.portUrn, 250, null)) {			
-			if(link.isClosed())
-				throw CNNException.CNN_3("urna", urnIp.getHostAddress());
-			
-			link.write(Protocol.checkTerminalAuthentication);
-			link.write(request.toB64());
-			
-			if(!link.hasNextLine())
-				throw CNNException.CNN_3("urna", urnIp.getHostAddress());
-
-			response = (Message) Message.fromB64(link.read(), "urna");
-		}
-		catch(Exception e) {
-			System.err.println("Impossibile comunicare con l'urna");
-		}
-		
-		//Non dovrebbe succedere mai, ma se l'urna non ritorna risposta e non viene lanciata eccezione,
-		// assumiamo temporaneamente che il terminale sia ancora autenticato
-		if(response == null)
-			return true;
-		
-		return response.getValue().equals(Protocol.authenticatedAck);
-	}
-	
 	/**
 	 * Restituisce il card reader del controller.
 	 * @return il card reader del controller.
@@ -152,9 +120,26 @@ public abstract class TerminalController extends AbstrController {
 	}
 	*/
 	
+	/**
+	 * Funzione che avvia il lease del terminale presso l'urna (vedi {@link UrnLease}), terminando l'eventuale lease precedente.
+	 * @param urnIp	L'indirizzo dell'urna.
+	 * @param type	Il tipo del terminale.
+	 */
+	protected void startUrnThread(InetAddress urnIp, Terminals.Type type) {
+		stopUrnThread();
+		
+		urnThread = new UrnLease(urnIp, this, type);
+		urnThread.start();
+	}
+	
 	protected void stopUrnThread() {
 		if(urnThread != null) {
 			urnThread.shutDown();
+			
+			//La disattivazione del terminale può essere richiesta dal lease stesso
+			if(urnThread == Thread.currentThread())
+				return;
+			
 			try {
 				urnThread.join();
 			} catch(InterruptedException ignored) { }
@@ -223,6 +208,11 @@ public abstract class TerminalController extends AbstrController {
 	
 	protected abstract void invalidAuthentication();
 	
+	/**
+	 * Funzione richiamata dal lease quando l'urna segnala il proprio spegnimento (vedi {@link Protocol#urnShutDown}).
+	 */
+	protected abstract void urnShutDown();
+	
 	/**
 	 * Funzione richiamata dai service per verificare se l'IP del terminale che ha aperto la connessione corrisponda a quello noto dell'urna.
 	 * @param ip Ip da verificare
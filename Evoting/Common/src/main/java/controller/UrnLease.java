@@ -0,0 +1,217 @@
+package controller;
+
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import exceptions.PEException;
+import model.Message;
+import model.Terminals;
+import utils.Constants;
+import utils.Protocol;
+
+/**
+ * Thread che mantiene il lease del terminale presso l'urna, verificando che l'urna riconosca ancora il terminale come autenticato.
+ * <br/>
+ * Il terminale apre verso l'urna un link persistente ({@link Protocol#urnLeaseReq}), indicando ogni quanto vuole ricevere un heartbeat.
+ * L'urna risponde con l'esito della verifica dell'autenticazione e da quel momento invia gli heartbeat sul link, sul quale notifica
+ * immediatamente anche il proprio spegnimento o la disattivazione del terminale: non è quindi necessario interrogarla periodicamente.
+ * <br/>
+ * Se per la durata del lease non arriva alcuna riga, o se il link cade, il collegamento con l'urna è considerato perso e il lease
+ * viene richiesto nuovamente (verificando di nuovo l'autenticazione). Finché l'urna non è raggiungibile il terminale resta attivo.
+ */
+public class UrnLease extends Thread {
+	//Riga fittizia che segnala la chiusura del link, confrontata per identità
+	private static final String endOfLease = new String("");
+
+	private final InetAddress urnIp;
+	private final TerminalController controller;
+	private final Terminals.Type terminalType;
+	private final long timeout;
+
+	private volatile boolean running = true;
+	private volatile Link link = null;
+
+	/**
+	 * Costruttore, con la durata del lease indicata da {@link Constants#urnLeaseTimeout}.
+	 * @param urnIp			L'indirizzo dell'urna.
+	 * @param controller	Il controller del terminale, da avvisare se l'urna non lo riconosce più o viene spenta.
+	 * @param type			Il tipo del terminale.
+	 */
+	public UrnLease(InetAddress urnIp, TerminalController controller, Terminals.Type type) {
+		this(urnIp, controller, type, Constants.urnLeaseTimeout);
+	}
+
+	/**
+	 * Costruttore.
+	 * @param urnIp			L'indirizzo dell'urna.
+	 * @param controller	Il controller del terminale, da avvisare se l'urna non lo riconosce più o viene spenta.
+	 * @param type			Il tipo del terminale.
+	 * @param timeout		Durata del lease (ms), ovvero il tempo oltre il quale il terminale considera persa l'urna.
+	 */
+	public UrnLease(InetAddress urnIp, TerminalController controller, Terminals.Type type, long timeout) {
+		super("Urn Lease " + type);
+		this.urnIp = urnIp;
+		this.controller = controller;
+		this.terminalType = type;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return L'intervallo (ms) tra due heartbeat richiesto all'urna, pari ad un terzo della durata del lease.
+	 */
+	public int getHeartbeat() {
+		return (int) Math.max(1, timeout / 3);
+	}
+
+	@Override
+	public void run() {
+		while(running) {
+			if(!hold())
+				return;
+
+			//Prima di richiedere nuovamente il lease si attende un heartbeat, per non sovraccaricare un'urna in difficoltà
+			try {
+				Thread.sleep(getHeartbeat());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Richiede il lease all'urna e lo mantiene finché è valido.
+	 * @return False se il lease non va più richiesto (terminale disattivato o in fase di spegnimento), true se il collegamento è stato perso.
+	 */
+	private boolean hold() {
+		Link current;
+		try {
+			current = controller.createLink(urnIp, Constants.portUrn, 250, null);
+		}
+		catch (PEException e) {
+			current = null;
+		}
+
+		if(current == null || current.isClosed()) {
+			System.err.println("Impossibile comunicare con l'urna");
+			return running;
+		}
+
+		link = current;
+
+		//Se il thread è stato fermato durante l'apertura, la shutDown potrebbe non aver visto il link
+		if(!running) {
+			release(current);
+			return false;
+		}
+
+		Message request = new Message(Protocol.urnLeaseReq);
+		request.setElement("terminal", terminalType);
+		request.setElement("heartbeat", getHeartbeat());
+
+		current.write(Protocol.urnLeaseReq);
+		current.write(request.toB64());
+
+		BlockingQueue<String> lines = read(current);
+
+		try {
+			String grant = lines.poll(timeout, TimeUnit.MILLISECONDS);
+			if(grant == null || grant == endOfLease) {
+				System.err.println("Impossibile comunicare con l'urna");
+				return running;
+			}
+
+			Message response = (Message) Message.fromB64(grant, "urna");
+			if(!Protocol.authenticatedAck.equals(response.getValue())) {
+				controller.invalidAuthentication();
+				return false;
+			}
+
+			while(running) {
+				String line = lines.poll(timeout, TimeUnit.MILLISECONDS);
+
+				//Lease scaduto o link caduto
+				if(line == null || line == endOfLease) {
+					System.err.println("Collegamento con l'urna perso");
+					return running;
+				}
+
+				switch(line) {
+					case Protocol.urnShutDown:
+						controller.urnShutDown();
+						return false;
+
+					case Protocol.authenticatedNack:
+						controller.invalidAuthentication();
+						return false;
+
+					default:
+						//Heartbeat: il lease è ancora valido
+				}
+			}
+
+			return false;
+		}
+		catch (InterruptedException e) {
+			return false;
+		}
+		catch (PEException e) {
+			System.err.println("Risposta non valida dall'urna");
+			return running;
+		}
+		finally {
+			release(current);
+		}
+	}
+
+	/**
+	 * Avvia un thread che legge le righe ricevute sul link, così che il lease possa attenderle con un timeout.
+	 * Al termine del link viene aggiunta la riga {@link #endOfLease}.
+	 */
+	private BlockingQueue<String> read(Link current) {
+		BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+
+		Thread reader = new Thread(() -> {
+			try {
+				while(current.hasNextLine())
+					lines.add(current.read());
+			}
+			catch (RuntimeException e) {
+				//Link chiuso durante la lettura
+			}
+
+			lines.add(endOfLease);
+		}, getName() + " Reader");
+
+		reader.setDaemon(true);
+		reader.start();
+
+		return lines;
+	}
+
+	/**
+	 * Chiude il link del lease. La chiusura può dover attendere che il thread di lettura rilasci il link (ad esempio se il link
+	 * non è su socket), per cui viene eseguita da un thread a parte senza ritardare il lease o il terminale.
+	 */
+	private void release(Link current) {
+		Thread closer = new Thread(current::close, getName() + " Closer");
+		closer.setDaemon(true);
+		closer.start();
+	}
+
+	/**
+	 * Termina il lease, chiudendo il link con l'urna.
+	 */
+	public void shutDown() {
+		running = false;
+
+		Link current = link;
+		if(current != null)
+			release(current);
+
+		//Se è il lease stesso a disattivare il terminale non va interrotto, perché deve ancora completare la disattivazione
+		if(Thread.currentThread() != this)
+			this.interrupt();
+	}
+}
@@ -5,9 +5,11 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.List;
 
 import exceptions.CSTException;
 import exceptions.DBException;
@@ -16,15 +18,26 @@ import exceptions.PEException;
 
 public class ConnectionManager implements AutoCloseable {
 	private String connectionString;
+	private ConnectionPool pool = null;
+	private PooledConnection pooled = null;
 	
 	private Connection connection = null;
 	private ArrayList<PreparedStatement> statements = new ArrayList<>();
 	private ArrayList<ResultSet> results = new ArrayList<>();
+	private boolean inTransaction = false;
 	
 	public ConnectionManager(String connString) {
 		this.connectionString = connString;
 	}
 	
+	/**
+	 * Crea un ConnectionManager che ottiene la connessione dal pool indicato e ve la restituisce alla chiusura.
+	 * @param pool Il pool da cui ottenere la connessione.
+	 */
+	public ConnectionManager(ConnectionPool pool) {
+		this.pool = pool;
+	}
+	
 	public void connect() throws PEException {
 		if(connection != null) {
 			System.err.println("Connection to the DB has already been established.");
@@ -32,7 +45,13 @@ public class ConnectionManager implements AutoCloseable {
 		}
 		
 		try {
-			connection = DriverManager.getConnection(connectionString);
+			if(pool != null) {
+				pooled = pool.acquire();
+				connection = pooled.getConnection();
+			}
+			else
+				connection = DriverManager.getConnection(connectionString);
+			
 			statements = new ArrayList<>();
 			results = new ArrayList<>();
 		} catch(SQLException e) {
@@ -54,6 +73,29 @@ public class ConnectionManager implements AutoCloseable {
 		}
 	}
 	
+	/**
+	 * Funzione che esegue una query restituendo un ResultSet che recupera le righe dal DB a blocchi di <i>fetchSize</i>, 
+	 * anziché caricarle tutte in memoria. Il ResultSet va letto in avanti, una sola volta.
+	 * @param query		La query da eseguire.
+	 * @param fetchSize	Il numero di righe da recuperare dal DB ad ogni blocco.
+	 * @param args		I parametri della query.
+	 * @return Il ResultSet da scorrere.
+	 * @throws PEException Se l'esecuzione della query fallisce.
+	 */
+	@SuppressWarnings("exports")
+	public ResultSet executeStreamingQuery(String query, int fetchSize, Object...args) throws PEException {
+		PreparedStatement stm = createStatement(query, args);
+		
+		try {
+			stm.setFetchSize(fetchSize);
+			ResultSet rs = stm.executeQuery();
+			results.add(rs);
+			return rs;
+		} catch (SQLException e) {
+			throw DBException.DB_0(e);
+		}
+	}
+	
 	public int executeUpdate(String update, Object...args) throws PEException {
 		PreparedStatement stm = createStatement(update, args);
 		
@@ -64,12 +106,41 @@ public class ConnectionManager implements AutoCloseable {
 		}
 	}
 	
+	/**
+	 * Funzione che esegue la stessa query di aggiornamento per ciascuna riga di parametri, inviandole al DB come un unico batch.
+	 * @param update	La query da eseguire.
+	 * @param rows		I parametri di ciascuna esecuzione.
+	 * @return Il numero di righe modificate da ciascuna esecuzione.
+	 * @throws PEException Se l'esecuzione del batch fallisce.
+	 */
+	public int[] executeBatch(String update, List<Object[]> rows) throws PEException {
+		if(rows.isEmpty())
+			return new int[0];
+		
+		PreparedStatement stm = createStatement(update);
+		
+		try {
+			//Uno statement in cache potrebbe conservare il batch di un'esecuzione fallita
+			stm.clearBatch();
+			
+			for(Object[] args : rows) {
+				setParameters(stm, args);
+				stm.addBatch();
+			}
+			
+			return stm.executeBatch();
+		} catch (SQLException e) {
+			throw DBException.DB_0(e);
+		}
+	}
+	
 	public void startTransaction() throws PEException {	
 		if (connection == null)
 			throw DEVException.DEV_09();
 		
 		try {
-			connection.createStatement().execute("START TRANSACTION;");
+			execute("START TRANSACTION;");
+			inTransaction = true;
 		} catch (SQLException e) {
 			throw DBException.DB_03(e);
 		}
@@ -80,7 +151,8 @@ public class ConnectionManager implements AutoCloseable {
 			throw DEVException.DEV_09();
 		
 		try {
-			connection.createStatement().execute("COMMIT;");
+			execute("COMMIT;");
+			inTransaction = false;
 		} catch (SQLException e) {
 			throw DBException.DB_03(e);
 		}
@@ -91,12 +163,17 @@ public class ConnectionManager implements AutoCloseable {
 			throw DEVException.DEV_09();
 		
 		try {
-			connection.createStatement().execute("ROLLBACK;");
+			execute("ROLLBACK;");
+			inTransaction = false;
 		} catch (SQLException e) {
 			throw DBException.DB_03(e);
 		}
 	}
 	
+	/**
+	 * Chiude result set e statement aperti. Se la connessione proviene da un pool vi viene restituita
+	 * (annullando un'eventuale transazione lasciata aperta), altrimenti viene chiusa.
+	 */
 	@Override
 	public void close() throws PEException {
 		try {
@@ -113,15 +190,39 @@ public class ConnectionManager implements AutoCloseable {
 				}
 			}
 			
-			if (connection != null)
-				connection.close();
+			if (connection != null) {
+				if(pooled != null) {
+					if(inTransaction)
+						execute("ROLLBACK;");
+				}
+				else
+					connection.close();
+			}
+			
+		} catch (SQLException e) {
+			//Una connessione in stato incerto non deve tornare nel pool
+			if(pooled != null) {
+				pooled.closePhysically();
+			}
+			
+			throw DBException.DB_02(e);
+		} finally {
+			if(pooled != null) {
+				pool.release(pooled);
+			}
 			
 			results = null;
 			statements = null;
 			connection = null;
-			
-		} catch (SQLException e) {
-			throw DBException.DB_02(e);
+			pooled = null;
+			inTransaction = false;
+		}
+	}
+	
+	//Esegue un comando di controllo della transazione, chiudendo subito lo statement: le connessioni del pool restano aperte a lungo
+	private void execute(String command) throws SQLException {
+		try (Statement stm = connection.createStatement()) {
+			stm.execute(command);
 		}
 	}
 	
@@ -130,55 +231,68 @@ public class ConnectionManager implements AutoCloseable {
 			throw DEVException.DEV_09();
 		
 		try {
-			PreparedStatement stm = connection.prepareStatement(sql);
-			
-			int x = 1;
-			for(Object arg : args) {
-				
-				Class<?> c = arg.getClass();
-				
-				boolean typeFound = false;
-				
-				if( typeFound = c == String.class ) {
-					stm.setString(x, (String) arg);
-				}
-				
-				if( !typeFound && (typeFound |= (c == Integer.class || c == int.class)) ) {
-					stm.setInt(x, (Integer) arg);
-				}
-				
-				if( !typeFound && (typeFound |= (c == byte[].class)) ) {
-					stm.setBytes(x, (byte[]) arg);
-				}
-				
-				if( !typeFound && (typeFound |= (c == java.sql.Date.class)) ) {
-					stm.setDate(x, (java.sql.Date) arg);
-				}
-
-				if( !typeFound && (typeFound |= (c == LocalDate.class)) ) {
-					stm.setDate(x, java.sql.Date.valueOf((LocalDate) arg));
-				}
-
-				if( !typeFound && (typeFound |= (c == LocalDateTime.class)) ) {
-					stm.setTimestamp(x, java.sql.Timestamp.valueOf((LocalDateTime) arg));
-				}
-				
-				if( !typeFound && (typeFound |= (c == java.sql.Timestamp.class)) ) {
-					stm.setTimestamp(x, (java.sql.Timestamp) arg);
-				}
-				
-				if( !typeFound ) {
-					throw CSTException.CST_01(c);
-				}
-				
-				x++;
+			//Le connessioni del pool riutilizzano gli statement già preparati, chiusi solo alla chiusura della connessione
+			PreparedStatement stm = pooled != null ? pooled.prepareStatement(sql) : null;
+			
+			//Senza pool, o se lo statement in cache ha ancora un ResultSet aperto, se ne prepara uno da chiudere con questo manager
+			if(stm == null) {
+				stm = connection.prepareStatement(sql);
+				statements.add(stm);
 			}
 			
-			statements.add(stm);
+			setParameters(stm, args);
+			
 			return stm;
 			
 		} catch (SQLException e) {
 			throw DBException.DB_03(e);
 		}
 	}
+	
+	/**
+	 * Funzione che assegna i parametri allo statement, in base al loro tipo.
+	 */
+	private void setParameters(PreparedStatement stm, Object... args) throws SQLException, PEException {
+		int x = 1;
+		for(Object arg : args) {
+			
+			Class<?> c = arg.getClass();
+			
+			boolean typeFound = false;
+			
+			if( typeFound = c == String.class ) {
+				stm.setString(x, (String) arg);
+			}
+			
+			if( !typeFound && (typeFound |= (c == Integer.class || c == int.class)) ) {
+				stm.setInt(x, (Integer) arg);
+			}
+			
+			if( !typeFound && (typeFound |= (c == byte[].class)) ) {
+				stm.setBytes(x, (byte[]) arg);
+			}
+			
+			if( !typeFound && (typeFound |= (c == java.sql.Date.class)) ) {
+				stm.setDate(x, (java.sql.Date) arg);
+			}
+
+			if( !typeFound && (typeFound |= (c == LocalDate.class)) ) {
+				stm.setDate(x, java.sql.Date.valueOf((LocalDate) arg));
+			}
+
+			if( !typeFound && (typeFound |= (c == LocalDateTime.class)) ) {
+				stm.setTimestamp(x, java.sql.Timestamp.valueOf((LocalDateTime) arg));
+			}
+			
+			if( !typeFound && (typeFound |= (c == java.sql.Timestamp.class)) ) {
+				stm.setTimestamp(x, (java.sql.Timestamp) arg);
+			}
+			
+			if( !typeFound ) {
+				throw CSTException.CST_01(c);
+			}
+			
+			x++;
+		}
+	}
 }
@@ -0,0 +1,264 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import exceptions.DBException;
+import exceptions.PEException;
+
+/**
+ * Pool limitato di connessioni al DB. Evita di ripetere handshake (ed eventuale negoziazione SSL)
+ * ad ogni richiesta, riutilizzando le connessioni restituite dai {@link ConnectionManager}.
+ * <br/>
+ * Le connessioni inattive da più di <i>idleTimeout</i> ms o aperte da più di <i>maxLifetime</i> ms
+ * vengono chiuse; quelle rimaste inutilizzate per più di {@link #validationInterval} ms sono validate prima di essere riconsegnate.
+ * Se tutte le connessioni sono in uso, la richiesta attende al massimo <i>acquireTimeout</i> ms prima di fallire.
+ */
+public class ConnectionPool {
+	/**
+	 * Tempo (in ms) di inattività oltre il quale una connessione viene validata prima dell'uso.
+	 */
+	private static final long validationInterval = 1000;
+
+	/**
+	 * Tempo massimo (in secondi) concesso al DB per rispondere alla validazione.
+	 */
+	private static final int validationTimeout = 2;
+
+	private final String connectionString;
+	private final int maxSize;
+	private final long acquireTimeout, idleTimeout, maxLifetime;
+
+	private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+	private int active = 0, pending = 0;
+
+	private long acquisitions = 0, timeouts = 0, totalWait = 0, maxWait = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param connectionString	La stringa JDBC con cui aprire le connessioni.
+	 * @param maxSize			Numero massimo di connessioni aperte contemporaneamente.
+	 * @param acquireTimeout	Attesa massima (ms) per ottenere una connessione.
+	 * @param idleTimeout		Inattività massima (ms) di una connessione prima di essere chiusa.
+	 * @param maxLifetime		Durata massima (ms) di una connessione, trascorsa la quale viene sostituita.
+	 */
+	public ConnectionPool(String connectionString, int maxSize, long acquireTimeout, long idleTimeout, long maxLifetime) {
+		this.connectionString = connectionString;
+		this.maxSize = maxSize;
+		this.acquireTimeout = acquireTimeout;
+		this.idleTimeout = idleTimeout;
+		this.maxLifetime = maxLifetime;
+	}
+
+	/**
+	 * Funzione che restituisce una connessione valida, riutilizzandone una inattiva o aprendone una nuova
+	 * se il limite del pool non è stato raggiunto. Altrimenti attende che una connessione venga restituita.
+	 * @return La connessione ottenuta.
+	 * @throws PEException Se non è possibile connettersi al DB o se l'attesa supera il timeout.
+	 */
+	PooledConnection acquire() throws PEException {
+		long start = System.currentTimeMillis();
+		long deadline = start + acquireTimeout;
+
+		while(true) {
+			PooledConnection candidate = null;
+			boolean create = false;
+
+			synchronized(this) {
+				while(!closed && idle.isEmpty() && active + pending >= maxSize) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						timeouts++;
+						throw DBException.DB_16(acquireTimeout);
+					}
+
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw DBException.DB_01(e);
+					}
+				}
+
+				if(closed)
+					throw DBException.DB_01(new SQLException("Il pool di connessioni è stato chiuso"));
+
+				candidate = idle.pollFirst();
+				create = candidate == null;
+				pending++;
+			}
+
+			//La validazione e l'apertura delle connessioni avvengono fuori dal lock, in quanto comportano comunicazioni col DB
+			PooledConnection pc = create ? open() : (isUsable(candidate) ? candidate : null);
+
+			synchronized(this) {
+				pending--;
+
+				if(pc == null) {
+					//La connessione inattiva non è più utilizzabile, si libera il posto e si riprova
+					notify();
+					continue;
+				}
+
+				active++;
+
+				long wait = System.currentTimeMillis() - start;
+				acquisitions++;
+				totalWait += wait;
+				maxWait = Math.max(maxWait, wait);
+			}
+
+			return pc;
+		}
+	}
+
+	/**
+	 * Funzione che restituisce una connessione al pool. Le connessioni chiuse, scadute o in eccesso vengono chiuse fisicamente.
+	 * @param pc La connessione da restituire.
+	 */
+	void release(PooledConnection pc) {
+		boolean discard;
+
+		synchronized(this) {
+			active--;
+			pc.touch();
+
+			discard = closed || isExpired(pc, pc.getLastUsed()) || isClosed(pc);
+			if(!discard)
+				idle.offerFirst(pc);
+
+			evictIdle();
+			notify();
+		}
+
+		if(discard)
+			pc.closePhysically();
+	}
+
+	/**
+	 * Funzione che chiude tutte le connessioni inattive e impedisce l'apertura di nuove connessioni.
+	 * Le connessioni ancora in uso vengono chiuse al momento della loro restituzione.
+	 */
+	public void close() {
+		ArrayDeque<PooledConnection> toClose;
+
+		synchronized(this) {
+			closed = true;
+			toClose = new ArrayDeque<>(idle);
+			idle.clear();
+			notifyAll();
+		}
+
+		for(PooledConnection pc : toClose)
+			pc.closePhysically();
+	}
+
+	public synchronized int getActive() {
+		return active;
+	}
+
+	public synchronized int getIdle() {
+		return idle.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getAcquisitions() {
+		return acquisitions;
+	}
+
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return L'attesa media (ms) per ottenere una connessione.
+	 */
+	public synchronized double getAverageWait() {
+		return acquisitions == 0 ? 0 : (double) totalWait / acquisitions;
+	}
+
+	/**
+	 * @return L'attesa massima (ms) registrata per ottenere una connessione.
+	 */
+	public synchronized long getMaxWait() {
+		return maxWait;
+	}
+
+	private PooledConnection open() throws PEException {
+		try {
+			return new PooledConnection(DriverManager.getConnection(connectionString));
+		} catch (SQLException e) {
+			synchronized(this) {
+				pending--;
+				notify();
+			}
+			throw DBException.DB_01(e);
+		}
+	}
+
+	/**
+	 * Funzione che verifica se una connessione inattiva può essere riconsegnata.
+	 * Le connessioni non utilizzabili vengono chiuse fisicamente.
+	 */
+	private boolean isUsable(PooledConnection pc) {
+		long now = System.currentTimeMillis();
+
+		if(isExpired(pc, now)) {
+			pc.closePhysically();
+			return false;
+		}
+
+		if(now - pc.getLastUsed() > validationInterval) {
+			try {
+				if(!pc.getConnection().isValid(validationTimeout)) {
+					pc.closePhysically();
+					return false;
+				}
+			} catch (SQLException e) {
+				pc.closePhysically();
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean isExpired(PooledConnection pc, long now) {
+		return now - pc.getCreatedAt() > maxLifetime;
+	}
+
+	private boolean isClosed(PooledConnection pc) {
+		Connection connection = pc.getConnection();
+
+		try {
+			return connection.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Funzione che chiude le connessioni inattive da più di <i>idleTimeout</i> ms.
+	 * Le connessioni meno recenti si trovano in coda alla lista, pertanto ci si ferma alla prima ancora valida.
+	 * Va invocata possedendo il lock sul pool.
+	 */
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> it = idle.descendingIterator();
+
+		while(it.hasNext()) {
+			PooledConnection pc = it.next();
+			if(now - pc.getLastUsed() <= idleTimeout && !isExpired(pc, now))
+				break;
+
+			it.remove();
+			pc.closePhysically();
+		}
+	}
+}
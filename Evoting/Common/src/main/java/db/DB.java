@@ -81,4 +81,18 @@ public class DB {
 		
 		return rsaKey;
 	}
+	
+	/**
+	 * @return Il pool di connessioni utilizzato, per consultarne le statistiche.
+	 */
+	public ConnectionPool getConnectionPool() {
+		return dbms.getConnectionPool();
+	}
+	
+	/**
+	 * Funzione che chiude le connessioni al DB mantenute nel pool.
+	 */
+	public void close() {
+		dbms.close();
+	}
 }
@@ -5,26 +5,70 @@ import utils.CfgManager;
 import utils.Constants;
 
 public class DBMS {
+	/**
+	 * Valori di default del pool di connessioni: dimensione massima, attesa massima per una connessione (ms),
+	 * inattività massima di una connessione (ms) e durata massima di una connessione (ms).
+	 */
+	private static final int defaultPoolSize = 10;
+	private static final long acquireTimeout = 10000, idleTimeout = 5 * 60 * 1000, maxLifetime = 30 * 60 * 1000;
+	
 	private String host, port, schema, user, psw;
+	private ConnectionPool pool;
 	
 	public DBMS (String host, String port, String schema, String terminal) throws PEException {
+		this(host, port, schema, terminal, defaultPoolSize);
+	}
+	
+	public DBMS (String host, String port, String schema, String terminal, int poolSize) throws PEException {
 		this.host = host;
 		this.port = port;
 		this.schema = schema;
 		this.user = CfgManager.getPassword("dbu");
 		this.psw = CfgManager.getPassword("dbp");
+		
+		pool = new ConnectionPool(buildConnectionString(), poolSize, acquireTimeout, idleTimeout, maxLifetime);
 	}
 	
+	/**
+	 * Funzione che restituisce un ConnectionManager connesso al DB. La connessione è ottenuta dal pool
+	 * e vi viene restituita alla chiusura del ConnectionManager.
+	 * @return Il ConnectionManager connesso.
+	 * @throws PEException Se non è possibile ottenere una connessione.
+	 */
 	public ConnectionManager getConnectionManager() throws PEException {
+		ConnectionManager cm = new ConnectionManager(pool);
+		cm.connect();
+		return cm;
+	}
+	
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+	
+	/**
+	 * Funzione che chiude le connessioni inattive del pool. Da invocare allo spegnimento del terminale.
+	 */
+	public void close() {
+		pool.close();
+	}
+	
+	private String buildConnectionString() {
 		String connectionString = "jdbc:mysql://" + host + ":" + port + "/" + schema + 
 				"?user=" + user + "&password=" + psw + 
 				"&serverTimezone=CET&useSSL="+Constants.dbSSL;
 		
+		//Gli statement sono preparati lato server: riutilizzati dalla cache delle connessioni, evitano di ripetere il parsing delle query
+		connectionString += "&useServerPrepStmts=true";
+		
+		//I batch di inserimenti vengono riscritti in un'unica INSERT multi-riga
+		connectionString += "&rewriteBatchedStatements=true";
+		
+		//Le query con fetch size (vedi ConnectionManager.executeStreamingQuery) recuperano le righe a blocchi tramite cursore lato server
+		connectionString += "&useCursorFetch=true";
+		
 		if(Constants.dbSSL)
 			connectionString += "&requireSSL=true&verifyServerCertificate=true";
 		
-		ConnectionManager cm = new ConnectionManager(connectionString);
-		cm.connect();
-		return cm;
+		return connectionString;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connessione fisica al DB gestita da un {@link ConnectionPool}. Oltre alla connessione JDBC
+ * memorizza gli istanti di creazione e di ultimo utilizzo, necessari per la validazione,
+ * l'eliminazione delle connessioni inattive e la scadenza per durata massima.
+ * <br/>
+ * Mantiene inoltre una cache LRU dei PreparedStatement indicizzata sul testo SQL, che sopravvive
+ * alle restituzioni al pool: le query ripetute (es. l'inserimento dei pacchetti di voto) vengono preparate una volta sola per connessione.
+ */
+class PooledConnection {
+	/**
+	 * Numero massimo di statement mantenuti nella cache di ciascuna connessione.
+	 */
+	private static final int statementCacheSize = 32;
+
+	private final Connection connection;
+	private final long createdAt;
+	private long lastUsed;
+
+	private final LinkedHashMap<String, PreparedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if(size() <= statementCacheSize)
+				return false;
+
+			closeStatement(eldest.getValue());
+			return true;
+		}
+	};
+
+	PooledConnection(Connection connection) {
+		this.connection = connection;
+		this.createdAt = System.currentTimeMillis();
+		this.lastUsed = createdAt;
+	}
+
+	/**
+	 * Funzione che restituisce lo statement associato alla query, preparandolo solo se non già presente in cache.
+	 * Di uno statement riutilizzato vengono azzerati i parametri e ripristinate le impostazioni predefinite
+	 * (fetch size e numero massimo di righe), eventualmente modificate da chi lo ha adoperato in precedenza.
+	 * <br/>
+	 * Rieseguire uno statement chiuderebbe il ResultSet ottenuto dalla sua esecuzione precedente: se questo è ancora aperto
+	 * lo statement in cache non viene restituito, e il chiamante deve prepararne uno nuovo (che dovrà chiudere).
+	 * @param sql La query da preparare.
+	 * @return Lo statement pronto per l'assegnazione dei parametri, o null se lo statement in cache è ancora in uso.
+	 * @throws SQLException Se la preparazione fallisce.
+	 */
+	PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement stm = statementCache.get(sql);
+
+		if(stm != null && !stm.isClosed()) {
+			ResultSet previous = stm.getResultSet();
+			if(previous != null && !previous.isClosed())
+				return null;
+
+			stm.clearParameters();
+			stm.setFetchSize(0);
+			stm.setMaxRows(0);
+			return stm;
+		}
+
+		stm = connection.prepareStatement(sql);
+		statementCache.put(sql, stm);
+		return stm;
+	}
+
+	Connection getConnection() {
+		return connection;
+	}
+
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Chiude fisicamente la connessione, ignorando eventuali errori: la connessione
+	 * viene chiusa solo quando non è più utilizzabile o non è più necessaria.
+	 */
+	void closePhysically() {
+		for(PreparedStatement stm : statementCache.values())
+			closeStatement(stm);
+		statementCache.clear();
+
+		try {
+			connection.close();
+		} catch (SQLException ignored) {}
+	}
+
+	private static void closeStatement(PreparedStatement stm) {
+		try {
+			stm.close();
+		} catch (SQLException ignored) {}
+	}
+}
@@ -35,7 +35,7 @@ public class AES {
     	IvParameterSpec ivSpec = new IvParameterSpec(iv);
         
     	try {
-    		Cipher cipher = Cipher.getInstance(CBCMode);
+    		Cipher cipher = CryptoContext.getAESCipher(CBCMode, true);
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivSpec);
             return Base64.getEncoder().encodeToString(cipher.doFinal(plainVote.getBytes("UTF-8")));
     	} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | UnsupportedEncodingException e) {
@@ -48,7 +48,7 @@ public class AES {
     	IvParameterSpec ivSpec = new IvParameterSpec(iv);
         
     	try {
-            Cipher cipher = Cipher.getInstance(CBCMode);
+            Cipher cipher = CryptoContext.getAESCipher(CBCMode, true);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
             return new String(cipher.doFinal(Base64.getDecoder().decode(encryptedVote)), "UTF-8");
     	} catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException | UnsupportedEncodingException e) {
@@ -61,7 +61,7 @@ public class AES {
     	SecretKeySpec secretKey = new SecretKeySpec(genKey(secret), "AES");
 
     	try {
-    		Cipher cipher = Cipher.getInstance(ECBMode);
+    		Cipher cipher = CryptoContext.getAESCipher(ECBMode, false);
         	cipher.init(Cipher.ENCRYPT_MODE, secretKey);
         	return cipher.doFinal(key);
     	} 
@@ -74,7 +74,7 @@ public class AES {
     	SecretKeySpec secretKey = new SecretKeySpec(genKey(secret), "AES");
     	
     	try {
-    		Cipher cipher = Cipher.getInstance(ECBMode);
+    		Cipher cipher = CryptoContext.getAESCipher(ECBMode, false);
         	cipher.init(Cipher.DECRYPT_MODE, secretKey);
         	return cipher.doFinal(encrKey);
     	}
@@ -91,7 +91,7 @@ public class AES {
     	try {
     		byte[] nonceBA = nonceString.getBytes("UTF-8");
         	
-        	Cipher cipher = Cipher.getInstance(ECBMode);
+        	Cipher cipher = CryptoContext.getAESCipher(ECBMode, false);
         	cipher.init(Cipher.ENCRYPT_MODE, secretKey);
         	
         	return Base64.getEncoder().encodeToString(cipher.doFinal(nonceBA));
@@ -106,7 +106,7 @@ public class AES {
     	SecretKeySpec secretKey = new SecretKeySpec(genKey(secret), "AES");
     	
     	try {
-    		Cipher cipher = Cipher.getInstance(ECBMode);
+    		Cipher cipher = CryptoContext.getAESCipher(ECBMode, false);
         	cipher.init(Cipher.DECRYPT_MODE, secretKey);
         	byte[] nonceBA = cipher.doFinal(Base64.getDecoder().decode(encryptedNonce));
         	String nonceString= new String(nonceBA, "UTF-8");
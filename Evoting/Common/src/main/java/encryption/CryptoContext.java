@@ -0,0 +1,163 @@
+package encryption;
+
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import exceptions.DEVException;
+import exceptions.PEException;
+import model.VotePacket;
+
+/**
+ * Contesto crittografico da adoperare quando si cifrano, decifrano, firmano o verificano molti pacchetti di voto con le stesse chiavi RSA.
+ * <br/>
+ * Le chiavi vengono ricostruite dai byte una sola volta, alla creazione del contesto, e possono essere condivise tra thread.
+ * Il provider BouncyCastle viene registrato una sola volta per l'intera applicazione, mentre Cipher, MessageDigest e Mac
+ * (che non sono thread-safe) vengono istanziati una volta per thread e riutilizzati da tutte le funzioni del package encryption.
+ * Il riuso presuppone thread longevi come quelli dei pool dei server: su un virtual thread per Service (vedi {@link utils.Constants#virtualThreads})
+ * le istanze vengono ricreate ad ogni Service.
+ * <br/>
+ * Chiave pubblica e privata sono indipendenti e non devono appartenere alla stessa coppia (es. l'urna firma con la chiave privata 2
+ * del responsabile, mentre lo spoglio verifica con la chiave pubblica 2 e decifra con la chiave privata 1). Quella non necessaria può essere null.
+ */
+public class CryptoContext {
+
+	static {
+		registerProvider();
+	}
+
+	private static final ThreadLocal<Cipher> signatureCipher = new ThreadLocal<>();
+	private static final ThreadLocal<Cipher> parametersCipher = new ThreadLocal<>();
+	private static final ThreadLocal<Cipher> cbcCipher = new ThreadLocal<>();
+	private static final ThreadLocal<Cipher> ecbCipher = new ThreadLocal<>();
+	private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<>();
+	private static final ThreadLocal<Mac> hmacSHA256 = new ThreadLocal<>();
+
+	private final Key publicKey, privateKey;
+
+	/**
+	 * @param publicKey		La chiave pubblica codificata (X.509), o null se non necessaria.
+	 * @param privateKey	La chiave privata codificata (PKCS#8), o null se non necessaria.
+	 * @throws PEException	Se una delle chiavi non è valida.
+	 */
+	public CryptoContext(byte[] publicKey, byte[] privateKey) throws PEException {
+		this.publicKey = publicKey == null ? null : KeyPairManager.getPublicFromBytes(publicKey);
+		this.privateKey = privateKey == null ? null : KeyPairManager.getPrivateFromBytes(privateKey);
+	}
+
+	/**
+	 * Cifra una preferenza con la chiave pubblica del contesto (vedi {@link VoteEncryption#encrypt(String, byte[], String, String)}).
+	 */
+	public VotePacket encrypt(String vote, String encryptedNonce, String sessionKey) throws PEException {
+		return VoteEncryption.encrypt(vote, requireKey(publicKey, "la chiave pubblica"), encryptedNonce, sessionKey);
+	}
+
+	/**
+	 * Decifra il pacchetto con la chiave privata del contesto (vedi {@link VoteEncryption#decrypt(VotePacket, byte[])}).
+	 */
+	public String decrypt(VotePacket packet) throws PEException {
+		return VoteEncryption.decrypt(packet, requireKey(privateKey, "la chiave privata"));
+	}
+
+	/**
+	 * Firma il pacchetto con la chiave privata del contesto (vedi {@link VoteEncryption#signPacket(VotePacket, byte[])}).
+	 */
+	public void signPacket(VotePacket packet) throws PEException {
+		VoteEncryption.signPacket(packet, requireKey(privateKey, "la chiave privata"));
+	}
+
+	/**
+	 * Verifica la firma del pacchetto con la chiave pubblica del contesto (vedi {@link VoteEncryption#verifyPacketSignature(VotePacket, byte[])}).
+	 */
+	public boolean verifyPacketSignature(VotePacket packet) throws PEException {
+		return VoteEncryption.verifyPacketSignature(packet, requireKey(publicKey, "la chiave pubblica"));
+	}
+
+	public Key getPublicKey() { return publicKey; }
+	public Key getPrivateKey() { return privateKey; }
+
+	/**
+	 * Funzione che registra il provider BouncyCastle, se non già registrato. Viene richiamata al caricamento della classe
+	 * e da chi adopera il provider direttamente, e non ha effetto se il provider è già presente.
+	 */
+	static void registerProvider() {
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null)
+			Security.addProvider(new BouncyCastleProvider());
+	}
+
+	/**
+	 * @param flag	True per l'algoritmo adoperato per la firma, false per quello adoperato per la cifratura di chiave e IV simmetrici.
+	 * @return		Il cipher RSA del thread corrente, da inizializzare prima dell'uso.
+	 */
+	static Cipher getRSACipher(boolean flag) throws PEException {
+		ThreadLocal<Cipher> local = flag ? signatureCipher : parametersCipher;
+		Cipher cipher = local.get();
+
+		if (cipher == null) {
+			cipher = RSA_OAEP.getCipher(flag);
+			local.set(cipher);
+		}
+
+		return cipher;
+	}
+
+	/**
+	 * @param algorithm	La trasformazione AES (CBC per i voti, ECB per chiavi private e nonce).
+	 * @param cbc		True se si tratta della trasformazione CBC.
+	 * @return			Il cipher AES del thread corrente, da inizializzare prima dell'uso.
+	 */
+	static Cipher getAESCipher(String algorithm, boolean cbc) throws NoSuchAlgorithmException, NoSuchPaddingException {
+		ThreadLocal<Cipher> local = cbc ? cbcCipher : ecbCipher;
+		Cipher cipher = local.get();
+
+		if (cipher == null) {
+			cipher = Cipher.getInstance(algorithm);
+			local.set(cipher);
+		}
+
+		return cipher;
+	}
+
+	/**
+	 * @return Il MessageDigest SHA-256 del thread corrente, già azzerato.
+	 */
+	static MessageDigest getSHA256() throws NoSuchAlgorithmException {
+		MessageDigest digest = sha256.get();
+
+		if (digest == null) {
+			digest = MessageDigest.getInstance("SHA-256");
+			sha256.set(digest);
+		}
+
+		digest.reset();
+		return digest;
+	}
+
+	/**
+	 * @return Il Mac HMAC-SHA256 del thread corrente, da inizializzare prima dell'uso.
+	 */
+	static Mac getHmacSHA256() throws NoSuchAlgorithmException {
+		Mac mac = hmacSHA256.get();
+
+		if (mac == null) {
+			mac = Mac.getInstance("HMACSHA256");
+			hmacSHA256.set(mac);
+		}
+
+		return mac;
+	}
+
+	private static Key requireKey(Key key, String name) throws PEException {
+		if (key == null)
+			throw DEVException.DEV_03(name);
+
+		return key;
+	}
+}
@@ -1,11 +1,15 @@
 package encryption;
 
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
 
 import javax.crypto.Mac;
@@ -17,64 +21,133 @@ import exceptions.ENCException;
 import exceptions.PEException;
 import model.VotePacket;
 
+/**
+ * Firma dei pacchetti di voto effettuata dalle postazioni con la chiave di sessione, e relativa verifica da parte dell'urna.
+ * <br/>
+ * Sono previste due versioni dello schema, memorizzate nel pacchetto:
+ * <ul>
+ * <li>{@link #legacyVersion}: la chiave HMAC viene derivata con PBKDF2 dalla chiave di sessione e da un salt casuale diverso per ogni pacchetto.</li>
+ * <li>{@link #keyedVersion}: la chiave HMAC viene derivata con PBKDF2 una sola volta per chiave di sessione, con un salt fisso,
+ * e mantenuta in una cache limitata; il salt casuale del pacchetto viene incluso nei dati autenticati. La verifica richiede quindi
+ * un solo calcolo dell'HMAC per pacchetto.</li>
+ * </ul>
+ * I nuovi pacchetti vengono firmati con la versione più recente, mentre la verifica accetta entrambe.
+ */
 public class HMAC {
 
+	public static final int legacyVersion = 0;
+	public static final int keyedVersion = 1;
+
 	private static final String keyGenAlgorithm = "PBKDF2WITHHMACSHA256";
-	private static final String HMACAlgorithm = "HMACSHA256";
 	private static final int iterationCount = 2000;//valore minimo consigliato : 1000.
 	private static final int saltLength = 8;
 	private static final int keyLength = 128;
-	
-	
+
+	//Salt fisso per la derivazione della chiave HMAC nella versione keyedVersion
+	private static final byte[] sessionSalt = "SecureBallot/VotePacket/HMAC".getBytes(StandardCharsets.UTF_8);
+
+	//Numero massimo di chiavi HMAC mantenute in cache, una per chiave di sessione (ovvero per terminale attivo)
+	private static final int keyCacheSize = 256;
+
+	private static final Map<String, SecretKey> sessionKeys = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+			return size() > keyCacheSize;
+		}
+	});
+
 	private static SecretKey keyGen(String password, byte[] salt) throws PEException {
-		
+
 		try {
 			SecretKeyFactory factory = SecretKeyFactory.getInstance(keyGenAlgorithm);
 			KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterationCount, keyLength);
 			SecretKey key = factory.generateSecret(spec);
-			
+
 			return key;
 		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
 			throw ENCException.ENC_4(true, e);
 		}
 	}
-	
-	private static String computeHMAC(String[] message, String password, byte[] salt) throws PEException {
-		
-		SecretKey key = keyGen(password, salt);
-		
+
+	/**
+	 * Restituisce la chiave HMAC associata alla chiave di sessione, derivandola solo se non già presente in cache.
+	 * Due thread che richiedono contemporaneamente una chiave assente possono derivarla entrambi, ottenendo lo stesso risultato.
+	 */
+	private static SecretKey getSessionKey(String password) throws PEException {
+		SecretKey key = sessionKeys.get(password);
+
+		if(key == null) {
+			key = keyGen(password, sessionSalt);
+			sessionKeys.put(password, key);
+		}
+
+		return key;
+	}
+
+	/**
+	 * Rimuove dalla cache tutte le chiavi HMAC derivate dalle chiavi di sessione, da richiamare al termine di una sessione di voto.
+	 */
+	public static void clearKeys() {
+		sessionKeys.clear();
+	}
+
+	private static String computeHMAC(String[] message, SecretKey key, byte[] prefix) throws PEException {
+
 		try {
-			Mac mac = Mac.getInstance(HMACAlgorithm);
+			Mac mac = CryptoContext.getHmacSHA256();
 			mac.init(key);
-			
+
+			if(prefix != null)
+				mac.update(prefix);
+
 			for(String block : message) {
 				byte[] bytes = block.getBytes();
 				mac.update(bytes, 0, bytes.length);
 			}
-			
+
 			return Base64.getEncoder().encodeToString(mac.doFinal());
 		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
 			throw ENCException.ENC_4(false, e);
 		}
 	}
-	
+
 	public static void sign(VotePacket packet, String password) throws PEException {
-		
+
 		byte[] salt = new byte[saltLength];
-		
+
 		Random random = new SecureRandom();
 		random.nextBytes(salt);
-		
-		String digest = computeHMAC(packet.getUnsignedData(), password, salt);
-		
-		packet.sign(Base64.getEncoder().encodeToString(salt), digest);
+
+		String digest = computeHMAC(packet.getUnsignedData(), getSessionKey(password), salt);
+
+		packet.sign(keyedVersion, Base64.getEncoder().encodeToString(salt), digest);
 	}
-	
+
 	public static boolean verify(VotePacket packet, String password) throws PEException {
 		String salt = packet.getSalt();
 		String HMAC = packet.getHMAC();
-		
-		String ComputedHMAC = computeHMAC(packet.getUnsignedData(), password, Base64.getDecoder().decode(salt));
-		return HMAC.equals(ComputedHMAC);		
+
+		if(salt == null || HMAC == null)
+			return false;
+
+		byte[] saltBA = Base64.getDecoder().decode(salt);
+		String ComputedHMAC;
+
+		switch(packet.getHMACVersion()) {
+			case legacyVersion:
+				ComputedHMAC = computeHMAC(packet.getUnsignedData(), keyGen(password, saltBA), null);
+				break;
+
+			case keyedVersion:
+				ComputedHMAC = computeHMAC(packet.getUnsignedData(), getSessionKey(password), saltBA);
+				break;
+
+			default:
+				return false;
+		}
+
+		return HMAC.equals(ComputedHMAC);
 	}
 }
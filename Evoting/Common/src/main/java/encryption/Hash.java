@@ -21,7 +21,7 @@ public class Hash {
 	public static byte[] computeHash(String message, int size, String name) throws ENCException {
 		
 		try {
-	    	MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+	    	MessageDigest sha256 = CryptoContext.getSHA256();
 			byte[] digest = sha256.digest(message.getBytes("UTF-8"));
 	        return Arrays.copyOf(digest, size);
 		}
@@ -31,6 +31,27 @@ public class Hash {
 		
 	}
 
+	/**
+	 * Calcola il digest dei byte passati per argomento
+	 * @param data		I byte di cui effettuare il digest.
+	 * @param size		La dimensione desiderata del digest.
+	 * @param name		"Nome" dell'oggetto sul quale effettuare la funzione hash. Necessario per l'eventuale lancio dell'eccezione.
+	 * @return			Il digest dei byte.
+	 * @throws ENCException
+	 */
+	public static byte[] computeHash(byte[] data, int size, String name) throws ENCException {
+
+		try {
+	    	MessageDigest sha256 = CryptoContext.getSHA256();
+			byte[] digest = sha256.digest(data);
+	        return Arrays.copyOf(digest, size);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw ENCException.ENC_3(name, e);
+		}
+
+	}
+
 	/**
 	 * Verifica se il messaggio produce il digest fornito.
 	 * @param message			Messaggio di cui si calcolerà il digest.
@@ -57,7 +78,7 @@ public class Hash {
 		String[] unsignedData = packet.getUnsignedData();
 		
 		try {
-	    	MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+	    	MessageDigest sha256 = CryptoContext.getSHA256();
 	    	
 	    	for(String data : unsignedData) {
 	    		byte[] bytes = data.getBytes("UTF-8");
@@ -7,7 +7,6 @@ import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
-import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
@@ -23,7 +22,7 @@ public class KeyPairManager {
 	
 	private static void setGenFacProv(boolean needGen, boolean needFact) throws PEException {
 		if(generator == null && factory == null) {
-			Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+			CryptoContext.registerProvider();
 		}
 		
 		if(generator == null && needGen) {
@@ -4,7 +4,6 @@ import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.Security;
 //import java.security.spec.MGF1ParameterSpec;
 import java.util.Base64;
 
@@ -30,16 +29,13 @@ public class RSA_OAEP {
 	 * @throws PEException
 	 */
 	public static String encrypt(byte[] message, Key key, boolean flag) throws PEException {
-		Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
-		
-		String algorithm = flag ? SignatureAlgorithm : SymmetricParametersAlgorithm;
+		Cipher cipher = CryptoContext.getRSACipher(flag);
 		
 		try {	
-			Cipher cipher = Cipher.getInstance(algorithm, "BC");
 			//OAEPParameterSpec params = new OAEPParameterSpec("SHA-1", "MGF1", new MGF1ParameterSpec("SHA-256"), PSource.PSpecified.DEFAULT);
 			cipher.init(Cipher.ENCRYPT_MODE, key); //, params);
 		    return Base64.getEncoder().encodeToString(cipher.doFinal(message));
-		} catch (NoSuchAlgorithmException | NoSuchProviderException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+		} catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
 			throw ENCException.ENC_5(0, e);
 		}
 		
@@ -47,6 +43,7 @@ public class RSA_OAEP {
 	
 	/**
 	 * Funzione che decifra la stringa cifrata nell'array di byte corrispondente a chiave simmetrica/IV monouso o digest per la firma, tramite crittografia asimmetrica.
+	 * Adopera il cipher del thread corrente mantenuto da {@link CryptoContext}.
 	 * @param cipherText 	La stringa cifrata e convertita in base64 da decifrare.
 	 * @param key			La chiave pubblica o privata da adoperare.
 	 * @param flag			True per adoperare l'algoritmo di cifratura per la firma, false per adoperare quello per la cifratura di chiave e IV simmetrici.
@@ -54,17 +51,44 @@ public class RSA_OAEP {
 	 * @throws PEException
 	 */
 	public static byte[] decrypt(String cipherText, Key key, boolean flag) throws PEException {
-		Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
-		
-		String algorithm = flag ? SignatureAlgorithm : SymmetricParametersAlgorithm;
-		
+		return decrypt(cipherText, key, CryptoContext.getRSACipher(flag));
+	}
+	
+	/**
+	 * Funzione che decifra la stringa cifrata adoperando un cipher già istanziato tramite {@link #getCipher(boolean)}.
+	 * <br/>
+	 * <b>Nota:</b> i Cipher non sono thread-safe, ogni thread deve adoperare il proprio.
+	 * @param cipherText 	La stringa cifrata e convertita in base64 da decifrare.
+	 * @param key			La chiave pubblica o privata da adoperare.
+	 * @param cipher		Il cipher da adoperare.
+	 * @return				Il messaggio decifrato.
+	 * @throws PEException
+	 */
+	public static byte[] decrypt(String cipherText, Key key, Cipher cipher) throws PEException {
 		try {
-			Cipher cipher = Cipher.getInstance(algorithm, "BC");
-
 			//OAEPParameterSpec params = new OAEPParameterSpec("SHA-1", "MGF1", new MGF1ParameterSpec("SHA-256"), PSource.PSpecified.DEFAULT);
 			cipher.init(Cipher.DECRYPT_MODE, key); //, params);
 			return cipher.doFinal(Base64.getDecoder().decode(cipherText));
-		} catch (NoSuchAlgorithmException | NoSuchProviderException | NoSuchPaddingException | InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+		} catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+			throw ENCException.ENC_5(1, e);
+		}
+	}
+	
+	/**
+	 * Funzione che istanzia un nuovo cipher per l'algoritmo di cifratura asimmetrica.
+	 * Le funzioni di questa classe adoperano invece quello del thread corrente, mantenuto da {@link CryptoContext}.
+	 * @param flag	True per l'algoritmo adoperato per la firma, false per quello adoperato per la cifratura di chiave e IV simmetrici.
+	 * @return		Il cipher, non ancora inizializzato.
+	 * @throws PEException
+	 */
+	public static Cipher getCipher(boolean flag) throws PEException {
+		CryptoContext.registerProvider();
+		
+		String algorithm = flag ? SignatureAlgorithm : SymmetricParametersAlgorithm;
+		
+		try {
+			return Cipher.getInstance(algorithm, "BC");
+		} catch (NoSuchAlgorithmException | NoSuchProviderException | NoSuchPaddingException e) {
 			throw ENCException.ENC_5(1, e);
 		}
 	}
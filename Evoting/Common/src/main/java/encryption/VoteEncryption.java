@@ -8,7 +8,7 @@ import model.VotePacket;
 
 public class VoteEncryption {
 	
-	private static VotePacket encrypt(String vote, Key Kpu_rp, String encryptedNonce, String sessionKey) throws PEException {
+	static VotePacket encrypt(String vote, Key Kpu_rp, String encryptedNonce, String sessionKey) throws PEException {
 		byte[] ki = AES.genKey(RandStrGenerator.gen(64, 128));
 		byte[] iv = AES.genIV(RandStrGenerator.gen(16, 32));
 		
@@ -29,7 +29,7 @@ public class VoteEncryption {
 		return encrypt(vote, Kpu_rp, encryptedNonce, sessionKey);
 	}
 
-	private static String decrypt(VotePacket packet, Key Kpr_rp) throws PEException {
+	static String decrypt(VotePacket packet, Key Kpr_rp) throws PEException {
 		String encryptedVote = packet.getEncryptedVote();
 		String encryptedKi = packet.getEncryptedKi();
 		String encryptedIV = packet.getEncryptedIV();
@@ -47,22 +47,25 @@ public class VoteEncryption {
 		return decrypt(packet, Kpr_rp);
 	}
 	
-	public static void signPacket(VotePacket packet, byte[] Kpr_rpBA) throws PEException {
+	static void signPacket(VotePacket packet, Key Kpr_rp) throws PEException {
 		int size = 32;
 		
 		byte[] digest = Hash.computeHash(packet, size);
 		
-		Key Kpr_rp = KeyPairManager.getPrivateFromBytes(Kpr_rpBA);
-		
 		String signature = RSA_OAEP.encrypt(digest, Kpr_rp, true);
 		
 		packet.sign(signature);
 	}
 	
-	public static boolean verifyPacketSignature(VotePacket packet, byte[] Kpu_rpBA) throws PEException {
+	public static void signPacket(VotePacket packet, byte[] Kpr_rpBA) throws PEException {
+		Key Kpr_rp = KeyPairManager.getPrivateFromBytes(Kpr_rpBA);
+		
+		signPacket(packet, Kpr_rp);
+	}
+	
+	static boolean verifyPacketSignature(VotePacket packet, Key Kpu_rp) throws PEException {
 		try {
 			String signature = packet.getSignature();
-			Key Kpu_rp = KeyPairManager.getPublicFromBytes(Kpu_rpBA);
 			byte[] decryptedDigest = RSA_OAEP.decrypt(signature, Kpu_rp, true);
 			
 			return Hash.verifyHash(packet, decryptedDigest);
@@ -71,4 +74,16 @@ public class VoteEncryption {
 			throw ENCException.ENC_8(e);
 		}
 	}
+	
+	public static boolean verifyPacketSignature(VotePacket packet, byte[] Kpu_rpBA) throws PEException {
+		Key Kpu_rp;
+		try {
+			Kpu_rp = KeyPairManager.getPublicFromBytes(Kpu_rpBA);
+		}
+		catch (PEException e) {
+			throw ENCException.ENC_8(e);
+		}
+		
+		return verifyPacketSignature(packet, Kpu_rp);
+	}
 }
@@ -37,6 +37,8 @@ import model.Person;
  * <br>
  * DB_15: "Operazione di aggiornamento votante fallita"
  * <br>
+ * DB_16: "Connessioni al DB esaurite"
+ * <br>
  */
 public class DBException extends PEException {
 	private static final long serialVersionUID = 1L;
@@ -256,4 +258,15 @@ public class DBException extends PEException {
 
 		return new DBException(Code.DB_15, "Operazione di aggiornamento votante fallita", specific, null);
 	}
+
+	/**
+	 * Generic: "Connessioni al DB esaurite"
+	 * <br>
+	 * Specific: "Nessuna connessione al DB si è resa disponibile entro " + timeout + " ms"
+	 * @param timeout Il tempo massimo di attesa, in millisecondi, trascorso senza ottenere una connessione.
+	 */
+	public static DBException DB_16(long timeout) {
+		String specific = "Nessuna connessione al DB si è resa disponibile entro " + timeout + " ms";
+		return new DBException(Code.DB_16, "Connessioni al DB esaurite", specific, null);
+	}
 }
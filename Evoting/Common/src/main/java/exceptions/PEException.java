@@ -61,7 +61,9 @@ public class PEException extends Exception {
 
 		DB_8,	DB_9,	DB_10,	DB_11,
 
-		DB_12,	DB_13, 	DB_14,	DB_15
+		DB_12,	DB_13, 	DB_14,	DB_15,
+
+		DB_16
 	}
 
 	protected Code code;
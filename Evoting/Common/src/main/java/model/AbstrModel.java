@@ -40,6 +40,24 @@ public class AbstrModel {
 	public void logError(String event) { 
 		logger.logError(event); 
 	}
+	
+	/**
+	 * Registra un evento relativo ad un terminale, mantenendone indirizzo e tipo come campi del log.
+	 * @param level	Livello del log.
+	 * @param ip	Indirizzo del terminale.
+	 * @param type	Tipo del terminale.
+	 * @param event	Evento da loggare.
+	 */
+	public void log(Logger.Level level, InetAddress ip, Terminals.Type type, String event) {
+		logger.log(level, ip, type, event);
+	}
+	
+	/**
+	 * Scrive su file i log non ancora scritti e chiude il file di log.
+	 */
+	public void closeLogger() {
+		logger.close();
+	}
 
 	/**
 	 * Getter per l'username dell'utente loggato.
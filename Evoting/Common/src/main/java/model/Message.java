@@ -1,7 +1,9 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 import exceptions.FLRException;
 import exceptions.PEException;
@@ -89,4 +91,11 @@ public class Message extends Parsable {
 	public String getValue() {
 		return value;
 	}
+	
+	/**
+	 * Restituisce tutti gli elementi del messaggio (adoperata da {@link WireCodec}).
+	 */
+	Map<String, Object> getElements() {
+		return Collections.unmodifiableMap(map);
+	}
 }
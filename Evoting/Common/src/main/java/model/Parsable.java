@@ -3,8 +3,6 @@ package model;
 import java.io.Serializable;
 import java.util.Base64;
 
-import org.apache.commons.lang3.SerializationUtils;
-
 import exceptions.CSTException;
 import exceptions.PEException;
 /**
@@ -12,6 +10,7 @@ import exceptions.PEException;
  * @author marco
  * Classe adoperata come base per tutte le classi che modellano oggetti che devono essere trasmessi tramite socket
  * (Liste elettorali, Persone etc).
+ * La conversione in stringa adopera la codifica binaria di {@link WireCodec}, che accetta solo i tipi previsti dal protocollo.
  */
 public class Parsable implements Serializable {
 		
@@ -23,14 +22,10 @@ public class Parsable implements Serializable {
 	/**
 	 * Trasforma l'oggetto che la richiama in una stringa Base64 inviabile tramite Scanner.
 	 * @return	La stringa convertibile nell'oggetto.
+	 * @throws IllegalArgumentException Se l'oggetto contiene valori di un tipo non supportato da {@link WireCodec}.
 	 */
 	public String toB64() {
-		String b64 = null;
-		
-		byte[] bytes = SerializationUtils.serialize(this);
-		b64 = new String(Base64.getEncoder().encode(bytes));
-		
-		return b64;
+		return Base64.getEncoder().encodeToString(WireCodec.encode(this));
 	}
 	
 	/**
@@ -45,9 +40,9 @@ public class Parsable implements Serializable {
 		try {
 			
 			byte[] bytes = Base64.getDecoder().decode(b64.getBytes());
-			obj = SerializationUtils.deserialize(bytes);
+			obj = (Parsable) WireCodec.decode(bytes);
 			
-		} catch (IllegalArgumentException e) {
+		} catch (IllegalArgumentException | ClassCastException e) {
 			throw CSTException.CST_02(b64, sender, e);
 		}
 		
@@ -95,6 +95,21 @@ public class Person extends Parsable {
 		this.birthDate = birth;
 	}
 
+	/**
+	 * Costruttore completo, adoperato da {@link WireCodec} per ricostruire una persona ricevuta da un altro terminale.
+	 */
+	Person(String firstName, String lastName, String ID, String birthDate, int[] ballotCodes, boolean mayVote, Integer votesReceived, String documentID, DocumentType documentType) {
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.ID = ID;
+		this.birthDate = birthDate;
+		this.ballotCodes = ballotCodes;
+		this.mayVote = mayVote;
+		this.votesReceived = votesReceived;
+		this.documentID = documentID;
+		this.documentType = documentType;
+	}
+	
 	/**
 	 * Restituisce il nome.
 	 * @return	Nome.
@@ -8,7 +8,9 @@ public class VotePacket extends Parsable{
 	private final String encryptedIV;
 	private final String solvedNonce;
 	
-	//Parametri per la firma della postazione
+	//Parametri per la firma della postazione. La versione indica lo schema adoperato per calcolare l'HMAC (vedi encryption.HMAC):
+	//i pacchetti serializzati prima della sua introduzione vengono deserializzati con versione 0
+	private int hmacVersion = 0;
 	private String salt = null;
 	private String HMAC = null;
 	
@@ -31,11 +33,22 @@ public class VotePacket extends Parsable{
 	}
 	
 	/**
-	 * Firma effettuata dalle postazioni.
+	 * Firma effettuata dalle postazioni, secondo lo schema originale (versione 0).
 	 * @param salt
 	 * @param HMAC
 	 */
 	public void sign(String salt, String HMAC) {
+		sign(0, salt, HMAC);
+	}
+	
+	/**
+	 * Firma effettuata dalle postazioni.
+	 * @param hmacVersion Versione dello schema adoperato per calcolare l'HMAC.
+	 * @param salt
+	 * @param HMAC
+	 */
+	public void sign(int hmacVersion, String salt, String HMAC) {
+		this.hmacVersion = hmacVersion;
 		this.salt = salt;
 		this.HMAC = HMAC;
 	}
@@ -63,6 +76,10 @@ public class VotePacket extends Parsable{
 		return solvedNonce;
 	}
 	
+	public int getHMACVersion() {
+		return hmacVersion;
+	}
+	
 	public String getHMAC() {
 		return HMAC;
 	}
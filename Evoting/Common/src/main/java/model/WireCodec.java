@@ -0,0 +1,771 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Codifica binaria degli oggetti scambiati tra i terminali, adoperata da {@link Parsable#toB64()} e {@link Parsable#fromB64(String, String)}
+ * al posto della serializzazione Java.
+ * <br/>
+ * Ogni oggetto viene scritto come un byte di versione del formato ({@link #version}) seguito da un valore. Ogni valore è preceduto
+ * da un byte che ne indica il tipo, e il contenuto di ogni tipo segue uno schema fisso: interi e lunghezze sono codificati come varint,
+ * stringhe e array sono preceduti dalla propria lunghezza. Non vengono quindi trasmessi né descrittori né nomi di classi.
+ * <br/>
+ * Sono ammessi solo i tipi elencati di seguito (quelli effettivamente inseriti nei {@link Message}): la decodifica non istanzia mai classi
+ * scelte dal mittente, e qualsiasi contenuto non conforme viene rifiutato con una IllegalArgumentException.
+ * <br/>
+ * Per aggiungere un tipo o un campo occorre incrementare la versione: la decodifica rifiuta le versioni che non conosce,
+ * per cui tutti i terminali devono adoperare la stessa versione del formato.
+ */
+public class WireCodec {
+	/**
+	 * Versione del formato.
+	 */
+	public static final byte version = 1;
+
+	private static final byte tNull = 0;
+	private static final byte tString = 1;
+	private static final byte tInteger = 2;
+	private static final byte tBoolean = 3;
+	private static final byte tIntArray = 4;
+	private static final byte tByteArray = 5;
+	private static final byte tStringArray = 6;
+	private static final byte tStringMatrix = 7;
+	private static final byte tInetAddress = 8;
+	private static final byte tInetAddressArray = 9;
+	private static final byte tEnum = 10;
+	private static final byte tMessage = 11;
+	private static final byte tVotePacket = 12;
+	private static final byte tWrittenBallot = 13;
+	private static final byte tWrittenBallotArray = 14;
+	private static final byte tEmptyBallot = 15;
+	private static final byte tEmptyBallotArray = 16;
+	private static final byte tElectoralList = 17;
+	private static final byte tPerson = 18;
+	private static final byte tPersonArray = 19;
+	private static final byte tDummyPost = 20;
+	private static final byte tDummyPostArray = 21;
+
+	//Enum ammessi nei messaggi, identificati dalla posizione in questo array (i nuovi enum vanno aggiunti in fondo)
+	private static final Class<?>[] enums = {
+		State.StatePost.class,
+		State.StateStation.class,
+		State.StateSubStation.class,
+		Terminals.Type.class,
+		Person.DocumentType.class
+	};
+
+	/**
+	 * Codifica l'oggetto passato.
+	 * @param obj	L'oggetto da codificare.
+	 * @return		I byte che rappresentano l'oggetto.
+	 * @throws IllegalArgumentException Se l'oggetto (o uno dei valori in esso contenuti) è di un tipo non supportato.
+	 */
+	public static byte[] encode(Object obj) {
+		Writer out = new Writer();
+		out.writeByte(version);
+
+		//I messaggi possono comparire solo come oggetto principale, così che la profondità dei valori sia limitata dallo schema
+		if(obj instanceof Message) {
+			out.writeByte(tMessage);
+			writeMessage(out, (Message) obj);
+		}
+		else {
+			writeValue(out, obj);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodifica un oggetto codificato con {@link #encode(Object)}.
+	 * @param bytes	I byte che rappresentano l'oggetto.
+	 * @return		L'oggetto decodificato.
+	 * @throws IllegalArgumentException Se i byte non rappresentano un oggetto valido nella versione corrente del formato.
+	 */
+	public static Object decode(byte[] bytes) {
+		ByteBuffer in = ByteBuffer.wrap(bytes);
+
+		try {
+			byte found = in.get();
+			if(found != version)
+				throw new IllegalArgumentException("Versione del formato non supportata: " + found);
+
+			Object obj;
+			if(in.get(in.position()) == tMessage) {
+				in.get();
+				obj = readMessage(in);
+			}
+			else {
+				obj = readValue(in);
+			}
+
+			if(in.hasRemaining())
+				throw new IllegalArgumentException("Byte in eccesso al termine dell'oggetto");
+
+			return obj;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Oggetto troncato", e);
+		}
+	}
+
+	/**
+	 * Codifica un valore una sola volta, così che possa essere inserito in più messaggi senza essere codificato di nuovo:
+	 * un {@link Encoded} inserito in un messaggio viene scritto copiandone i byte, e viene decodificato come il valore originale.
+	 * @param obj	Il valore da codificare (non un messaggio).
+	 * @return		Il valore codificato.
+	 * @throws IllegalArgumentException Se il valore (o uno dei valori in esso contenuti) è di un tipo non supportato.
+	 */
+	public static Encoded preEncode(Object obj) {
+		if(obj instanceof Message || obj instanceof Encoded)
+			throw new IllegalArgumentException("Tipo non supportato: " + obj.getClass().getName());
+
+		Writer out = new Writer();
+		writeValue(out, obj);
+		return new Encoded(out.toByteArray());
+	}
+
+	private static void writeValue(Writer out, Object obj) {
+		if(obj == null) {
+			out.writeByte(tNull);
+		}
+		else if(obj instanceof Encoded) {
+			byte[] bytes = ((Encoded) obj).bytes;
+			out.write(bytes, 0, bytes.length);
+		}
+		else if(obj instanceof String) {
+			out.writeByte(tString);
+			out.writeString((String) obj);
+		}
+		else if(obj instanceof Integer) {
+			out.writeByte(tInteger);
+			out.writeInt((Integer) obj);
+		}
+		else if(obj instanceof Boolean) {
+			out.writeByte(tBoolean);
+			out.writeBoolean((Boolean) obj);
+		}
+		else if(obj instanceof int[]) {
+			out.writeByte(tIntArray);
+			out.writeIntArray((int[]) obj);
+		}
+		else if(obj instanceof byte[]) {
+			out.writeByte(tByteArray);
+			out.writeByteArray((byte[]) obj);
+		}
+		else if(obj instanceof String[]) {
+			out.writeByte(tStringArray);
+			writeStrings(out, (String[]) obj);
+		}
+		else if(obj instanceof String[][]) {
+			String[][] matrix = (String[][]) obj;
+			out.writeByte(tStringMatrix);
+			out.writeLength(matrix.length);
+			for(String[] row : matrix)
+				writeStrings(out, row);
+		}
+		else if(obj instanceof InetAddress) {
+			out.writeByte(tInetAddress);
+			writeInetAddress(out, (InetAddress) obj);
+		}
+		else if(obj instanceof InetAddress[]) {
+			InetAddress[] ips = (InetAddress[]) obj;
+			out.writeByte(tInetAddressArray);
+			out.writeLength(ips.length);
+			for(InetAddress ip : ips)
+				writeInetAddress(out, ip);
+		}
+		else if(obj instanceof Enum) {
+			out.writeByte(tEnum);
+			writeEnum(out, (Enum<?>) obj);
+		}
+		else if(obj instanceof VotePacket) {
+			out.writeByte(tVotePacket);
+			writeVotePacket(out, (VotePacket) obj);
+		}
+		else if(obj instanceof WrittenBallot) {
+			out.writeByte(tWrittenBallot);
+			writeWrittenBallot(out, (WrittenBallot) obj);
+		}
+		else if(obj instanceof WrittenBallot[]) {
+			out.writeByte(tWrittenBallotArray);
+			writeArray(out, (WrittenBallot[]) obj);
+		}
+		else if(obj instanceof EmptyBallot) {
+			out.writeByte(tEmptyBallot);
+			writeEmptyBallot(out, (EmptyBallot) obj);
+		}
+		else if(obj instanceof EmptyBallot[]) {
+			out.writeByte(tEmptyBallotArray);
+			writeArray(out, (EmptyBallot[]) obj);
+		}
+		else if(obj instanceof ElectoralList) {
+			out.writeByte(tElectoralList);
+			writeElectoralList(out, (ElectoralList) obj);
+		}
+		else if(obj instanceof Person) {
+			out.writeByte(tPerson);
+			writePerson(out, (Person) obj);
+		}
+		else if(obj instanceof Person[]) {
+			out.writeByte(tPersonArray);
+			writeArray(out, (Person[]) obj);
+		}
+		else if(obj instanceof DummyPost) {
+			out.writeByte(tDummyPost);
+			writeDummyPost(out, (DummyPost) obj);
+		}
+		else if(obj instanceof DummyPost[]) {
+			out.writeByte(tDummyPostArray);
+			writeArray(out, (DummyPost[]) obj);
+		}
+		else {
+			throw new IllegalArgumentException("Tipo non supportato dal formato di trasmissione: " + obj.getClass().getName());
+		}
+	}
+
+	private static Object readValue(ByteBuffer in) {
+		byte type = in.get();
+
+		switch(type) {
+			case tNull:
+				return null;
+
+			case tString:
+				return readString(in);
+
+			case tInteger:
+				return readInt(in);
+
+			case tBoolean:
+				return readBoolean(in);
+
+			case tIntArray:
+				return readIntArray(in);
+
+			case tByteArray:
+				return readBytes(in);
+
+			case tStringArray:
+				return readStrings(in);
+
+			case tStringMatrix: {
+				String[][] matrix = new String[readLength(in)][];
+				for(int i = 0; i < matrix.length; i++)
+					matrix[i] = readStrings(in);
+				return matrix;
+			}
+
+			case tInetAddress:
+				return readInetAddress(in);
+
+			case tInetAddressArray: {
+				InetAddress[] ips = new InetAddress[readLength(in)];
+				for(int i = 0; i < ips.length; i++)
+					ips[i] = readInetAddress(in);
+				return ips;
+			}
+
+			case tEnum:
+				return readEnum(in);
+
+			case tVotePacket:
+				return readVotePacket(in);
+
+			case tWrittenBallot:
+				return readWrittenBallot(in);
+
+			case tWrittenBallotArray:
+				return readArray(in, new WrittenBallot[readLength(in)], tWrittenBallot);
+
+			case tEmptyBallot:
+				return readEmptyBallot(in);
+
+			case tEmptyBallotArray:
+				return readArray(in, new EmptyBallot[readLength(in)], tEmptyBallot);
+
+			case tElectoralList:
+				return readElectoralList(in);
+
+			case tPerson:
+				return readPerson(in);
+
+			case tPersonArray:
+				return readArray(in, new Person[readLength(in)], tPerson);
+
+			case tDummyPost:
+				return readDummyPost(in);
+
+			case tDummyPostArray:
+				return readArray(in, new DummyPost[readLength(in)], tDummyPost);
+
+			default:
+				throw new IllegalArgumentException("Tipo non riconosciuto: " + type);
+		}
+	}
+
+	/**
+	 * Legge un valore che deve essere del tipo atteso (o null).
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T readValue(ByteBuffer in, byte expected) {
+		if(!in.hasRemaining())
+			throw new BufferUnderflowException();
+
+		byte type = in.get(in.position());
+
+		if(type != tNull && type != expected)
+			throw new IllegalArgumentException("Tipo " + type + " non valido, atteso " + expected);
+
+		return (T) readValue(in);
+	}
+
+	private static void writeArray(Writer out, Object[] array) {
+		out.writeLength(array.length);
+		for(Object obj : array)
+			writeValue(out, obj);
+	}
+
+	private static <T> T[] readArray(ByteBuffer in, T[] array, byte expected) {
+		for(int i = 0; i < array.length; i++)
+			array[i] = readValue(in, expected);
+		return array;
+	}
+
+	private static void writeStrings(Writer out, String[] strings) {
+		if(strings == null) {
+			out.writeLength(-1);
+			return;
+		}
+
+		out.writeLength(strings.length);
+		for(String str : strings)
+			out.writeString(str);
+	}
+
+	private static String[] readStrings(ByteBuffer in) {
+		int length = readLength(in);
+		if(length < 0)
+			return null;
+
+		String[] strings = new String[length];
+		for(int i = 0; i < length; i++)
+			strings[i] = readString(in);
+		return strings;
+	}
+
+	private static void writeInetAddress(Writer out, InetAddress ip) {
+		out.writeByteArray(ip == null ? null : ip.getAddress());
+	}
+
+	private static InetAddress readInetAddress(ByteBuffer in) {
+		byte[] address = readBytes(in);
+		if(address == null)
+			return null;
+
+		try {
+			return InetAddress.getByAddress(address);
+		}
+		catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Indirizzo ip non valido", e);
+		}
+	}
+
+	private static void writeEnum(Writer out, Enum<?> value) {
+		for(int i = 0; i < enums.length; i++) {
+			if(enums[i] == value.getDeclaringClass()) {
+				out.writeInt(i);
+				out.writeString(value.name());
+				return;
+			}
+		}
+
+		throw new IllegalArgumentException("Tipo non supportato dal formato di trasmissione: " + value.getDeclaringClass().getName());
+	}
+
+	private static Enum<?> readEnum(ByteBuffer in) {
+		int index = readInt(in);
+		if(index < 0 || index >= enums.length)
+			throw new IllegalArgumentException("Enum non riconosciuto: " + index);
+
+		String name = readString(in);
+		for(Object constant : enums[index].getEnumConstants())
+			if(((Enum<?>) constant).name().equals(name))
+				return (Enum<?>) constant;
+
+		throw new IllegalArgumentException("Valore " + name + " non valido per " + enums[index].getSimpleName());
+	}
+
+	private static <E extends Enum<E>> E readEnum(ByteBuffer in, Class<E> type) {
+		Object value = readValue(in, tEnum);
+
+		if(value != null && !type.isInstance(value))
+			throw new IllegalArgumentException("Valore " + value + " non valido per " + type.getSimpleName());
+
+		return type.cast(value);
+	}
+
+	private static void writeMessage(Writer out, Message message) {
+		out.writeString(message.getValue());
+
+		ArrayList<String> errors = message.getErrors();
+		out.writeLength(errors.size());
+		for(String error : errors)
+			out.writeString(error);
+
+		Map<String, Object> elements = message.getElements();
+		out.writeLength(elements.size());
+		for(Map.Entry<String, Object> element : elements.entrySet()) {
+			out.writeString(element.getKey());
+			writeValue(out, element.getValue());
+		}
+	}
+
+	private static Message readMessage(ByteBuffer in) {
+		Message message = new Message(readString(in));
+
+		int errors = readLength(in);
+		for(int i = 0; i < errors; i++)
+			message.addError(readString(in));
+
+		int elements = readLength(in);
+		for(int i = 0; i < elements; i++) {
+			String name = readString(in);
+			message.setElement(name, readValue(in));
+		}
+
+		return message;
+	}
+
+	private static void writeVotePacket(Writer out, VotePacket packet) {
+		out.writeString(packet.getEncryptedVote());
+		out.writeString(packet.getEncryptedKi());
+		out.writeString(packet.getEncryptedIV());
+		out.writeString(packet.getSolvedNonce());
+		out.writeInt(packet.getHMACVersion());
+		out.writeString(packet.getSalt());
+		out.writeString(packet.getHMAC());
+		out.writeString(packet.getSignature());
+	}
+
+	private static VotePacket readVotePacket(ByteBuffer in) {
+		VotePacket packet = new VotePacket(readString(in), readString(in), readString(in), readString(in));
+		packet.sign(readInt(in), readString(in), readString(in));
+		packet.sign(readString(in));
+		return packet;
+	}
+
+	private static void writeWrittenBallot(Writer out, WrittenBallot ballot) {
+		out.writeString(ballot.getTitle());
+		out.writeInt(ballot.getCode());
+		out.writeInt(ballot.getMaxPreferences());
+
+		out.writeLength(ballot.getPreferences().size());
+		for(String preference : ballot.getPreferences())
+			out.writeString(preference);
+
+		out.writeLength(ballot.getEncryptedVotePackets().size());
+		for(VotePacket packet : ballot.getEncryptedVotePackets())
+			writeValue(out, packet);
+	}
+
+	private static WrittenBallot readWrittenBallot(ByteBuffer in) {
+		String title = readString(in);
+		int code = readInt(in);
+		int maxPref = readInt(in);
+
+		if(maxPref < 0)
+			throw new IllegalArgumentException("Numero di preferenze non valido: " + maxPref);
+
+		WrittenBallot ballot = new WrittenBallot(title, code, maxPref);
+
+		int preferences = readLength(in);
+		for(int i = 0; i < preferences; i++)
+			if(!ballot.addPreference(readString(in)))
+				throw new IllegalArgumentException("Preferenze non valide per la scheda " + code);
+
+		int packets = readLength(in);
+		for(int i = 0; i < packets; i++)
+			ballot.getEncryptedVotePackets().add(readValue(in, tVotePacket));
+
+		return ballot;
+	}
+
+	private static void writeEmptyBallot(Writer out, EmptyBallot ballot) {
+		out.writeString(ballot.getTitle());
+		out.writeInt(ballot.getCode());
+		out.writeString(ballot.getDescription());
+		out.writeInt(ballot.getMaxPreferences());
+
+		ArrayList<ElectoralList> lists = ballot.getLists();
+		out.writeLength(lists.size());
+		for(ElectoralList list : lists)
+			writeElectoralList(out, list);
+
+		ArrayList<String> options = ballot.getOptions();
+		out.writeLength(options.size());
+		for(String option : options)
+			out.writeString(option);
+	}
+
+	private static EmptyBallot readEmptyBallot(ByteBuffer in) {
+		EmptyBallot ballot = new EmptyBallot(readString(in), readInt(in), readString(in), readInt(in));
+
+		int lists = readLength(in);
+		for(int i = 0; i < lists; i++)
+			if(ballot.addList(readElectoralList(in)) == null)
+				throw new IllegalArgumentException("Lista duplicata nella scheda " + ballot.getCode());
+
+		int options = readLength(in);
+		for(int i = 0; i < options; i++)
+			ballot.addOption(readString(in));
+
+		return ballot;
+	}
+
+	private static void writeElectoralList(Writer out, ElectoralList list) {
+		out.writeString(list.getName());
+		out.writeInt(list.getCode());
+
+		ArrayList<Person> candidates = list.getCandidates();
+		out.writeLength(candidates.size());
+		for(Person candidate : candidates)
+			writePerson(out, candidate);
+	}
+
+	private static ElectoralList readElectoralList(ByteBuffer in) {
+		String name = readString(in);
+		if(name == null)
+			throw new IllegalArgumentException("Lista elettorale senza nome");
+
+		ElectoralList list = new ElectoralList(name, readInt(in));
+
+		int candidates = readLength(in);
+		for(int i = 0; i < candidates; i++)
+			if(list.addPerson(readPerson(in)) == null)
+				throw new IllegalArgumentException("Candidato duplicato nella lista " + name);
+
+		return list;
+	}
+
+	private static void writePerson(Writer out, Person person) {
+		out.writeString(person.getFirstName());
+		out.writeString(person.getLastName());
+		out.writeString(person.getID());
+		out.writeString(person.getBirth());
+		out.writeIntArray(person.getBallotCodes());
+		out.writeBoolean(person.mayVote());
+
+		Integer votes = person.getVotesReceived();
+		out.writeBoolean(votes != null);
+		if(votes != null)
+			out.writeInt(votes);
+
+		out.writeString(person.getDocumentID());
+		writeValue(out, person.getDocumentType());
+	}
+
+	private static Person readPerson(ByteBuffer in) {
+		String firstName = readString(in);
+		String lastName = readString(in);
+		String ID = readString(in);
+		String birthDate = readString(in);
+		int[] ballotCodes = readIntArray(in);
+		boolean mayVote = readBoolean(in);
+		Integer votesReceived = readBoolean(in) ? readInt(in) : null;
+		String documentID = readString(in);
+		Person.DocumentType documentType = readEnum(in, Person.DocumentType.class);
+
+		if(ID == null)
+			throw new IllegalArgumentException("Persona senza codice identificativo");
+
+		return new Person(firstName, lastName, ID, birthDate, ballotCodes, mayVote, votesReceived, documentID, documentType);
+	}
+
+	private static void writeDummyPost(Writer out, DummyPost post) {
+		out.writeInt(post.getId());
+		writeInetAddress(out, post.getIp());
+		writeValue(out, post.getState());
+		out.writeBoolean(post.isUnreachable());
+		writeValue(out, post.getVoter());
+		out.writeString(post.getBadge());
+		writeValue(out, post.getEncryptedBallots());
+	}
+
+	private static DummyPost readDummyPost(ByteBuffer in) {
+		DummyPost post = new DummyPost(readInt(in), readInetAddress(in));
+
+		post.setState(readEnum(in, State.StatePost.class));
+		post.setUnreachable(readBoolean(in));
+		post.setVoter(readValue(in, tPerson));
+		post.setBadge(readString(in));
+		post.setEncryptedBallots(readValue(in, tWrittenBallotArray));
+
+		return post;
+	}
+
+	private static int readInt(ByteBuffer in) {
+		long zigzag = readVarint(in);
+		long value = (zigzag >>> 1) ^ -(zigzag & 1);
+
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Intero fuori dall'intervallo consentito");
+
+		return (int) value;
+	}
+
+	private static boolean readBoolean(ByteBuffer in) {
+		byte value = in.get();
+		if(value != 0 && value != 1)
+			throw new IllegalArgumentException("Valore booleano non valido: " + value);
+
+		return value == 1;
+	}
+
+	/**
+	 * Legge una lunghezza (o -1 per un valore assente), verificando che non superi i byte ancora da leggere:
+	 * ogni elemento occupa almeno un byte, per cui una lunghezza maggiore indica un contenuto non valido (e non va allocata).
+	 */
+	private static int readLength(ByteBuffer in) {
+		long length = readVarint(in) - 1;
+
+		if(length < -1 || length > in.remaining())
+			throw new IllegalArgumentException("Lunghezza non valida: " + length);
+
+		return (int) length;
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer in) {
+		int length = readLength(in);
+		if(length < 0)
+			return null;
+
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return bytes;
+	}
+
+	private static int[] readIntArray(ByteBuffer in) {
+		int length = readLength(in);
+		if(length < 0)
+			return null;
+
+		int[] values = new int[length];
+		for(int i = 0; i < length; i++)
+			values[i] = readInt(in);
+		return values;
+	}
+
+	private static long readVarint(ByteBuffer in) {
+		long value = 0;
+
+		for(int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+
+			if((b & 0x80) == 0)
+				return value;
+		}
+
+		throw new IllegalArgumentException("Varint non valido");
+	}
+
+	/**
+	 * Valore già codificato con {@link WireCodec#preEncode(Object)}. È immutabile, per cui può essere condiviso tra più messaggi e più thread.
+	 */
+	public static final class Encoded {
+		private final byte[] bytes;
+
+		private Encoded(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return Una copia dei byte del valore codificato.
+		 */
+		public byte[] getBytes() {
+			return bytes.clone();
+		}
+
+		/**
+		 * @return Il numero di byte del valore codificato.
+		 */
+		public int size() {
+			return bytes.length;
+		}
+	}
+
+	/**
+	 * Buffer di scrittura dei valori primitivi del formato.
+	 */
+	private static class Writer extends ByteArrayOutputStream {
+
+		private Writer() {
+			super(256);
+		}
+
+		private void writeByte(int b) {
+			write(b);
+		}
+
+		private void writeBoolean(boolean value) {
+			write(value ? 1 : 0);
+		}
+
+		//Interi con segno in codifica zigzag, così che i valori piccoli (anche negativi) occupino pochi byte
+		private void writeInt(int value) {
+			writeVarint(((long) value << 1) ^ ((long) value >> 63));
+		}
+
+		//Lunghezze incrementate di uno, così che lo zero rappresenti un valore assente
+		private void writeLength(int length) {
+			writeVarint(length + 1L);
+		}
+
+		private void writeString(String str) {
+			writeByteArray(str == null ? null : str.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void writeByteArray(byte[] bytes) {
+			if(bytes == null) {
+				writeLength(-1);
+				return;
+			}
+
+			writeLength(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+
+		private void writeIntArray(int[] values) {
+			if(values == null) {
+				writeLength(-1);
+				return;
+			}
+
+			writeLength(values.length);
+			for(int value : values)
+				writeInt(value);
+		}
+
+		private void writeVarint(long value) {
+			while((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+
+			write((int) value);
+		}
+	}
+}
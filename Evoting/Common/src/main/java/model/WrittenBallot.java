@@ -1,9 +1,11 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
 import java.util.TreeSet;
 
-import encryption.VoteEncryption;
+import encryption.CryptoContext;
 import exceptions.FLRException;
 import exceptions.PEException;
 import utils.Protocol;
@@ -115,6 +117,18 @@ public class WrittenBallot extends Parsable {
 	 * @throws PEException
 	 */
 	public void encryptBallot(byte[] Kpu_rp, String[] encryptedNonces, String sessionKey) throws PEException {
+		encryptBallot(new CryptoContext(Kpu_rp, null), encryptedNonces, sessionKey);
+	}
+	
+	/**
+	 * Cifra tutte le preferenze adoperando un {@link CryptoContext} che contiene già la chiave pubblica del responsabile di procedimento,
+	 * così che la chiave non venga ricostruita per ogni pacchetto o per ogni scheda.
+	 * @param Kpu_rp Contesto crittografico con la chiave pubblica del responsabile di procedimento.
+	 * @param encryptedNonces Nonce cifrati inviati dall'urna come sfida per l'autenticazione.
+	 * @param sessionKey Chiave di sessione inserita all'attivazione.
+	 * @throws PEException
+	 */
+	public void encryptBallot(CryptoContext Kpu_rp, String[] encryptedNonces, String sessionKey) throws PEException {
 		encryptedVotePackets.clear();
 		
 		if(encryptedNonces.length != maxPref) {
@@ -123,21 +137,21 @@ public class WrittenBallot extends Parsable {
 		
 		int index = 0;
 		for(String preference : preferencesSet) {
-			VotePacket packet = VoteEncryption.encrypt(preference, Kpu_rp, encryptedNonces[index], sessionKey);
+			VotePacket packet = Kpu_rp.encrypt(preference, encryptedNonces[index], sessionKey);
 			index++;
 			
 			encryptedVotePackets.add(packet);
 		}
 		
 		if (index == 0) {
-			VotePacket packet = VoteEncryption.encrypt(Protocol.emptyBallot, Kpu_rp, encryptedNonces[index], sessionKey);
+			VotePacket packet = Kpu_rp.encrypt(Protocol.emptyBallot, encryptedNonces[index], sessionKey);
 			
 			index++;
 			encryptedVotePackets.add(packet);
 		}
 		
 		for(int i = maxPref - index; i > 0; i--) {
-			VotePacket emptyPacket = VoteEncryption.encrypt(Protocol.emptyPreference, Kpu_rp, encryptedNonces[index], sessionKey);
+			VotePacket emptyPacket = Kpu_rp.encrypt(Protocol.emptyPreference, encryptedNonces[index], sessionKey);
 			index++;
 			
 			encryptedVotePackets.add(emptyPacket);
@@ -164,6 +178,13 @@ public class WrittenBallot extends Parsable {
 		return maxPref;
 	}
 	
+	/**
+	 * Restituisce le preferenze non ancora cifrate (adoperata da {@link WireCodec}).
+	 */
+	Set<String> getPreferences() {
+		return Collections.unmodifiableSet(preferencesSet);
+	}
+	
 	public int temp() {
 		return preferencesSet.size();
 	}
@@ -45,6 +45,59 @@ public class Constants {
 	 */
 	public final static int portPost = 4345;
 	
+	/**
+	 * Durata (in ms) del lease di un terminale presso l'urna: se per questo tempo non arriva alcun heartbeat, il terminale considera perso
+	 * il collegamento con l'urna e richiede un nuovo lease. L'urna invia un heartbeat ogni terzo di questo tempo.
+	 * <br/>
+	 * Determina quindi la latenza con cui un terminale si accorge di un'urna irraggiungibile o di un lease non più valido;
+	 * spegnimento dell'urna e disattivazione del terminale vengono invece notificati immediatamente.
+	 */
+	public static int urnLeaseTimeout = 15000;
+	
+	/**
+	 * Attesa massima (in ms) di una riga su un link multiplexato su una connessione persistente: se l'altra parte non invia nulla
+	 * per questo tempo il link viene chiuso, così che né chi attende una risposta né il Service che attende una richiesta restino bloccati.
+	 * Deve essere maggiore dell'intervallo tra gli heartbeat del lease (vedi {@link #urnLeaseTimeout}).
+	 */
+	public static int linkReadTimeout = 60000;
+	
+	/**
+	 * Intervallo (in ms) tra due ping inviati sulle connessioni persistenti da chi le ha aperte, ai quali l'altra parte risponde.
+	 * Una connessione sulla quale non arriva nulla per tre intervalli viene chiusa da entrambe le parti: un terminale spento o scollegato
+	 * senza chiudere la connessione viene così rilevato, e la richiesta successiva apre una nuova connessione.
+	 */
+	public static int channelPingInterval = 2000;
+	
+	/**
+	 * Intervallo minimo (in ms) tra due verifiche dello stato di una postazione da parte del seggio, adoperato per le postazioni
+	 * irraggiungibili. Finché una postazione risponde l'intervallo raddoppia ad ogni verifica, fino a {@link #postsPollingMax}.
+	 */
+	public static int postsPollingMin = 1000;
+	
+	/**
+	 * Intervallo massimo (in ms) tra due verifiche dello stato di una postazione raggiungibile. Anche ogni stato notificato
+	 * dalla postazione al seggio rimanda la verifica successiva di questo intervallo.
+	 */
+	public static int postsPollingMax = 16000;
+	
+	/**
+	 * Flag che abilita le verifiche periodiche delle postazioni raggiungibili da parte del seggio. Se disabilitato, lo stato
+	 * delle postazioni è aggiornato solo dalle notifiche che esse inviano ad ogni cambiamento di stato.
+	 */
+	public static boolean postsPolling = true;
+	
+	/**
+	 * Attesa massima (in ms) della risposta di una postazione ad una verifica dello stato da parte del seggio: scaduto il tempo,
+	 * la postazione viene considerata irraggiungibile senza trattenere oltre i thread che verificano le altre.
+	 */
+	public static int postCheckTimeout = 2000;
+	
+	/**
+	 * Attesa massima (in ms) delle risposte dei seggi ausiliari ad un aggiornamento delle postazioni, inviato a tutti in parallelo:
+	 * scaduto il tempo, il seggio non attende oltre un seggio ausiliario bloccato, che recupererà l'aggiornamento con quello successivo.
+	 */
+	public static int subStationReplyTimeout = 5000;
+	
 	/**
 	 * Stringa contenente tutti i caratteri validi per una chiave di sessione.
 	 */
@@ -81,6 +134,36 @@ public class Constants {
 	 */
 	public static boolean linkSSL = true || !devMode;
 	
+	/**
+	 * Flag che permette di eseguire ogni Service dei server su un virtual thread (se supportati dalla JVM), anziché su un pool
+	 * di dimensione fissa: le richieste simultanee non sono più limitate dal numero di connessioni indicato per il terminale
+	 * (ma solo da {@link #maxServiceThreads}, se la JVM non supporta i virtual thread).
+	 */
+	public static boolean virtualThreads = false;
+	
+	/**
+	 * Numero massimo di thread ordinari su cui eseguire i Service quando {@link #virtualThreads} è abilitato ma la JVM non supporta
+	 * i virtual thread (es. Java 17). Le richieste in eccesso attendono che un thread si liberi.
+	 */
+	public static int maxServiceThreads = 256;
+	
+	/**
+	 * Numero massimo di aggiornamenti al secondo della view dei terminali. Le richieste di aggiornamento più ravvicinate
+	 * (ad esempio una per ogni richiesta servita dall'urna) vengono accorpate, così che la view non rallenti i Service.
+	 */
+	public static int viewRefreshRate = 10;
+
+	/**
+	 * Numero massimo di log mantenuti in memoria da ciascun terminale. Superato questo numero i log più vecchi vengono sovrascritti,
+	 * per cui la memoria occupata dai log non cresce con la durata della sessione.
+	 */
+	public static int logBufferSize = 8192;
+
+	/**
+	 * Dimensione massima (in byte) di un file di log: superata questa dimensione, i log del giorno proseguono in un nuovo file.
+	 */
+	public static long logFileMaxSize = 64L * 1024 * 1024;
+	
 	/**
 	 * Flag che permette alle postazioni di settare la lettura di schede RFID da un lettore fisico. 
 	 */
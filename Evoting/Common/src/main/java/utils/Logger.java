@@ -1,114 +1,363 @@
 package utils;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintWriter;
-import java.time.LocalDateTime;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import model.Terminals;
 
 /**
  * Classe utilizzata per effettuare il logging delle operazioni compiute dai vari terminali. Al momento, è utilizzata in modo estensivo solo dall'urna, che stampa
- * i log sulla GUI e, contemporaneamente, su file. Tutti gli altri terminali contengono già il Logger (è contenuto in AbstrModel), ma al momento non ne è previsto 
+ * i log sulla GUI e, contemporaneamente, su file. Tutti gli altri terminali contengono già il Logger (è contenuto in AbstrModel), ma al momento non ne è previsto
  * l'utilizzo.
+ * <br/>
+ * I log sono mantenuti in un buffer circolare di dimensione fissa ({@link Constants#logBufferSize}), per cui la memoria occupata non cresce con la durata
+ * della sessione: i Service registrano un log senza alcun lock, e chi legge i log (la view o la scrittura su file) li consuma tramite un {@link Cursor}.
+ * La scrittura su file avviene in background, a blocchi, su un unico file aperto per giorno (un nuovo file viene aperto anche al superamento di
+ * {@link Constants#logFileMaxSize}).
  */
 public class Logger {
-	private final boolean logOnFile;
-	
-	private ArrayList<String> logs;
-	private int lastLog;
-	
+	/**
+	 * Livello di un log.
+	 */
+	public enum Level { INFO, SUCCESS, WARNING, ERROR }
+
+	//Thread condiviso da tutti i logger che scrivono su file
+	private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "Log Writer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final long flushPeriod = 200;
+	private static final DateTimeFormatter entryDateFormatter = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+	private final AtomicReferenceArray<Entry> ring;
+	private final AtomicLong next = new AtomicLong(0);
+
+	//Cursore adoperato da getLogs()
+	private final Cursor viewCursor;
+
 	private final String logDir = System.getProperty("user.dir") + "/logs/";
 	private final DateTimeFormatter logDateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-	
+
+	private final FileSink sink;
+
 	/**
 	 * Costruttore con parametro che specifica se il logger deve stampare su file o no. In caso affermativo, verifica che la directory per i log esista (ed in caso
 	 * provvede a crearla).
 	 * @param logOnFile True per stampare su file, false altrimenti
 	 */
 	public Logger(boolean logOnFile) {
-		this.logs = new ArrayList<>();
-		this.lastLog = 0;
-		this.logOnFile = logOnFile;
-		
+		this(logOnFile, Constants.logBufferSize);
+	}
+
+	/**
+	 * Costruttore con la dimensione del buffer dei log.
+	 * @param logOnFile True per stampare su file, false altrimenti
+	 * @param capacity	Numero massimo di log mantenuti in memoria.
+	 */
+	public Logger(boolean logOnFile, int capacity) {
+		this.ring = new AtomicReferenceArray<>(Math.max(1, capacity));
+		this.viewCursor = newCursor();
+
 		if(logOnFile) {
 			File dir = new File(logDir);
-			if (!dir.exists()) 
+			if (!dir.exists())
 				dir.mkdir();
+
+			sink = new FileSink(this);
 		}
+		else
+			sink = null;
 	}
-	
+
 	/**
 	 * Restituisce tutti i log che non sono già stati ritornati. Ogni volta che viene chiamata tiene traccia dell'ultimo log inviato, in modo tale da non restituire
 	 * più volte gli stessi log.
 	 * @return Lista di log non ancora restituiti
 	 */
 	public ArrayList<String> getLogs() {
-		List<String> newLogs = logs.subList(lastLog, logs.size());
-		lastLog = logs.size();
-		return new ArrayList<String>(newLogs);
+		ArrayList<String> newLogs = new ArrayList<>();
+		for(Entry entry : viewCursor.poll())
+			newLogs.add(entry.toString());
+
+		return newLogs;
 	}
-	
+
+	/**
+	 * Crea un cursore che restituirà i log registrati da questo momento in poi.
+	 * @return Il cursore.
+	 */
+	public Cursor newCursor() {
+		return new Cursor(next.get());
+	}
+
 	/**
 	 * Permette di loggare un evento, anteponendogli il label "[INFO]".
 	 * @param event Evento da loggare
 	 */
-	public void logInfo(String event) { 
-		logEvent("INFO", event); 
+	public void logInfo(String event) {
+		log(Level.INFO, null, null, event);
 	}
-	
+
 	/**
 	 * Permette di loggare un evento, anteponendogli il label "[SUCCESS]".
 	 * @param event Evento da loggare
 	 */
-	public void logSuccess(String event) { 
-		logEvent("SUCCESS", event); 
+	public void logSuccess(String event) {
+		log(Level.SUCCESS, null, null, event);
 	}
-	
+
 	/**
 	 * Permette di loggare un evento, anteponendogli il label "[WARNING]".
 	 * @param event Evento da loggare
 	 */
-	public void logWarning(String event) { 
-		logEvent("WARNING", event); 
+	public void logWarning(String event) {
+		log(Level.WARNING, null, null, event);
 	}
-	
+
 	/**
 	 * Permette di loggare un evento, anteponendogli il label "[ERROR]".
 	 * @param event Evento da loggare
 	 */
-	public void logError(String event) { 
-		logEvent("ERROR", event); 
+	public void logError(String event) {
+		log(Level.ERROR, null, null, event);
 	}
-	
+
 	/**
-	 * Aggiunge un timestamp ed il label scelto al log, quindi aggiunge il log completo alla lista mantenuta nella classe e, a seconda 
-	 * dell'attributo {@link #logOnFile}, stampa anche il log su file.
-	 * @param type Tipo di evento
-	 * @param event Evento da loggare
+	 * Registra un evento relativo ad un terminale. La registrazione non acquisisce alcun lock e non scrive su file: se il buffer è pieno
+	 * il log più vecchio viene sovrascritto.
+	 * @param level		Livello del log.
+	 * @param ip		L'indirizzo del terminale a cui si riferisce l'evento, o null.
+	 * @param type		Il tipo del terminale a cui si riferisce l'evento, o null.
+	 * @param event		Evento da loggare
+	 */
+	public void log(Level level, InetAddress ip, Terminals.Type type, String event) {
+		long seq = next.getAndIncrement();
+		ring.set(slot(seq), new Entry(seq, System.currentTimeMillis(), level, ip, type, event));
+	}
+
+	/**
+	 * Scrive su file i log non ancora scritti e termina la scrittura in background.
+	 */
+	public void close() {
+		if(sink != null)
+			sink.close();
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % ring.length());
+	}
+
+	/**
+	 * Log registrato, con i suoi campi strutturati.
+	 */
+	public static class Entry {
+		private final long seq;
+		private final long timestamp;
+		private final Level level;
+		private final InetAddress ip;
+		private final Terminals.Type type;
+		private final String event;
+
+		private Entry(long seq, long timestamp, Level level, InetAddress ip, Terminals.Type type, String event) {
+			this.seq = seq;
+			this.timestamp = timestamp;
+			this.level = level;
+			this.ip = ip;
+			this.type = type;
+			this.event = event;
+		}
+
+		public long getTimestamp() { return timestamp; }
+		public Level getLevel() { return level; }
+		public InetAddress getIp() { return ip; }
+		public Terminals.Type getType() { return type; }
+		public String getEvent() { return event; }
+
+		/**
+		 * @return Il log completo di timestamp e label, ad esempio "Mon Jan 01 10:00:00 CET 2024 - [INFO] Evento".
+		 */
+		@Override
+		public String toString() {
+			return entryDateFormatter.format(Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault())) + " - [" + level + "] " + event;
+		}
+	}
+
+	/**
+	 * Posizione di un lettore nel buffer dei log. Ogni lettura restituisce solo i log registrati dopo la lettura precedente,
+	 * senza copiare il resto del buffer; i log sovrascritti prima di essere letti vengono contati in {@link #getLost()}.
 	 */
-	private void logEvent(String type, String event) {
-		String fullLog = new java.util.Date()+" - ["+type+"] " + event;
-		logs.add(fullLog);
-		
-		if(logOnFile)
-			writeLogToFile(fullLog);
+	public class Cursor {
+		private long position;
+		private long lost = 0;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * @return I log registrati dopo la lettura precedente, in ordine di registrazione.
+		 */
+		public synchronized List<Entry> poll() {
+			List<Entry> entries = new ArrayList<>();
+			long end = next.get();
+
+			//I log più vecchi della capacità del buffer sono stati sovrascritti
+			if(end - position > ring.length()) {
+				lost += end - ring.length() - position;
+				position = end - ring.length();
+			}
+
+			while(position < end) {
+				Entry entry = ring.get(slot(position));
+
+				//Log non ancora memorizzato da chi lo sta registrando: verrà restituito dalla prossima lettura
+				if(entry == null || entry.seq < position)
+					break;
+
+				//Log sovrascritto durante la lettura
+				if(entry.seq > position) {
+					lost++;
+					position++;
+					continue;
+				}
+
+				entries.add(entry);
+				position++;
+			}
+
+			return entries;
+		}
+
+		/**
+		 * @return Il numero di log sovrascritti prima di essere letti da questo cursore.
+		 */
+		public synchronized long getLost() {
+			return lost;
+		}
 	}
-	
+
 	/**
-	 * Scrive il log passato a parametro su un file. Il nome del file dipende dal giorno, secondo il formato "yyyy-mm-dd". 
-	 * @param log Log da scrivere su file
+	 * Scrittura in background dei log su file. Il file del giorno viene aperto una volta sola e i log vengono accodati a blocchi.
+	 * Il logger è referenziato debolmente, per cui un logger non più adoperato (e mai chiuso) non viene mantenuto in vita dalla scrittura.
 	 */
-	private void writeLogToFile(String log) {
-		String file = logDir + logDateFormatter.format(LocalDateTime.now()) + ".log";
-		
-		try (PrintWriter pw = new PrintWriter(new FileOutputStream(file, true))) {
-			pw.println(log);
-		} 
-		catch (FileNotFoundException e) { 
-			e.printStackTrace(); 
+	private static class FileSink {
+		private final WeakReference<Logger> logger;
+		private final Cursor cursor;
+		private final String logDir;
+		private final DateTimeFormatter logDateFormatter;
+		private final ScheduledFuture<?> task;
+
+		private FileChannel channel = null;
+		private LocalDate day = null;
+		private int part = 0;
+		private long lostWritten = 0;
+		private boolean closed = false;
+
+		FileSink(Logger logger) {
+			this.logger = new WeakReference<>(logger);
+			this.cursor = logger.newCursor();
+			this.logDir = logger.logDir;
+			this.logDateFormatter = logger.logDateFormatter;
+
+			task = writer.scheduleWithFixedDelay(this::flush, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void flush() {
+			if(closed)
+				return;
+
+			StringBuilder batch = new StringBuilder();
+			for(Entry entry : cursor.poll())
+				batch.append(entry).append(System.lineSeparator());
+
+			long lost = cursor.getLost();
+			if(lost > lostWritten) {
+				batch.append("Log persi perché non scritti in tempo: ").append(lost - lostWritten).append(System.lineSeparator());
+				lostWritten = lost;
+			}
+
+			if(batch.length() > 0)
+				write(batch.toString());
+
+			if(logger.get() == null)
+				close();
+		}
+
+		private void write(String batch) {
+			try {
+				rollIfNeeded();
+
+				ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes(StandardCharsets.UTF_8));
+				while(bytes.hasRemaining())
+					channel.write(bytes);
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+				closeChannel();
+			}
+		}
+
+		//Il nome del file dipende dal giorno, secondo il formato "yyyy-mm-dd", seguito dal numero della parte se il file del giorno supera la dimensione massima
+		private void rollIfNeeded() throws IOException {
+			LocalDate today = LocalDate.now();
+
+			if(channel != null && today.equals(day) && channel.size() < Constants.logFileMaxSize)
+				return;
+
+			if(!today.equals(day)) {
+				day = today;
+				part = 0;
+			}
+			else if(channel != null)
+				part++;
+
+			closeChannel();
+
+			String name = logDateFormatter.format(day) + (part == 0 ? "" : "." + part) + ".log";
+			channel = FileChannel.open(Path.of(logDir, name), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+
+		private void closeChannel() {
+			if(channel == null)
+				return;
+
+			try {
+				channel.close();
+			} catch (IOException ignored) {}
+
+			channel = null;
+		}
+
+		synchronized void close() {
+			if(closed)
+				return;
+
+			flush();
+			closed = true;
+			task.cancel(false);
+			closeChannel();
 		}
 	}
 }
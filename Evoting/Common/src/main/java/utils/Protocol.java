@@ -21,6 +21,10 @@ public class Protocol {
 	 * Messaggio corrispondente alla seconda fase di autenticazione di un seggio. Durante questa seconda fase,
 	 * l'urna, dopo essersi autenticata col seggio, richiede al seggio di autenticarsi a sua volta,
 	 * inviando un nonce.
+	 * <br/>
+	 * Dopo la soluzione della sfida il seggio invia sempre, come riga successiva, l'hash delle schede già in suo possesso
+	 * (o {@link #noBallotsHeld}): se coincide con quello delle schede della procedura, l'urna non invia nuovamente le schede.
+	 * La riga è obbligatoria: l'urna attende di riceverla prima di rispondere.
 	 */
 	public static final String StationAuthenticationPhase2 = "<<authenticateStation>>";
 	
@@ -49,6 +53,9 @@ public class Protocol {
 	 * Messaggio corrispondente alla seconda fase di autenticazione di una postazione. Durante questa seconda fase,
 	 * l'urna, dopo essersi autenticata con la postazione, richiede alla stessa di autenticarsi a sua volta, 
 	 * inviando un nonce.
+	 * <br/>
+	 * Come per il seggio, dopo la soluzione della sfida la postazione invia sempre, come riga successiva, l'hash delle schede
+	 * già in suo possesso (o {@link #noBallotsHeld}).
 	 */
 	public static final String PostAuthenticationPhase2 = "<<authenticatePost>>";
 	
@@ -59,6 +66,12 @@ public class Protocol {
 	 */
 	public static final String validAuthentication = "<<activationGranted>>";
 	
+	/**
+	 * Stringa inviata da seggi e postazioni, durante la seconda fase di autenticazione, al posto dell'hash delle schede
+	 * quando non possiedono ancora le schede della procedura.
+	 */
+	public static final String noBallotsHeld = "<<noBallotsHeld>>";
+	
 	/**
 	 * Messaggio di risposta inviato dall'urna a qualunque terminale in caso di autenticazione fallita. Blocca il processo di
 	 * mutua autenticazione ed interrompe l'attivazione del terminale.
@@ -67,8 +80,9 @@ public class Protocol {
 	
 	/**
 	 * Messaggio inviato da qualunque terminale all'urna per verificare che l'urna riconosca ancora il terminale come
-	 * autenticato. Ogni tot secondi, i terminali contattano l'urna per effettuare questa verifica. Questo è un controllo di sicurezza
-	 * aggiuntivo che permette di resettare i terminali in caso di crash dell'urna.
+	 * autenticato. Questo è un controllo di sicurezza aggiuntivo che permette di resettare i terminali in caso di crash dell'urna.
+	 * <br/>
+	 * I terminali effettuano ora questa verifica tramite {@link #urnLeaseReq}; l'urna continua comunque a rispondere a questo messaggio.
 	 */
 	public static final String checkTerminalAuthentication = "<<checkTerminalAuth>>";
 	
@@ -84,6 +98,20 @@ public class Protocol {
 	 */
 	public static final String authenticatedNack = "<<terminalAuthNack>>";
 	
+	/**
+	 * Messaggio inviato da qualunque terminale attivo all'urna per richiedere un lease: un link persistente sul quale l'urna risponde
+	 * come a {@link #checkTerminalAuthentication} e, se il terminale è autenticato, invia periodicamente {@link #urnHeartbeat}.
+	 * Sullo stesso link l'urna notifica immediatamente il proprio spegnimento ({@link #urnShutDown}) o la disattivazione
+	 * del terminale ({@link #authenticatedNack}).
+	 */
+	public static final String urnLeaseReq = "<<urnLeaseReq>>";
+	
+	/**
+	 * Messaggio inviato periodicamente dall'urna sui lease dei terminali (vedi {@link #urnLeaseReq}). Un terminale che non riceve
+	 * heartbeat per un tempo superiore alla durata del lease considera perso il collegamento con l'urna.
+	 */
+	public static final String urnHeartbeat = "<<urnHeartbeat>>";
+	
 	/* ****************************************** */
 	/* --- Messaggi per segnalare spegnimento --- */
 	/* ****************************************** */
@@ -291,6 +319,25 @@ public class Protocol {
 	 */
 	public static final String updateSubStation = "<<updateSubStation>>";
 	
+	/**
+	 * Messaggio utilizzato dal seggio per comunicare ad un seggio ausiliario le sole postazioni cambiate dall'aggiornamento precedente.
+	 * Ogni aggiornamento (anche quelli completi, {@link #updateSubStation}) ha un numero di versione progressivo: il seggio ausiliario
+	 * risponde con {@link #subStationSynced} se l'aggiornamento segue l'ultimo ricevuto, o con {@link #subStationResyncReq} se ne
+	 * ha perso qualcuno, nel qual caso il seggio gli invia subito tutte le postazioni.
+	 */
+	public static final String updateSubStationDelta = "<<updateSubStationDelta>>";
+	
+	/**
+	 * Risposta del seggio ausiliario ad un aggiornamento applicato correttamente, sia completo ({@link #updateSubStation})
+	 * che incrementale ({@link #updateSubStationDelta}).
+	 */
+	public static final String subStationSynced = "<<subStationSynced>>";
+	
+	/**
+	 * Risposta del seggio ausiliario ad un aggiornamento incrementale che non segue l'ultimo ricevuto (vedi {@link #updateSubStationDelta}).
+	 */
+	public static final String subStationResyncReq = "<<subStationResyncReq>>";
+	
 	/* ******************************************************************************* */
 	/* --- Messaggi per funzionalità esclusive dei seggi (principali ed ausiliari) --- */
 	/* ******************************************************************************* */
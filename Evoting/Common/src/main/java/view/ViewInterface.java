@@ -5,7 +5,8 @@ import exceptions.PEException;
 public interface ViewInterface {
 
     /**
-     * Funzione per aggiornare la view, richiamabile da qualsiasi parte del codice.
+     * Funzione per aggiornare la view, richiamabile da qualsiasi parte del codice. Può limitarsi a richiedere l'aggiornamento,
+     * senza attenderlo.
      */
     public void update();
 
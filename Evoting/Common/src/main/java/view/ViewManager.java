@@ -2,6 +2,7 @@ package view;
 
 import controller.AbstrController;
 import exceptions.PEException;
+import utils.Constants;
 import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -14,6 +15,9 @@ import java.net.URL;
 public abstract class ViewManager implements ViewInterface {
     protected Stage stage;
     protected AbstrController mainController;
+    
+    //Gli aggiornamenti richiesti dai controller vengono accorpati e limitati (vedi Constants.viewRefreshRate)
+    private final ViewRefresher refresher = new ViewRefresher(this::updateFromView, Platform::runLater, Constants.viewRefreshRate);
 
     public ViewManager(Stage stage){
         this.stage = stage;
@@ -26,12 +30,7 @@ public abstract class ViewManager implements ViewInterface {
 
     @Override
     public void update(){
-        Platform.runLater(new Runnable() {
-            @Override
-            public void run() {
-                updateFromView();
-            }
-        });
+        refresher.request();
     }
 
     @Override
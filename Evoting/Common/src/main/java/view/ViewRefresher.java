@@ -0,0 +1,64 @@
+package view;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Accorpa le richieste di aggiornamento della view, eseguendo l'aggiornamento al più un numero fissato di volte al secondo.
+ * <br/>
+ * Una richiesta si limita a segnare la view come da aggiornare e non attende mai l'aggiornamento: le richieste che arrivano
+ * mentre un aggiornamento è già in attesa vengono assorbite da quest'ultimo. Una richiesta che arriva durante un aggiornamento
+ * ne produce invece uno nuovo, per cui l'ultimo stato del model viene sempre mostrato.
+ */
+public class ViewRefresher {
+	//Thread condiviso da tutte le view, adoperato solo per posticipare gli aggiornamenti troppo ravvicinati
+	private static final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "View Refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Runnable refresh;
+	private final Consumer<Runnable> dispatcher;
+	private final long minPeriod;
+
+	private final AtomicBoolean dirty = new AtomicBoolean(false);
+	private volatile long lastRefresh = 0;
+
+	/**
+	 * Costruttore.
+	 * @param refresh		L'aggiornamento della view.
+	 * @param dispatcher	Esegue l'aggiornamento sul thread della view (ad esempio Platform::runLater).
+	 * @param maxRate		Numero massimo di aggiornamenti al secondo (se non positivo, gli aggiornamenti non vengono limitati).
+	 */
+	public ViewRefresher(Runnable refresh, Consumer<Runnable> dispatcher, int maxRate) {
+		this.refresh = refresh;
+		this.dispatcher = dispatcher;
+		this.minPeriod = maxRate > 0 ? 1000 / maxRate : 0;
+	}
+
+	/**
+	 * Richiede l'aggiornamento della view. Può essere richiamata da qualunque thread e ritorna immediatamente.
+	 */
+	public void request() {
+		if(!dirty.compareAndSet(false, true))
+			return;
+
+		long delay = lastRefresh + minPeriod - System.currentTimeMillis();
+		if(delay <= 0)
+			dispatcher.accept(this::refresh);
+		else
+			delayer.schedule(() -> dispatcher.accept(this::refresh), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void refresh() {
+		//Le richieste successive a questo punto produrranno un nuovo aggiornamento
+		dirty.set(false);
+		lastRefresh = System.currentTimeMillis();
+
+		refresh.run();
+	}
+}
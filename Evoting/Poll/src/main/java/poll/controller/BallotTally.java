@@ -0,0 +1,79 @@
+package poll.controller;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import utils.Protocol;
+
+/**
+ * Conteggio in memoria delle preferenze espresse su una singola scheda. I voti ricevuti da candidati e opzioni,
+ * le schede bianche e le preferenze non espresse vengono accumulati qui e scritti sul DB una sola volta al termine della scheda.
+ * Il conteggio parziale della scheda in corso viene memorizzato nel {@link CountCheckpoint}.
+ */
+public class BallotTally implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final int ballotCode;
+
+	//Contatori indicizzati sull'ID del candidato o sul testo dell'opzione
+	private final Map<String, int[]> candidates = new TreeMap<>();
+	private final Map<String, int[]> options = new TreeMap<>();
+
+	private int emptyBallots = 0, nullPreferences = 0;
+
+	public BallotTally(int ballotCode) {
+		this.ballotCode = ballotCode;
+	}
+
+	/**
+	 * Conteggia una preferenza decifrata: scheda bianca, preferenza non espressa, opzione di referendum o candidato.
+	 * @param voteString La preferenza decifrata.
+	 */
+	void addVote(String voteString) {
+		if (voteString.equals(Protocol.emptyBallot) || voteString.equals(Protocol.emptyPreference)) {
+			//In caso di scheda bianca, incremento il relativo contatore
+			if (voteString.equals(Protocol.emptyBallot))
+				emptyBallots++;
+
+			nullPreferences++;
+			return;
+		}
+
+		if (voteString.startsWith(Protocol.isOption))
+			increase(options, voteString.substring(Protocol.isOption.length()), 1);
+		else
+			increase(candidates, voteString, 1);
+	}
+
+	/**
+	 * Somma al conteggio corrente quello di un'altra scheda con lo stesso codice.
+	 * @param other Il conteggio da sommare.
+	 */
+	void merge(BallotTally other) {
+		for (Map.Entry<String, int[]> e : other.candidates.entrySet())
+			increase(candidates, e.getKey(), e.getValue()[0]);
+
+		for (Map.Entry<String, int[]> e : other.options.entrySet())
+			increase(options, e.getKey(), e.getValue()[0]);
+
+		emptyBallots += other.emptyBallots;
+		nullPreferences += other.nullPreferences;
+	}
+
+	public int getBallotCode() { return ballotCode; }
+	public Map<String, int[]> getCandidates() { return Collections.unmodifiableMap(candidates); }
+	public Map<String, int[]> getOptions() { return Collections.unmodifiableMap(options); }
+	public int getEmptyBallots() { return emptyBallots; }
+	public int getNullPreferences() { return nullPreferences; }
+
+	private static void increase(Map<String, int[]> counters, String key, int amount) {
+		int[] counter = counters.get(key);
+
+		if (counter == null)
+			counters.put(key, new int[] {amount});
+		else
+			counter[0] += amount;
+	}
+}
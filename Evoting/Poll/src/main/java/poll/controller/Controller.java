@@ -139,14 +139,15 @@ public class Controller extends AbstrController {
 	}
 	
 	/**
-	 * Avvia lo spoglio dei voti (tramite {@link PollDB#countVotes(int, String, String)}, a cui passa il codice della procedura selezionata
+	 * Avvia lo spoglio dei voti (tramite {@link PollDB#countVotes(int, String, String, CountProgress)}, a cui passa il codice della procedura selezionata
 	 * ed i dati dell'utente loggato) 
 	 * e restituisce i risultati elettorali. Inoltre, se almeno un pacchetto di voto ha causato errore, mostra un dialog di avvertimento.
+	 * @param progress Notificato dell'avanzamento dello spoglio
 	 * @return Lista dei risultati elettorali, sotto forma di ArrayList di {@link poll.view.viewmodel.BallotResult BallotResult}
 	 */
-	public ArrayList<BallotResult> countVotesAndGetResults() {
+	public ArrayList<BallotResult> countVotesAndGetResults(CountProgress progress) {
 		try {
-			int errors = db.countVotes(poll.getProcCode(), poll.getUsername(), poll.getPassword());
+			int errors = db.countVotes(poll.getProcCode(), poll.getUsername(), poll.getPassword(), progress);
 			
 			if (errors > 0)
 				printWarning("Problemi durante lo spoglio dei voti", errors+" voti non sono stati conteggiati a causa di errori di cifratura/decifratura");
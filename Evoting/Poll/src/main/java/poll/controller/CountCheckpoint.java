@@ -0,0 +1,164 @@
+package poll.controller;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import exceptions.FLRException;
+import exceptions.PEException;
+
+/**
+ * Punto di salvataggio dello spoglio di una procedura, che permette di riprendere un conteggio interrotto senza ripartire dall'inizio.
+ * <br/>
+ * I pacchetti di voto vengono letti nell'ordine della chiave primaria della tabella Vote (ProcedureCode, BallotCode, EncryptedNonce, NonceDiscrim):
+ * il punto di salvataggio memorizza la chiave dell'ultimo pacchetto conteggiato, il conteggio parziale della scheda in corso,
+ * le schede bianche e le preferenze nulle delle schede già scritte sul DB ed il numero di pacchetti scartati.
+ * <br/>
+ * Il file viene prima scritto in una copia temporanea e poi sostituito in modo atomico, così che un'interruzione durante il salvataggio
+ * lasci comunque sul disco il punto di salvataggio precedente.
+ */
+public class CountCheckpoint implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final int procCode, total;
+
+	//Chiave dell'ultimo pacchetto conteggiato, a parità di procedura
+	private int lastBallot;
+	private String lastNonce = null;
+	private int lastDiscrim;
+
+	private int processed = 0, votesFailed = 0;
+
+	//Conteggio parziale della scheda in corso, null se l'ultima scheda è già stata scritta sul DB
+	private BallotTally tally = null;
+
+	//Schede bianche e preferenze nulle delle schede già scritte sul DB
+	private final HashMap<Integer, int[]> nullVotes = new HashMap<>();
+
+	/**
+	 * @param procCode Codice della procedura
+	 * @param total Numero di pacchetti di voto della procedura, utilizzato per riconoscere punti di salvataggio non più validi
+	 */
+	public CountCheckpoint(int procCode, int total) {
+		this.procCode = procCode;
+		this.total = total;
+	}
+
+	/**
+	 * Registra il conteggio di un blocco di pacchetti della scheda in corso.
+	 * @param tally Il conteggio della scheda, comprensivo del blocco
+	 * @param count Numero di pacchetti del blocco
+	 * @param failed Numero di pacchetti del blocco scartati
+	 * @param lastNonce Nonce cifrato dell'ultimo pacchetto del blocco
+	 * @param lastDiscrim Discriminante del nonce dell'ultimo pacchetto del blocco
+	 */
+	public void blockCounted(BallotTally tally, int count, int failed, String lastNonce, int lastDiscrim) {
+		this.tally = tally;
+		this.lastBallot = tally.getBallotCode();
+		this.lastNonce = lastNonce;
+		this.lastDiscrim = lastDiscrim;
+
+		processed += count;
+		votesFailed += failed;
+	}
+
+	/**
+	 * Registra la scrittura sul DB del conteggio di una scheda.
+	 * @param tally Il conteggio completo della scheda
+	 */
+	public void ballotStored(BallotTally tally) {
+		nullVotes.put(tally.getBallotCode(), new int[] {tally.getEmptyBallots(), tally.getNullPreferences()});
+		this.tally = null;
+	}
+
+	/**
+	 * @return True se almeno un blocco è già stato conteggiato, e lo spoglio va quindi ripreso dalla chiave dell'ultimo pacchetto.
+	 */
+	public boolean hasLastKey() { return lastNonce != null; }
+
+	public int getProcCode() { return procCode; }
+	public int getTotal() { return total; }
+	public int getLastBallot() { return lastBallot; }
+	public String getLastNonce() { return lastNonce; }
+	public int getLastDiscrim() { return lastDiscrim; }
+	public int getProcessed() { return processed; }
+	public int getVotesFailed() { return votesFailed; }
+	public BallotTally getTally() { return tally; }
+	public Map<Integer, int[]> getNullVotes() { return Collections.unmodifiableMap(nullVotes); }
+
+	/**
+	 * Scrive il punto di salvataggio nella directory indicata, sostituendo quello precedente.
+	 * @param dir Directory dei punti di salvataggio, creata se non esiste
+	 * @throws PEException Se non è possibile scrivere il file
+	 */
+	public void save(File dir) throws PEException {
+		if (!dir.exists())
+			dir.mkdirs();
+
+		File file = getFile(dir, procCode);
+		File tmp = new File(dir, file.getName() + ".tmp");
+
+		try (FileOutputStream fos = new FileOutputStream(tmp); ObjectOutputStream oos = new ObjectOutputStream(fos)) {
+			oos.writeObject(this);
+			oos.flush();
+			fos.getFD().sync();
+		} catch (IOException e) {
+			throw FLRException.FLR_0(e);
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw FLRException.FLR_0(e);
+		}
+	}
+
+	/**
+	 * Recupera il punto di salvataggio della procedura, se presente. Un punto di salvataggio relativo ad un numero di pacchetti
+	 * diverso da quello attuale non è più valido, e viene ignorato.
+	 * @param dir Directory dei punti di salvataggio
+	 * @param procCode Codice della procedura
+	 * @param total Numero di pacchetti di voto attualmente presenti per la procedura
+	 * @return Il punto di salvataggio, o null se non presente o non valido
+	 * @throws PEException Se il file esiste ma non è possibile leggerlo
+	 */
+	public static CountCheckpoint load(File dir, int procCode, int total) throws PEException {
+		File file = getFile(dir, procCode);
+		if (!file.exists())
+			return null;
+
+		CountCheckpoint checkpoint;
+		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+			checkpoint = (CountCheckpoint) ois.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			throw FLRException.FLR_14(file.getPath(), true, e);
+		}
+
+		if (checkpoint.procCode != procCode || checkpoint.total != total)
+			return null;
+
+		return checkpoint;
+	}
+
+	/**
+	 * Elimina il punto di salvataggio della procedura, da invocare al termine dello spoglio.
+	 * @param dir Directory dei punti di salvataggio
+	 * @param procCode Codice della procedura
+	 */
+	public static void delete(File dir, int procCode) {
+		getFile(dir, procCode).delete();
+	}
+
+	private static File getFile(File dir, int procCode) {
+		return new File(dir, "count_" + procCode + ".ckpt");
+	}
+}
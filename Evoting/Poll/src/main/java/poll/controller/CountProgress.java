@@ -0,0 +1,15 @@
+package poll.controller;
+
+/**
+ * Interfaccia utilizzata per notificare l'avanzamento dello spoglio, ad esempio per mostrarlo sulla view.
+ */
+@FunctionalInterface
+public interface CountProgress {
+	
+	/**
+	 * Richiamata periodicamente durante lo spoglio (e non dal thread JavaFX).
+	 * @param processed Numero di pacchetti di voto già verificati e conteggiati
+	 * @param total Numero totale di pacchetti di voto da conteggiare
+	 */
+	void update(int processed, int total);
+}
@@ -1,30 +1,46 @@
 package poll.controller;
 
+import java.io.File;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import db.ConnectionManager;
 import db.DBMS;
 import db.DB;
-import encryption.VoteEncryption;
 import exceptions.DBException;
-import exceptions.ENCException;
 import exceptions.FLRException;
 import exceptions.PEException;
 import model.Procedure;
 import model.VotePacket;
 import poll.view.viewmodel.BallotResult;
-import utils.Protocol;
 
 /**
  * Classe che permette al modulo Poll di interfacciarsi col database. Estende la classe {@link db.DB DB}.
  */
 public class PollDB extends DB {
-	private Map<Integer, Integer[]> nullVotesMap;
+	/**
+	 * Numero di righe recuperate dal DB ad ogni blocco durante la lettura dei voti.
+	 */
+	private static final int fetchSize = 500;
+	
+	/**
+	 * Numero massimo di pacchetti di voto mantenuti in memoria ed affidati insieme al {@link VoteCounter}.
+	 */
+	private static final int defaultCountBlockSize = 1000;
+	
+	private final int countBlockSize;
+	
+	/**
+	 * Directory in cui vengono memorizzati i punti di salvataggio dello spoglio.
+	 */
+	private final File checkpointDir;
+	
+	private Map<Integer, int[]> nullVotesMap;
 	
 	/**
 	 * Costruttore con parametri che inizializza tutti i dati richiesti per potersi connettere al DB.
@@ -34,7 +50,22 @@ public class PollDB extends DB {
 	 * @throws PEException Se l'applicazione non riesce a recuperare username e password per connettersi al DB dal file <i>psws.cfg</i>
 	 */
 	public PollDB(String host, String port, String schema) throws PEException {
+		this(host, port, schema, new File(System.getProperty("user.dir") + "/checkpoints/"), defaultCountBlockSize);
+	}
+	
+	/**
+	 * Costruttore che permette di indicare directory dei punti di salvataggio e dimensione dei blocchi di pacchetti.
+	 * @param host Indirizzo del DB
+	 * @param port Porta del DB
+	 * @param schema Schema del DB a cui accedere
+	 * @param checkpointDir Directory in cui memorizzare i punti di salvataggio dello spoglio
+	 * @param countBlockSize Numero massimo di pacchetti di voto affidati insieme al {@link VoteCounter}
+	 * @throws PEException Se l'applicazione non riesce a recuperare username e password per connettersi al DB dal file <i>psws.cfg</i>
+	 */
+	protected PollDB(String host, String port, String schema, File checkpointDir, int countBlockSize) throws PEException {
 		dbms = new DBMS(host, port, schema, "Poll");
+		this.checkpointDir = checkpointDir;
+		this.countBlockSize = countBlockSize;
 	}
 	
 	/**
@@ -73,31 +104,45 @@ public class PollDB extends DB {
 	 * Opera come segue:
 	 * <ol>
 	 * <li>Setta a 0 i voti ricevuti da tutti i candidati e da tutte le opzioni presenti nella la procedura selezionata. </li>
-	 * <li>Recupera dal DB tutti i pacchetti di voto e li memorizza all'interno di una mappa, indicizzata sul codice della scheda
-	 * a cui appartiene il voto. Ogni pacchetto di voto è memorizzato come oggetto di tipo {@link model.VotePacket VotePacket}.</li>
 	 * <li>Recupera dal DB la chiave pubblica 2 del responsabile, da utilizzare per verificare la firma apposta su ogni pacchetto.</li>
 	 * <li>Recupera dal DB la chiave privata 1 del responsabile, da utilizzare per decifrare i pacchetti di voto.</li>
-	 * <li>Per ogni pacchetto di voto:
+	 * <li>Scorre i pacchetti di voto memorizzati sul DB, ordinati per scheda, senza caricarli tutti in memoria: 
+	 * i pacchetti vengono letti a blocchi ed affidati ad un {@link VoteCounter} che, per ogni pacchetto:
 	 * <ol>
 	 * <li>Verifica la firma apposta sul pacchetto. Scarta il pacchetto se la verifica non passa.</li>
 	 * <li>Decifra il voto, o scarta il pacchetto se non riesce.</li>
 	 * <li>Se il voto è una preferenza nulla o una scheda vuota, incrementa i relativi contatori per la scheda a cui appartiene il voto.</li>
-	 * <li>Altrimenti, incrementa di 1 i voti ricevuti dal relativo candidato/opzione nel DB.</li>
+	 * <li>Altrimenti, incrementa di 1 i voti ricevuti dal relativo candidato/opzione, mantenuti in memoria.</li>
 	 * </ol>
 	 * </li>
+	 * <li>Al termine di ogni scheda, scrive sul DB i voti ricevuti da candidati e opzioni con un'unica transazione.</li>
+	 * <li>Dopo ogni blocco di pacchetti aggiorna il {@link CountCheckpoint punto di salvataggio}: se lo spoglio viene interrotto,
+	 * quello successivo riprende dall'ultimo pacchetto conteggiato anziché azzerare i voti e ripartire dall'inizio.</li>
 	 * <li>Restituisce il numero di pacchetti che hanno causato errore nella verifica della firma o nella decifratura.</li>
 	 * </ol>
 	 * @param procCode Codice della procedura selezionata
 	 * @param user Username dell'utente loggato
 	 * @param psw Password dell'utente loggato
+	 * @param progress Notificato dell'avanzamento dello spoglio dopo ogni blocco di pacchetti
 	 * @return Numero di pacchetti che hanno causato errore nella verifica della firma o nella decifratura della preferenza.
 	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL, 
 	 * se riscontra errori nel recupero dei dati desiderati dal DB, se non esistono chiavi RSA per l'utente loggato
 	 */
-	public int countVotes(int procCode, String user, String psw) throws PEException {
-		resetVotesReceived(procCode);
-		Map<Integer, ArrayList<VotePacket>> votesMap = getVotesMap(procCode);
-		return processVotes(procCode, votesMap, user, psw);
+	public int countVotes(int procCode, String user, String psw, CountProgress progress) throws PEException {
+		int total = getNumOfVotes(procCode);
+		
+		CountCheckpoint checkpoint = CountCheckpoint.load(checkpointDir, procCode, total);
+		if (checkpoint == null) {
+			resetVotesReceived(procCode);
+			checkpoint = new CountCheckpoint(procCode, total);
+		}
+		else
+			System.out.println(new java.util.Date() + " - Spoglio ripreso dall'ultimo punto di salvataggio: " + checkpoint.getProcessed() + " voti su " + total + " già conteggiati");
+		
+		int votesFailed = processVotes(procCode, user, psw, checkpoint, progress);
+		
+		CountCheckpoint.delete(checkpointDir, procCode);
+		return votesFailed;
 	}
 	
 	/**
@@ -173,7 +218,7 @@ public class PollDB extends DB {
 	 * @param procCode Codice della procedura selezionata
 	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL
 	 */
-	private void resetVotesReceived(int procCode) throws PEException {
+	protected void resetVotesReceived(int procCode) throws PEException {
 		String resetCandidatesQuery = "UPDATE Running SET VotesReceived = 0 WHERE ProcedureCode = ? ;";
 		String resetOptionsQuery = "UPDATE ReferendumOption SET VotesReceived = 0 WHERE ProcedureCode = ? ;";
 		
@@ -194,57 +239,20 @@ public class PollDB extends DB {
 	}
 	
 	/**
-	 * Crea e popola la mappa dei voti memorizzati nel DB. La mappa è indicizzata sul codice della scheda 
-	 * e contiene, per ciascuna scheda, l'elenco dei pacchetti di voto appartenenti a quella scheda, sotto forma di ArrayList di 
-	 * {@link model.VotePacket VotePacket}.
+	 * Recupera le chiavi RSA necessarie allo spoglio (chiave pubblica 2 e chiave privata 1), quindi scorre i pacchetti di voto della procedura
+	 * tramite un cursore, nell'ordine della chiave primaria della tabella Vote ed a partire dall'ultimo pacchetto registrato nel punto di salvataggio. I pacchetti vengono accumulati in blocchi di al più {@link #countBlockSize} elementi, ciascuno 
+	 * affidato ad un {@link VoteCounter}, che esegue in parallelo tutte le procedure necessarie alla verifica, decifratura e conteggio dei voti. 
+	 * Terminati i pacchetti di una scheda, il relativo conteggio viene scritto sul DB tramite {@link #storeBallotTally(int, BallotTally, CountCheckpoint)}.
 	 * @param procCode Codice della procedura selezionata
-	 * @return Mappa dei voti presenti nel database
-	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL, 
-	 * se riscontra errori nel recupero dei dati desiderati dal DB
-	 */
-	private Map<Integer, ArrayList<VotePacket>> getVotesMap(int procCode) throws PEException {
-		Map<Integer, ArrayList<VotePacket>> votesMap = getEmptyVotesMap(procCode);
-		
-		//Si recuperano dal DB tutti i pacchetti di voto corrispondenti alla procedura selezionata
-		String query = "SELECT * FROM Vote WHERE ProcedureCode = ? ORDER BY BallotCode;";
-		
-		try (ConnectionManager cm = dbms.getConnectionManager()) {
-			ResultSet rs = cm.executeQuery(query, procCode);
-			
-			while (rs.next()) {
-				//Per ogni voto si crea l'oggetto VotePacket e lo si inserisce all'interno della mappa votesMap
-				int ballotCode = rs.getInt("BallotCode");
-				
-				VotePacket currVote = new VotePacket(
-						rs.getString("EncryptedString"), rs.getString("EncryptedKey"), rs.getString("EncryptedIV"), 
-						rs.getString("EncryptedNonce"), rs.getString("Signature")
-		    	);
-				
-				if (votesMap.get(ballotCode) != null)
-					votesMap.get(ballotCode).add(currVote);
-			}
-			
-		} catch (SQLException e) {
-			throw DBException.DB_0(e);
-		}
-		
-		return votesMap;
-	}
-	
-	/**
-	 * Recupera le chiavi RSA necessarie allo spoglio (chiave pubblica 2 e chiave privata 1) e richiama, 
-	 * per ogni pacchetto di voto, la funzione {@link #processVotePacket(int, int, VotePacket, byte[], byte[])} passandogli il codice della procedura
-	 * , il codice della scheda, il pacchetto di voto cifrato e le chiavi RSA. Questa funzione esegue 
-	 * tutte le procedure necessarie alla verifica, decifratura e conteggio del voto.
-	 * @param procCode Codice della procedura selezionata
-	 * @param votesMap Mappa contenente i voti presenti nel database per ogni scheda
 	 * @param user Username dell'utente loggato
 	 * @param psw Password dell'utente loggato
+	 * @param checkpoint Punto di salvataggio da cui riprendere lo spoglio, aggiornato e scritto su file dopo ogni blocco
+	 * @param progress Notificato dell'avanzamento dello spoglio dopo ogni blocco di pacchetti
 	 * @return Numero di pacchetti di voto che hanno causato errori e non sono stati conteggiati per lo spoglio
 	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL, 
-	 * se riscontra errori nel recupero dei dati desiderati dal DB, se non esistono chiavi RSA per l'utente loggato
+	 * se riscontra errori nel recupero dei dati desiderati dal DB, se non esistono chiavi RSA per l'utente loggato, se non riesce a scrivere il punto di salvataggio
 	 */
-	private int processVotes(int procCode, Map<Integer, ArrayList<VotePacket>> votesMap, String user, String psw) throws PEException {
+	private int processVotes(int procCode, String user, String psw, CountCheckpoint checkpoint, CountProgress progress) throws PEException {
 		byte[] Kpu_rp = getRSAKey("PublicKey2", user, psw);
 		byte[] Kpr_rp = getRSAKey("EncryptedPrivateKey1", user, psw);
 		
@@ -252,112 +260,290 @@ public class PollDB extends DB {
 		if (Kpu_rp == null || Kpr_rp == null)
 			throw FLRException.FLR_16(user, Kpu_rp == null, Kpr_rp == null);
 		
-		int votesFailed = 0;
-		
+		//Le schede senza voti risultano comunque con 0 schede bianche e 0 preferenze nulle
 		nullVotesMap = new HashMap<>();
-		for (Integer ballotCode : votesMap.keySet()) {
-			nullVotesMap.put(ballotCode, new Integer[]{0,0});
-			
-			for (VotePacket currVote : votesMap.get(ballotCode)) {
-				try {
-					//Per ogni pacchetto di voto, si prova a verificare la firma e decifrare la preferenza espressa
-					processVotePacket(procCode, ballotCode, currVote, Kpu_rp, Kpr_rp);
-				}
-				catch (PEException e) {
-					//In caso venga lanciata un'eccezione, si aumenta il contatore di pacchetti non conteggiati e si stampa il messaggio 
-					System.out.println(new java.util.Date() + " - Errore nella verifica e/o nel conteggio di un pacchetto");
-					System.out.println("\t--> "+e.getSpecific());
-					votesFailed++;
-				}
-			}
+		for (Integer ballotCode : getBallotCodes(procCode))
+			nullVotesMap.put(ballotCode, new int[] {0, 0});
+		
+		//Le schede già scritte sul DB prima dell'interruzione mantengono i valori registrati nel punto di salvataggio
+		for (Map.Entry<Integer, int[]> nullVotes : checkpoint.getNullVotes().entrySet())
+			nullVotesMap.put(nullVotes.getKey(), nullVotes.getValue().clone());
+		
+		progress.update(checkpoint.getProcessed(), checkpoint.getTotal());
+		
+		try (VoteCursor votes = openVotes(procCode, checkpoint);
+				VoteCounter counter = new VoteCounter(Kpu_rp, Kpr_rp, Runtime.getRuntime().availableProcessors())) {
+			countRows(procCode, votes, counter, checkpoint, progress);
 		}
 		
-		return votesFailed;
+		return checkpoint.getVotesFailed();
 	}
 	
 	/**
-	 * Esegue lo spoglio di un singolo voto. Verifica la firma apposta sul pacchetto, decifra il voto e conteggia la preferenza
-	 * espressa. Se il voto corrisponde ad una scheda bianca o ad una preferenza non espressa, incrementa il relativo contatore mantenuto
-	 * all'interno della classe.
+	 * Conteggia i pacchetti di voto restituiti dal cursore, a partire dal conteggio parziale registrato nel punto di salvataggio.
+	 * I pacchetti di ciascuna scheda vengono affidati al {@link VoteCounter} in blocchi di al più countBlockSize elementi, ed il punto
+	 * di salvataggio viene scritto su file dopo ogni blocco; al cambio di scheda il conteggio della scheda precedente viene scritto sul DB.
 	 * @param procCode Codice della procedura selezionata
-	 * @param ballotCode Codice della scheda a cui appartiene il voto
-	 * @param votePacket Pacchetto di voto cifrato
-	 * @param Kpu_rp Chiave pubblica 2 del responsabile, utilizzata per verificare la firma
-	 * @param Kpr_rp Chiave privata 1 del responsabile, utilizzata per decifrare il voto
-	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL, 
-	 * se riscontra errori nella verifica della firma del pacchetto, se riscontra errori nella decifratura del voto
+	 * @param votes Cursore sui pacchetti di voto successivi all'ultimo conteggiato
+	 * @param counter Il VoteCounter a cui affidare i pacchetti
+	 * @param checkpoint Punto di salvataggio da cui riprendere lo spoglio
+	 * @param progress Notificato dell'avanzamento dello spoglio dopo ogni blocco di pacchetti
+	 * @throws PEException Se la lettura dei pacchetti o la scrittura dei conteggi fallisce, se non riesce a scrivere il punto di salvataggio
 	 */
-	private void processVotePacket(int procCode, int ballotCode, VotePacket votePacket, byte[] Kpu_rp, byte[] Kpr_rp) throws PEException {
- 		if (!VoteEncryption.verifyPacketSignature(votePacket, Kpu_rp)) {
- 			//Si verifica la firma apposta sul pacchetto. Se la verifica è negativa viene lanciata l'eccezione ENC_8
-			throw ENCException.ENC_8(null);
- 		}
-		
- 		//Si decifra la preferenza espressa col voto. Se la decifratura non riesce, viene lanciata un'eccezione PEException
-		String voteString = VoteEncryption.decrypt(votePacket, Kpr_rp);
+	private void countRows(int procCode, VoteCursor votes, VoteCounter counter, CountCheckpoint checkpoint, CountProgress progress) throws PEException {
+		int total = checkpoint.getTotal();
 		
-		if (voteString.equals(Protocol.emptyBallot) || voteString.equals(Protocol.emptyPreference)) {
-			//In caso di scheda bianca, incremento il relativo contatore
-			if (voteString.equals(Protocol.emptyBallot))
-				nullVotesMap.get(ballotCode)[0]++;
+		BallotTally tally = checkpoint.getTally();
+		ArrayList<VotePacket> block = new ArrayList<>();
+		String lastNonce = null;
+		int lastDiscrim = 0;
 		
-			nullVotesMap.get(ballotCode)[1]++;
-			return;
+		VoteRow row;
+		while ((row = votes.next()) != null) {
+			int ballotCode = row.ballotCode;
+			
+			//I voti relativi a schede non appartenenti alla procedura vengono ignorati
+			if (!nullVotesMap.containsKey(ballotCode))
+				continue;
+			
+			//Al cambio di scheda si conteggiano i pacchetti rimanenti e si memorizza il conteggio della scheda precedente
+			if (tally != null && tally.getBallotCode() != ballotCode) {
+				countBlock(counter, tally, block, lastNonce, lastDiscrim, checkpoint);
+				storeBallotTally(procCode, tally, checkpoint);
+				progress.update(checkpoint.getProcessed(), total);
+			}
+			
+			if (tally == null || tally.getBallotCode() != ballotCode)
+				tally = new BallotTally(ballotCode);
+			
+			lastNonce = row.packet.getSolvedNonce();
+			lastDiscrim = row.discrim;
+			block.add(row.packet);
+			
+			if (block.size() == countBlockSize) {
+				countBlock(counter, tally, block, lastNonce, lastDiscrim, checkpoint);
+				checkpoint.save(checkpointDir);
+				progress.update(checkpoint.getProcessed(), total);
+			}
 		}
 		
-		String query;
-		//A seconda della preferenza espressa, incremento il relativo campo nel DB per i voti ricevuti
-		if (!voteString.startsWith(Protocol.isOption)) {
-			query = "UPDATE Running SET VotesReceived = VotesReceived + 1 "
-					+ "WHERE ProcedureCode = ? AND BallotCode = ? AND CandidateID = ? ;";
-		}
-		else {
-			query = "UPDATE ReferendumOption SET VotesReceived = VotesReceived + 1 "
-					+ "WHERE ProcedureCode = ? AND BallotCode = ? AND Text = ? ;";
-			
-			voteString = voteString.substring(Protocol.isOption.length());
+		if (tally != null) {
+			countBlock(counter, tally, block, lastNonce, lastDiscrim, checkpoint);
+			storeBallotTally(procCode, tally, checkpoint);
+			progress.update(checkpoint.getProcessed(), total);
 		}
+	}
+	
+	/**
+	 * Apre un cursore sui pacchetti di voto della procedura, nell'ordine della chiave primaria della tabella Vote, a partire dal primo
+	 * pacchetto successivo all'ultimo conteggiato nel punto di salvataggio (o dal primo, se nessun blocco è stato ancora conteggiato).
+	 * @param procCode Codice della procedura selezionata
+	 * @param checkpoint Punto di salvataggio da cui riprendere lo spoglio
+	 * @return Il cursore, da chiudere al termine della lettura
+	 * @throws PEException Se l'applicazione non riesce a connettersi al DB o ad eseguire la query
+	 */
+	protected VoteCursor openVotes(int procCode, CountCheckpoint checkpoint) throws PEException {
+		String select = "SELECT BallotCode, EncryptedString, EncryptedKey, EncryptedIV, EncryptedNonce, NonceDiscrim, Signature FROM Vote ";
+		String order = "ORDER BY BallotCode, EncryptedNonce, NonceDiscrim;";
 		
 		ConnectionManager cm = dbms.getConnectionManager();
+		ResultSet rs;
 		try {
-			cm.startTransaction();
-			cm.executeUpdate(query, procCode, ballotCode, voteString);
-			cm.commit();
+			if (checkpoint.hasLastKey())
+				rs = cm.executeStreamingQuery(select + "WHERE ProcedureCode = ? AND (BallotCode, EncryptedNonce, NonceDiscrim) > (?, ?, ?) " + order, 
+						fetchSize, procCode, checkpoint.getLastBallot(), checkpoint.getLastNonce(), checkpoint.getLastDiscrim());
+			else
+				rs = cm.executeStreamingQuery(select + "WHERE ProcedureCode = ? " + order, fetchSize, procCode);
 		}
 		catch (PEException e) {
-			cm.rollback();
-			throw DBException.DB_0(e);
-		}
-		finally {
 			cm.close();
+			throw e;
 		}
 		
-		System.out.println(new java.util.Date() + " - Nuovo pacchetto verificato e correttamente conteggiato");
+		return new VoteCursor() {
+			@Override
+			public VoteRow next() throws PEException {
+				try {
+					if (!rs.next())
+						return null;
+					
+					VotePacket packet = new VotePacket(
+							rs.getString("EncryptedString"), rs.getString("EncryptedKey"), rs.getString("EncryptedIV"), 
+							rs.getString("EncryptedNonce"), rs.getString("Signature")
+					);
+					
+					return new VoteRow(rs.getInt("BallotCode"), packet, rs.getInt("NonceDiscrim"));
+				} catch (SQLException e) {
+					throw DBException.DB_0(e);
+				}
+			}
+			
+			@Override
+			public void close() throws PEException {
+				cm.close();
+			}
+		};
+	}
+	
+	/**
+	 * Affida un blocco di pacchetti al {@link VoteCounter} e ne registra il conteggio nel punto di salvataggio, insieme alla chiave dell'ultimo pacchetto.
+	 * I pacchetti non validi vengono segnalati dal VoteCounter e conteggiati tra quelli scartati. Al termine il blocco viene svuotato.
+	 * @param counter Il VoteCounter a cui affidare i pacchetti
+	 * @param tally Il conteggio della scheda a cui appartengono i pacchetti
+	 * @param block I pacchetti da conteggiare
+	 * @param lastNonce Nonce cifrato dell'ultimo pacchetto del blocco
+	 * @param lastDiscrim Discriminante del nonce dell'ultimo pacchetto del blocco
+	 * @param checkpoint Il punto di salvataggio da aggiornare
+	 * @throws PEException Se il conteggio termina in modo inatteso
+	 */
+	private void countBlock(VoteCounter counter, BallotTally tally, ArrayList<VotePacket> block, String lastNonce, int lastDiscrim, CountCheckpoint checkpoint) throws PEException {
+		//Un blocco vuoto (scheda ripresa esattamente al termine di un blocco) non modifica la chiave dell'ultimo pacchetto
+		if (block.isEmpty())
+			return;
+		
+		int failed = counter.countBallot(tally, block);
+		checkpoint.blockCounted(tally, block.size(), failed, lastNonce, lastDiscrim);
+		block.clear();
+	}
+	
+	/**
+	 * Scrive sul DB i voti ricevuti dai candidati e dalle opzioni di una scheda, con un batch di UPDATE per tipologia 
+	 * all'interno di un'unica transazione.
+	 * <br/>
+	 * I voti vengono scritti come valori assoluti: se lo spoglio si interrompe dopo la scrittura ma prima del salvataggio,
+	 * la scheda viene riconteggiata dall'ultimo blocco salvato e riscritta senza sommare due volte gli stessi voti.
+	 * @param procCode Codice della procedura selezionata
+	 * @param tally Conteggio della scheda
+	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL
+	 */
+	protected void writeBallotTally(int procCode, BallotTally tally) throws PEException {
+		String candidatesUpdate = "UPDATE Running SET VotesReceived = ? "
+								+ "WHERE ProcedureCode = ? AND BallotCode = ? AND CandidateID = ? ;";
+		
+		String optionsUpdate = 	"UPDATE ReferendumOption SET VotesReceived = ? "
+								+ "WHERE ProcedureCode = ? AND BallotCode = ? AND Text = ? ;";
+		
+		ArrayList<Object[]> candidatesRows = new ArrayList<>();
+		for (Map.Entry<String, int[]> candidate : tally.getCandidates().entrySet())
+			candidatesRows.add(new Object[] {candidate.getValue()[0], procCode, tally.getBallotCode(), candidate.getKey()});
+		
+		ArrayList<Object[]> optionsRows = new ArrayList<>();
+		for (Map.Entry<String, int[]> option : tally.getOptions().entrySet())
+			optionsRows.add(new Object[] {option.getValue()[0], procCode, tally.getBallotCode(), option.getKey()});
+		
+		if (!candidatesRows.isEmpty() || !optionsRows.isEmpty()) {
+			ConnectionManager cm = dbms.getConnectionManager();
+			try {
+				cm.startTransaction();
+				cm.executeBatch(candidatesUpdate, candidatesRows);
+				cm.executeBatch(optionsUpdate, optionsRows);
+				cm.commit();
+			}
+			catch (PEException e) {
+				cm.rollback();
+				throw DBException.DB_0(e);
+			}
+			finally {
+				cm.close();
+			}
+		}
+	}
+	
+	/**
+	 * Memorizza il conteggio completo di una scheda: lo scrive sul DB tramite {@link #writeBallotTally(int, BallotTally)} e solo dopo
+	 * aggiorna e salva il punto di salvataggio, così che un'interruzione tra le due operazioni faccia riconteggiare (e riscrivere) la scheda.
+	 * @param procCode Codice della procedura selezionata
+	 * @param tally Conteggio della scheda
+	 * @param checkpoint Il punto di salvataggio da aggiornare
+	 * @throws PEException Se la scrittura sul DB fallisce o se non riesce a scrivere il punto di salvataggio
+	 */
+	private void storeBallotTally(int procCode, BallotTally tally, CountCheckpoint checkpoint) throws PEException {
+		writeBallotTally(procCode, tally);
+		
+		nullVotesMap.put(tally.getBallotCode(), new int[] {tally.getEmptyBallots(), tally.getNullPreferences()});
+		checkpoint.ballotStored(tally);
+		checkpoint.save(checkpointDir);
+		
+		System.out.println(new java.util.Date() + " - Scheda " + tally.getBallotCode() + ": voti verificati e correttamente conteggiati");
 	}
 	
 	/**
-	 * Inizializza la mappa dei voti presenti nel DB. Per ogni scheda, inserisce nella mappa una lista vuota.
+	 * Recupera i codici delle schede appartenenti alla procedura.
 	 * @param procCode Codice della procedura selezionata
- 	 * @return Mappa dei voti presenti nel DB, vuota
+ 	 * @return Lista dei codici delle schede
 	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL, 
 	 * se riscontra errori nel recupero dei dati desiderati dal DB
 	 */
-	private Map<Integer, ArrayList<VotePacket>> getEmptyVotesMap(int procCode) throws PEException {
-		Map<Integer, ArrayList<VotePacket>> emptyVotesMap = new HashMap<>();
-		String query = "SELECT * FROM Ballot WHERE ProcedureCode = ?;";
+	protected ArrayList<Integer> getBallotCodes(int procCode) throws PEException {
+		ArrayList<Integer> ballotCodes = new ArrayList<>();
+		String query = "SELECT Code FROM Ballot WHERE ProcedureCode = ?;";
 		
 		try (ConnectionManager cm = dbms.getConnectionManager()) {
 			ResultSet rs = cm.executeQuery(query, procCode);
 			
-			while (rs.next()) {
-				//Per ogni scheda appartenente alla procedura selezionata viene inizializzata una lista all'interno della mappa
-				emptyVotesMap.put(rs.getInt("Code"), new ArrayList<VotePacket>());
-			}
+			while (rs.next())
+				ballotCodes.add(rs.getInt("Code"));
 			
 		} catch (SQLException e) {
 			throw DBException.DB_0(e);
 		}
 		
-		return emptyVotesMap;
+		return ballotCodes;
+	}
+	
+	/**
+	 * Recupera il numero di pacchetti di voto memorizzati per la procedura, utilizzato per mostrare l'avanzamento dello spoglio.
+	 * @param procCode Codice della procedura selezionata
+	 * @return Numero di pacchetti di voto
+	 * @throws PEException Se l'applicazione non riesce a connettersi al DB, se riscontra errori nell'esecuzione delle query SQL
+	 */
+	protected int getNumOfVotes(int procCode) throws PEException {
+		String query = "SELECT COUNT(*) AS NumVotes FROM Vote WHERE ProcedureCode = ?;";
+		
+		try (ConnectionManager cm = dbms.getConnectionManager()) {
+			ResultSet rs = cm.executeQuery(query, procCode);
+			return rs.next() ? rs.getInt("NumVotes") : 0;
+			
+		} catch (SQLException e) {
+			throw DBException.DB_0(e);
+		}
+	}
+	
+	/**
+	 * Restituisce schede bianche e preferenze nulle delle schede conteggiate, comprese quelle ripristinate dal punto di salvataggio.
+	 * @return Mappa dal codice della scheda al numero di schede bianche e di preferenze nulle
+	 */
+	protected Map<Integer, int[]> getNullVotes() {
+		return Collections.unmodifiableMap(nullVotesMap);
+	}
+	
+	/**
+	 * Cursore sui pacchetti di voto di una procedura (vedi {@link PollDB#openVotes(int, CountCheckpoint)}).
+	 */
+	protected interface VoteCursor extends AutoCloseable {
+		/**
+		 * @return Il prossimo pacchetto di voto, o null se non ce ne sono altri
+		 * @throws PEException Se la lettura fallisce
+		 */
+		VoteRow next() throws PEException;
+		
+		@Override
+		void close() throws PEException;
+	}
+	
+	/**
+	 * Riga della tabella Vote: pacchetto di voto, scheda a cui appartiene e discriminante del nonce (la chiave primaria
+	 * comprende anche il nonce cifrato, contenuto nel pacchetto).
+	 */
+	protected static class VoteRow {
+		private final int ballotCode;
+		private final VotePacket packet;
+		private final int discrim;
+		
+		public VoteRow(int ballotCode, VotePacket packet, int discrim) {
+			this.ballotCode = ballotCode;
+			this.packet = packet;
+			this.discrim = discrim;
+		}
 	}
 }
@@ -0,0 +1,126 @@
+package poll.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import encryption.CryptoContext;
+import exceptions.DEVException;
+import exceptions.ENCException;
+import exceptions.PEException;
+import model.VotePacket;
+
+/**
+ * Classe che verifica, decifra e conteggia i pacchetti di voto di una scheda sfruttando più thread.
+ * <br/>
+ * I pacchetti della scheda vengono suddivisi in tanti blocchi contigui quanti sono i thread: le chiavi sono ricostruite una sola volta
+ * nel {@link CryptoContext} condiviso, mentre ciascun thread adopera i propri Cipher ed il proprio {@link BallotTally}, ed i conteggi parziali vengono sommati nell'ordine dei blocchi,
+ * così che il risultato (ed i messaggi di errore) non dipendano dal numero di thread.
+ */
+public class VoteCounter implements AutoCloseable {
+	private final CryptoContext crypto;
+	private final int numWorkers;
+	private final ExecutorService workers;
+
+	/**
+	 * @param Kpu_rp Chiave pubblica 2 del responsabile, utilizzata per verificare le firme
+	 * @param Kpr_rp Chiave privata 1 del responsabile, utilizzata per decifrare i voti
+	 * @param numWorkers Numero di thread da adoperare per lo spoglio
+	 * @throws PEException Se le chiavi non sono valide
+	 */
+	public VoteCounter(byte[] Kpu_rp, byte[] Kpr_rp, int numWorkers) throws PEException {
+		this.crypto = new CryptoContext(Kpu_rp, Kpr_rp);
+		this.numWorkers = Math.max(1, numWorkers);
+		this.workers = Executors.newFixedThreadPool(this.numWorkers);
+	}
+
+	/**
+	 * Verifica, decifra e conteggia i pacchetti di una scheda, sommandone le preferenze al conteggio passato a parametro.
+	 * Per ogni pacchetto non valido stampa il messaggio d'errore, come avviene per lo spoglio sequenziale.
+	 * @param tally Il conteggio della scheda a cui appartengono i pacchetti
+	 * @param packets I pacchetti di voto cifrati
+	 * @return Il numero di pacchetti che hanno causato errori nella verifica della firma o nella decifratura
+	 * @throws PEException Se uno dei thread termina in modo inatteso
+	 */
+	public int countBallot(BallotTally tally, List<VotePacket> packets) throws PEException {
+		int numSlices = Math.min(numWorkers, packets.size());
+		if(numSlices == 0)
+			return 0;
+
+		ArrayList<Future<Slice>> slices = new ArrayList<>();
+		for(int i = 0; i < numSlices; i++) {
+			List<VotePacket> slice = packets.subList(i * packets.size() / numSlices, (i + 1) * packets.size() / numSlices);
+			slices.add(workers.submit(() -> processSlice(tally.getBallotCode(), slice)));
+		}
+
+		int votesFailed = 0;
+		try {
+			for(Future<Slice> future : slices) {
+				Slice slice = future.get();
+				tally.merge(slice.tally);
+
+				for(String error : slice.errors) {
+					System.out.println(new java.util.Date() + " - Errore nella verifica e/o nel conteggio di un pacchetto");
+					System.out.println("\t--> "+error);
+					votesFailed++;
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw DEVException.DEV_0(e);
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof PEException)
+				throw (PEException) e.getCause();
+
+			throw DEVException.DEV_0(e);
+		}
+
+		return votesFailed;
+	}
+
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	@Override
+	public void close() {
+		workers.shutdown();
+	}
+
+	private Slice processSlice(int ballotCode, List<VotePacket> packets) throws PEException {
+		Slice slice = new Slice(ballotCode);
+
+		for(VotePacket packet : packets) {
+			try {
+				//Si verifica la firma apposta sul pacchetto. Se la verifica è negativa viene lanciata l'eccezione ENC_8
+				if (!crypto.verifyPacketSignature(packet))
+					throw ENCException.ENC_8(null);
+
+				//Si decifra la preferenza espressa col voto. Se la decifratura non riesce, viene lanciata un'eccezione PEException
+				slice.tally.addVote(crypto.decrypt(packet));
+			}
+			catch (PEException e) {
+				slice.errors.add(e.getSpecific());
+			}
+		}
+
+		return slice;
+	}
+
+	/**
+	 * Risultato parziale di un blocco di pacchetti: conteggio e messaggi d'errore, nell'ordine dei pacchetti.
+	 */
+	private static class Slice {
+		private final BallotTally tally;
+		private final ArrayList<String> errors = new ArrayList<>();
+
+		private Slice(int ballotCode) {
+			tally = new BallotTally(ballotCode);
+		}
+	}
+}
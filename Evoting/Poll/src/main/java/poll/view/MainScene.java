@@ -119,7 +119,8 @@ public class MainScene extends ViewAbstrController {
      * Gestisce lo spoglio dei risultati e la loro visualizzazione. 
      * <br>
      * Inizialmente, disabilita tutti i menù ed il bottone "Inizia Spoglio" e visualizza una gif di caricamento mentre viene eseguito
-     * lo spoglio stesso. Quindi, avvia un Task su un Thread separato per eseguire lo spoglio (tramite {@link Controller#countVotesAndGetResults()}.
+     * lo spoglio stesso. Quindi, avvia un Task su un Thread separato per eseguire lo spoglio (tramite {@link Controller#countVotesAndGetResults(poll.controller.CountProgress)}),
+     * il cui avanzamento viene mostrato nella label di caricamento.
      * <br>
      * Finito lo spoglio, gestisce la visibilità degli elementi per mostrare le tabelle coi risultati, se ce ne sono, o una schermata di errore.
      * <br>
@@ -137,12 +138,17 @@ public class MainScene extends ViewAbstrController {
     	Task<Void> countVotesTask = new Task<>() {
             @Override
             protected Void call() throws Exception {
-            	results = ((Controller) controller).countVotesAndGetResults();
+            	results = ((Controller) controller).countVotesAndGetResults((processed, total) -> 
+            		updateMessage("Attendere... Spoglio in corso.... (" + processed + " / " + total + " voti)")
+            	);
             	nBallots = results.size();
             	return null;
             }
         };
         
+        //I messaggi del Task vengono mostrati sul thread JavaFX
+        countVotesTask.messageProperty().addListener((obs, oldMsg, newMsg) -> loadingLabel.setText(newMsg));
+        
         countVotesTask.setOnFailed(ev -> {
         	showErrorMsg();
         });
@@ -1,11 +1,13 @@
 package postazione.controller;
 
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 import controller.TerminalController;
 import encryption.AES;
+import encryption.CryptoContext;
 import encryption.NonceManager;
 import exceptions.CNNException;
 import exceptions.DEVException;
@@ -14,7 +16,6 @@ import exceptions.FLRException;
 import exceptions.PEException;
 import controller.AbstrServer;
 import controller.CardReader;
-import controller.UrnPolling;
 import controller.Link;
 import controller.Server;
 import model.EmptyBallot;
@@ -83,22 +84,31 @@ public class Controller extends TerminalController {
 				// ... si procede a risolverlo e ad inviare la soluzione all'urna, che restituisce un messaggio
 				Message urnResponse = authenticateToUrn(encryptedNonce2, sessionKey);
 				
+				//Le schede non vengono inviate se la postazione possiede già quelle della procedura
+				Object ballotsHash = urnResponse.getElement("ballotsHash");
+				Object sentBallots = urnResponse.getElement("ballots");
+				boolean ballotsHeld = sentBallots == null && post.holdsBallots(ballotsHash);
+				
 				//Si verifica che il messaggio sia valido e contenga i campi necessari (autenticazione con l'urna avvenuta)
 				String[] required = {"ipStation", "pubKey", "ballots"};
 				Class<?>[] types = {InetAddress.class, byte[].class, EmptyBallot[].class};
+				if(ballotsHeld) {
+					required = Arrays.copyOf(required, 2);
+					types = Arrays.copyOf(types, 2);
+				}
 				urnResponse.verifyMessage(Protocol.validAuthentication, required, types, "urna");
 				
 				//Vengono recuperati tutti i dati necessari inviati dall'urna
 				InetAddress stationIp = urnResponse.getElement("ipStation");
 				byte[] accountantPublicKey = urnResponse.getElement("pubKey");
-				EmptyBallot[] ballots = urnResponse.getElement("ballots");
 				
 				//La postazione diventa attiva e i dati recuperati vengono memorizzati
 				post.setState(StatePost.ATTIVA);
 				post.setStationIp(stationIp);
 				post.setSessionKey(sessionKey);
 				post.setAccountantPublicKey(accountantPublicKey);
-				post.setProcedureBallots(ballots);
+				if(!ballotsHeld)
+					post.setProcedureBallots((EmptyBallot[]) sentBallots, ballotsHash instanceof String ? (String) ballotsHash : null);
 				
 				if(Constants.verbose)
 					printSuccess("Attivazione Completata", "La postazione è stata attivata!");
@@ -111,8 +121,7 @@ public class Controller extends TerminalController {
 					notifyStateToStation(null);
 				}
 
-				urnThread = new UrnPolling(post.getUrnIp(), this, Terminals.Type.Post);
-				urnThread.start();
+				startUrnThread(post.getUrnIp(), Terminals.Type.Post);
 			}
 		}
 		catch (PEException e) {
@@ -204,6 +213,8 @@ public class Controller extends TerminalController {
 			link.write(Protocol.PostAuthenticationPhase2);
 			//Inviamo la nostra soluzione alla sfida lanciata dall'urna
 			link.write(encryptedModifiedNonce2);
+			//Inviamo l'hash delle schede già in nostro possesso, così che l'urna non le invii nuovamente
+			link.write(post.getBallotsHash());
 			
 			if(!link.hasNextLine()) {
 				throw CNNException.CNN_3("urna", ipRecipient);
@@ -676,9 +687,11 @@ public class Controller extends TerminalController {
 		
 		//Cifriamo le schede compilate
 		try {
+			CryptoContext accountantCrypto = post.getAccountantCrypto();
+			
 			int i = 0;
 			for(WrittenBallot ballot : encryptedBallots) {
-				ballot.encryptBallot(pubKey, encryptedNonces[i], sessionKey);
+				ballot.encryptBallot(accountantCrypto, encryptedNonces[i], sessionKey);
 				i++;
 			}
 		}
@@ -836,6 +849,15 @@ public class Controller extends TerminalController {
 		updateView();
 	}
 	
+	@Override
+	protected void urnShutDown() {
+		try {
+			deactivatePost();
+		} catch (PEException e) {
+			printError(e);
+		}
+	}
+	
 	/**
 	 * Verifica che l'ip dal quale è arrivato un messaggio il cui mittente dovrebbe essere l'urna appartenga effettivamente ad essa.
 	 * @param ip 	L'ip da verificare.
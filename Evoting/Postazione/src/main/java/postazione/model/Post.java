@@ -4,6 +4,7 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import encryption.CryptoContext;
 import exceptions.DBException;
 import exceptions.PEException;
 import model.AbstrModel;
@@ -21,12 +22,14 @@ public class Post extends AbstrModel {
 	private final int numConnections;
 	
 	private byte[] accountantPubKey;
+	private CryptoContext accountantCrypto = null;
 	private String sessionKey;
 	
 	private String badgeID = Protocol.unassignedPost;
 	private String lastWrongBadge = null;
 	
 	private HashMap<Integer, EmptyBallot> procedureBallots = null;
+	private String ballotsHash = null;
 	
 	private String[][] votesNonces = null;
 	private EmptyBallot[] emptyBallots = null;
@@ -163,11 +166,39 @@ public class Post extends AbstrModel {
 	}
 	
 	public void setProcedureBallots(EmptyBallot[] ballots){
+		setProcedureBallots(ballots, null);
+	}
+	
+	/**
+	 * Memorizza le schede della procedura insieme al loro hash, comunicato dall'urna. Le schede restano memorizzate anche quando la postazione
+	 * viene disattivata, così che ad una nuova attivazione non debbano essere ricevute nuovamente se l'urna ha le stesse schede.
+	 * @param ballots	Le schede della procedura.
+	 * @param hash		L'hash delle schede, o null se non noto.
+	 */
+	public void setProcedureBallots(EmptyBallot[] ballots, String hash){
 		procedureBallots = new HashMap<Integer, EmptyBallot>();
 		
 		for(EmptyBallot ballot : ballots) {
 			procedureBallots.put(ballot.getCode(), ballot);
 		}
+		
+		ballotsHash = hash;
+	}
+	
+	/**
+	 * @return L'hash delle schede della procedura possedute dalla postazione, o {@link Protocol#noBallotsHeld} se non note.
+	 */
+	public String getBallotsHash() {
+		return ballotsHash == null ? Protocol.noBallotsHeld : ballotsHash;
+	}
+	
+	/**
+	 * Verifica se la postazione possiede già le schede della procedura con l'hash indicato.
+	 * @param hash	L'hash comunicato dall'urna.
+	 * @return		True se la postazione possiede le schede, false altrimenti.
+	 */
+	public boolean holdsBallots(Object hash) {
+		return procedureBallots != null && ballotsHash != null && ballotsHash.equals(hash);
 	}
 	
 	/**
@@ -245,12 +276,26 @@ public class Post extends AbstrModel {
 	
 	public void setAccountantPublicKey(byte[] pubKey) {
 		accountantPubKey = pubKey;
+		accountantCrypto = null;
 	}
 	
 	public byte[] getAccountantPublicKey() {
 		return accountantPubKey;
 	}
 	
+	/**
+	 * Restituisce il contesto crittografico con la chiave pubblica del responsabile di procedimento, ricostruendo la chiave
+	 * una sola volta per ogni chiave ricevuta dall'urna anziché per ogni pacchetto di voto.
+	 * @return Il contesto crittografico, o null se la chiave pubblica non è ancora stata ricevuta.
+	 * @throws PEException Se la chiave pubblica non è valida.
+	 */
+	public CryptoContext getAccountantCrypto() throws PEException {
+		if(accountantCrypto == null && accountantPubKey != null)
+			accountantCrypto = new CryptoContext(accountantPubKey, null);
+		
+		return accountantCrypto;
+	}
+	
 	public void setSessionKey(String sessionKey) {
 		this.sessionKey = sessionKey;
 	}
@@ -15,7 +15,6 @@ import exceptions.FLRException;
 import exceptions.PEException;
 import controller.AbstrServer;
 import controller.CardReader;
-import controller.UrnPolling;
 import controller.Link;
 import controller.Server;
 import model.DummyPost;
@@ -37,7 +36,8 @@ import view.viewmodel.VoterViewModel;
 
 public class Controller extends TerminalController {
 	private final Station station;
-	private PostsPolling postsThread;
+	private volatile PostsMonitor postsMonitor;
+	private volatile SubStationSync subStationSync;
 	
 	/**
 	 * Costruttore adoperato per il testing.
@@ -88,33 +88,44 @@ public class Controller extends TerminalController {
 				// ... si procede a risolverlo e ad inviare la soluzione all'urna, che restituisce un messaggio
 				Message urnResponse = authenticateToUrn(encryptedNonce2, sessionKey);
 				
+				//Le schede non vengono inviate se il seggio possiede già quelle della procedura
+				Object ballotsHash = urnResponse.getElement("ballotsHash");
+				Object sentBallots = urnResponse.getElement("ballots");
+				boolean ballotsHeld = sentBallots == null && station.holdsBallots(ballotsHash);
+				
 				//Si verifica che il messaggio sia valido e contenga i campi necessari
 				String[] required = {"posts", "subStations", "ballots"};
 				Class<?>[] types = {InetAddress[].class, InetAddress[].class, EmptyBallot[].class};
+				if(ballotsHeld) {
+					required = Arrays.copyOf(required, 2);
+					types = Arrays.copyOf(types, 2);
+				}
 				urnResponse.verifyMessage(Protocol.validAuthentication, required, types, "urna");
 				
 				//Vengono recuperati tutti i dati necessari inviati dall'urna
 				InetAddress[] ipPosts = urnResponse.getElement("posts");
 				InetAddress[] ipSubStations = urnResponse.getElement("subStations");
-				EmptyBallot[] ballots = urnResponse.getElement("ballots");
 				
 				station.init(ipPosts, ipSubStations);
 				station.setSessionKey(sessionKey); 
-				station.setEmptyBallots(ballots);
+				if(!ballotsHeld)
+					station.setEmptyBallots((EmptyBallot[]) sentBallots, ballotsHash instanceof String ? (String) ballotsHash : null);
 				
 				if(Constants.verbose)
 					printSuccess("Attivazione Completata", "Seggio attivato");
 				
+				stopPostsMonitor();
+				postsMonitor = new PostsMonitor(this, station);
+				subStationSync = new SubStationSync(this, station);
+				
 				updateViewAndSubstation();	
 				
 				//Infine si notifica alle postazioni l'attivazione del seggio perché queste rispondano con il proprio stato
 				askStateToPosts();
 				
-				urnThread = new UrnPolling(station.getUrnIp(), this, Terminals.Type.Station);
-				urnThread.start();
+				startUrnThread(station.getUrnIp(), Terminals.Type.Station);
 				
-				postsThread = new PostsPolling(this, 1000);
-				postsThread.start();
+				postsMonitor.start();
 				
 				if(Constants.statRfid && rfidReader != null) {
 					rfidReader.setAlwaysOn();
@@ -212,6 +223,8 @@ public class Controller extends TerminalController {
 			link.write(Protocol.StationAuthenticationPhase2);
 			//Inviamo la nostra soluzione alla sfida lanciata dall'urna
 			link.write(encryptedModifiedNonce2);
+			//Inviamo l'hash delle schede già in nostro possesso, così che l'urna non le invii nuovamente
+			link.write(station.getBallotsHash());
 			
 			if(!link.hasNextLine()) {
 				throw CNNException.CNN_3("urna", ipRecipient);
@@ -285,7 +298,9 @@ public class Controller extends TerminalController {
 		printError("Ricevuto Messaggio Non Riconosciuto o Inatteso", response + "\n"
 				+ "Impossibile riavviare la postazione.");
 		
-		askStatePost(post).start();
+		PostsMonitor monitor = postsMonitor;
+		if(monitor != null)
+			monitor.onPost(post, this::askStatePost);
 		
 		updateViewAndSubstation();
 	}
@@ -294,20 +309,9 @@ public class Controller extends TerminalController {
 	 * Funzione che preleva le informazioni relative ad ogni postazione e le invia ai seggi ausiliari.
 	 */
 	public void updateSubStations() {
-		int numPosts = station.getNumPost();
-		
-		if(numPosts == 0) {
-			return;
-		}
-		
-		for(InetAddress ipSubStation : station.getSubStationIps()) {
-			try {
-				updateSubStations(ipSubStation, station.getPosts());
-			} catch (PEException e) {
-				e.printStackTrace();
-				printError(e);
-			}
-		}
+		SubStationSync sync = subStationSync;
+		if(sync != null)
+			sync.resync();
 	}
 	
 	/**
@@ -517,22 +521,6 @@ public class Controller extends TerminalController {
 	
 	/* --- Gestione del polling per controllare continuamente lo stato delle postazioni online --- */
 	
-	void checkForUnreachablePosts() {
-		int numPost = station.getNumPost();
-		
-		SinglePostPolling[] postsThreads = new SinglePostPolling[numPost];
-		
-		for(int post = 0; post < numPost; post++) {
-			DummyPost currPost = station.getPosts()[post];
-			
-			if (currPost.getState().equals(StatePost.OFFLINE))
-				continue;
-			
-			postsThreads[post] = new SinglePostPolling(this, station, currPost);
-			postsThreads[post].start();
-		}
-	}
-
 	Message checkForUnreachablePost(DummyPost post) {
 		//Facciamo richiesta alla postazione per l'invio del suo stato
 		Message response;
@@ -694,6 +682,11 @@ public class Controller extends TerminalController {
 		//In qualunque altro caso si procede con la modifica dello stato e l'aggiornamento di view e seggi ausiliari
 		station.setPostState(state, post);
 		updateViewAndSubstation();
+		
+		//La notifica dimostra che la postazione è raggiungibile, per cui la sua prossima verifica può essere rimandata
+		PostsMonitor monitor = postsMonitor;
+		if(monitor != null)
+			monitor.notifyPush(post);
 	}
 	
 	int getPostIdx(String card) {
@@ -1078,34 +1071,24 @@ public class Controller extends TerminalController {
 		//Se il seggio non è attivo allora questa funzione non può essere eseguita
 		if(!correctState(StateStation.ATTIVO)) return;
 		
-		//Si richiede lo stato ad ogni postazione
-		int numPost = station.getNumPost();
-		Thread[] t = new Thread[numPost];
-		
-		for(int post = 0; post < numPost; post++) {
-			t[post] = askStatePost(post);
-			t[post].start();
-		}
+		//Si richiede lo stato ad ogni postazione, adoperando i thread del monitoraggio in modo da velocizzare l'attivazione
+		//del seggio, che se no richiederebbe un tempo lineare nel numero di postazioni
+		postsMonitor.forEachPost(this::askStatePost);
 	}
 	
 	/**
-	 * Funzione che restituisce un thread per contattare e farsi restituire lo stato di una postazione.
-	 * Si adoperano i thread in modo da velocizzare l'attivazione del seggio, che se no richiederebbe,
-	 * un tempo lineare nel numero di postazioni.
+	 * Funzione che contatta una postazione perché questa restituisca il proprio stato.
 	 * @param post La postazione da contattare.
-	 * @return Il thread che contatterà la postazione.
 	 */
-	private Thread askStatePost(int post) {
-		return new Thread(() -> {
-			//Facciamo richiesta alla postazione per l'invio del suo stato
-			try (Link link = createLink(station.getPostIp(post), station.getPostPort(), 1000, null)) {
-				if(link.isClosed()) return;
-				
-				link.write(Protocol.retrieveStatePost);
-			}
-			catch (PEException ignored) {
-			}
-		});
+	private void askStatePost(int post) {
+		//Facciamo richiesta alla postazione per l'invio del suo stato
+		try (Link link = createLink(station.getPostIp(post), station.getPostPort(), 1000, null)) {
+			if(link.isClosed()) return;
+			
+			link.write(Protocol.retrieveStatePost);
+		}
+		catch (PEException ignored) {
+		}
 	}
 	
 	/**
@@ -1113,46 +1096,57 @@ public class Controller extends TerminalController {
 	 */
 	void updateViewAndSubstation() {
 		updateView();
-		updateSubStations();
+		
+		//I seggi ausiliari vengono aggiornati in background, inviando solo le postazioni cambiate (vedi SubStationSync)
+		SubStationSync sync = subStationSync;
+		if(sync != null)
+			sync.requestUpdate();
 	}
 	
 	/**
-	 * Funzione che inoltra le informazioni sulle postazioni ad un seggio ausiliario.
-	 * @param ipSubStation	L'ip del seggio ausiliario a cui inviare le informazioni.
-	 * @param posts			Le informazioni da inviare.
+	 * Funzione che inoltra un aggiornamento delle postazioni ad un seggio ausiliario (vedi {@link SubStationSync}).
+	 * @param ipSubStation	L'ip del seggio ausiliario a cui inviare l'aggiornamento.
+	 * @param header		Il tipo di aggiornamento.
+	 * @param update		L'aggiornamento da inviare.
+	 * @param reply			Se bisogna attendere la risposta del seggio ausiliario.
+	 * @return				La risposta del seggio ausiliario, o null.
 	 */
-	private void updateSubStations(InetAddress ipSubStation, DummyPost[] posts) throws PEException {
-		if(!correctState(StateStation.ATTIVO)) 
-			return;
-		
-		//Creiamo lo snapshot inserendo le postazioni
-		Message snapshot = new Message(Protocol.updateSubStation);
-		snapshot.setElement("posts", posts);
-		
-		//Contattiamo il seggio ausiliario + Inviamo lo snapshot
+	String sendToSubStation(InetAddress ipSubStation, String header, Message update, boolean reply) {
+		//Contattiamo il seggio ausiliario + Inviamo l'aggiornamento
 		try (Link link = createLink(ipSubStation, station.getSubStationPort(), null, null)) {
-			if(link.isClosed()) return;
+			if(link.isClosed()) return null;
+			
+			link.write(header);
+			link.write(update.toB64());
 			
-			link.write(Protocol.updateSubStation);
-			link.write(snapshot.toB64());
+			if(reply && link.hasNextLine())
+				return link.read();
+		}
+		catch (PEException e) {
+			printError(e);
 		}
+		
+		return null;
 	}
 	
 	private void deactivateStationOps() {
+		//Le schede restano memorizzate: ad una nuova attivazione non vengono ricevute nuovamente se l'urna ha le stesse schede
 		station.setState(StateStation.NON_ATTIVO);
-		station.setEmptyBallots(null);
 		station.setSessionKey(null);
 		
 		stopUrnThread();
-		stopPostsThread();
+		stopPostsMonitor();
 	}
 	
-	private void stopPostsThread() {
-		if(postsThread != null) {
-			postsThread.shutDown();
-			try {
-				postsThread.join();
-			} catch (InterruptedException ignored) {}
+	private void stopPostsMonitor() {
+		if(postsMonitor != null) {
+			postsMonitor.shutDown();
+			postsMonitor = null;
+		}
+		
+		if(subStationSync != null) {
+			subStationSync.shutDown();
+			subStationSync = null;
 		}
 	}
 	
@@ -1231,6 +1225,11 @@ public class Controller extends TerminalController {
 		updateViewAndSubstation();
 	}
 	
+	@Override
+	protected void urnShutDown() {
+		deactivateStation();
+	}
+	
 	@Override
 	protected boolean verifyUrnIp(InetAddress ip) {
 		if (ip.equals(station.getUrnIp()))
@@ -1250,7 +1249,7 @@ public class Controller extends TerminalController {
 		if(station.getState() == StateStation.NON_ATTIVO)
 			return;
 
-		stopPostsThread();
+		stopPostsMonitor();
 		
 		signalShutDown(station.getUrnIp(), Constants.portUrn);
 		
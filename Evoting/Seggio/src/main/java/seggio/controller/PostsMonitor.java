@@ -0,0 +1,277 @@
+package seggio.controller;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import model.DummyPost;
+import model.Message;
+import model.State.StatePost;
+import seggio.model.Station;
+import utils.Constants;
+
+/**
+ * Monitoraggio delle postazioni del seggio, che sostituisce il polling a cadenza fissa con un thread per postazione.
+ * <br/>
+ * Tutte le verifiche sono eseguite da un unico scheduler con pochi thread. La richiesta alla postazione avviene su un thread a parte,
+ * attendendone la risposta al più {@link Constants#postCheckTimeout} ms: una postazione bloccata risulta irraggiungibile
+ * senza ritardare le verifiche delle altre. Ogni postazione ha una propria pianificazione:
+ * finché la postazione risponde, l'intervallo tra due verifiche raddoppia fino a {@link Constants#postsPollingMax}, mentre
+ * una postazione irraggiungibile viene verificata ogni {@link Constants#postsPollingMin}.
+ * <br/>
+ * Ogni stato notificato da una postazione ({@link utils.Protocol#informStatePost}) ne dimostra la raggiungibilità e rimanda
+ * la verifica successiva; se la postazione era irraggiungibile viene invece verificata subito. Con {@link Constants#postsPolling}
+ * disabilitato le postazioni raggiungibili non vengono mai interrogate e il seggio si affida solo alle loro notifiche.
+ */
+class PostsMonitor {
+	//Numero di thread dello scheduler, indipendente dal numero di postazioni
+	private static final int numThreads = 2;
+
+	private final Controller controller;
+	private final Station station;
+	private final ScheduledExecutorService scheduler;
+	private final Watch[] watches;
+
+	//Thread che eseguono le richieste alle postazioni: al più uno per postazione, anche se la postazione non risponde più
+	private final ExecutorService requests;
+
+	private final long minInterval, maxInterval, checkTimeout;
+	private final boolean polling;
+
+	/**
+	 * Costruttore, con intervalli e modalità indicati in {@link Constants}.
+	 * @param controller	Il controller del seggio.
+	 * @param station		Il model del seggio, già inizializzato con le postazioni.
+	 */
+	PostsMonitor(Controller controller, Station station) {
+		this(controller, station, Constants.postsPollingMin, Constants.postsPollingMax, Constants.postsPolling, Constants.postCheckTimeout);
+	}
+
+	/**
+	 * Costruttore.
+	 * @param controller	Il controller del seggio.
+	 * @param station		Il model del seggio, già inizializzato con le postazioni.
+	 * @param minInterval	Intervallo (ms) tra due verifiche di una postazione irraggiungibile.
+	 * @param maxInterval	Intervallo (ms) massimo tra due verifiche di una postazione raggiungibile.
+	 * @param polling		Se false, le postazioni raggiungibili non vengono verificate periodicamente.
+	 * @param checkTimeout	Attesa massima (ms) della risposta di una postazione.
+	 */
+	PostsMonitor(Controller controller, Station station, long minInterval, long maxInterval, boolean polling, long checkTimeout) {
+		this.controller = controller;
+		this.station = station;
+		this.minInterval = minInterval;
+		this.maxInterval = Math.max(minInterval, maxInterval);
+		this.polling = polling;
+		this.checkTimeout = checkTimeout;
+
+		scheduler = Executors.newScheduledThreadPool(numThreads, task -> {
+			Thread thread = new Thread(task, "Posts Monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		requests = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Posts Monitor Request");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		watches = new Watch[station.getNumPost()];
+		for(int post = 0; post < watches.length; post++)
+			watches[post] = new Watch(post);
+	}
+
+	/**
+	 * Avvia le verifiche periodiche delle postazioni.
+	 */
+	void start() {
+		if(!polling)
+			return;
+
+		for(Watch watch : watches)
+			watch.schedule(minInterval);
+	}
+
+	/**
+	 * Esegue un'operazione su ciascuna postazione adoperando i thread dello scheduler anziché un thread per postazione.
+	 * @param operation L'operazione da eseguire, a cui viene passato l'indice della postazione.
+	 */
+	void forEachPost(PostOperation operation) {
+		for(int post = 0; post < watches.length; post++)
+			onPost(post, operation);
+	}
+
+	/**
+	 * Esegue un'operazione su una postazione adoperando i thread dello scheduler.
+	 * @param post		L'indice della postazione.
+	 * @param operation	L'operazione da eseguire.
+	 */
+	void onPost(int post, PostOperation operation) {
+		try {
+			scheduler.execute(() -> operation.run(post));
+		}
+		catch (RejectedExecutionException ignored) {
+			//Il monitoraggio è stato terminato
+		}
+	}
+
+	/**
+	 * Funzione richiamata quando una postazione notifica il proprio stato al seggio.
+	 * @param post L'indice della postazione.
+	 */
+	void notifyPush(int post) {
+		if(post >= 0 && post < watches.length)
+			watches[post].pushed();
+	}
+
+	/**
+	 * Termina il monitoraggio, attendendo brevemente le verifiche in corso.
+	 */
+	void shutDown() {
+		scheduler.shutdownNow();
+		requests.shutdownNow();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ignored) {}
+	}
+
+	/**
+	 * Operazione da eseguire su una postazione (vedi {@link #forEachPost}).
+	 */
+	interface PostOperation {
+		void run(int post);
+	}
+
+	/**
+	 * Stato del monitoraggio di una postazione: intervallo corrente, verifica pianificata e verifica in corso.
+	 */
+	private class Watch {
+		private final int post;
+		private long interval;
+		private ScheduledFuture<?> next = null;
+		private boolean checking = false, recheck = false;
+
+		//Ultima richiesta alla postazione, e se è ancora in esecuzione anche dopo che la verifica ha smesso di attenderla
+		private Future<Message> response = null;
+		private volatile boolean requesting = false;
+
+		Watch(int post) {
+			this.post = post;
+			this.interval = minInterval;
+		}
+
+		/**
+		 * Pianifica la prossima verifica, sostituendo quella eventualmente già pianificata.
+		 */
+		synchronized void schedule(long delay) {
+			if(next != null)
+				next.cancel(false);
+
+			try {
+				next = scheduler.schedule(this::check, delay, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e) {
+				next = null;
+			}
+		}
+
+		private void check() {
+			synchronized(this) {
+				if(checking)
+					return;
+
+				checking = true;
+				next = null;
+			}
+
+			boolean reachable = true;
+			try {
+				DummyPost currPost = station.getPosts()[post];
+
+				//Le postazioni spente non vengono contattate
+				if(!currPost.getState().equals(StatePost.OFFLINE))
+					reachable = new SinglePostPolling(controller, station, currPost).poll(request(currPost));
+			}
+			catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			finally {
+				synchronized(this) {
+					checking = false;
+					interval = reachable ? Math.min(maxInterval, interval * 2) : minInterval;
+
+					if(recheck) {
+						recheck = false;
+						schedule(0);
+					}
+					else if(polling || !reachable)
+						schedule(interval);
+				}
+			}
+		}
+
+		/**
+		 * Richiede lo stato alla postazione su un thread a parte, attendendo la risposta al più checkTimeout ms.
+		 * Finché una richiesta precedente rimasta senza risposta è in corso la postazione non viene contattata di nuovo.
+		 * @return La risposta della postazione, o null se non è arrivata in tempo.
+		 */
+		private Message request(DummyPost currPost) {
+			if(requesting || (response != null && !response.isDone()))
+				return null;
+
+			try {
+				response = requests.submit(() -> {
+					requesting = true;
+					try {
+						return controller.checkForUnreachablePost(currPost);
+					}
+					finally {
+						requesting = false;
+					}
+				});
+			}
+			catch (RejectedExecutionException e) {
+				return null;
+			}
+
+			try {
+				return response.get(checkTimeout, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e) {
+				//L'interruzione sblocca l'attesa della risposta sul link, se possibile
+				response.cancel(true);
+				return null;
+			}
+			catch (ExecutionException e) {
+				e.printStackTrace();
+				return null;
+			}
+			catch (InterruptedException e) {
+				response.cancel(true);
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		synchronized void pushed() {
+			if(station.getPosts()[post].isUnreachable()) {
+				if(checking)
+					recheck = true;
+				else
+					schedule(0);
+
+				return;
+			}
+
+			interval = maxInterval;
+			if(polling && !checking)
+				schedule(maxInterval);
+		}
+	}
+}
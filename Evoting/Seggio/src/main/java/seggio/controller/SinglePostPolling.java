@@ -11,7 +11,11 @@ import model.WrittenBallot;
 import seggio.model.Station;
 import utils.Constants;
 
-public class SinglePostPolling extends Thread {
+/**
+ * Verifica dello stato di una singola postazione, eseguita da {@link PostsMonitor}: se la postazione torna raggiungibile
+ * si controlla che il suo stato sia consistente con l'ultimo noto al seggio.
+ */
+class SinglePostPolling {
 	private Controller controller;
 	private Station station;
 	private DummyPost currPost;
@@ -19,21 +23,24 @@ public class SinglePostPolling extends Thread {
 	private boolean destroyAssociation = false;
 	private boolean sendVotes = false;
 	
-	public SinglePostPolling(Controller controller, Station station, DummyPost post) {
+	SinglePostPolling(Controller controller, Station station, DummyPost post) {
 		this.controller = controller;
 		this.station = station;
 		this.currPost = post;
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Aggiorna il seggio in base allo stato ricevuto dalla postazione (vedi {@link Controller#checkForUnreachablePost}).
+	 * @param currPostsInfo	La risposta della postazione, o null se non ha risposto in tempo.
+	 * @return True se la postazione è raggiungibile.
+	 */
+	boolean poll(Message currPostsInfo) {
 		String postString = "La postazione @ "+currPost.getIp().getHostAddress();
 		
 		StatePost lastKnownState = currPost.getState();
 		String lastKnownBadge = currPost.getBadge();
 		boolean wasUnreachable = currPost.isUnreachable();
 		
-		Message currPostsInfo = controller.checkForUnreachablePost(currPost);
 		StatePost currState = currPostsInfo == null ? null : currPostsInfo.getElement("state");
 		String currBadge = currPostsInfo == null ? null : currPostsInfo.getElement("card");
 		
@@ -43,13 +50,13 @@ public class SinglePostPolling extends Thread {
 		if(!wasUnreachable && !isUnreachable) {
 			if(Constants.verbose)
 				System.out.println(postString + " è ancora raggiungibile");
-			return;
+			return true;
 		}
 		
 		if(wasUnreachable && isUnreachable) {
 			if(Constants.verbose)
 				System.out.println(postString + " è ancora irraggiungibile. Ultimo stato noto: " + lastKnownState);
-			return;
+			return false;
 		}
 		
 		if(!wasUnreachable && isUnreachable) {
@@ -93,6 +100,7 @@ public class SinglePostPolling extends Thread {
 		}
 		
 		controller.updateViewAndSubstation();
+		return !isUnreachable;
 	}
 	
 	private boolean checkStatesConsistency(InetAddress ip, StatePost oldState, String oldBadge, StatePost newState, String newBadge) throws PEException {
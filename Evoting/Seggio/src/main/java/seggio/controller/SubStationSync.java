@@ -0,0 +1,222 @@
+package seggio.controller;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import model.DummyPost;
+import model.Message;
+import model.WireCodec;
+import model.State.StateStation;
+import seggio.model.Station;
+import utils.Constants;
+import utils.Protocol;
+
+/**
+ * Sincronizzazione delle postazioni tra il seggio e i seggi ausiliari.
+ * <br/>
+ * Ad ogni cambiamento non viene più inviato l'intero array di postazioni, ma solo quelle cambiate dall'ultimo aggiornamento
+ * ({@link Protocol#updateSubStationDelta}), individuate confrontandone la codifica con quella dell'ultimo invio.
+ * Gli aggiornamenti sono preparati da un unico thread, per cui non rallentano chi ha modificato le postazioni, e le richieste che arrivano
+ * mentre un aggiornamento è in attesa vengono accorpate in quest'ultimo. Ogni aggiornamento è inviato a tutti i seggi ausiliari in parallelo,
+ * attendendone le risposte al più {@link Constants#subStationReplyTimeout} ms, così che un seggio ausiliario bloccato non ritardi gli altri.
+ * <br/>
+ * Ogni aggiornamento ha un numero di versione: un seggio ausiliario che ne perde qualcuno (ad esempio perché irraggiungibile)
+ * se ne accorge all'aggiornamento successivo e lo segnala, ricevendo subito tutte le postazioni ({@link Protocol#updateSubStation}).
+ */
+class SubStationSync {
+	private final Controller controller;
+	private final Station station;
+	private final ExecutorService sender;
+	private final ExecutorService requests;
+	private final long replyTimeout;
+
+	//Vero se un aggiornamento incrementale è stato richiesto ma non ancora avviato
+	private final AtomicBoolean pending = new AtomicBoolean(false);
+
+	//Accessibili solo dal thread di invio: codifica delle postazioni all'ultimo invio e versione corrente
+	private byte[][] sent = null;
+	private int version = 0;
+
+	SubStationSync(Controller controller, Station station) {
+		this.controller = controller;
+		this.station = station;
+		this.replyTimeout = Constants.subStationReplyTimeout;
+
+		sender = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "SubStation Sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		requests = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "SubStation Sync Request");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Richiede l'invio ai seggi ausiliari delle postazioni cambiate. La funzione non attende l'invio, e più richieste
+	 * ravvicinate producono un solo aggiornamento.
+	 */
+	void requestUpdate() {
+		if(!pending.compareAndSet(false, true))
+			return;
+
+		try {
+			sender.execute(this::sendDelta);
+		}
+		catch (RejectedExecutionException e) {
+			pending.set(false);
+		}
+	}
+
+	/**
+	 * Invia a tutti i seggi ausiliari tutte le postazioni, attendendo che le abbiano applicate (al più {@link Constants#subStationReplyTimeout} ms).
+	 */
+	void resync() {
+		try {
+			Future<?> done = sender.submit(() -> sendFull(station.getSubStationIps()));
+			done.get();
+		}
+		catch (RejectedExecutionException | ExecutionException e) {
+			//Sincronizzazione terminata, o errore già segnalato durante l'invio
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Termina la sincronizzazione, attendendo brevemente l'invio in corso.
+	 */
+	void shutDown() {
+		sender.shutdownNow();
+		requests.shutdownNow();
+		try {
+			sender.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException ignored) {}
+	}
+
+	private void sendDelta() {
+		pending.set(false);
+
+		DummyPost[] posts = station.getPosts();
+		InetAddress[] ipSubStations = station.getSubStationIps();
+		if(!isActive(posts, ipSubStations))
+			return;
+
+		//Prima sincronizzazione o postazioni reinizializzate
+		if(sent == null || sent.length != posts.length) {
+			sendFull(ipSubStations);
+			return;
+		}
+
+		List<Integer> indexes = new ArrayList<>();
+		List<DummyPost> changed = new ArrayList<>();
+		byte[][] encoded = new byte[posts.length][];
+
+		for(int post = 0; post < posts.length; post++) {
+			encoded[post] = WireCodec.encode(posts[post]);
+
+			if(!Arrays.equals(encoded[post], sent[post])) {
+				indexes.add(post);
+				changed.add(posts[post]);
+			}
+		}
+
+		if(indexes.isEmpty())
+			return;
+
+		version++;
+		sent = encoded;
+
+		Message delta = new Message(Protocol.updateSubStationDelta);
+		delta.setElement("version", version);
+		delta.setElement("indexes", indexes.stream().mapToInt(Integer::intValue).toArray());
+		delta.setElement("posts", changed.toArray(new DummyPost[0]));
+
+		Message snapshot = snapshot(posts);
+		sendToAll(ipSubStations, ipSubStation -> {
+			if(!Protocol.subStationResyncReq.equals(controller.sendToSubStation(ipSubStation, Protocol.updateSubStationDelta, delta, true)))
+				return;
+
+			//Il seggio ausiliario ha perso degli aggiornamenti: gli si inviano tutte le postazioni, con la versione appena inviata agli altri
+			controller.sendToSubStation(ipSubStation, Protocol.updateSubStation, snapshot, true);
+		});
+	}
+
+	private void sendFull(InetAddress[] ipSubStations) {
+		DummyPost[] posts = station.getPosts();
+		if(!isActive(posts, ipSubStations))
+			return;
+
+		byte[][] encoded = new byte[posts.length][];
+		for(int post = 0; post < posts.length; post++)
+			encoded[post] = WireCodec.encode(posts[post]);
+
+		version++;
+		sent = encoded;
+
+		Message snapshot = snapshot(posts);
+		sendToAll(ipSubStations, ipSubStation -> controller.sendToSubStation(ipSubStation, Protocol.updateSubStation, snapshot, true));
+	}
+
+	/**
+	 * Esegue in parallelo l'invio verso ciascun seggio ausiliario, attendendo tutte le risposte al più {@link #replyTimeout} ms.
+	 * Un invio ancora in corso allo scadere del tempo viene interrotto: se il seggio ausiliario non ha ricevuto l'aggiornamento,
+	 * se ne accorgerà dalla versione di quello successivo.
+	 */
+	private void sendToAll(InetAddress[] ipSubStations, Consumer<InetAddress> send) {
+		List<Future<?>> replies = new ArrayList<>();
+		try {
+			for(InetAddress ipSubStation : ipSubStations)
+				replies.add(requests.submit(() -> send.accept(ipSubStation)));
+		}
+		catch (RejectedExecutionException e) {
+			//Sincronizzazione terminata
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replyTimeout);
+		for(Future<?> reply : replies) {
+			try {
+				reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+			catch (TimeoutException e) {
+				//L'interruzione sblocca l'attesa della risposta sul link, se possibile
+				reply.cancel(true);
+			}
+			catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			catch (InterruptedException e) {
+				replies.forEach(pending -> pending.cancel(true));
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private Message snapshot(DummyPost[] posts) {
+		Message snapshot = new Message(Protocol.updateSubStation);
+		snapshot.setElement("posts", posts);
+		snapshot.setElement("version", version);
+		return snapshot;
+	}
+
+	private boolean isActive(DummyPost[] posts, InetAddress[] ipSubStations) {
+		return posts != null && posts.length > 0 && ipSubStations != null && ipSubStations.length > 0
+				&& station.getState() == StateStation.ATTIVO;
+	}
+}
@@ -29,6 +29,7 @@ public class Station extends AbstrModel{
 	private String sessionKey;
 	
 	private EmptyBallot[] ballots;
+	private String ballotsHash = null;
 	
 	private boolean simulateOffline = false;
 	
@@ -276,8 +277,30 @@ public class Station extends AbstrModel{
 	public void setDocumentID(String id) { this.newVoter.setDocumentID(id); }
 	public String getDocumentID() { return newVoter != null ? newVoter.getDocumentID() : null; }
 	
-	public void setEmptyBallots(EmptyBallot[] ballots) { this.ballots = ballots; }
+	public void setEmptyBallots(EmptyBallot[] ballots) { setEmptyBallots(ballots, null); }
 	public EmptyBallot[] getEmptyBallots() { return ballots; }
+	
+	/**
+	 * Memorizza le schede della procedura insieme al loro hash, comunicato dall'urna.
+	 * @param ballots	Le schede della procedura.
+	 * @param hash		L'hash delle schede, o null se non noto.
+	 */
+	public void setEmptyBallots(EmptyBallot[] ballots, String hash) {
+		this.ballots = ballots;
+		this.ballotsHash = ballots == null ? null : hash;
+	}
+	
+	/**
+	 * @return L'hash delle schede della procedura possedute dal seggio, o {@link Protocol#noBallotsHeld} se non note.
+	 */
+	public String getBallotsHash() { return ballotsHash == null ? Protocol.noBallotsHeld : ballotsHash; }
+	
+	/**
+	 * Verifica se il seggio possiede già le schede della procedura con l'hash indicato.
+	 * @param hash	L'hash comunicato dall'urna.
+	 * @return		True se il seggio possiede le schede, false altrimenti.
+	 */
+	public boolean holdsBallots(Object hash) { return ballots != null && ballotsHash != null && ballotsHash.equals(hash); }
 
 	/**
 	 * @return the simulateOffline
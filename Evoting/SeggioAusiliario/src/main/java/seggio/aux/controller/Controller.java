@@ -69,8 +69,7 @@ public class Controller extends TerminalController {
 				
 				updateView();	
 
-				urnThread = new UrnPolling(substation.getUrnIp(), this, Terminals.Type.SubStation);
-				urnThread.start();
+				startUrnThread(substation.getUrnIp(), Terminals.Type.SubStation);
 				
 				if(Constants.auxStatRfid && rfidReader != null) {
 					rfidReader.setAlwaysOn();
@@ -297,15 +296,43 @@ public class Controller extends TerminalController {
 	}
 	
 	protected void updateSubStation(DummyPost[] posts) throws PEException {
+		updateSubStation(posts, -1);
+	}
+	
+	/**
+	 * Aggiornamento completo delle postazioni inviato dal seggio.
+	 * @param posts		Tutte le postazioni del seggio.
+	 * @param version	La versione dell'aggiornamento, o -1 se sconosciuta.
+	 */
+	void updateSubStation(DummyPost[] posts, int version) throws PEException {
 		State.StateSubStation currState = substation.getState();
 		if(!currState.equals(StateSubStation.IN_ATTESA) && !currState.equals(StateSubStation.ATTIVO)) return;
 		
-		substation.update(posts);
+		substation.update(posts, version);
 		substation.setState(StateSubStation.ATTIVO);
 		
 		updateView();
 	}
 	
+	/**
+	 * Aggiornamento incrementale delle postazioni inviato dal seggio (vedi {@link Protocol#updateSubStationDelta}).
+	 * @param version	La versione dell'aggiornamento.
+	 * @param indexes	Gli indici delle postazioni cambiate.
+	 * @param posts		Le postazioni cambiate.
+	 * @return			False se è necessario un aggiornamento completo, perché il seggio ausiliario ha perso degli aggiornamenti.
+	 */
+	boolean updateSubStationDelta(int version, int[] indexes, DummyPost[] posts) {
+		//Un seggio ausiliario non attivo ignora gli aggiornamenti, come quelli completi
+		State.StateSubStation currState = substation.getState();
+		if(!currState.equals(StateSubStation.IN_ATTESA) && !currState.equals(StateSubStation.ATTIVO)) return true;
+		
+		if(!substation.update(version, indexes, posts))
+			return false;
+		
+		updateView();
+		return true;
+	}
+	
 	void resetSubStation() {
 		if(substation.getState().equals(State.StateSubStation.NON_ATTIVO)) 
 			return;
@@ -448,6 +475,11 @@ public class Controller extends TerminalController {
 		updateView();
 	}
 	
+	@Override
+	protected void urnShutDown() {
+		deactivateSubStation();
+	}
+	
 	@Override
 	protected boolean verifyUrnIp(InetAddress ip) {
 		if (ip.equals(substation.getUrnIp()))
@@ -23,6 +23,11 @@ public class Service extends AbstrService {
 					updateSubStation();
 				break;
 			
+			case Protocol.updateSubStationDelta:
+				if (((Controller) controller).verifyStationIp(ip))
+					updateSubStationDelta();
+				break;
+			
 			case Protocol.stationShutDown:
 				if (((Controller) controller).verifyStationIp(ip))
 					resetSubStation();
@@ -57,13 +62,43 @@ public class Service extends AbstrService {
 			request.verifyMessage(Protocol.updateSubStation, required, types, "seggio");
 			posts = request.getElement("posts");
 			
-			((Controller) controller).updateSubStation(posts);
+			//La versione manca negli aggiornamenti inviati da seggi che non supportano quelli incrementali
+			Integer version = request.getElement("version");
+			((Controller) controller).updateSubStation(posts, version == null ? -1 : version);
+			
+			//Il seggio attende la conferma, così da sapere che le postazioni sono state applicate
+			link.write(Protocol.subStationSynced);
 			
 		} catch(PEException e) {
 			controller.printError(e);
 		}
 	}
 	
+	private void updateSubStationDelta() {
+		if(!link.hasNextLine()) {
+			controller.printError("Errore di Comunicazione", "Il seggio non ha terminato l'invio dei dati richiesti.");
+			return;
+		}
+		
+		boolean synced = false;
+		try {
+			Message request = (Message) Message.fromB64(link.read(), "seggio principale");
+			String[] required = {"version", "indexes", "posts"};
+			Class<?>[] types = {Integer.class, int[].class, DummyPost[].class};
+			
+			request.verifyMessage(Protocol.updateSubStationDelta, required, types, "seggio");
+			
+			int version = request.getElement("version");
+			synced = ((Controller) controller).updateSubStationDelta(version, request.getElement("indexes"), request.getElement("posts"));
+			
+		} catch(PEException e) {
+			controller.printError(e);
+		}
+		
+		//Se l'aggiornamento non può essere applicato si richiede al seggio l'invio di tutte le postazioni
+		link.write(synced ? Protocol.subStationSynced : Protocol.subStationResyncReq);
+	}
+	
 	private void resetSubStation() {
 		((Controller) controller).resetSubStation();
 	}
@@ -17,6 +17,8 @@ public class SeggioAusiliario extends AbstrModel {
 	private StateSubStation state = StateSubStation.NON_ATTIVO;
 
 	private DummyPost[] posts;
+	//Versione dell'ultimo aggiornamento delle postazioni ricevuto dal seggio, -1 se sconosciuta
+	private int postsVersion = -1;
 	
 	private Person newVoter;
 	
@@ -46,9 +48,53 @@ public class SeggioAusiliario extends AbstrModel {
 	}
 	
 	public void update(DummyPost[] posts) {
-		this.posts = posts; 
+		update(posts, -1);
 	}
 	
+	/**
+	 * Sostituisce tutte le postazioni con quelle di un aggiornamento completo inviato dal seggio.
+	 * @param posts		Le postazioni.
+	 * @param version	La versione dell'aggiornamento, o -1 se sconosciuta.
+	 */
+	public synchronized void update(DummyPost[] posts, int version) {
+		this.posts = posts;
+		postsVersion = posts == null ? -1 : version;
+	}
+	
+	/**
+	 * Applica un aggiornamento incrementale inviato dal seggio, che contiene solo le postazioni cambiate.
+	 * Le postazioni non vengono modificate ma sostituite con un nuovo array, per cui chi le sta leggendo non ne risente.
+	 * @param version	La versione dell'aggiornamento.
+	 * @param indexes	Gli indici delle postazioni cambiate.
+	 * @param changed	Le postazioni cambiate, nello stesso ordine degli indici.
+	 * @return			False se l'aggiornamento non segue l'ultimo ricevuto, ed è quindi necessario un aggiornamento completo.
+	 */
+	public synchronized boolean update(int version, int[] indexes, DummyPost[] changed) {
+		if(posts == null || postsVersion < 0 || indexes.length != changed.length)
+			return false;
+		
+		//Aggiornamento già ricevuto
+		if(version <= postsVersion)
+			return true;
+		
+		if(version != postsVersion + 1)
+			return false;
+		
+		DummyPost[] updated = posts.clone();
+		for(int i = 0; i < indexes.length; i++) {
+			if(indexes[i] < 0 || indexes[i] >= updated.length)
+				return false;
+			
+			updated[indexes[i]] = changed[i];
+		}
+		
+		posts = updated;
+		postsVersion = version;
+		return true;
+	}
+	
+	public synchronized int getPostsVersion() { return postsVersion; }
+	
 	public DummyPost[] getPosts() { return posts; }
 
 	public void setStationIp(InetAddress ipStation) { this.stationIp = ipStation; }
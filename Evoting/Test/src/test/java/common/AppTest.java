@@ -3,17 +3,57 @@ package common;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.security.KeyPair;
+import java.security.KeyStore;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import controller.AbstrService;
+import controller.Link;
+import controller.NioServer;
+import controller.Server;
 import encryption.AES;
+import encryption.CryptoContext;
 import encryption.HMAC;
 import encryption.Hash;
 import encryption.KeyPairManager;
@@ -21,15 +61,29 @@ import encryption.NonceManager;
 import encryption.RandStrGenerator;
 import encryption.VoteEncryption;
 import exceptions.PEException;
+import model.DummyPost;
+import model.ElectoralList;
+import model.EmptyBallot;
 import model.Message;
+import model.Person;
+import model.State.StatePost;
+import model.Terminals;
 import model.VotePacket;
+import model.WireCodec;
+import model.WrittenBallot;
+import utils.Constants;
 import utils.FileUtils;
+import utils.Logger;
+import utils.Protocol;
+import view.ViewRefresher;
 
 /**
  * Unit test for simple App.
  */
 public class AppTest 
 {	
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
 	
 	@Before
 	public void setup() {
@@ -145,8 +199,36 @@ public class AppTest
 		VotePacket packet = new VotePacket("encryptedVote", "encryptedSymKey", "encryptedIV", encryptedNonce);
 		HMAC.sign(packet, right);
 		
+		assertEquals(HMAC.keyedVersion, packet.getHMACVersion());
 		assertTrue(HMAC.verify(packet, right));
 		assertFalse(HMAC.verify(packet, wrong));
+		
+		//Un pacchetto modificato non deve superare la verifica
+		VotePacket otherPacket = new VotePacket("otherVote", "encryptedSymKey", "encryptedIV", encryptedNonce);
+		otherPacket.sign(HMAC.keyedVersion, packet.getSalt(), packet.getHMAC());
+		assertFalse(HMAC.verify(otherPacket, right));
+		
+		//Svuotata la cache al termine della sessione, la chiave viene derivata nuovamente
+		HMAC.clearKeys();
+		assertTrue(HMAC.verify(packet, right));
+		
+		//I pacchetti firmati con lo schema originale (chiave derivata dal salt del pacchetto) devono essere ancora verificabili
+		VotePacket legacyPacket = new VotePacket("encryptedVote", "encryptedSymKey", "encryptedIV", encryptedNonce);
+		byte[] salt = new byte[8];
+		new SecureRandom().nextBytes(salt);
+		
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WITHHMACSHA256");
+		SecretKey key = factory.generateSecret(new PBEKeySpec(right.toCharArray(), salt, 2000, 128));
+		Mac mac = Mac.getInstance("HMACSHA256");
+		mac.init(key);
+		for(String block : legacyPacket.getUnsignedData())
+			mac.update(block.getBytes());
+		
+		legacyPacket.sign(Base64.getEncoder().encodeToString(salt), Base64.getEncoder().encodeToString(mac.doFinal()));
+		
+		assertEquals(HMAC.legacyVersion, legacyPacket.getHMACVersion());
+		assertTrue(HMAC.verify(legacyPacket, right));
+		assertFalse(HMAC.verify(legacyPacket, wrong));
 	}
 	
 	@Test
@@ -169,6 +251,54 @@ public class AppTest
 		assertTrue(!VoteEncryption.verifyPacketSignature(otherPacket, pu));
 	}
 	
+	@Test
+	public void cryptoContextTest() throws PEException {
+		if(Settings.printTestName) {System.out.println("\ncryptoContextTest");}
+		
+		int numPackets = 40;
+		String sessionKey = RandStrGenerator.genSessionKey();
+		CryptoContext crypto = new CryptoContext(RPTemp.getPublic(), RPTemp.getPrivate());
+		
+		//Cifratura, firma, verifica e decifratura ricostruendo le chiavi ad ogni pacchetto
+		long start = System.nanoTime();
+		for(int i = 0; i < numPackets; i++) {
+			String vote = "vote " + i;
+			VotePacket packet = VoteEncryption.encrypt(vote, RPTemp.getPublic(), AES.encryptNonce(i, sessionKey), sessionKey);
+			VoteEncryption.signPacket(packet, RPTemp.getPrivate());
+			
+			assertTrue(VoteEncryption.verifyPacketSignature(packet, RPTemp.getPublic()));
+			assertEquals(vote, VoteEncryption.decrypt(packet, RPTemp.getPrivate()));
+		}
+		long bytesTime = System.nanoTime() - start;
+		
+		//Le stesse operazioni con le chiavi del contesto
+		start = System.nanoTime();
+		for(int i = 0; i < numPackets; i++) {
+			String vote = "vote " + i;
+			VotePacket packet = crypto.encrypt(vote, AES.encryptNonce(i, sessionKey), sessionKey);
+			crypto.signPacket(packet);
+			
+			assertTrue(crypto.verifyPacketSignature(packet));
+			assertEquals(vote, crypto.decrypt(packet));
+		}
+		long contextTime = System.nanoTime() - start;
+		
+		if(Settings.printBenchmarks)
+			System.out.println(String.format("%d pacchetti: %d ms ricostruendo le chiavi, %d ms con CryptoContext", 
+					numPackets, bytesTime / 1000000, contextTime / 1000000));
+		
+		//Un contesto privo della chiave privata non può né firmare né decifrare
+		CryptoContext publicOnly = new CryptoContext(RPTemp.getPublic(), null);
+		VotePacket packet = publicOnly.encrypt("vote", AES.encryptNonce(0, sessionKey), sessionKey);
+		try {
+			publicOnly.decrypt(packet);
+			fail();
+		}
+		catch(PEException e) {
+			assertEquals(PEException.Code.DEV_3, e.getCode());
+		}
+	}
+	
 	@Test
 	public void nonceEncryptionTest() throws Exception {
 		int nonce = new SecureRandom().nextInt();
@@ -273,6 +403,646 @@ public class AppTest
 		
 		assertEquals(intArrayTest, message.getElement("test"));
 	}
+	
+	@Test
+	public void wireCodecTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nwireCodecTest");}
+		
+		String sessionKey = RandStrGenerator.genSessionKey();
+		CryptoContext crypto = new CryptoContext(RPTemp.getPublic(), null);
+		
+		EmptyBallot[] ballots = new EmptyBallot[3];
+		WrittenBallot[] written = new WrittenBallot[ballots.length];
+		for(int b = 0; b < ballots.length; b++) {
+			ballots[b] = new EmptyBallot("Scheda " + b, b + 1, "Descrizione della scheda " + b, 2);
+			for(int l = 0; l < 3; l++) {
+				ElectoralList list = new ElectoralList("Lista " + l, l);
+				for(int c = 0; c < 5; c++)
+					list.addPerson(new Person("Nome" + c, "Cognome" + c, "01/01/1990", "ID-" + b + "-" + l + "-" + c));
+				ballots[b].addList(list);
+			}
+			ballots[b].addOption("Scheda bianca");
+			
+			written[b] = new WrittenBallot(ballots[b].getTitle(), ballots[b].getCode(), 2);
+			written[b].addPreference("ID-" + b + "-0-0");
+			written[b].encryptBallot(crypto, new String[] {AES.encryptNonce(1, sessionKey), AES.encryptNonce(2, sessionKey)}, sessionKey);
+		}
+		
+		Person voter = new Person("Mario", "Rossi", "VOTER-1", new int[] {1, 2, 3}, true, "02/02/1980");
+		voter.setDocumentType("Patente");
+		voter.setDocumentID("AB123");
+		
+		DummyPost post = new DummyPost(1, InetAddress.getByName("127.0.0.2"));
+		post.setState(StatePost.VOTO_INVIATO);
+		post.setVoter(voter);
+		post.setBadge("badge");
+		post.setEncryptedBallots(written);
+		
+		Message message = new Message(Protocol.validAuthentication);
+		message.addError("errore");
+		message.setElement("ballots", ballots);
+		message.setElement("encryptedBallots", written);
+		message.setElement("voter", voter);
+		message.setElement("posts", new DummyPost[] {post, null});
+		message.setElement("subStations", new InetAddress[] {InetAddress.getByName("::1")});
+		message.setElement("nonces", new String[][] {{"a", null}, {}});
+		message.setElement("pubKey", RPTemp.getPublic());
+		message.setElement("terminal", Terminals.Type.Post);
+		message.setElement("numPreferences", -7);
+		message.setElement("missingVoters", false);
+		message.setElement("empty", null);
+		
+		//Correttezza della decodifica
+		Message decoded = (Message) Message.fromB64(message.toB64(), "test");
+		assertEquals(Protocol.validAuthentication, decoded.getValue());
+		assertEquals(message.getErrors(), decoded.getErrors());
+		assertEquals(Terminals.Type.Post, decoded.getElement("terminal"));
+		assertEquals(-7, (int) decoded.getElement("numPreferences"));
+		assertFalse(decoded.getElement("missingVoters"));
+		assertNull(decoded.getElement("empty"));
+		assertArrayEquals(RPTemp.getPublic(), decoded.getElement("pubKey"));
+		assertArrayEquals(new String[][] {{"a", null}, {}}, decoded.getElement("nonces"));
+		assertEquals(InetAddress.getByName("::1"), ((InetAddress[]) decoded.getElement("subStations"))[0]);
+		
+		Person decodedVoter = decoded.getElement("voter");
+		assertEquals("VOTER-1", decodedVoter.getID());
+		assertArrayEquals(new int[] {1, 2, 3}, decodedVoter.getBallotCodes());
+		assertTrue(decodedVoter.mayVote());
+		assertEquals("02/02/1980", decodedVoter.getBirth());
+		assertEquals(Person.DocumentType.PATENTE, decodedVoter.getDocumentType());
+		assertEquals("AB123", decodedVoter.getDocumentID());
+		
+		EmptyBallot[] decodedBallots = decoded.getElement("ballots");
+		assertEquals(ballots.length, decodedBallots.length);
+		assertEquals("Descrizione della scheda 2", decodedBallots[2].getDescription());
+		assertEquals(3, decodedBallots[2].getLists().size());
+		assertEquals("ID-2-1-4", decodedBallots[2].getLists().get(1).getCandidates().get(4).getID());
+		assertEquals(ballots[2].getOptions(), decodedBallots[2].getOptions());
 
+		//Le schede codificate una sola volta producono lo stesso messaggio delle schede codificate ad ogni invio
+		Message plain = new Message(Protocol.validAuthentication);
+		plain.setElement("ballots", ballots);
+		Message preEncoded = new Message(Protocol.validAuthentication);
+		preEncoded.setElement("ballots", WireCodec.preEncode(ballots));
+		assertEquals(plain.toB64(), preEncoded.toB64());
+		assertEquals(ballots.length, ((EmptyBallot[]) ((Message) Message.fromB64(preEncoded.toB64(), "test")).getElement("ballots")).length);
 
+		DummyPost[] decodedPosts = decoded.getElement("posts");
+		assertEquals(null, decodedPosts[1]);
+		assertEquals(StatePost.VOTO_INVIATO, decodedPosts[0].getState());
+		assertEquals(InetAddress.getByName("127.0.0.2"), decodedPosts[0].getIp());
+		assertEquals("VOTER-1", decodedPosts[0].getVoter().getID());
+		
+		VotePacket sent = written[1].getEncryptedVotePackets().get(1);
+		VotePacket received = decodedPosts[0].getEncryptedBallots()[1].getEncryptedVotePackets().get(1);
+		assertArrayEquals(sent.getUnsignedData(), received.getUnsignedData());
+		assertEquals(sent.getHMACVersion(), received.getHMACVersion());
+		assertEquals(sent.getSalt(), received.getSalt());
+		assertTrue(HMAC.verify(received, sessionKey));
+		
+		//Confronto con la serializzazione Java adoperata in precedenza, sui messaggi di attivazione della postazione e di invio dei voti
+		Message activation = new Message(Protocol.validAuthentication);
+		activation.setElement("ipStation", InetAddress.getByName("127.0.0.1"));
+		activation.setElement("pubKey", RPTemp.getPublic());
+		activation.setElement("ballots", ballots);
+		
+		Message votes = new Message(Protocol.sendVoteToUrn);
+		votes.setElement("voter", voter);
+		votes.setElement("encryptedBallots", written);
+		votes.setElement("ipPost", InetAddress.getByName("127.0.0.2"));
+		
+		String current = null;
+		for(Message benchmarked : new Message[] {activation, votes}) {
+			int runs = 200;
+			String legacy = null;
+			
+			long start = System.nanoTime();
+			for(int i = 0; i < runs; i++) {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+					out.writeObject(benchmarked);
+				}
+				legacy = Base64.getEncoder().encodeToString(bytes.toByteArray());
+				
+				try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(legacy)))) {
+					in.readObject();
+				}
+			}
+			long legacyTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			for(int i = 0; i < runs; i++) {
+				current = benchmarked.toB64();
+				Message.fromB64(current, "test");
+			}
+			long currentTime = System.nanoTime() - start;
+			
+			if(Settings.printBenchmarks)
+				System.out.println(String.format("%s: %d caratteri e %d us con la serializzazione Java, %d caratteri e %d us con WireCodec", 
+						benchmarked.getValue(), legacy.length(), legacyTime / runs / 1000, current.length(), currentTime / runs / 1000));
+			
+			assertTrue(current.length() < legacy.length());
+			
+			//I messaggi serializzati con il formato precedente vengono rifiutati
+			assertCSTFailure(legacy);
+		}
+		
+		//Tipi non previsti, versioni sconosciute e messaggi troncati vengono rifiutati
+		Message unsupported = new Message(Protocol.validAuthentication);
+		unsupported.setElement("key", KeyPairManager.genKeyPair().getPublic());
+		try {
+			unsupported.toB64();
+			fail();
+		}
+		catch(IllegalArgumentException e) {}
+		
+		byte[] encoded = Base64.getDecoder().decode(current);
+		encoded[0] = WireCodec.version + 1;
+		assertCSTFailure(Base64.getEncoder().encodeToString(encoded));
+		assertCSTFailure(current.substring(0, current.length() / 2));
+	}
+	
+	private void assertCSTFailure(String b64) {
+		try {
+			Message.fromB64(b64, "test");
+			fail();
+		}
+		catch(PEException e) {
+			assertEquals(PEException.Code.CST_2, e.getCode());
+		}
+	}
+	
+	@Test
+	public void persistentLinkTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\npersistentLinkTest");}
+		
+		boolean linkSSL = Constants.linkSSL;
+		Constants.linkSSL = false;
+		
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		int port = 4399;
+		
+		//Il server "client" non viene avviato: serve solo ad aprire link verso l'altro
+		EchoServer server = new EchoServer(port);
+		EchoServer client = new EchoServer(port + 1);
+		
+		try {
+			server.start();
+			
+			//Più richieste concorrenti devono condividere un'unica connessione
+			int numRequests = 20;
+			AtomicInteger answered = new AtomicInteger(0);
+			Thread[] requests = new Thread[numRequests];
+			
+			for(int i = 0; i < numRequests; i++) {
+				String request = "request " + i;
+				requests[i] = new Thread(() -> {
+					if(echo(client, localhost, port, request))
+						answered.incrementAndGet();
+				});
+				requests[i].start();
+			}
+			
+			for(Thread request : requests)
+				request.join();
+			
+			assertEquals(numRequests, answered.get());
+			assertEquals(1, client.getOpenedConnections());
+			
+			//Al riavvio del destinatario la connessione deve essere riaperta in modo trasparente
+			server.halt();
+			server = new EchoServer(port);
+			server.start();
+			Thread.sleep(200);
+			
+			assertTrue(echo(client, localhost, port, "after restart"));
+			assertEquals(2, client.getOpenedConnections());
+			
+			//Senza destinatario si ottiene un link chiuso (o un'eccezione, se richiesta)
+			server.halt();
+			Thread.sleep(200);
+			
+			try (Link link = client.link(localhost, port, null)) {
+				assertTrue(link.isClosed());
+			}
+			
+			try (Link link = client.link(localhost, port, "errore")) {
+				fail();
+			}
+			catch (PEException e) {
+				assertEquals(PEException.Code.CNN_1, e.getCode());
+			}
+		}
+		finally {
+			server.halt();
+			client.halt();
+			Constants.linkSSL = linkSSL;
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void deadPeerLinkTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\ndeadPeerLinkTest");}
+		
+		boolean linkSSL = Constants.linkSSL;
+		int pingInterval = Constants.channelPingInterval;
+		int readTimeout = Constants.linkReadTimeout;
+		Constants.linkSSL = false;
+		Constants.channelPingInterval = 100;
+		
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		int port = 4405;
+		
+		//Un terminale che accetta le connessioni ma non risponde più, nemmeno ai ping
+		EchoServer client = new EchoServer(port + 1);
+		ServerSocket dead = new ServerSocket(port, 50, localhost);
+		List<Socket> accepted = Collections.synchronizedList(new ArrayList<>());
+		Thread acceptor = new Thread(() -> {
+			try {
+				while(true)
+					accepted.add(dead.accept());
+			} catch (IOException ignored) {}
+		});
+		acceptor.start();
+		
+		try {
+			//La connessione silenziosa viene chiusa, sbloccando il link in attesa, e la richiesta successiva ne apre una nuova
+			try (Link link = client.link(localhost, port, "errore")) {
+				link.write("ciao");
+				assertFalse(link.hasNextLine());
+				assertTrue(link.isClosed());
+			}
+			
+			try (Link link = client.link(localhost, port, "errore")) {
+				assertFalse(link.isClosed());
+			}
+			assertEquals(2, client.getOpenedConnections());
+			
+			//Con una connessione viva, un link sul quale non arriva nulla viene chiuso allo scadere del timeout di lettura
+			Constants.channelPingInterval = pingInterval;
+			Constants.linkReadTimeout = 300;
+			
+			EchoServer server = new EchoServer(port + 2);
+			try {
+				server.start();
+				Thread.sleep(200);
+				
+				try (Link link = client.link(localhost, port + 2, "errore")) {
+					long start = System.currentTimeMillis();
+					assertFalse(link.hasNextLine());
+					assertTrue(System.currentTimeMillis() - start >= 300);
+				}
+			}
+			finally {
+				server.halt();
+			}
+		}
+		finally {
+			dead.close();
+			synchronized(accepted) {
+				for(Socket socket : accepted)
+					socket.close();
+			}
+			
+			client.halt();
+			Constants.linkSSL = linkSSL;
+			Constants.channelPingInterval = pingInterval;
+			Constants.linkReadTimeout = readTimeout;
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void viewRefresherTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nviewRefresherTest");}
+		
+		//Il thread della view viene simulato da un executor con un solo thread
+		ExecutorService viewThread = Executors.newSingleThreadExecutor();
+		AtomicInteger refreshes = new AtomicInteger(0);
+		
+		try {
+			ViewRefresher refresher = new ViewRefresher(() -> {
+				refreshes.incrementAndGet();
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException ignored) {}
+			}, viewThread::execute, 10);
+			
+			//Molte richieste ravvicinate da più thread producono pochi aggiornamenti
+			long start = System.currentTimeMillis();
+			Thread[] requesters = new Thread[4];
+			for(int t = 0; t < requesters.length; t++) {
+				requesters[t] = new Thread(() -> {
+					for(int i = 0; i < 250; i++)
+						refresher.request();
+				});
+				requesters[t].start();
+			}
+			
+			for(Thread requester : requesters)
+				requester.join();
+			
+			long elapsed = System.currentTimeMillis() - start;
+			
+			//L'ultima richiesta viene comunque servita
+			Thread.sleep(300);
+			int count = refreshes.get();
+			assertTrue(count >= 1);
+			assertTrue(count <= elapsed / 100 + 2);
+			
+			refresher.request();
+			Thread.sleep(300);
+			assertEquals(count + 1, refreshes.get());
+		}
+		finally {
+			viewThread.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void loggerTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nloggerTest");}
+		
+		Logger logger = new Logger(false, 16);
+		Logger.Cursor cursor = logger.newCursor();
+		InetAddress ip = InetAddress.getByName("127.0.0.1");
+		
+		logger.logInfo("primo");
+		logger.log(Logger.Level.WARNING, ip, Terminals.Type.Post, "secondo");
+		
+		List<Logger.Entry> entries = cursor.poll();
+		assertEquals(2, entries.size());
+		assertEquals(Logger.Level.INFO, entries.get(0).getLevel());
+		assertEquals(null, entries.get(0).getIp());
+		assertEquals(ip, entries.get(1).getIp());
+		assertEquals(Terminals.Type.Post, entries.get(1).getType());
+		assertEquals("secondo", entries.get(1).getEvent());
+		assertTrue(entries.get(1).toString().endsWith(" - [WARNING] secondo"));
+		
+		//Ogni lettura restituisce solo i nuovi log, e cursori diversi sono indipendenti
+		assertTrue(cursor.poll().isEmpty());
+		ArrayList<String> logs = logger.getLogs();
+		assertEquals(2, logs.size());
+		assertTrue(logger.getLogs().isEmpty());
+		
+		//Registrazioni concorrenti: il buffer resta limitato e i log sovrascritti vengono contati
+		Thread[] writers = new Thread[4];
+		for(int t = 0; t < writers.length; t++) {
+			int id = t;
+			writers[t] = new Thread(() -> {
+				for(int i = 0; i < 100; i++)
+					logger.logInfo(id + "-" + i);
+			});
+			writers[t].start();
+		}
+		
+		for(Thread writer : writers)
+			writer.join();
+		
+		entries = cursor.poll();
+		assertEquals(16, entries.size());
+		assertEquals(400 - 16, cursor.getLost());
+		
+		//Log di ciascun thread restituiti nell'ordine di registrazione
+		for(int t = 0; t < writers.length; t++) {
+			int last = -1;
+			for(Logger.Entry entry : entries) {
+				String[] parts = entry.getEvent().split("-");
+				if(Integer.parseInt(parts[0]) != t)
+					continue;
+				
+				assertTrue(Integer.parseInt(parts[1]) > last);
+				last = Integer.parseInt(parts[1]);
+			}
+		}
+		
+		assertEquals(16, logger.getLogs().size());
+		logger.close();
+	}
+	
+	@Test
+	public void nioServerTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nnioServerTest");}
+		
+		boolean linkSSL = Constants.linkSSL;
+		Constants.linkSSL = false;
+		
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		int port = 4401;
+		
+		NioEchoServer server = new NioEchoServer(port, null);
+		EchoServer client = new EchoServer(port + 1);
+		
+		int numIdle = 300;
+		Socket[] idle = new Socket[numIdle];
+		
+		try {
+			server.start();
+			int threads = Thread.activeCount();
+			
+			//Connessioni che aprono un link senza inviare alcuna richiesta, o che non inviano nemmeno la riga di apertura
+			for(int i = 0; i < numIdle; i++) {
+				idle[i] = new Socket(localhost, port);
+				if(i % 2 == 0)
+					idle[i].getOutputStream().write(("SECUREBALLOT-MUX/1\n1 O\n").getBytes(StandardCharsets.UTF_8));
+			}
+			
+			//Le richieste vengono comunque servite dai due thread del pool, senza thread aggiuntivi per le connessioni
+			int numRequests = 20;
+			AtomicInteger answered = new AtomicInteger(0);
+			Thread[] requests = new Thread[numRequests];
+			
+			for(int i = 0; i < numRequests; i++) {
+				String request = "request " + i;
+				requests[i] = new Thread(() -> {
+					if(echo(client, localhost, port, request))
+						answered.incrementAndGet();
+				});
+				requests[i].start();
+			}
+			
+			for(Thread request : requests)
+				request.join();
+			
+			assertEquals(numRequests, answered.get());
+			
+			for(int i = 0; i < 50 && server.getIncomingConnections() < numIdle + 1; i++)
+				Thread.sleep(20);
+			
+			assertEquals(numIdle + 1, server.getIncomingConnections());
+			
+			//Il client ha un thread per la propria connessione, il server nessuno
+			assertTrue(Thread.activeCount() - threads <= 4);
+			
+			//Una connessione che non rispetta il protocollo viene chiusa
+			try (Socket wrong = new Socket(localhost, port)) {
+				wrong.getOutputStream().write("1 D ciao\n".getBytes(StandardCharsets.UTF_8));
+				assertEquals(-1, wrong.getInputStream().read());
+			}
+			
+			//Oltre i 256 link aperti sulla stessa connessione le aperture vengono rifiutate
+			try (Socket greedy = new Socket(localhost, port)) {
+				StringBuilder opens = new StringBuilder("SECUREBALLOT-MUX/1\n");
+				for(int id = 1; id <= 257; id++)
+					opens.append(id).append(" O\n");
+				
+				greedy.getOutputStream().write(opens.toString().getBytes(StandardCharsets.UTF_8));
+				BufferedReader in = new BufferedReader(new InputStreamReader(greedy.getInputStream(), StandardCharsets.UTF_8));
+				assertEquals("257 E", in.readLine());
+			}
+		}
+		finally {
+			for(Socket socket : idle)
+				if(socket != null)
+					socket.close();
+			
+			server.halt();
+			client.halt();
+			Constants.linkSSL = linkSSL;
+		}
+	}
+	
+	@Test
+	public void nioServerSSLTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nnioServerSSLTest");}
+		
+		//Keystore con un certificato autofirmato, adoperato sia dal server che (come truststore) dai client
+		File keystore = tmp.newFile("keystore.p12");
+		keystore.delete();
+		
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048",
+				"-dname", "CN=localhost", "-validity", "2", "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+				"-storepass", "password", "-keypass", "password").redirectErrorStream(true).start();
+		process.getInputStream().readAllBytes();
+		assertEquals(0, process.waitFor());
+		
+		KeyStore store = KeyStore.getInstance("PKCS12");
+		try (FileInputStream in = new FileInputStream(keystore)) {
+			store.load(in, "password".toCharArray());
+		}
+		
+		KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(store, "password".toCharArray());
+		TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(store);
+		
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+		
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		int port = 4403;
+		NioEchoServer server = new NioEchoServer(port, context);
+		
+		try {
+			server.start();
+			
+			//Più client concorrenti, ognuno con più link in sequenza sulla stessa connessione, anche con righe più grandi di un record SSL
+			int numClients = 8;
+			String large = RandStrGenerator.gen(40000, 40001);
+			AtomicInteger answered = new AtomicInteger(0);
+			Thread[] clients = new Thread[numClients];
+			
+			for(int i = 0; i < numClients; i++) {
+				int clientId = i;
+				clients[i] = new Thread(() -> {
+					try (Socket socket = context.getSocketFactory().createSocket(localhost, port)) {
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+						PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+						out.println("SECUREBALLOT-MUX/1");
+						
+						for(int id = 1; id <= 3; id++) {
+							String request = (id == 2 ? large : "client " + clientId + " link " + id);
+							out.println(id + " O");
+							out.println(id + " D " + request);
+							out.println(id + " D " + EchoService.end);
+							
+							if(!(id + " D echo " + request).equals(in.readLine()) || !(id + " E").equals(in.readLine()))
+								return;
+							
+							out.println(id + " E");
+						}
+						
+						answered.incrementAndGet();
+					}
+					catch (IOException e) {
+						e.printStackTrace();
+					}
+				});
+				clients[i].start();
+			}
+			
+			for(Thread client : clients)
+				client.join();
+			
+			assertEquals(numClients, answered.get());
+		}
+		finally {
+			server.halt();
+		}
+	}
+	
+	private boolean echo(EchoServer client, InetAddress ip, int port, String request) {
+		try (Link link = client.link(ip, port, "errore")) {
+			//Un messaggio su più righe viene ricevuto come righe distinte, come avviene sulle socket
+			link.write(request + "\n" + EchoService.end);
+			
+			//Chiuso il link dall'altra parte, anche il link locale risulta chiuso
+			return link.hasNextLine() && link.read().equals("echo " + request) && !link.hasNextLine() && link.isClosed();
+		}
+		catch (PEException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Server reale che risponde ad ogni riga ricevuta con la stessa riga preceduta da "echo", fino alla riga {@link EchoService#end}.
+	 */
+	private static class EchoServer extends Server {
+		EchoServer(int port) throws PEException {
+			super((controller, link, name) -> new EchoService(link), port, 4, Terminals.Type.Urn);
+		}
+		
+		Link link(InetAddress ip, int port, String error) throws PEException {
+			return createLink(ip, port, 250, error);
+		}
+		
+		void halt() throws InterruptedException {
+			shutDown();
+			if(isAlive())
+				join();
+		}
+	}
+	
+	/**
+	 * Server non bloccante con lo stesso Service di {@link EchoServer}, e soli due thread nel pool.
+	 */
+	private static class NioEchoServer extends NioServer {
+		NioEchoServer(int port, SSLContext context) throws PEException {
+			super((controller, link, name) -> new EchoService(link), port, 2, Terminals.Type.Urn, context);
+		}
+		
+		void halt() throws InterruptedException {
+			shutDown();
+			if(isAlive())
+				join();
+		}
+	}
+	
+	private static class EchoService extends AbstrService {
+		static final String end = "end";
+		
+		EchoService(Link link) {
+			super(null, link, "Echo");
+		}
+		
+		@Override
+		protected void execute() {
+			String line = link.read();
+			
+			while(!line.equals(end)) {
+				link.write("echo " + line);
+				line = link.hasNextLine() ? link.read() : end;
+			}
+		}
+	}
 }
@@ -4,4 +4,6 @@ public class Settings {
     public final static TestView.Behaviour viewBehaviour = TestView.Behaviour.QUIET;
     public final static boolean printTestName = viewBehaviour != TestView.Behaviour.QUIET;
     public final static boolean testDB = true;
+    public final static boolean benchmarkDB = false;
+    public final static boolean printBenchmarks = false;
 }
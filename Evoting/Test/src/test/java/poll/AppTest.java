@@ -0,0 +1,206 @@
+package poll;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import common.RPTemp;
+import common.Settings;
+import encryption.AES;
+import encryption.NonceManager;
+import encryption.RandStrGenerator;
+import encryption.VoteEncryption;
+import exceptions.PEException;
+import model.VotePacket;
+import poll.controller.BallotTally;
+import poll.controller.CountCheckpoint;
+import poll.controller.VoteCounter;
+import utils.Protocol;
+
+import static org.junit.Assert.*;
+
+public class AppTest {
+	private static final int numPackets = 200;
+	private static final int numTampered = 4;
+
+	private static final int blockSize = 30;
+
+	private static ArrayList<VotePacket> packets;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@BeforeClass
+	public static void createPackets() throws PEException {
+		String sessionKey = RandStrGenerator.genSessionKey();
+		String[] votes = {"C0", "C1", "C2", Protocol.isOption + "Si", Protocol.isOption + "No", Protocol.emptyPreference, Protocol.emptyBallot};
+
+		packets = new ArrayList<>();
+		for(int i = 0; i < numPackets; i++) {
+			String encryptedNonce = AES.encryptNonce(NonceManager.genSingleNonce(), sessionKey);
+			VotePacket packet = VoteEncryption.encrypt(votes[i % votes.length], RPTemp.getPublic(), encryptedNonce, sessionKey);
+			VoteEncryption.signPacket(packet, RPTemp.getPrivate());
+			packets.add(packet);
+		}
+
+		//Alcuni pacchetti ricevono la firma di un altro pacchetto, e devono quindi essere scartati
+		for(int i = 0; i < numTampered; i++)
+			packets.get(i * 50 + 1).sign(packets.get(i * 50).getSignature());
+	}
+
+	@Test
+	public void parallelCountTest() throws PEException {
+		if(Settings.printTestName) {System.out.println("\nparallelCountTest");}
+
+		int maxWorkers = Math.max(4, Runtime.getRuntime().availableProcessors());
+		String expected = null;
+		long sequentialTime = 0;
+
+		//Lo spoglio deve produrre lo stesso risultato qualunque sia il numero di thread; si riporta lo speedup rispetto ad un singolo thread
+		for(int workers = 1; workers <= maxWorkers; workers *= 2) {
+			BallotTally tally = new BallotTally(0);
+
+			long start = System.nanoTime();
+			int failed;
+			try (VoteCounter counter = new VoteCounter(RPTemp.getPublic(), RPTemp.getPrivate(), workers)) {
+				failed = counter.countBallot(tally, packets);
+			}
+			long elapsed = System.nanoTime() - start;
+
+			assertEquals(numTampered, failed);
+			assertEquals(numPackets - numTampered, countVotes(tally));
+
+			String result = describe(tally);
+			if(expected == null) {
+				expected = result;
+				sequentialTime = elapsed;
+			}
+			else
+				assertEquals(expected, result);
+
+			if(Settings.printBenchmarks)
+				System.out.println(String.format("Spoglio di %d pacchetti con %d thread: %d ms (speedup %.2fx)",
+						numPackets, workers, elapsed / 1000000, (double) sequentialTime / elapsed));
+		}
+	}
+
+	@Test
+	public void checkpointResumeTest() throws PEException, IOException {
+		if(Settings.printTestName) {System.out.println("\ncheckpointResumeTest");}
+
+		int procCode = 1;
+		List<Integer> ballotCodes = Arrays.asList(1, 2, 3);
+
+		//Pacchetti ripartiti su tre schede, più alcuni relativi ad una scheda che non appartiene alla procedura
+		ArrayList<TestPollDB.Vote> votes = new ArrayList<>();
+		for(int i = 0; i < numPackets; i++)
+			votes.add(new TestPollDB.Vote(i < 80 ? 1 : i < 140 ? 2 : i < 190 ? 3 : 9, packets.get(i), 0));
+
+		//Spoglio completo, senza interruzioni
+		TestPollDB expected = new TestPollDB(tmp.newFolder("full"), blockSize, ballotCodes, votes);
+		int expectedFailed = expected.countVotes(procCode, "user", "psw", (processed, total) -> {});
+
+		assertEquals(numTampered, expectedFailed);
+		assertEquals(ballotCodes, new ArrayList<>(expected.getStored().keySet()));
+
+		//Spoglio interrotto durante la lettura della seconda scheda, dopo aver memorizzato la prima ed un blocco della seconda
+		File dir = tmp.newFolder("interrupted");
+		TestPollDB interrupted = new TestPollDB(dir, blockSize, ballotCodes, votes);
+		interrupted.failAfterRows(110);
+		assertCountFails(interrupted, procCode);
+		assertEquals(1, interrupted.getResets());
+
+		//Un punto di salvataggio relativo ad un numero diverso di pacchetti o ad un'altra procedura non deve essere utilizzato
+		assertNull(CountCheckpoint.load(dir, procCode, numPackets + 1));
+		assertNull(CountCheckpoint.load(dir, procCode + 1, numPackets));
+
+		CountCheckpoint checkpoint = CountCheckpoint.load(dir, procCode, numPackets);
+		assertNotNull(checkpoint);
+		assertEquals(110, checkpoint.getProcessed());
+		assertEquals(2, checkpoint.getLastBallot());
+		assertEquals(Collections.singleton(1), checkpoint.getNullVotes().keySet());
+
+		//La ripresa non azzera i voti già scritti, riparte dalla chiave dell'ultimo pacchetto salvato e non riscrive la prima scheda
+		TestPollDB resumed = new TestPollDB(dir, blockSize, ballotCodes, votes);
+		assertEquals(expectedFailed, resumed.countVotes(procCode, "user", "psw", (processed, total) -> {}));
+
+		assertEquals(0, resumed.getResets());
+		assertEquals(new TestPollDB.Vote(checkpoint.getLastBallot(), checkpoint.getLastNonce(), checkpoint.getLastDiscrim()), resumed.getResumedFrom());
+		assertEquals(numPackets - checkpoint.getProcessed(), resumed.getRowsRead());
+		assertEquals(Arrays.asList(2, 3), new ArrayList<>(resumed.getStored().keySet()));
+		assertSameCount(expected, resumed);
+		assertNull(CountCheckpoint.load(dir, procCode, numPackets));
+
+		//Spoglio interrotto dopo aver scritto i voti della terza scheda, ma prima di averla registrata nel punto di salvataggio
+		dir = tmp.newFolder("unsaved");
+		interrupted = new TestPollDB(dir, blockSize, ballotCodes, votes);
+		interrupted.failWriteOf(3);
+		assertCountFails(interrupted, procCode);
+
+		checkpoint = CountCheckpoint.load(dir, procCode, numPackets);
+		assertNotNull(checkpoint);
+		assertEquals(170, checkpoint.getProcessed());
+		assertEquals(new HashSet<>(Arrays.asList(1, 2)), checkpoint.getNullVotes().keySet());
+
+		//La terza scheda viene riconteggiata dall'ultimo blocco salvato e riscritta con gli stessi valori dello spoglio completo
+		resumed = new TestPollDB(dir, blockSize, ballotCodes, votes);
+		assertEquals(expectedFailed, resumed.countVotes(procCode, "user", "psw", (processed, total) -> {}));
+
+		assertEquals(0, resumed.getResets());
+		assertEquals(Collections.singletonList(3), new ArrayList<>(resumed.getStored().keySet()));
+		assertSameCount(expected, resumed);
+		assertNull(CountCheckpoint.load(dir, procCode, numPackets));
+	}
+
+	private void assertCountFails(TestPollDB db, int procCode) {
+		try {
+			db.countVotes(procCode, "user", "psw", (processed, total) -> {});
+			fail("Lo spoglio avrebbe dovuto interrompersi");
+		} catch (PEException e) {
+			//Interruzione simulata da TestPollDB
+		}
+	}
+
+	private void assertSameCount(TestPollDB expected, TestPollDB resumed) {
+		for(Map.Entry<Integer, BallotTally> e : resumed.getStored().entrySet())
+			assertEquals(describe(expected.getStored().get(e.getKey())), describe(e.getValue()));
+
+		assertEquals(expected.nullVotes().keySet(), resumed.nullVotes().keySet());
+		for(Map.Entry<Integer, int[]> e : expected.nullVotes().entrySet())
+			assertArrayEquals(e.getValue(), resumed.nullVotes().get(e.getKey()));
+	}
+
+	private int countVotes(BallotTally tally) {
+		int votes = tally.getNullPreferences();
+
+		for(int[] counter : tally.getCandidates().values())
+			votes += counter[0];
+
+		for(int[] counter : tally.getOptions().values())
+			votes += counter[0];
+
+		return votes;
+	}
+
+	private String describe(BallotTally tally) {
+		StringBuilder sb = new StringBuilder();
+
+		for(Map.Entry<String, int[]> e : tally.getCandidates().entrySet())
+			sb.append(e.getKey()).append('=').append(e.getValue()[0]).append(';');
+
+		for(Map.Entry<String, int[]> e : tally.getOptions().entrySet())
+			sb.append(e.getKey()).append('=').append(e.getValue()[0]).append(';');
+
+		return sb.append(tally.getEmptyBallots()).append(';').append(tally.getNullPreferences()).toString();
+	}
+}
@@ -0,0 +1,177 @@
+package poll;
+
+import common.RPTemp;
+import exceptions.DBException;
+import exceptions.PEException;
+import model.VotePacket;
+import poll.controller.BallotTally;
+import poll.controller.CountCheckpoint;
+import poll.controller.PollDB;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Simula le tabelle Ballot, Vote, Running e ReferendumOption in memoria, lasciando a {@link PollDB} la logica dello spoglio
+ * (lettura a blocchi, punto di salvataggio, ripresa dopo un'interruzione).
+ */
+public class TestPollDB extends PollDB {
+
+	private final File checkpointDir;
+	private final ArrayList<Integer> ballotCodes;
+	private final ArrayList<Vote> votes;
+
+	private int resets = 0;
+	private int rowsRead = 0;
+	private int failAfterRows = -1;
+	private int failWriteOf = -1;
+
+	private Vote resumedFrom = null;
+	private final Map<Integer, BallotTally> stored = new LinkedHashMap<>();
+
+	public TestPollDB(File checkpointDir, int countBlockSize, List<Integer> ballotCodes, List<Vote> votes) throws PEException {
+		super(null, null, null, checkpointDir, countBlockSize);
+
+		this.checkpointDir = checkpointDir;
+		this.ballotCodes = new ArrayList<>(ballotCodes);
+
+		//Il cursore restituisce i voti nell'ordine della chiave primaria della tabella Vote
+		this.votes = new ArrayList<>(votes);
+		this.votes.sort(Vote.keyOrder);
+	}
+
+	/**
+	 * Fa fallire la lettura dei voti dopo aver restituito il numero di righe indicato.
+	 */
+	public void failAfterRows(int rows) {
+		failAfterRows = rows;
+	}
+
+	/**
+	 * Fa fallire la memorizzazione della scheda indicata dopo che i voti sono stati scritti, prima del punto di salvataggio.
+	 */
+	public void failWriteOf(int ballotCode) {
+		failWriteOf = ballotCode;
+	}
+
+	public int getResets() { return resets; }
+	public int getRowsRead() { return rowsRead; }
+	public Vote getResumedFrom() { return resumedFrom; }
+	public Map<Integer, BallotTally> getStored() { return stored; }
+	public Map<Integer, int[]> nullVotes() { return getNullVotes(); }
+
+	@Override
+	public byte[] getRSAKey(String key, String user, String psw) throws PEException {
+		return key.equals("PublicKey2") ? RPTemp.getPublic() : RPTemp.getPrivate();
+	}
+
+	@Override
+	protected ArrayList<Integer> getBallotCodes(int procCode) {
+		return ballotCodes;
+	}
+
+	@Override
+	protected int getNumOfVotes(int procCode) {
+		return votes.size();
+	}
+
+	@Override
+	protected void resetVotesReceived(int procCode) {
+		resets++;
+		stored.clear();
+	}
+
+	@Override
+	protected VoteCursor openVotes(int procCode, CountCheckpoint checkpoint) {
+		Iterator<Vote> it;
+
+		if (checkpoint.hasLastKey()) {
+			resumedFrom = new Vote(checkpoint.getLastBallot(), checkpoint.getLastNonce(), checkpoint.getLastDiscrim());
+			it = votes.stream().filter(v -> Vote.keyOrder.compare(v, resumedFrom) > 0).iterator();
+		}
+		else
+			it = votes.iterator();
+
+		return new VoteCursor() {
+			@Override
+			public VoteRow next() throws PEException {
+				if (rowsRead == failAfterRows)
+					throw DBException.DB_0(new SQLException("Connessione al DB interrotta"));
+
+				if (!it.hasNext())
+					return null;
+
+				rowsRead++;
+				Vote v = it.next();
+				return new VoteRow(v.ballotCode, v.packet, v.discrim);
+			}
+
+			@Override
+			public void close() {}
+		};
+	}
+
+	@Override
+	protected void writeBallotTally(int procCode, BallotTally tally) throws PEException {
+		//I voti della scheda devono essere scritti prima che il punto di salvataggio la registri come memorizzata
+		CountCheckpoint saved = CountCheckpoint.load(checkpointDir, procCode, votes.size());
+		if (saved != null)
+			assertFalse(saved.getNullVotes().containsKey(tally.getBallotCode()));
+
+		stored.put(tally.getBallotCode(), tally);
+
+		if (tally.getBallotCode() == failWriteOf) {
+			failWriteOf = -1;
+			throw DBException.DB_0(new SQLException("Connessione al DB interrotta"));
+		}
+	}
+
+	/**
+	 * Riga della tabella Vote; la chiave primaria è composta da scheda, nonce cifrato e discriminante.
+	 */
+	public static class Vote {
+		private static final Comparator<Vote> keyOrder = Comparator.<Vote>comparingInt(v -> v.ballotCode)
+				.thenComparing(v -> v.nonce).thenComparingInt(v -> v.discrim);
+
+		private final int ballotCode;
+		private final String nonce;
+		private final int discrim;
+		private final VotePacket packet;
+
+		public Vote(int ballotCode, VotePacket packet, int discrim) {
+			this.ballotCode = ballotCode;
+			this.nonce = packet.getSolvedNonce();
+			this.discrim = discrim;
+			this.packet = packet;
+		}
+
+		Vote(int ballotCode, String nonce, int discrim) {
+			this.ballotCode = ballotCode;
+			this.nonce = nonce;
+			this.discrim = discrim;
+			this.packet = null;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Vote))
+				return false;
+
+			Vote v = (Vote) o;
+			return ballotCode == v.ballotCode && nonce.equals(v.nonce) && discrim == v.discrim;
+		}
+
+		@Override
+		public int hashCode() {
+			return nonce.hashCode() * 31 + ballotCode * 7 + discrim;
+		}
+	}
+}
@@ -24,7 +24,9 @@ import model.Person;
 import model.VotePacket;
 import model.WrittenBallot;
 import model.State.StatePost;
+import model.Terminals;
 import postazione.model.Post;
+import utils.Constants;
 import utils.Protocol;
 
 import static org.junit.Assert.*;
@@ -71,6 +73,8 @@ public class AppTest {
 		if(pipe != null) {
 			pipe.close();
 		}
+		
+		c.stopLease();
 	}
 	
 	@Test
@@ -82,48 +86,70 @@ public class AppTest {
         
         String sessionKey = RandStrGenerator.genSessionKey();
         
-        pipe = internet.userRedirect(ipUrn);
-        Link pipe2 = internet.userRedirect(ipUrn);
-        
-        Thread t = new Thread( () -> c.activate(sessionKey));
-        
-        EmptyBallot[] ballots = new EmptyBallot[1];
-        ballots[0] = (new EmptyBallot("Ballot Title", 1, "Ballot Description", 1));
-        
-        t.start();
-        
-        assertEquals(Protocol.PostAuthenticationPhase1, pipe.waitNRead());
-        String encryptedNonce1 = pipe.waitNRead();
-        
-        String encryptedModifiedNonce1 = NonceManager.solveChallenge(encryptedNonce1, sessionKey, 1);
-        int nonce2 = NonceManager.genSingleNonce();
-        String encryptedNonce2 = AES.encryptNonce(nonce2, sessionKey);
-        
-        Message bulkOut = new Message(Protocol.validAuthentication);
-        bulkOut.setElement("nonce1", encryptedModifiedNonce1);
-        bulkOut.setElement("nonce2", encryptedNonce2);
-        
-        pipe.write(bulkOut.toB64());
-        pipe.close();
-        
-        assertEquals(Protocol.PostAuthenticationPhase2, pipe2.waitNRead());
-        String encryptedModifiedNonce2 = pipe2.waitNRead();
-        
-        assertTrue(NonceManager.verifyChallenge(nonce2, encryptedModifiedNonce2, sessionKey, 2));
-        
-        bulkOut = new Message(Protocol.validAuthentication);
-        bulkOut.setElement("ipStation", InetAddress.getByName("127.168.1.51"));
-        bulkOut.setElement("pubKey", RPTemp.getPublic());
-        bulkOut.setElement("ballots", ballots);
-        
-        pipe2.write(bulkOut.toB64());
-        pipe2.close();
-        
-		t.join();
+        activate(c, ipUrn, sessionKey);
 
 		assertTrue(c.correctState(StatePost.ATTIVA));
 	}
 	
+	@Test(timeout = 10000)
+	public void leaseTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nleaseTest");}
+		
+		int leaseTimeout = Constants.urnLeaseTimeout;
+		Constants.urnLeaseTimeout = 300;
+		
+		//Urna dedicata al test, così che nessun'altra postazione ne intercetti i link
+		InetAddress ipLeaseUrn = InetAddress.getByName("127.168.1.11");
+		Post leasePost = new Post(ipLeaseUrn, 0, 0, 5);
+		ControllerP leaseController = new ControllerP(view, leasePost, ipPost);
+		
+		try {
+			activate(leaseController, ipLeaseUrn, RandStrGenerator.genSessionKey());
+			assertTrue(leaseController.correctState(StatePost.ATTIVA));
+			
+			//Appena attivata la postazione richiede il lease all'urna
+			Link lease = internet.userRedirect(ipLeaseUrn);
+			assertEquals(Protocol.urnLeaseReq, lease.waitNRead());
+			
+			Message request = (Message) Message.fromB64(lease.waitNRead(), "postazione");
+			assertEquals(Terminals.Type.Post, request.getElement("terminal"));
+			assertEquals(100, (int) request.getElement("heartbeat"));
+			
+			lease.write(new Message(Protocol.authenticatedAck).toB64());
+			
+			//Finché arrivano gli heartbeat il lease resta valido, anche oltre la sua durata
+			Link renewal = internet.userRedirect(ipLeaseUrn);
+			for(int i = 0; i < 8; i++) {
+				Thread.sleep(100);
+				lease.write(Protocol.urnHeartbeat);
+			}
+			
+			assertTrue(leaseController.correctState(StatePost.ATTIVA));
+			
+			//Senza heartbeat il lease scade e viene richiesto nuovamente, senza disattivare la postazione
+			long expiry = System.currentTimeMillis();
+			assertEquals(Protocol.urnLeaseReq, renewal.waitNRead());
+			assertTrue(System.currentTimeMillis() - expiry >= 300);
+			lease.close();
+			
+			renewal.waitNRead();
+			assertTrue(leaseController.correctState(StatePost.ATTIVA));
+			
+			//Lo spegnimento dell'urna viene notificato sul lease e disattiva subito la postazione
+			renewal.write(new Message(Protocol.authenticatedAck).toB64());
+			renewal.write(Protocol.urnShutDown);
+			
+			while(!leaseController.correctState(StatePost.NON_ATTIVA))
+				Thread.sleep(10);
+			
+			renewal.close();
+		}
+		finally {
+			Constants.urnLeaseTimeout = leaseTimeout;
+			leaseController.stopLease();
+		}
+	}
+	
 	@Test
 	public void 
     activationFailTest() throws InterruptedException, PEException {
@@ -546,4 +572,48 @@ public class AppTest {
 		
 	}
 	
+	/**
+	 * Attiva la postazione, simulando le risposte dell'urna durante la mutua autenticazione.
+	 */
+	private void activate(ControllerP controller, InetAddress urnIp, String sessionKey) throws Exception {
+        Link pipe = internet.userRedirect(urnIp);
+        Link pipe2 = internet.userRedirect(urnIp);
+        
+        Thread t = new Thread( () -> controller.activate(sessionKey));
+        
+        EmptyBallot[] ballots = new EmptyBallot[1];
+        ballots[0] = (new EmptyBallot("Ballot Title", 1, "Ballot Description", 1));
+        
+        t.start();
+        
+        assertEquals(Protocol.PostAuthenticationPhase1, pipe.waitNRead());
+        String encryptedNonce1 = pipe.waitNRead();
+        
+        String encryptedModifiedNonce1 = NonceManager.solveChallenge(encryptedNonce1, sessionKey, 1);
+        int nonce2 = NonceManager.genSingleNonce();
+        String encryptedNonce2 = AES.encryptNonce(nonce2, sessionKey);
+        
+        Message bulkOut = new Message(Protocol.validAuthentication);
+        bulkOut.setElement("nonce1", encryptedModifiedNonce1);
+        bulkOut.setElement("nonce2", encryptedNonce2);
+        
+        pipe.write(bulkOut.toB64());
+        pipe.close();
+        
+        assertEquals(Protocol.PostAuthenticationPhase2, pipe2.waitNRead());
+        String encryptedModifiedNonce2 = pipe2.waitNRead();
+        
+        assertTrue(NonceManager.verifyChallenge(nonce2, encryptedModifiedNonce2, sessionKey, 2));
+        
+        bulkOut = new Message(Protocol.validAuthentication);
+        bulkOut.setElement("ipStation", InetAddress.getByName("127.168.1.51"));
+        bulkOut.setElement("pubKey", RPTemp.getPublic());
+        bulkOut.setElement("ballots", ballots);
+        
+        pipe2.write(bulkOut.toB64());
+        pipe2.close();
+        
+		t.join();
+	}
+	
 }
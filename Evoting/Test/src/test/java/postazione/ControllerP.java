@@ -13,4 +13,11 @@ public class ControllerP extends Controller {
 	public ControllerP(TestView view, Post postazione, InetAddress ipThisTest) {
 		super(new TestServer(postazione.getNumConnections(), new Factory(), Terminals.Type.Post, ipThisTest), view, postazione);
 	}
+	
+	/**
+	 * Termina il lease presso l'urna, che altrimenti potrebbe intercettare i link verso l'urna predisposti dai test successivi.
+	 */
+	public void stopLease() {
+		stopUrnThread();
+	}
 }
@@ -23,6 +23,7 @@ import exceptions.PEException;
 import model.State.StatePost;
 import model.State.StateStation;
 import seggio.model.Station;
+import utils.Constants;
 import utils.Protocol;
 
 import static org.junit.Assert.*;
@@ -92,6 +93,9 @@ public class AppTest {
 	@After
 	public void dismantle() {
 		pipe.close();
+		
+		if(c != null)
+			c.stopLease();
 	}
 	
 	@Test
@@ -105,8 +109,79 @@ public class AppTest {
 
 		assertTrue(c.correctState(StateStation.NON_ATTIVO));
         
-        String sessionKey = RandStrGenerator.genSessionKey();
-        
+        activate(RandStrGenerator.genSessionKey());
+
+		assertTrue(c.correctState(StateStation.ATTIVO));
+	}
+	
+	@Test(timeout = 10000)
+	public void postsMonitorTest() throws Exception {
+		
+		if(Settings.printTestName) {System.out.println("\npostsMonitorTest");}
+		
+		int minInterval = Constants.postsPollingMin, maxInterval = Constants.postsPollingMax, checkTimeout = Constants.postCheckTimeout;
+		Constants.postsPollingMin = 50;
+		Constants.postsPollingMax = 400;
+		Constants.postCheckTimeout = 200;
+		
+		try {
+			s = new Station(ipUrn, 0, 0, 0, 5);
+			c = new ControllerS(view, s, ipStation);
+			activate(RandStrGenerator.genSessionKey());
+			
+			//Solo la prima postazione è accesa, le altre non vengono contattate
+			s.setPostState(StatePost.ATTIVA, 0);
+			
+			//Finché la postazione risponde, le verifiche si diradano fino all'intervallo massimo
+			long last = answerPoll(ipPosts[0]), gap = 0;
+			for(int i = 0; i < 4; i++) {
+				long now = answerPoll(ipPosts[0]);
+				gap = now - last;
+				last = now;
+			}
+			assertTrue(gap >= 300);
+			
+			//Se la postazione non risponde, le verifiche diventano più frequenti
+			while(!s.getPosts()[0].isUnreachable())
+				Thread.sleep(10);
+			
+			long lost = System.currentTimeMillis();
+			answerPoll(ipPosts[0]);
+			assertTrue(System.currentTimeMillis() - lost < 300);
+			
+			//La postazione torna raggiungibile, con uno stato consistente con l'ultimo noto
+			while(s.getPosts()[0].isUnreachable())
+				Thread.sleep(10);
+			
+			assertEquals(StatePost.ATTIVA, s.getPostState(0));
+			assertEquals(StatePost.OFFLINE, s.getPostState(1));
+			
+			//Una postazione che riceve la richiesta ma non risponde risulta irraggiungibile allo scadere dell'attesa
+			Link hung = internet.userRedirect(ipStation, ipPosts[0]);
+			assertEquals(Protocol.checkUnreachablePost, hung.waitNRead());
+			
+			while(!s.getPosts()[0].isUnreachable())
+				Thread.sleep(10);
+			
+			answerPoll(ipPosts[0]);
+			while(s.getPosts()[0].isUnreachable())
+				Thread.sleep(10);
+			
+			hung.close();
+		}
+		finally {
+			Constants.postsPollingMin = minInterval;
+			Constants.postsPollingMax = maxInterval;
+			Constants.postCheckTimeout = checkTimeout;
+			c.shutDown();
+		}
+	}
+	
+	/**
+	 * Completa l'attivazione del seggio, rispondendo alle richieste di autenticazione al posto dell'urna.
+	 * @param sessionKey La chiave di sessione adoperata dal seggio.
+	 */
+	private void activate(String sessionKey) throws InterruptedException, PEException {
         pipe = internet.userRedirect(ipUrn);
         Link pipe2 = internet.userRedirect(ipUrn);
         
@@ -145,8 +220,34 @@ public class AppTest {
         pipe2.close();
 		
 		t.join();
-
-		assertTrue(c.correctState(StateStation.ATTIVO));
+	}
+	
+	/**
+	 * Risponde alla prossima verifica dello stato di una postazione da parte del seggio, al posto della postazione.
+	 * @param ipPost	La postazione.
+	 * @return			L'istante (ms) in cui è stata ricevuta la verifica.
+	 */
+	private long answerPoll(InetAddress ipPost) {
+		Link link = internet.userRedirect(ipStation, ipPost);
+		String request = link.waitNRead();
+		
+		//La richiesta di stato inviata all'attivazione può arrivare dopo il termine di activate
+		if(Protocol.retrieveStatePost.equals(request)) {
+			link.close();
+			link = internet.userRedirect(ipStation, ipPost);
+			request = link.waitNRead();
+		}
+		
+		assertEquals(Protocol.checkUnreachablePost, request);
+		long received = System.currentTimeMillis();
+		
+		Message response = new Message(Protocol.checkUnreachablePost);
+		response.setElement("state", StatePost.ATTIVA);
+		response.setElement("card", Protocol.unassignedPost);
+		link.write(response.toB64());
+		link.close();
+		
+		return received;
 	}
 	
 	@Test
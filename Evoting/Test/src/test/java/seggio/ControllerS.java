@@ -13,4 +13,11 @@ public class ControllerS extends Controller {
 	public ControllerS(TestView view, Station seggio, InetAddress ipThisTest) {
 		super(new TestServer(seggio.getNumConnections(), new Factory(), Terminals.Type.Station, ipThisTest), view, seggio);
 	}
+	
+	/**
+	 * Termina il lease presso l'urna, che altrimenti potrebbe intercettare i link verso l'urna predisposti dai test successivi.
+	 */
+	public void stopLease() {
+		stopUrnThread();
+	}
 }
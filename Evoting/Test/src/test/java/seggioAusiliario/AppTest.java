@@ -191,4 +191,71 @@ public class AppTest
 		
 	}
 	
-}
\ No newline at end of file
+	@Test
+	public void deltaUpdateTest() throws Exception {
+		
+		if(Settings.printTestName) {System.out.println("\ndeltaUpdateTest");}
+		
+		s.setStationIp(ipStation);
+		s.setState(StateSubStation.IN_ATTESA);
+		
+		DummyPost[] posts = new DummyPost[3];
+		for(int i = 0; i < posts.length; i++) {
+			posts[i] = new DummyPost(i + 1, InetAddress.getByName("127.0.0." + (40 + i)));
+			posts[i].setState(StatePost.ATTIVA);
+		}
+		
+		//Un aggiornamento incrementale prima di quello completo richiede la sincronizzazione
+		assertEquals(Protocol.subStationResyncReq, sendDelta(1, new int[] {0}, new DummyPost[] {posts[0]}));
+		
+		Message snapshot = new Message(Protocol.updateSubStation);
+		snapshot.setElement("posts", posts);
+		snapshot.setElement("version", 3);
+		
+		pipe = internet.connectTo(ipStation, ipSubStation);
+		pipe.write(Protocol.updateSubStation);
+		pipe.write(snapshot.toB64());
+		pipe.hasNextLine();
+		pipe.close();
+		
+		assertEquals(StateSubStation.ATTIVO, s.getState());
+		assertEquals(3, s.getPostsVersion());
+		
+		//Vengono sostituite solo le postazioni cambiate
+		DummyPost changed = new DummyPost(2, posts[1].getIp());
+		changed.setState(StatePost.IN_USO);
+		changed.setBadge("22");
+		
+		DummyPost[] before = s.getPosts();
+		assertEquals(Protocol.subStationSynced, sendDelta(4, new int[] {1}, new DummyPost[] {changed}));
+		assertEquals(4, s.getPostsVersion());
+		assertEquals(StatePost.IN_USO, s.getPostState(1));
+		assertEquals("22", s.getPostBadge(1));
+		assertEquals(StatePost.ATTIVA, s.getPostState(0));
+		assertEquals(StatePost.ATTIVA, before[1].getState());
+		
+		//Un aggiornamento già ricevuto viene ignorato
+		assertEquals(Protocol.subStationSynced, sendDelta(3, new int[] {1}, new DummyPost[] {posts[1]}));
+		assertEquals(StatePost.IN_USO, s.getPostState(1));
+		
+		//Se mancano degli aggiornamenti si richiedono tutte le postazioni
+		assertEquals(Protocol.subStationResyncReq, sendDelta(6, new int[] {2}, new DummyPost[] {changed}));
+		assertEquals(4, s.getPostsVersion());
+		assertEquals(StatePost.ATTIVA, s.getPostState(2));
+	}
+	
+	private String sendDelta(int version, int[] indexes, DummyPost[] posts) {
+		Message delta = new Message(Protocol.updateSubStationDelta);
+		delta.setElement("version", version);
+		delta.setElement("indexes", indexes);
+		delta.setElement("posts", posts);
+		
+		pipe = internet.connectTo(ipStation, ipSubStation);
+		pipe.write(Protocol.updateSubStationDelta);
+		pipe.write(delta.toB64());
+		
+		String response = pipe.waitNRead();
+		pipe.close();
+		return response;
+	}
+}
@@ -5,6 +5,9 @@ import java.security.KeyPair;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import common.Settings;
 import common.TestView;
@@ -14,6 +17,7 @@ import org.junit.Test;
 
 import common.Internet;
 import common.RPTemp;
+import controller.AbstrServer;
 import controller.Link;
 import db.ConnectionManager;
 import db.DBMS;
@@ -31,12 +35,18 @@ import model.Message;
 import model.Person;
 import model.Terminals;
 import model.WrittenBallot;
+import urna.controller.TerminalTopology;
 import urna.controller.UrnDB;
+import urna.controller.VoterIndex;
+import urna.controller.VoterSearchIndex;
+import urna.model.OnlineTerminals;
 import urna.model.Urn;
 import utils.CfgManager;
+import utils.Constants;
 import utils.Protocol;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Unit test for simple App.
@@ -70,8 +80,9 @@ public class AppTest {
 		
 		view = new TestView(Settings.viewBehaviour);
 		
-		ipPosts = new InetAddress[1];
-		ipPosts[0] = InetAddress.getByName("127.0.0.1");
+		ipPosts = new InetAddress[4];
+		for(int i = 0; i < ipPosts.length; i++)
+			ipPosts[i] = InetAddress.getByName("127.0.0." + (i + 1));
 		
 		ipSubStations = new InetAddress[0];
 		
@@ -84,7 +95,8 @@ public class AppTest {
 		stationSessionKeyes.add(RandStrGenerator.genSessionKey());
 		
 		ArrayList<String> postsSessionKeyes = new ArrayList<>();
-		postsSessionKeyes.add(RandStrGenerator.genSessionKey());
+		for(int i = 0; i < ipPosts.length; i++)
+			postsSessionKeyes.add(RandStrGenerator.genSessionKey());
 		
 		db = new TestDB(ipStation, ipPosts, ipSubStations);
 		db.setSessionKeyes(stationSessionKeyes, null, postsSessionKeyes);
@@ -110,6 +122,32 @@ public class AppTest {
 		
 		if(Settings.printTestName) {System.out.println("\nactivationPostazioneTest");}
 		
+		Message bulk = activatePost(Protocol.noBallotsHeld);
+
+		assertNotNull(bulk.getElement("pubKey"));
+		EmptyBallot[] ballots = bulk.getElement("ballots");
+		assertNotNull(ballots);
+		assertTrue(ballots.length != 0);
+		
+		String ballotsHash = bulk.getElement("ballotsHash");
+		assertEquals(u.getBallotsHash(), ballotsHash);
+		
+		//Una postazione che possiede già le schede della procedura non le riceve nuovamente
+		bulk = activatePost(ballotsHash);
+		
+		assertNotNull(bulk.getElement("pubKey"));
+		assertNull(bulk.getElement("ballots"));
+		assertEquals(ballotsHash, bulk.getElement("ballotsHash"));
+		
+	}
+	
+	/**
+	 * Effettua entrambe le fasi della mutua autenticazione della prima postazione con l'urna.
+	 * @param heldBallotsHash	L'hash delle schede già in possesso della postazione.
+	 * @return					La risposta dell'urna alla seconda fase.
+	 */
+	private Message activatePost(String heldBallotsHash) throws Exception {
+		
 		pipe = internet.connectTo(ipPosts[0], ipUrn);
 		
 		String sessionKey = db.getTerminalSessionKey(0, 0, ipPosts[0], Terminals.Type.Post);
@@ -141,6 +179,7 @@ public class AppTest {
         
         pipe.write(Protocol.PostAuthenticationPhase2);
         pipe.write(encryptedModifiedNonce2);
+        pipe.write(heldBallotsHash);
         
         bulk = (Message) Message.fromB64(pipe.waitNRead(), "urna test");
         pipe.close();
@@ -156,11 +195,7 @@ public class AppTest {
         
         assertEquals(ipStation, bulk.getElement("ipStation"));
 
-		assertNotNull(bulk.getElement("pubKey"));
-		EmptyBallot[] ballots = bulk.getElement("ballots");
-		assertNotNull(ballots);
-		assertTrue(ballots.length != 0);
-		
+        return bulk;
 	}
 	
 	@Test
@@ -200,6 +235,7 @@ public class AppTest {
 		
 		pipe.write(Protocol.StationAuthenticationPhase2);
 		pipe.write(encryptedModifiedNonce2);
+		pipe.write(Protocol.noBallotsHeld);
 		
 		bulkIn = (Message) Message.fromB64(pipe.waitNRead(), "urna test");
 		
@@ -296,6 +332,336 @@ public class AppTest {
 		}
 	}
 
+	@Test
+	public void concurrentVotesTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nconcurrentVotesTest");}
+		
+		u.addOnlineTerminal(ipStation, Terminals.Type.Station);
+		for(InetAddress ipPost : ipPosts)
+			u.addOnlineTerminal(ipPost, Terminals.Type.Post);
+		
+		int hasVotedBefore = u.getHasVoted();
+		
+		//Tutte le postazioni inviano contemporaneamente il voto dello stesso votante: deve esserne accettato uno solo
+		Person[] sameVoter = new Person[ipPosts.length];
+		for(int i = 0; i < ipPosts.length; i++)
+			sameVoter[i] = new Person("Doppio", "Voto", "DUP", new int[0], true);
+		
+		Message[] responses = sendVotesConcurrently(sameVoter);
+		int acks = 0;
+		for(Message response : responses)
+			if(Protocol.votesReceivedAck.equals(response.getValue()))
+				acks++;
+		
+		assertEquals(1, acks);
+		
+		//Votanti distinti inviati contemporaneamente devono essere tutti accettati
+		int rounds = 5;
+		for(int r = 0; r < rounds; r++) {
+			Person[] voters = new Person[ipPosts.length];
+			for(int i = 0; i < ipPosts.length; i++)
+				voters[i] = new Person("Votante", r + "-" + i, "V" + r + "-" + i, new int[0], true);
+			
+			for(Message response : sendVotesConcurrently(voters))
+				assertEquals(Protocol.votesReceivedAck, response.getValue());
+		}
+		
+		int expected = 1 + rounds * ipPosts.length;
+		assertEquals(expected, db.countVotes());
+		assertEquals(hasVotedBefore + expected, u.getHasVoted());
+	}
+
+	@Test
+	public void terminalTopologyTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nterminalTopologyTest");}
+
+		TerminalTopology topology = new TerminalTopology(1, 2);
+		assertTrue(topology.isFor(1, 2));
+		assertFalse(topology.isFor(1, 3));
+
+		//Postazioni aggiunte prima del seggio a cui sono associate
+		InetAddress otherStation = InetAddress.getByName("127.0.0.99"), ipSubStation = InetAddress.getByName("127.0.0.98");
+		for(int i = 0; i < ipPosts.length; i++)
+			topology.addTerminal(10 + i, ipPosts[i], Terminals.Type.Post, "post" + i, 1);
+
+		topology.addTerminal(1, ipStation, Terminals.Type.Station, "station", null);
+		topology.addTerminal(2, otherStation, Terminals.Type.Station, null, null);
+		topology.addTerminal(3, ipSubStation, Terminals.Type.SubStation, "sub", 1);
+
+		assertEquals("post1", topology.getSessionKey(ipPosts[1], Terminals.Type.Post));
+		assertEquals("station", topology.getSessionKey(ipStation, Terminals.Type.Station));
+		assertNull(topology.getSessionKey(ipPosts[1], Terminals.Type.Station));
+		assertNull(topology.getSessionKey(otherStation, Terminals.Type.Station));
+
+		assertEquals(ipStation, topology.getStationIp(ipPosts[0], Terminals.Type.Post));
+		assertEquals(ipStation, topology.getStationIp(ipSubStation, Terminals.Type.SubStation));
+		assertNull(topology.getStationIp(ipStation, Terminals.Type.Station));
+
+		assertArrayEquals(ipPosts, topology.getTerminals(ipStation, Terminals.Type.Post).toArray(new InetAddress[0]));
+		assertEquals(1, topology.getTerminals(ipStation, Terminals.Type.SubStation).size());
+		assertTrue(topology.getTerminals(otherStation, Terminals.Type.Post).isEmpty());
+		assertNull(topology.getTerminals(ipPosts[0], Terminals.Type.Post));
+
+		assertTrue(topology.isPostOf(ipStation, ipPosts[0]));
+		assertFalse(topology.isPostOf(otherStation, ipPosts[0]));
+		assertFalse(topology.isPostOf(ipStation, ipSubStation));
+	}
+
+	@Test
+	public void voterIndexTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nvoterIndexTest");}
+
+		try {
+			new VoterIndex(0, new int[Long.SIZE + 1]);
+			fail();
+		}
+		catch (IllegalArgumentException ignored) {}
+
+		VoterIndex index = new VoterIndex(1, new int[] {10, 20, 30});
+		assertTrue(index.isFor(1));
+		assertFalse(index.isFor(2));
+
+		//Più votanti della capacità iniziale, per verificare la crescita degli array
+		int numVoters = 5000;
+		for(int i = 0; i < numVoters; i++)
+			index.put("v" + i, i % 2 == 0 ? Arrays.asList(10, 30) : Arrays.asList(20), i % 3 == 0);
+
+		assertEquals(numVoters, index.size());
+		assertTrue(index.contains("v4999"));
+		assertFalse(index.contains("sconosciuto"));
+
+		assertTrue(index.canVote("v2", Arrays.asList(30, 10)));
+		assertTrue(index.canVote("v1", Arrays.asList(20)));
+		assertFalse(index.canVote("v0", Arrays.asList(10, 30)));
+		assertFalse(index.canVote("v2", Arrays.asList(10)));
+		assertFalse(index.canVote("v2", Arrays.asList(10, 20, 30)));
+		assertFalse(index.canVote("v1", Arrays.asList(20, 40)));
+		assertFalse(index.canVote("sconosciuto", Arrays.asList(10)));
+
+		//Voto registrato e schede modificate da un seggio
+		index.markVoted("v2");
+		assertFalse(index.canVote("v2", Arrays.asList(10, 30)));
+		assertTrue(index.canVote("v4", Arrays.asList(10, 30)));
+
+		index.put("v4", Arrays.asList(20), false);
+		assertTrue(index.canVote("v4", Arrays.asList(20)));
+		assertFalse(index.canVote("v4", Arrays.asList(10, 30)));
+		assertEquals(numVoters, index.size());
+
+		index.put("nuovo", Arrays.asList(10, 20, 30), false);
+		assertTrue(index.canVote("nuovo", Arrays.asList(10, 20, 30)));
+		assertTrue(index.canVote("v4997", Arrays.asList(20)));
+		assertFalse(index.canVote("v4998", Arrays.asList(10, 30)));
+	}
+
+	@Test
+	public void voterSearchIndexTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nvoterSearchIndexTest");}
+
+		VoterIndex eligibility = new VoterIndex(1, new int[] {10, 20});
+		VoterSearchIndex search = new VoterSearchIndex(eligibility);
+		assertTrue(search.isFor(1));
+
+		String[][] voters = {
+			{"v0", "Mario", "Rossi"},
+			{"v1", "Maria", "Rossetti"},
+			{"v2", "Niccolò", "D'Alò"},
+			{"v3", "Marco", "Bianchi"},
+			{"v4", "Anna", "Marini"}
+		};
+
+		for(String[] voter : voters) {
+			eligibility.put(voter[0], voter[0].equals("v1") ? Arrays.asList(20) : Arrays.asList(10, 20), voter[0].equals("v3"));
+			search.add(voter[0], voter[1], voter[2], "1990-01-01");
+		}
+
+		//Votante già presente: ignorato
+		search.add("v0", "Altro", "Nome", "1990-01-01");
+		assertEquals(voters.length, search.size());
+
+		assertEquals(Arrays.asList("v0", "v1"), ids(search.search("mar", "ross", 10)));
+		assertEquals(Arrays.asList("v0", "v1", "v3"), ids(search.search("MAR", "", 10)));
+		assertEquals(Arrays.asList("v4"), ids(search.search(null, "mar", 10)));
+		assertEquals(Arrays.asList("v2"), ids(search.search("niccolo", "d'alo", 10)));
+		assertEquals(Arrays.asList("v0", "v2"), ids(search.search("o", "Ò", 10)));
+		assertEquals(Arrays.asList("v1"), ids(search.search("ia", "etti", 10)));
+		assertTrue(search.search("mario", "bianchi", 10).isEmpty());
+		assertTrue(search.search("xyz", "", 10).isEmpty());
+
+		//Nessun criterio: tutti i votanti, fino al limite
+		assertEquals(voters.length, search.search("", "", 10).size());
+		assertEquals(2, search.search("", "", 2).size());
+		assertEquals(2, search.search("ma", "", 2).size());
+
+		//Schede e voto letti dall'elettorato
+		Person maria = search.search("maria", "", 10).get(0);
+		assertEquals("Maria", maria.getFirstName());
+		assertArrayEquals(new int[] {20}, maria.getBallotCodes());
+		assertTrue(maria.mayVote());
+		assertFalse(search.search("marco", "", 10).get(0).mayVote());
+
+		eligibility.markVoted("v1");
+		eligibility.put("v1", Arrays.asList(10, 20), false);
+		maria = search.search("maria", "", 10).get(0);
+		assertArrayEquals(new int[] {10, 20}, maria.getBallotCodes());
+		assertFalse(maria.mayVote());
+	}
+
+	private ArrayList<String> ids(List<Person> voters) {
+		ArrayList<String> ids = new ArrayList<>();
+		for(Person voter : voters)
+			ids.add(voter.getID());
+
+		return ids;
+	}
+
+	@Test
+	public void onlineTerminalsTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nonlineTerminalsTest");}
+
+		OnlineTerminals terminals = u.getOnlineTerminals();
+		assertTrue(terminals.isEmpty());
+
+		terminals.add(ipStation, Terminals.Type.Station);
+		for(InetAddress ipPost : ipPosts)
+			terminals.add(ipPost, Terminals.Type.Post);
+
+		assertTrue(terminals.contains(ipPosts[0], Terminals.Type.Post));
+		assertFalse(terminals.contains(ipPosts[0], Terminals.Type.Station));
+		assertFalse(terminals.contains(ipStation, Terminals.Type.Post));
+
+		//La fotografia non risente delle modifiche successive
+		OnlineTerminals.Snapshot snapshot = terminals.snapshot();
+		assertEquals(1 + ipPosts.length, snapshot.size());
+		assertEquals(1, snapshot.count(Terminals.Type.Station));
+		assertEquals(ipPosts.length, snapshot.count(Terminals.Type.Post));
+		assertEquals(0, snapshot.count(Terminals.Type.SubStation));
+
+		//Una nuova autenticazione sostituisce la registrazione precedente
+		terminals.add(ipStation, Terminals.Type.Station);
+		assertEquals(1, terminals.snapshot().count(Terminals.Type.Station));
+
+		//La verifica dell'autenticazione trova il terminale registrato
+		Link link = internet.connectTo(ipPosts[0], ipUrn);
+		sendCheckAuthentication(link, Terminals.Type.Post);
+		assertEquals(Protocol.authenticatedAck, ((Message) Message.fromB64(link.waitNRead(), "urna")).getValue());
+		link.close();
+
+		assertEquals(ipPosts.length, terminals.removeAll(Terminals.Type.Post).size());
+		assertNull(terminals.get(ipPosts[0], Terminals.Type.Post));
+		assertEquals(1, terminals.snapshot().size());
+		assertEquals(1 + ipPosts.length, snapshot.size());
+
+		assertNotNull(terminals.remove(ipStation, Terminals.Type.Station));
+		assertNull(terminals.remove(ipStation, Terminals.Type.Station));
+		assertTrue(terminals.isEmpty());
+	}
+
+	@Test(timeout = 10000)
+	public void leaseTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nleaseTest");}
+		
+		u.addOnlineTerminal(ipPosts[0], Terminals.Type.Post);
+		u.addOnlineTerminal(ipStation, Terminals.Type.Station);
+		
+		//Un terminale non autenticato non ottiene il lease
+		Link unknown = requestLease(ipPosts[1], Terminals.Type.Post);
+		assertEquals(Protocol.authenticatedNack, ((Message) Message.fromB64(unknown.waitNRead(), "urna test")).getValue());
+		assertNull(unknown.waitNRead());
+		unknown.close();
+		
+		Link postLease = requestLease(ipPosts[0], Terminals.Type.Post);
+		assertEquals(Protocol.authenticatedAck, ((Message) Message.fromB64(postLease.waitNRead(), "urna test")).getValue());
+		for(int i = 0; i < 3; i++)
+			assertEquals(Protocol.urnHeartbeat, postLease.waitNRead());
+		
+		Link stationLease = requestLease(ipStation, Terminals.Type.Station);
+		assertEquals(Protocol.authenticatedAck, ((Message) Message.fromB64(stationLease.waitNRead(), "urna test")).getValue());
+		
+		//La disattivazione delle postazioni viene notificata sul loro lease, che viene chiuso
+		c.deactivateTerminal(Terminals.Type.Post);
+		assertEquals(Protocol.authenticatedNack, skipHeartbeats(postLease));
+		assertNull(postLease.waitNRead());
+		postLease.close();
+		
+		//La chiusura della sessione viene notificata sui lease rimasti
+		c.closeSession();
+		assertEquals(Protocol.urnShutDown, skipHeartbeats(stationLease));
+		assertNull(stationLease.waitNRead());
+		stationLease.close();
+		
+		assertTrue(u.getOnlineTerminals().isEmpty());
+	}
+	
+	@Test(timeout = 120000)
+	public void burstTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nburstTest");}
+		
+		//Urna che esegue ogni Service su un proprio virtual thread: il pool da 5 connessioni si bloccherebbe sui link inattivi,
+		//e anche il pool di ripiego (Constants.maxServiceThreads thread) adoperato dalle JVM che non li supportano
+		assumeTrue(AbstrServer.supportsVirtualThreads());
+		
+		c.shutDown();
+		Constants.virtualThreads = true;
+		try {
+			c = new ControllerU(view, u, db, ipUrn);
+		}
+		finally {
+			Constants.virtualThreads = false;
+		}
+		c.start();
+		
+		u.addOnlineTerminal(ipStation, Terminals.Type.Station);
+		for(InetAddress ipPost : ipPosts)
+			u.addOnlineTerminal(ipPost, Terminals.Type.Post);
+		
+		ArrayList<Person> voters = new ArrayList<>();
+		for(int i = 0; i < 10; i++)
+			voters.add(new Person("Votante", "Burst " + i, "B" + i, new int[0], true));
+		db.setVoters(voters);
+		
+		//Terminali lenti: link aperti la cui richiesta arriva solo dopo la raffica
+		int idle = 1000;
+		Link[] idleLinks = new Link[idle];
+		for(int i = 0; i < idle; i++)
+			idleLinks[i] = internet.connectTo(ipStation, ipUrn);
+		
+		int burst = 3000;
+		Link[] links = new Link[burst];
+		for(int i = 0; i < burst; i++) {
+			if(i % 2 == 0) {
+				links[i] = internet.connectTo(ipPosts[i % ipPosts.length], ipUrn);
+				sendCheckAuthentication(links[i], Terminals.Type.Post);
+			}
+			else {
+				links[i] = internet.connectTo(ipStation, ipUrn);
+				sendSearchPerson(links[i]);
+			}
+		}
+		
+		long start = System.nanoTime();
+		for(int i = 0; i < burst; i++) {
+			Message response = (Message) Message.fromB64(links[i].waitNRead(), "urna test");
+			links[i].close();
+			
+			if(i % 2 == 0)
+				assertEquals(Protocol.authenticatedAck, response.getValue());
+			else
+				assertSearchResult(response, voters.size());
+		}
+		
+		for(Link link : idleLinks)
+			sendSearchPerson(link);
+		
+		for(Link link : idleLinks) {
+			assertSearchResult((Message) Message.fromB64(link.waitNRead(), "urna test"), voters.size());
+			link.close();
+		}
+		
+		if(Settings.printTestName)
+			System.out.println((burst + idle) + " richieste servite in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+	
 	@Test
 	public void realDBTest() throws Exception {
 		if(Settings.printTestName) {System.out.println("\nrealDBTest");}
@@ -441,6 +807,99 @@ public class AppTest {
 		}
 	}
 	
+	@Test
+	public void searchPersonBenchmarkTest() throws Exception {
+		if(Settings.printTestName) {System.out.println("\nsearchPersonBenchmarkTest");}
+		
+		//Richiede un DB reale e il popolamento di 100.000 votanti, per cui va abilitato esplicitamente
+		if(!Settings.testDB || !Settings.benchmarkDB)
+			return;
+		
+		int procedureCode = 0, numVoters = 100000, maxResults = 50, runs = 20;
+		
+		emptyRealDB();
+		populateRealDB();
+		
+		try (ConnectionManager cManager = manager.getConnectionManager()) {
+			String voterUpdate = "INSERT INTO evotingDBTest.Voter(FirstName, LastName, ProcedureCode, ID) VALUES(?, ?, ?, ?) ;";
+			String ballotUpdate = "INSERT INTO evotingDBTest.VoterBallotsList(ProcedureCode, BallotCode, VoterID) VALUES(?, ?, ?) ;";
+			
+			for(int from = 0; from < numVoters; from += 10000) {
+				ArrayList<Object[]> voterRows = new ArrayList<>(), ballotRows = new ArrayList<>();
+				
+				for(int i = from; i < from + 10000; i++) {
+					voterRows.add(new Object[] {"Nome" + (i % 1000), "Cognome" + i, procedureCode, "B" + i});
+					ballotRows.add(new Object[] {procedureCode, 0, "B" + i});
+					if(i % 2 == 0)
+						ballotRows.add(new Object[] {procedureCode, 1, "B" + i});
+				}
+				
+				cManager.executeBatch(voterUpdate, voterRows);
+				cManager.executeBatch(ballotUpdate, ballotRows);
+			}
+		}
+		
+		UrnDB uDB = new UrnDB(host, port, schema, "Test");
+		
+		//Ricerca con una query per le schede di ciascun votante trovato, come prima dell'unificazione delle query
+		String voterQuery = "SELECT V.*, EXISTS (SELECT * FROM HasVoted AS HV WHERE ProcedureCode = V.ProcedureCode AND VoterID = V.ID) AS AlreadyVoted " +
+							"FROM Voter AS V WHERE FirstName like ? AND LastName like ? AND ProcedureCode = ? LIMIT ? ;";
+		String ballotsListQuery = "SELECT * FROM VoterBallotsList AS VBL WHERE VBL.VoterID = ? AND VBL.ProcedureCode = ? ;";
+		
+		ArrayList<String> expected = new ArrayList<>();
+		long start = 0;
+		for(int run = -1; run < runs; run++) {
+			//La prima esecuzione serve solo a riscaldare cache e connessioni
+			if(run == 0)
+				start = System.nanoTime();
+			
+			expected.clear();
+			try (ConnectionManager cManager = manager.getConnectionManager()) {
+				ResultSet rs = cManager.executeQuery(voterQuery, "%Nome1%", "%", procedureCode, maxResults + 1);
+				while(rs.next()) {
+					String voterID = rs.getString("V.ID");
+					StringBuilder ballots = new StringBuilder();
+					
+					ResultSet rs2 = cManager.executeQuery(ballotsListQuery, voterID, procedureCode);
+					while(rs2.next())
+						ballots.append(rs2.getInt("VBL.BallotCode")).append(",");
+					
+					expected.add(voterID + ":" + ballots);
+				}
+			}
+		}
+		long nPlusOne = (System.nanoTime() - start) / runs / 1000;
+		
+		ArrayList<String> found = new ArrayList<>();
+		for(int run = -1; run < runs; run++) {
+			if(run == 0)
+				start = System.nanoTime();
+			
+			found.clear();
+			for(Person voter : uDB.searchPerson(procedureCode, "Nome1", "", maxResults)) {
+				StringBuilder ballots = new StringBuilder();
+				for(int ballot : voter.getBallotCodes())
+					ballots.append(ballot).append(",");
+				
+				found.add(voter.getID() + ":" + ballots);
+			}
+		}
+		long joined = (System.nanoTime() - start) / runs / 1000;
+		
+		//Le due query possono restituire votanti diversi tra quelli che soddisfano i criteri, ma con le stesse schede
+		assertEquals(maxResults + 1, found.size());
+		assertEquals(expected.size(), found.size());
+		for(String voter : found) {
+			int i = Integer.parseInt(voter.substring(1, voter.indexOf(':')));
+			assertEquals("B" + i + ":" + (i % 2 == 0 ? "0,1," : "0,"), voter);
+		}
+		
+		System.out.println(String.format("searchPerson su %d votanti: %d us con una query per votante, %d us con un'unica query", numVoters, nPlusOne, joined));
+		
+		uDB.close();
+		emptyRealDB();
+	}
+	
 	private void populateRealDB() throws Exception {
 
 		try(ConnectionManager cManager = manager.getConnectionManager()) {
@@ -641,7 +1100,117 @@ public class AppTest {
 		}
 	}
 	
-	private void populateDB(boolean well) {
+	/**
+	 * Richiede gli nonce per ciascuna postazione, quindi invia in parallelo all'urna il voto di voters[i] dalla postazione i.
+	 */
+	private Message[] sendVotesConcurrently(Person[] voters) throws Exception {
+		int[] numPreferences = {1, 2, 3};
+		WrittenBallot[][] ballots = new WrittenBallot[voters.length][];
+		
+		for(int i = 0; i < voters.length; i++) {
+			Message bulkOut = new Message(Protocol.nonceReq);
+			bulkOut.setElement("numPreferences", numPreferences);
+			
+			Link link = internet.connectTo(ipPosts[i], ipUrn);
+			link.write(Protocol.nonceReq);
+			link.write(bulkOut.toB64());
+			
+			Message bulkIn = (Message) Message.fromB64(link.waitNRead(), "urna test");
+			link.close();
+			
+			String[][] nonces = bulkIn.getElement("nonces");
+			String sessionKey = db.getTerminalSessionKey(0, 0, ipPosts[i], Terminals.Type.Post);
+			
+			ballots[i] = new WrittenBallot[nonces.length];
+			for(int b = 0; b < nonces.length; b++) {
+				ballots[i][b] = new WrittenBallot("Scheda test", b, nonces[b].length);
+				for(int p = 0; p < nonces[b].length; p++)
+					ballots[i][b].addPreference(Protocol.emptyPreference);
+				
+				ballots[i][b].encryptBallot(RPTemp.getPublic(), nonces[b], sessionKey);
+			}
+		}
+		
+		Message[] responses = new Message[voters.length];
+		Thread[] senders = new Thread[voters.length];
+		CountDownLatch start = new CountDownLatch(1);
+		
+		for(int i = 0; i < voters.length; i++) {
+			final int post = i;
+			senders[i] = new Thread(() -> {
+				try {
+					start.await();
+					
+					Message bulkOut = new Message(Protocol.sendVoteToUrn);
+					bulkOut.setElement("voter", voters[post]);
+					bulkOut.setElement("encryptedBallots", ballots[post]);
+					bulkOut.setElement("ipPost", ipPosts[post]);
+					
+					Link link = internet.connectTo(ipStation, ipUrn);
+					link.write(Protocol.sendVoteToUrn);
+					link.write(bulkOut.toB64());
+					
+					responses[post] = (Message) Message.fromB64(link.waitNRead(), "urna test");
+					link.close();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			senders[i].start();
+		}
+		
+		start.countDown();
+		for(Thread sender : senders)
+			sender.join();
+		
+		for(Message response : responses)
+			assertNotNull(response);
+		
+		return responses;
+	}
+	
+	private Link requestLease(InetAddress ip, Terminals.Type type) {
+		Message request = new Message(Protocol.urnLeaseReq);
+		request.setElement("terminal", type);
+		request.setElement("heartbeat", 50);
+		
+		Link link = internet.connectTo(ip, ipUrn);
+		link.write(Protocol.urnLeaseReq);
+		link.write(request.toB64());
+		return link;
+	}
+	
+	private String skipHeartbeats(Link link) {
+		String line;
+		while(Protocol.urnHeartbeat.equals(line = link.waitNRead()));
+		
+		return line;
+	}
+	
+	private void sendCheckAuthentication(Link link, Terminals.Type type) {
+		Message request = new Message(Protocol.checkTerminalAuthentication);
+		request.setElement("terminal", type);
+		
+		link.write(Protocol.checkTerminalAuthentication);
+		link.write(request.toB64());
+	}
+	
+	private void sendSearchPerson(Link link) {
+		Message request = new Message(Protocol.searchPersonReq);
+		request.setElement("firstName", "Votante");
+		request.setElement("lastName", "");
+		
+		link.write(Protocol.searchPersonReq);
+		link.write(request.toB64());
+	}
+	
+	private void assertSearchResult(Message response, int expectedVoters) {
+		assertEquals(Protocol.searchPersonAck, response.getValue());
+		assertFalse(response.getElement("missingVoters"));
+		assertEquals(expectedVoters, ((Person[]) response.getElement("voters")).length);
+	}
+	
+	private void populateDB(boolean well) throws PEException {
 		Person p00 = new Person("P", "00", null, "p00");
 		Person p01 = new Person("P", "01", null, "p01");
 		Person p02 = new Person("P", "02", null, "p02");
@@ -1,6 +1,7 @@
 package urna;
 
 import common.RPTemp;
+import exceptions.DBException;
 import exceptions.DEVException;
 import exceptions.PEException;
 import model.*;
@@ -9,6 +10,8 @@ import urna.controller.UrnDB;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.fail;
 
@@ -25,7 +28,8 @@ public class TestDB extends UrnDB {
 	private ArrayList<EmptyBallot> ballots;
 	private ArrayList<Person> voters;
 
-	private int numVotes = 0;
+	//Simula il vincolo di unicità della tabella HasVoted
+	private final Set<String> hasVoted = ConcurrentHashMap.newKeySet();
 
 	public TestDB(InetAddress ipStation, InetAddress[] Ips, InetAddress[] subStationsIps) throws PEException {
 		super(null,null,null,null);
@@ -103,8 +107,9 @@ public class TestDB extends UrnDB {
 	}
 
 	@Override
-	public void storeVotes(int procedureCode, int sessionCode, Person voter, WrittenBallot[] ballots, InetAddress ipStation, InetAddress ipPost) {
-		numVotes++;
+	public void storeVotes(int procedureCode, int sessionCode, Person voter, WrittenBallot[] ballots, InetAddress ipStation, InetAddress ipPost) throws PEException {
+		if(!hasVoted.add(voter.getID()))
+			throw DBException.DB_15(voter.getID(), true);
 	}
 
 	public void setVoters(ArrayList<Person> voters) {
@@ -112,7 +117,7 @@ public class TestDB extends UrnDB {
 	}
 
 	public int countVotes() {
-		return numVotes;
+		return hasVoted.size();
 	}
 
 	@Override
@@ -153,7 +158,10 @@ public class TestDB extends UrnDB {
 
 	@Override
 	public void verifyVoteData(int procedureCode, int sessionCode, String voterID, WrittenBallot[] ballots,
-			String ipStation, String ipPost) {}
+			String ipStation, String ipPost) throws PEException {
+		if(hasVoted.contains(voterID))
+			throw DBException.DB_15(voterID, true);
+	}
 
 	@Override
 	public void registerNewVoter(int procCode, InetAddress ip, String id, String ln, String fn, String birthDate, int[] ballots) throws PEException {
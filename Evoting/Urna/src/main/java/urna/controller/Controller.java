@@ -3,20 +3,22 @@ package urna.controller;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Objects;
 
 import controller.AbstrServer;
+import controller.Link;
 import controller.TerminalController;
+import db.ConnectionPool;
 import encryption.AES;
+import encryption.CryptoContext;
 import encryption.HMAC;
 import encryption.NonceManager;
-import encryption.VoteEncryption;
 import exceptions.DBException;
 import exceptions.DEVException;
 import exceptions.ENCException;
 import exceptions.FLRException;
 import exceptions.PEException;
-import controller.Server;
+import controller.NioServer;
 import model.EmptyBallot;
 import model.Message;
 import model.Person;
@@ -26,9 +28,11 @@ import model.VotePacket;
 import model.WrittenBallot;
 import model.State.StateUrn;
 import urna.model.DummyTerminal;
+import urna.model.OnlineTerminals;
 import urna.model.Urn;
 import utils.CfgManager;
 import utils.Constants;
+import utils.Logger.Level;
 import utils.Protocol;
 import view.ViewInterface;
 
@@ -36,6 +40,15 @@ public class Controller extends TerminalController {
 	protected Urn urn = null;
 	private UrnDB db = null;
 	private final int maxSearchResults = 50;
+	
+	/**
+	 * Lock per la memorizzazione dei voti, suddivisi per votante: voti di votanti diversi vengono verificati e memorizzati in parallelo,
+	 * mentre voti relativi allo stesso votante sono serializzati. L'unicità di HasVoted sul DB garantisce comunque un solo voto per votante.
+	 */
+	private final Object[] voterLocks = new Object[64];
+	
+	//Lease dei terminali attivi, sui quali vengono notificati spegnimento dell'urna e disattivazione dei terminali
+	private final Leases leases = new Leases();
 
 	/**
 	 * Costruttore adoperato per il testing.
@@ -47,6 +60,7 @@ public class Controller extends TerminalController {
 		super(server, view, Terminals.Type.Urn, false);
 		this.urn = urn;
 		this.db = db;
+		initVoterLocks();
 	}
 
 	/**
@@ -55,9 +69,10 @@ public class Controller extends TerminalController {
 	 * @param urn 		Classe model.
 	 */
 	public Controller(ViewInterface view, Urn urn, UrnDB db) throws PEException {
-		super(new Server(new Factory(), urn.getPort(), urn.getNumConnections(), Terminals.Type.Urn), view, Terminals.Type.Urn, false);
+		super(new NioServer(new Factory(), urn.getPort(), urn.getNumConnections(), Terminals.Type.Urn), view, Terminals.Type.Urn, false);
 		this.urn = urn;
 		this.db = db;
+		initVoterLocks();
 		
 		if(!Constants.linkSSL && Constants.dbSSL) {
 			System.setProperty("javax.net.ssl.keyStore", "ssl/keystore.jks");
@@ -79,6 +94,13 @@ public class Controller extends TerminalController {
 		urn.setProcedureBallots(procedureBallots);
 		urn.setEligibleVoters(db.getNumOfEligibleVoters(procedureCode));
 		urn.setHasVoted(db.getNumOfVoted(procedureCode));
+		db.loadTopology(procedureCode, sessionCode);
+
+		int[] ballotCodes = new int[procedureBallots.length];
+		for(int i = 0; i < procedureBallots.length; i++)
+			ballotCodes[i] = procedureBallots[i].getCode();
+
+		db.loadVoterIndex(procedureCode, ballotCodes);
 
 		return true;
 	}
@@ -95,6 +117,9 @@ public class Controller extends TerminalController {
 	public void logout() {
 		if(confirmLogout(urn)) {
 			signalUrnReset();
+			db.invalidateTopology();
+			db.invalidateVoterIndex();
+			HMAC.clearKeys();
 			urn.setState(StateUrn.NON_ATTIVA);
 			
     		updateView();
@@ -104,6 +129,9 @@ public class Controller extends TerminalController {
 	public void closeSession() {
 		if(printConfirmation("Sei sicuro di voler effettuare chiudere la sessione?", "Verrai riportato alla schermata di scelta della sessione")) {
     		signalUrnReset();
+			db.invalidateTopology();
+			db.invalidateVoterIndex();
+			HMAC.clearKeys();
 			urn.setState(StateUrn.ATTIVA);
 			
 			urn.logWarning("Sessione [ID: "+urn.getSessionCode()+"] appartenente alla procedura [ID: "+urn.getProcedureCode()+"] terminata.");
@@ -112,31 +140,18 @@ public class Controller extends TerminalController {
 	}
 	
 	public void showStats() {
-		ArrayList<DummyTerminal> terminals = urn.getOnlineTerminals();
-		int numTerminals = terminals.size(), numPosts = 0, numStats = 0, numAuxStats = 0;
-
-		for (DummyTerminal t : terminals) {
-			switch(t.getType()) {
-				case Post:
-					numPosts++;
-					break;
-					
-				case Station:
-					numStats++;
-					break;
-					
-				case SubStation:
-					numAuxStats++;
-					break;
-					
-				default:
-					//Do nothing
-			}
-		}
+		OnlineTerminals.Snapshot terminals = urn.getOnlineTerminals().snapshot();
+		int numTerminals = terminals.size(), numPosts = terminals.count(Terminals.Type.Post);
+		int numStats = terminals.count(Terminals.Type.Station), numAuxStats = terminals.count(Terminals.Type.SubStation);
 
 		String stats = "Terminali autenticati: "+numTerminals+", di cui:\n\tSeggi: "+numStats+"\n\tSeggi Ausiliari: "+numAuxStats+"\n\tPostazioni: "+numPosts;
 		stats += "\n\nStatistiche Votanti:\n\tAbilitati: "+ urn.getEligibleVoters()+"\n\tHanno Votato: "+ urn.getHasVoted();
 
+		ConnectionPool pool = db.getConnectionPool();
+		stats += "\n\nConnessioni al DB (max "+pool.getMaxSize()+"):\n\tAttive: "+pool.getActive()+"\n\tInattive: "+pool.getIdle()
+				+ "\n\tAttesa media: "+String.format("%.2f", pool.getAverageWait())+" ms\n\tAttesa massima: "+pool.getMaxWait()+" ms"
+				+ "\n\tRichieste scadute: "+pool.getTimeouts();
+
 		printSuccess("Statistiche Urn", stats);
 	}
 
@@ -187,14 +202,8 @@ public class Controller extends TerminalController {
 	}
 	
 	public void deactivateTerminal(Terminals.Type type) {
-		ArrayList<DummyTerminal> onlineTerminals = urn.getOnlineTerminals();
-		Iterator<DummyTerminal> it = onlineTerminals.iterator();
-		
-		while(it.hasNext()) {
-			DummyTerminal t = it.next();
-			if(t.getType() == type)
-				it.remove();
-		}
+		urn.getOnlineTerminals().removeAll(type);
+		leases.revoke(type);
 	}
 
 	public ArrayList<String> getLogs() {
@@ -212,14 +221,12 @@ public class Controller extends TerminalController {
 	}
 	
 	boolean verifyIp(InetAddress ip, Terminals.Type type, String msg) {
-		for (DummyTerminal t : urn.getOnlineTerminals()) {
-			if(t.getIp().equals(ip) && t.getType() == type)
-				return true;
-		}
+		if(urn.getOnlineTerminals().contains(ip, type))
+			return true;
 		
 		printError("Comunicazione Inattesa", "Tentativo di connessione da parte di " + ip.getHostAddress() + "(sconosciuto) come "+type+".");
 		
-		urn.logWarning("Tentativo di connessione all'urna da parte di un terminale sconosciuto [IP: "+ip.getHostAddress()+", Tipo: "+type+"]. Messaggio ricevuto: "+msg+".");
+		urn.log(Level.WARNING, ip, type, "Tentativo di connessione all'urna da parte di un terminale sconosciuto [IP: "+ip.getHostAddress()+", Tipo: "+type+"]. Messaggio ricevuto: "+msg+".");
 		updateView();
 		
 		return false;
@@ -227,7 +234,7 @@ public class Controller extends TerminalController {
 
 	// Risposta alla richiesta di autenticazione dell'urna da parte di un terminale (Fase 1 dell'autenticazione mutua fra urna e terminali)
 	Message authenticateToTerminal(InetAddress ip, String encryptedNonce, Terminals.Type type) {
-		urn.logInfo("Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] richiede all'urna di autenticarsi.");
+		urn.log(Level.INFO, ip, type, "Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] richiede all'urna di autenticarsi.");
 
 		Message bulkOut = new Message();
 		try {
@@ -245,7 +252,7 @@ public class Controller extends TerminalController {
 			bulkOut.setElement("response", Protocol.PostAuthenticationPhase1);
 			bulkOut.setValue(Protocol.validAuthentication);
 
-			urn.logInfo("L'urna ha risposto alla sfida lanciata dal terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] e ha lanciato una nuova sfida.");
+			urn.log(Level.INFO, ip, type, "L'urna ha risposto alla sfida lanciata dal terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] e ha lanciato una nuova sfida.");
 
 		} catch(PEException e) {
 			bulkOut.setElement("response", Protocol.authenticationFailed);
@@ -253,7 +260,7 @@ public class Controller extends TerminalController {
 			bulkOut.setValue(Protocol.authenticationFailed);
 			bulkOut.addError(e.getMessage());
 
-			urn.logError("Errore durante la comunicazione col terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"]: "+e.getMessage());
+			urn.log(Level.ERROR, ip, type, "Errore durante la comunicazione col terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"]: "+e.getMessage());
 		}
 
 		updateView();
@@ -261,8 +268,9 @@ public class Controller extends TerminalController {
 	}
 
 	//Risposta alla richiesta di autenticazione di un terminale presso l'urna (Fase 2 dell'autenticazione mutua fra urna e terminali)
-	Message verifyTerminalAuthentication(InetAddress ip, String encryptedNonce, Terminals.Type type) {
-		urn.logInfo("Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] ha autenticato l'urna e ha risposto alla sua sfida per autenticarsi.");
+	//Le schede, codificate una sola volta per sessione, sono inviate solo ai terminali che non possiedono già le stesse schede
+	Message verifyTerminalAuthentication(InetAddress ip, String encryptedNonce, String heldBallotsHash, Terminals.Type type) {
+		urn.log(Level.INFO, ip, type, "Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] ha autenticato l'urna e ha risposto alla sua sfida per autenticarsi.");
 
 		Message bulkOut = new Message();
 		try {
@@ -270,10 +278,9 @@ public class Controller extends TerminalController {
 				switch(type) {
 					case Post:
 						byte[] pubKey = urn.getPublicKey1();
-						EmptyBallot[] ballots = urn.getProcedureBallots();
 
 						bulkOut.setElement("pubKey", pubKey);
-						bulkOut.setElement("ballots", ballots);
+						setBallots(bulkOut, heldBallotsHash);
 						//Il break NON ci deve essere
 
 					case SubStation:
@@ -288,7 +295,7 @@ public class Controller extends TerminalController {
 						bulkOut.setElement("ipStation", ipStation);
 						bulkOut.setValue(Protocol.validAuthentication);
 
-						urn.logSuccess("L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] è andata a buon fine.");
+						urn.log(Level.SUCCESS, ip, type, "L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] è andata a buon fine.");
 						urn.addOnlineTerminal(ip, type);
 						break;
 
@@ -313,10 +320,10 @@ public class Controller extends TerminalController {
 
 						bulkOut.setElement("posts", ipPosts);
 						bulkOut.setElement("subStations", ipSubStations);
-						bulkOut.setElement("ballots", urn.getProcedureBallots()); //Aggiunto per registrazione nuovi utenti al seggio
+						setBallots(bulkOut, heldBallotsHash); //Aggiunto per registrazione nuovi utenti al seggio
 						bulkOut.setValue(Protocol.validAuthentication);
 
-						urn.logSuccess("L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] è andata a buon fine.");
+						urn.log(Level.SUCCESS, ip, type, "L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] è andata a buon fine.");
 						urn.addOnlineTerminal(ip, type);
 						break;
 
@@ -325,7 +332,7 @@ public class Controller extends TerminalController {
 						bulkOut.setElement("response", Protocol.authenticationFailed);
 						bulkOut.addError("Richiesta attivazione da parte di un terminale di tipo sconosciuto: " + type);
 						bulkOut.setElement("error", "Richiesta attivazione da parte di un terminale di tipo sconosciuto: " + type);
-						urn.logError("L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: il terminale è sconosciuto.");
+						urn.log(Level.ERROR, ip, type, "L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: il terminale è sconosciuto.");
 				}
 
 			}
@@ -333,43 +340,61 @@ public class Controller extends TerminalController {
 				bulkOut.setValue(Protocol.authenticationFailed);
 				bulkOut.addError("Nonce errato.");
 				bulkOut.setElement("error", "Nonce errato.");
-				urn.logError("L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: Nonce errato.");
+				urn.log(Level.ERROR, ip, type, "L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: Nonce errato.");
 			}
 
 		}
 		catch (PEException e) {
 			bulkOut.setValue(Protocol.authenticationFailed);
 			bulkOut.addError(e.getMessage());
-			urn.logError("L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: "+e.getMessage());
+			urn.log(Level.ERROR, ip, type, "L'autenticazione del terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] NON è andata a buon fine: "+e.getMessage());
 		}
 
 		updateView();
 		return bulkOut;
 	}
 	
+	private void setBallots(Message bulkOut, String heldBallotsHash) {
+		String ballotsHash = urn.getBallotsHash();
+		bulkOut.setElement("ballotsHash", ballotsHash);
+
+		if(!ballotsHash.equals(heldBallotsHash))
+			bulkOut.setElement("ballots", urn.getEncodedBallots());
+	}
+	
 	Message checkTerminalAuthenticated(InetAddress ip, Terminals.Type type) {
 		if(Constants.verbose)
-			urn.logInfo("Ricevuta richiesta di verifica autenticazione dal terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"].");
+			urn.log(Level.INFO, ip, type, "Ricevuta richiesta di verifica autenticazione dal terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"].");
 		
 		Message response = new Message();
-		boolean terminalFound = false;
-		for(DummyTerminal t : urn.getOnlineTerminals())
-			if(t.getIp().equals(ip) && t.getType() == type) {
-				terminalFound = true;
-				break;
-			}
+		boolean terminalFound = urn.getOnlineTerminals().contains(ip, type);
 
 		response.setValue(terminalFound ? Protocol.authenticatedAck : Protocol.authenticatedNack);
 		if(!terminalFound)
-			urn.logWarning("Ricevuta richiesta di verifica autenticazione da un terminale sconosciuto [IP: "+ip.getHostAddress()+", Tipo: "+type+"].");
+			urn.log(Level.WARNING, ip, type, "Ricevuta richiesta di verifica autenticazione da un terminale sconosciuto [IP: "+ip.getHostAddress()+", Tipo: "+type+"].");
 		
 		updateView();
 		return response;
 	}
 
+	/**
+	 * Concede un lease al terminale, al quale il link viene affidato (vedi {@link Leases}).
+	 * @param ip		L'indirizzo del terminale.
+	 * @param type		Il tipo del terminale.
+	 * @param link		Il link aperto dal terminale.
+	 * @param heartbeat	L'intervallo tra due heartbeat richiesto dal terminale (ms).
+	 * @param grant		La risposta alla richiesta di lease.
+	 */
+	void grantLease(InetAddress ip, Terminals.Type type, Link link, int heartbeat, String grant) {
+		leases.grant(ip, type, link, heartbeat, grant);
+		
+		if(Constants.verbose)
+			urn.log(Level.INFO, ip, type, "Concesso il lease al terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"], heartbeat ogni "+heartbeat+" ms.");
+	}
+
 	//Risposta alla richiesta di ricerca votanti
 	Message searchPerson(InetAddress ip, Terminals.Type terminal, String similarFirstName, String similarLastName) {
-		urn.logInfo("Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"] ha richiesto di cercare votanti.");
+		urn.log(Level.INFO, ip, terminal, "Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"] ha richiesto di cercare votanti.");
 		
 		Message response = new Message();
 		try {
@@ -389,13 +414,13 @@ public class Controller extends TerminalController {
 			response.setElement("missingVoters", missingVoters);
 			
 			if (missingVoters)
-				urn.logWarning("Restituiti 0 risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"]: Criteri troppo poco stringenti");
+				urn.log(Level.WARNING, ip, terminal, "Restituiti 0 risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"]: Criteri troppo poco stringenti");
 			
 			if (!missingVoters && voters.length == 0)
-				urn.logWarning("Restituiti 0 risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"]: Nessun risultato trovato");
+				urn.log(Level.WARNING, ip, terminal, "Restituiti 0 risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"]: Nessun risultato trovato");
 	
 			if (!missingVoters && voters.length > 0)
-				urn.logSuccess("Restituiti "+voters.length+" risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"].");
+				urn.log(Level.SUCCESS, ip, terminal, "Restituiti "+voters.length+" risultati al terminale [IP: "+ip.getHostAddress()+", Tipo: "+terminal+"].");
 			
 		} catch(PEException e) {
 			e.printStackTrace();
@@ -417,10 +442,8 @@ public class Controller extends TerminalController {
 
 		try {
 			//Si verifica se esiste un utente con l'ID indicato
-			Person voter = db.getVoter(urn.getProcedureCode(), id);
-
-			if(voter != null)
-				throw DBException.DB_14(voter.getID());
+			if(db.voterExists(urn.getProcedureCode(), id))
+				throw DBException.DB_14(id);
 			
 			//Se il votante non esiste si aggiunge al db e si abilita e si segnala il successo dell'operazione al seggio
 			db.registerNewVoter(urn.getProcedureCode(), ip, id, ln, fn, birthDate, ballots);
@@ -500,7 +523,7 @@ public class Controller extends TerminalController {
 			urn.logError("I voti ricevuti dal seggio [IP: "+ipStation+"], provenienti dalla postazione [IP: "+ipPost+"] e relativi al votante [ID: "+voter.getID()+"] non contengono tutti i dati necessari.");
 		}
 		else
-			synchronized(this) {
+			synchronized(getVoterLock(voterID)) {
 				try {
 					db.verifyVoteData(procedureCode, sessionCode, voterID, encryptedBallots, ipStation.getHostAddress(), ipPost.getHostAddress());
 					String sessionKey = db.getTerminalSessionKey(procedureCode, sessionCode, ipPost, Terminals.Type.Post);
@@ -549,19 +572,13 @@ public class Controller extends TerminalController {
 
 	//Ricezione dello shutdown di un terminale e conseguente eliminazione dello stesso dalla lista di terminali attivi ed autenticati con l'urna
 	synchronized void logShutDown(InetAddress ip, Terminals.Type type) {
-		ArrayList<DummyTerminal> terminals = urn.getOnlineTerminals();
-		Iterator<DummyTerminal> it = terminals.iterator();
+		if(urn.getOnlineTerminals().remove(ip, type) == null)
+			return;
 
-		while (it.hasNext()) {
-			DummyTerminal t = it.next();
-			if(t.getIp().equals(ip) && t.getType() == type) {
-				urn.logWarning("Il terminale [IP: "+ip+", Tipo: "+type+"] è tornato OFFLINE.");
-				it.remove();
+		urn.log(Level.WARNING, ip, type, "Il terminale [IP: "+ip.getHostAddress()+", Tipo: "+type+"] è tornato OFFLINE.");
+		leases.end(ip, type, null);
 
-				updateView();
-				return;
-			}
-		}
+		updateView();
 	}
 
 	/* --- Funzioni di utility --- */
@@ -617,11 +634,23 @@ public class Controller extends TerminalController {
 		return true;
 	}
 
+	private void initVoterLocks() {
+		for(int i = 0; i < voterLocks.length; i++)
+			voterLocks[i] = new Object();
+	}
+
+	//Restituisce il lock associato al votante
+	private Object getVoterLock(String voterID) {
+		return voterLocks[Math.floorMod(Objects.hashCode(voterID), voterLocks.length)];
+	}
+
 	//Firma i pacchetti di voto con la chiave privata 2 del responsabile
 	private void signBallots(WrittenBallot[] encryptedBallots) throws PEException {
+		CryptoContext signingCrypto = urn.getSigningCrypto();
+		
 		for(WrittenBallot ballot : encryptedBallots) {
 			for(VotePacket packet : ballot.getEncryptedVotePackets()) {
-				VoteEncryption.signPacket(packet, urn.getPrivateKey2());
+				signingCrypto.signPacket(packet);
 			}
 		}
 
@@ -642,13 +671,12 @@ public class Controller extends TerminalController {
 	}
 	
 	private void signalUrnReset() {
-		ArrayList<DummyTerminal> onlineTerminals = urn.getOnlineTerminals();
-		
-		if(onlineTerminals != null)
-			for (DummyTerminal t : onlineTerminals)
+		//Lo spegnimento viene notificato sul lease del terminale, o con un nuovo link se il terminale non ne ha ancora uno
+		for (DummyTerminal t : urn.resetOnlineTerminals())
+			if(!leases.end(t.getIp(), t.getType(), Protocol.urnShutDown))
 				signalShutDown(t.getIp(), t.getPort());
 		
-		urn.resetOnlineTerminals();
+		leases.endAll(Protocol.urnShutDown);
 	}
 
 	/* --- Funzioni da implementare in quanto TerminalController --- */
@@ -663,6 +691,11 @@ public class Controller extends TerminalController {
 		return;
 	}
 	
+	@Override
+	protected void urnShutDown() {
+		return;
+	}
+	
 	@Override
 	protected boolean verifyUrnIp(InetAddress ip) { 
 		return true; 
@@ -680,6 +713,16 @@ public class Controller extends TerminalController {
 		urn.logInfo("L'urna è stata spenta.");
 	}
 	
+	@Override
+	public void shutDown() {
+		super.shutDown();
+		leases.close();
+		urn.closeLogger();
+		
+		//Le connessioni al DB vanno chiuse solo dopo l'arresto del server, quando nessun servizio può più richiederle
+		db.close();
+	}
+	
 	@Override
 	public void setRfidReachable(boolean reachable) {
 		//
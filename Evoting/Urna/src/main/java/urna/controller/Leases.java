@@ -0,0 +1,162 @@
+package urna.controller;
+
+import java.net.InetAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import controller.Link;
+import model.Terminals;
+import utils.Protocol;
+
+/**
+ * Lease concessi dall'urna ai terminali attivi (vedi {@link controller.UrnLease}).
+ * <br/>
+ * Ogni lease è un link persistente aperto dal terminale, sul quale l'urna invia un {@link Protocol#urnHeartbeat} con la cadenza richiesta
+ * dal terminale, e sul quale notifica immediatamente il proprio spegnimento o la disattivazione del terminale.
+ * Gli heartbeat di tutti i lease sono inviati da un unico thread, per cui un lease non occupa alcun thread del server.
+ */
+class Leases {
+	//Limiti alla cadenza degli heartbeat richiesta dai terminali (ms)
+	static final int minHeartbeat = 50;
+	static final int maxHeartbeat = 60000;
+
+	private final ScheduledExecutorService scheduler;
+	private final Map<Terminals.Type, Map<InetAddress, Lease>> leases = new EnumMap<>(Terminals.Type.class);
+
+	Leases() {
+		for(Terminals.Type type : Terminals.Type.values())
+			leases.put(type, new ConcurrentHashMap<>());
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Urn Leases");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Concede un lease al terminale, sostituendo (e chiudendo) l'eventuale lease precedente dello stesso terminale.
+	 * @param ip		L'indirizzo del terminale.
+	 * @param type		Il tipo del terminale.
+	 * @param link		Il link aperto dal terminale, che da questo momento appartiene al lease.
+	 * @param heartbeat	L'intervallo tra due heartbeat richiesto dal terminale (ms).
+	 * @param grant		La risposta alla richiesta di lease, inviata sul link prima di qualunque heartbeat.
+	 */
+	void grant(InetAddress ip, Terminals.Type type, Link link, int heartbeat, String grant) {
+		Lease lease = new Lease(link);
+		Lease previous;
+
+		long period = Math.max(minHeartbeat, Math.min(maxHeartbeat, heartbeat));
+
+		//La risposta deve precedere qualunque altro messaggio, anche se il lease venisse terminato subito dopo la registrazione
+		synchronized(lease) {
+			previous = leases.get(type).put(ip, lease);
+			link.write(grant);
+
+			try {
+				lease.task = scheduler.scheduleAtFixedRate(() -> beat(ip, type, lease), period, period, TimeUnit.MILLISECONDS);
+			}
+			catch (RejectedExecutionException e) {
+				//L'urna è in fase di spegnimento
+				leases.get(type).remove(ip, lease);
+				lease.end(Protocol.urnShutDown);
+			}
+		}
+
+		if(previous != null)
+			previous.end(null);
+	}
+
+	/**
+	 * Termina il lease del terminale, inviando eventualmente un ultimo messaggio.
+	 * @param ip		L'indirizzo del terminale.
+	 * @param type		Il tipo del terminale.
+	 * @param message	Il messaggio da inviare prima di chiudere il lease, o null.
+	 * @return			True se il terminale aveva un lease.
+	 */
+	boolean end(InetAddress ip, Terminals.Type type, String message) {
+		Lease lease = leases.get(type).remove(ip);
+		if(lease == null)
+			return false;
+
+		lease.end(message);
+		return true;
+	}
+
+	/**
+	 * Termina i lease di tutti i terminali di un tipo, comunicando loro che non sono più autenticati.
+	 * @param type Il tipo dei terminali.
+	 */
+	void revoke(Terminals.Type type) {
+		for(InetAddress ip : leases.get(type).keySet())
+			end(ip, type, Protocol.authenticatedNack);
+	}
+
+	/**
+	 * Termina tutti i lease, inviando a ciascun terminale il messaggio indicato.
+	 * @param message Il messaggio da inviare prima di chiudere i lease, o null.
+	 */
+	void endAll(String message) {
+		for(Terminals.Type type : leases.keySet())
+			for(InetAddress ip : leases.get(type).keySet())
+				end(ip, type, message);
+	}
+
+	/**
+	 * Termina tutti i lease (senza alcuna notifica) e il thread che invia gli heartbeat.
+	 */
+	void close() {
+		endAll(null);
+		scheduler.shutdownNow();
+	}
+
+	private void beat(InetAddress ip, Terminals.Type type, Lease lease) {
+		//Un lease il cui link è caduto viene abbandonato: il terminale ne richiederà uno nuovo
+		if(!lease.send(Protocol.urnHeartbeat))
+			leases.get(type).remove(ip, lease);
+	}
+
+	private static class Lease {
+		private final Link link;
+		private ScheduledFuture<?> task = null;
+		private boolean ended = false;
+
+		Lease(Link link) {
+			this.link = link;
+		}
+
+		synchronized boolean send(String message) {
+			if(ended)
+				return false;
+
+			if(link.isClosed()) {
+				end(null);
+				return false;
+			}
+
+			link.write(message);
+			return true;
+		}
+
+		synchronized void end(String message) {
+			if(ended)
+				return;
+
+			ended = true;
+
+			if(task != null)
+				task.cancel(false);
+
+			if(message != null)
+				link.write(message);
+
+			link.close();
+		}
+	}
+}
@@ -56,6 +56,10 @@ public class Service extends AbstrService {
 				checkTerminalAuthenticated();
 				break;
 				
+			case Protocol.urnLeaseReq:
+				grantLease();
+				break;
+				
 			case Protocol.searchPersonReq:
 				if(((Controller) controller).verifyIp(ip, Terminals.Type.Station, message))
 					searchPerson(Terminals.Type.Station);
@@ -126,7 +130,18 @@ public class Service extends AbstrService {
 		}
 		
 		String encryptedNonce = link.read();
-		Message bulkOut = ((Controller) controller).verifyTerminalAuthentication(ip, encryptedNonce, type);
+		
+		//Seggi e postazioni inviano sempre, dopo la soluzione della sfida, l'hash delle schede già in loro possesso (o Protocol.noBallotsHeld)
+		String heldBallotsHash = Protocol.noBallotsHeld;
+		if(type != Terminals.Type.SubStation) {
+			if(!link.hasNextLine()) {
+				return;
+			}
+			
+			heldBallotsHash = link.read();
+		}
+		
+		Message bulkOut = ((Controller) controller).verifyTerminalAuthentication(ip, encryptedNonce, heldBallotsHash, type);
 		link.write(bulkOut.toB64());
 	}
 	
@@ -149,6 +164,35 @@ public class Service extends AbstrService {
 		link.write(response.toB64());
 	}
 	
+	private void grantLease() {
+		if(!link.hasNextLine()) {return;}
+		
+		Message response = new Message();
+		try {
+			Message request = (Message) Message.fromB64(link.read(), "terminale");
+			String[] required = {"terminal", "heartbeat"};
+			Class<?>[] types = {Terminals.Type.class, Integer.class};
+			
+			request.verifyMessage(Protocol.urnLeaseReq, required, types, ip.getHostAddress());
+			Terminals.Type type = request.getElement("terminal");
+			int heartbeat = request.getElement("heartbeat");
+			
+			response = ((Controller) controller).checkTerminalAuthenticated(ip, type);
+			
+			//Il link resta aperto e viene affidato al lease, che vi invierà la risposta
+			if(Protocol.authenticatedAck.equals(response.getValue())) {
+				((Controller) controller).grantLease(ip, type, link, heartbeat, response.toB64());
+				detachLink();
+				return;
+			}
+		} catch (PEException e) {
+			response.setValue(Protocol.authenticatedNack);
+			response.addError(e.getMessage());
+		}
+		
+		link.write(response.toB64());
+	}
+	
 	private void searchPerson(Terminals.Type type) {
 		if(!link.hasNextLine()) {return;}
 		
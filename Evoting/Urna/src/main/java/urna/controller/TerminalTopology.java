@@ -0,0 +1,138 @@
+package urna.controller;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.Terminals;
+
+/**
+ * Copia in memoria dei terminali di una sessione: per ciascun terminale ID, tipo e chiave di sessione, e per ciascun seggio
+ * le postazioni e i seggi ausiliari ad esso associati.
+ * <br/>
+ * Questi dati non cambiano per tutta la durata della sessione, per cui vengono caricati una sola volta all'avvio della sessione
+ * ({@link UrnDB#loadTopology}) anziché ad ogni autenticazione o voto. Tutte le ricerche richiedono tempo costante.
+ * <br/>
+ * La topologia viene riempita da un solo thread prima di essere resa disponibile, e da quel momento è adoperata in sola lettura.
+ */
+public class TerminalTopology {
+	private final int procedureCode, sessionCode;
+
+	private final Map<Terminals.Type, Map<InetAddress, Terminal>> byAddress = new EnumMap<>(Terminals.Type.class);
+	private final Map<Integer, Terminal> byId = new HashMap<>();
+
+	/**
+	 * Costruttore di una topologia vuota.
+	 * @param procedureCode	Codice della procedura.
+	 * @param sessionCode	Codice della sessione.
+	 */
+	public TerminalTopology(int procedureCode, int sessionCode) {
+		this.procedureCode = procedureCode;
+		this.sessionCode = sessionCode;
+
+		for(Terminals.Type type : Terminals.Type.values())
+			byAddress.put(type, new HashMap<>());
+	}
+
+	/**
+	 * Aggiunge un terminale alla topologia. I terminali associati ad uno stesso seggio vanno aggiunti in ordine di ID, il seggio
+	 * può invece essere aggiunto in qualunque momento.
+	 * @param id			ID del terminale.
+	 * @param ip			Indirizzo del terminale.
+	 * @param type			Tipo del terminale.
+	 * @param sessionKey	Chiave di sessione del terminale, o null se non presente.
+	 * @param stationId		ID del seggio a cui il terminale è associato, o null se non associato ad alcun seggio.
+	 */
+	public void addTerminal(int id, InetAddress ip, Terminals.Type type, String sessionKey, Integer stationId) {
+		Terminal terminal = byId.computeIfAbsent(id, terminalId -> new Terminal());
+		terminal.ip = ip;
+		terminal.sessionKey = sessionKey;
+		terminal.stationId = stationId;
+
+		byAddress.get(type).put(ip, terminal);
+
+		if(stationId != null)
+			byId.computeIfAbsent(stationId, station -> new Terminal()).children.get(type).add(ip);
+	}
+
+	/**
+	 * Verifica se la topologia è relativa alla sessione indicata.
+	 * @param procedureCode	Codice della procedura.
+	 * @param sessionCode	Codice della sessione.
+	 * @return True se la topologia è relativa alla sessione, false altrimenti.
+	 */
+	public boolean isFor(int procedureCode, int sessionCode) {
+		return this.procedureCode == procedureCode && this.sessionCode == sessionCode;
+	}
+
+	/**
+	 * Restituisce la chiave di sessione di un terminale.
+	 * @param ip	Indirizzo del terminale.
+	 * @param type	Tipo del terminale.
+	 * @return La chiave di sessione, o null se il terminale o la sua chiave non sono presenti.
+	 */
+	public String getSessionKey(InetAddress ip, Terminals.Type type) {
+		Terminal terminal = byAddress.get(type).get(ip);
+		return terminal == null ? null : terminal.sessionKey;
+	}
+
+	/**
+	 * Restituisce l'indirizzo del seggio a cui è associato un terminale.
+	 * @param ip	Indirizzo del terminale.
+	 * @param type	Tipo del terminale.
+	 * @return L'indirizzo del seggio, o null se il terminale non è presente o non è associato ad alcun seggio.
+	 */
+	public InetAddress getStationIp(InetAddress ip, Terminals.Type type) {
+		Terminal station = getStation(byAddress.get(type).get(ip));
+		return station == null ? null : station.ip;
+	}
+
+	/**
+	 * Restituisce i terminali di un certo tipo associati ad un seggio, in ordine di ID.
+	 * @param ipStation	Indirizzo del seggio.
+	 * @param type		Tipo dei terminali.
+	 * @return Gli indirizzi dei terminali, o null se il seggio non è presente.
+	 */
+	public List<InetAddress> getTerminals(InetAddress ipStation, Terminals.Type type) {
+		Terminal station = byAddress.get(Terminals.Type.Station).get(ipStation);
+		return station == null ? null : Collections.unmodifiableList(station.children.get(type));
+	}
+
+	/**
+	 * Verifica che una postazione sia associata ad un seggio.
+	 * @param ipStation	Indirizzo del seggio.
+	 * @param ipPost	Indirizzo della postazione.
+	 * @return True se entrambi i terminali sono presenti e la postazione è associata al seggio, false altrimenti.
+	 */
+	public boolean isPostOf(InetAddress ipStation, InetAddress ipPost) {
+		Terminal station = byAddress.get(Terminals.Type.Station).get(ipStation);
+		return station != null && station == getStation(byAddress.get(Terminals.Type.Post).get(ipPost));
+	}
+
+	private Terminal getStation(Terminal terminal) {
+		if(terminal == null || terminal.stationId == null)
+			return null;
+
+		Terminal station = byId.get(terminal.stationId);
+		return station == null || station.ip == null ? null : station;
+	}
+
+	/**
+	 * Dati di un terminale. Un seggio referenziato da un terminale prima di essere aggiunto viene creato senza indirizzo, e completato quando aggiunto.
+	 */
+	private static class Terminal {
+		private InetAddress ip = null;
+		private String sessionKey = null;
+		private Integer stationId = null;
+		private final Map<Terminals.Type, List<InetAddress>> children = new EnumMap<>(Terminals.Type.class);
+
+		Terminal() {
+			for(Terminals.Type type : Terminals.Type.values())
+				children.put(type, new ArrayList<>());
+		}
+	}
+}
@@ -10,6 +10,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import db.ConnectionManager;
 import db.DBMS;
@@ -27,10 +28,183 @@ import model.VotePacket;
 import model.WrittenBallot;
 
 public class UrnDB extends DB {
+	//Dimensioni ammesse per la lista delle coppie (scheda, nonce) nella ricerca dei discriminatori, e relative query
+	private static final int[] noncePairsBuckets = {8, 16, 32, 64};
+	private static final int maxNoncePairs = 64;
+	private static final HashMap<Integer, String> nonceDiscriminatorQueries = buildNonceDiscriminatorQueries();
+
+	//Terminali della sessione attiva, adoperati al posto delle query finché la sessione non viene chiusa
+	private volatile TerminalTopology topology = null;
+
+	//Elettorato attivo della procedura della sessione attiva, adoperato per verificare i voti senza interrogare il DB
+	private volatile VoterIndex voterIndex = null;
+
+	//Nomi dei votanti della procedura della sessione attiva, adoperati per la ricerca dei votanti senza interrogare il DB
+	private volatile VoterSearchIndex voterSearch = null;
+
 	public UrnDB(String host, String port, String schema, String terminal) throws PEException {
 		dbms = new DBMS(host, port, schema, terminal);
 	}
 
+	/**
+	 * Carica in memoria tutti i terminali della sessione, con le relative chiavi di sessione e associazioni ai seggi, con un'unica query.
+	 * Da questo momento le funzioni che ricercano terminali della sessione non interrogano più il DB, se non per terminali non trovati.
+	 * @param procedureCode	Codice della procedura.
+	 * @param sessionCode	Codice della sessione.
+	 * @throws PEException	Se non è possibile eseguire la query o se uno degli indirizzi memorizzati non è valido.
+	 */
+	public void loadTopology(int procedureCode, int sessionCode) throws PEException {
+		String query = "SELECT T.ID, T.IPAddress AS IP, T.Type, SK.SymmetricKey, ISO.Station " +
+						"FROM Terminal AS T " +
+						"LEFT JOIN SessionKey AS SK " +
+						"ON T.ProcedureCode = SK.ProcedureCode " +
+						"AND T.SessionCode = SK.SessionCode " +
+						"AND T.ID = SK.TerminalID " +
+						"LEFT JOIN IsStationOf AS ISO " +
+						"ON T.ProcedureCode = ISO.ProcedureCode " +
+						"AND T.SessionCode = ISO.SessionCode " +
+						"AND T.ID = ISO.Terminal " +
+						"WHERE T.ProcedureCode = ? " +
+						"AND T.SessionCode = ? " +
+						"ORDER BY T.ID ;";
+
+		TerminalTopology loaded = new TerminalTopology(procedureCode, sessionCode);
+
+		String ipString = null;
+		try (ConnectionManager cManager = dbms.getConnectionManager()) {
+			ResultSet rs = cManager.executeQuery(query, procedureCode, sessionCode);
+
+			while(rs.next()) {
+				ipString = rs.getString("IP");
+				int station = rs.getInt("ISO.Station");
+				Integer stationId = rs.wasNull() ? null : station;
+
+				loaded.addTerminal(rs.getInt("T.ID"), InetAddress.getByName(ipString), Terminals.Type.valueOf(rs.getString("T.Type")),
+						rs.getString("SK.SymmetricKey"), stationId);
+			}
+		}
+		catch (SQLException e) {
+			throw DBException.DB_0(e);
+		}
+		catch (UnknownHostException e) {
+			throw DBException.DB_04(ipString);
+		}
+
+		topology = loaded;
+	}
+
+	/**
+	 * Elimina i terminali caricati con {@link #loadTopology}. Da richiamare alla chiusura della sessione.
+	 */
+	public void invalidateTopology() {
+		topology = null;
+	}
+
+	/**
+	 * Carica in memoria l'elettorato attivo della procedura: per ciascun votante le schede che può votare e se ha già votato,
+	 * oltre ai nomi per la ricerca dei votanti ({@link VoterSearchIndex}).
+	 * Da questo momento la verifica dei voti interroga il DB solo per i votanti non presenti o i cui dati non risultano validi,
+	 * e la ricerca dei votanti non interroga più il DB.
+	 * Se la procedura ha troppe schede per l'indice, i voti continuano ad essere verificati solo tramite il DB.
+	 * @param procedureCode	Codice della procedura.
+	 * @param ballotCodes	Codici di tutte le schede della procedura.
+	 * @throws PEException	Se non è possibile eseguire la query.
+	 */
+	public void loadVoterIndex(int procedureCode, int[] ballotCodes) throws PEException {
+		if(ballotCodes.length > Long.SIZE) {
+			invalidateVoterIndex();
+			return;
+		}
+
+		String query = "SELECT V.ID, V.FirstName, V.LastName, V.DateOfBirth, VBL.BallotCode, (HV.ProcedureCode IS NOT NULL) AS AlreadyVoted " +
+						"FROM Voter AS V " +
+						"LEFT JOIN VoterBallotsList AS VBL ON V.ProcedureCode = VBL.ProcedureCode AND V.ID = VBL.VoterID " +
+						"LEFT JOIN HasVoted AS HV ON V.ProcedureCode = HV.ProcedureCode AND V.ID = HV.VoterID " +
+						"WHERE V.ProcedureCode = ? " +
+						"ORDER BY V.ID ;";
+
+		VoterIndex loaded = new VoterIndex(procedureCode, ballotCodes);
+		VoterSearchIndex loadedSearch = new VoterSearchIndex(loaded);
+
+		try (ConnectionManager cManager = dbms.getConnectionManager()) {
+			ResultSet rs = cManager.executeQuery(query, procedureCode);
+
+			//Le righe di uno stesso votante sono consecutive, una per ciascuna scheda
+			String currID = null;
+			boolean currVoted = false;
+			ArrayList<Integer> currBallots = new ArrayList<>();
+
+			while(rs.next()) {
+				String voterID = rs.getString("V.ID");
+
+				if(!voterID.equals(currID)) {
+					if(currID != null)
+						loaded.put(currID, currBallots, currVoted);
+
+					currID = voterID;
+					currVoted = rs.getBoolean("AlreadyVoted");
+					currBallots.clear();
+
+					loadedSearch.add(voterID, rs.getString("V.FirstName"), rs.getString("V.LastName"), rs.getString("V.DateOfBirth"));
+				}
+
+				int ballotCode = rs.getInt("VBL.BallotCode");
+				if(!rs.wasNull())
+					currBallots.add(ballotCode);
+			}
+
+			if(currID != null)
+				loaded.put(currID, currBallots, currVoted);
+		}
+		catch (SQLException e) {
+			throw DBException.DB_0(e);
+		}
+
+		voterIndex = loaded;
+		voterSearch = loadedSearch;
+	}
+
+	/**
+	 * Elimina l'elettorato caricato con {@link #loadVoterIndex}. Da richiamare alla chiusura della sessione.
+	 */
+	public void invalidateVoterIndex() {
+		voterSearch = null;
+		voterIndex = null;
+	}
+
+	/**
+	 * Verifica se un votante è presente nell'elettorato della procedura, adoperando l'elettorato caricato in memoria se disponibile.
+	 * @param procedureCode	Codice della procedura.
+	 * @param voterID		ID del votante.
+	 * @return True se il votante esiste, false altrimenti.
+	 * @throws PEException	Se non è possibile eseguire la query.
+	 */
+	public boolean voterExists(int procedureCode, String voterID) throws PEException {
+		VoterIndex index = getVoterIndex(procedureCode);
+		if(index != null)
+			return index.contains(voterID);
+
+		return getVoter(procedureCode, voterID) != null;
+	}
+
+	//Restituisce l'elettorato caricato, se relativo alla procedura indicata
+	private VoterIndex getVoterIndex(int procedureCode) {
+		VoterIndex current = voterIndex;
+		return current != null && current.isFor(procedureCode) ? current : null;
+	}
+
+	//Restituisce i nomi dei votanti caricati, se relativi alla procedura indicata
+	private VoterSearchIndex getVoterSearch(int procedureCode) {
+		VoterSearchIndex current = voterSearch;
+		return current != null && current.isFor(procedureCode) ? current : null;
+	}
+
+	//Restituisce la topologia caricata, se relativa alla sessione indicata
+	private TerminalTopology getTopology(int procedureCode, int sessionCode) {
+		TerminalTopology current = topology;
+		return current != null && current.isFor(procedureCode, sessionCode) ? current : null;
+	}
+
 	public ArrayList<Session> getSessions(String username) throws PEException {
 		String query = 	"SELECT P.Code, P.Name, P.Supervisor, S.Code, S.StartsAt, S.EndsAt, (S.StartsAt <= NOW() AND S.EndsAt >= NOW()) AS Validity "
 					+	"FROM `Procedure` P LEFT JOIN `Session` S ON P.Code = S.ProcedureCode "
@@ -199,6 +373,13 @@ public class UrnDB extends DB {
 						"AND SK.ProcedureCode = ? " +
 						"AND SK.SessionCode = ? ;";
 
+		TerminalTopology cached = getTopology(procedureCode, sessionCode);
+		if(cached != null) {
+			String sessionKey = cached.getSessionKey(ipTerminal, type);
+			if(sessionKey != null)
+				return sessionKey;
+		}
+
 		try (ConnectionManager cManager = dbms.getConnectionManager()) {
 			ResultSet rs = cManager.executeQuery(query, ipTerminal.getHostAddress(), type.toString(), procedureCode, sessionCode);
 
@@ -237,6 +418,13 @@ public class UrnDB extends DB {
 						"AND T.Type = ? " +
 						"AND T.IPAddress = ? ;";
 
+		TerminalTopology cached = getTopology(procedureCode, sessionCode);
+		if(cached != null) {
+			InetAddress ipStation = cached.getStationIp(ipTerminal, isPost ? Terminals.Type.Post : Terminals.Type.SubStation);
+			if(ipStation != null)
+				return ipStation.getHostAddress();
+		}
+
 		try (ConnectionManager connManager = dbms.getConnectionManager()) {
 			ResultSet rs = connManager.executeQuery(query, procedureCode, sessionCode, isPost ? "Post" : "SubStation", ipTerminal.getHostAddress());
 
@@ -277,6 +465,13 @@ public class UrnDB extends DB {
 						"AND T.Type = ? " +
 						"ORDER BY T.ID ;";
 
+		TerminalTopology cached = getTopology(procedureCode, sessionCode);
+		if(cached != null && cached.getTerminals(ipStation, Terminals.Type.Post) != null) {
+			ipPosts.addAll(cached.getTerminals(ipStation, Terminals.Type.Post));
+			ipSubStations.addAll(cached.getTerminals(ipStation, Terminals.Type.SubStation));
+			return;
+		}
+
 		String ipString = null;
 		try (ConnectionManager connManager = dbms.getConnectionManager()) {
 			ResultSet rs = connManager.executeQuery(query, procedureCode, sessionCode, ipStation.getHostAddress(), "Post");
@@ -302,41 +497,29 @@ public class UrnDB extends DB {
 	}
 
 	public ArrayList<Person> searchPerson(int procedureCode, String similarFirstName, String similarLastName, int maxResults) throws PEException{
-		String voterQuery = 	"SELECT V.*, " +
-								"	EXISTS (" +
-								"	SELECT * " +
-								"	FROM HasVoted AS HV " +
-								"	WHERE ProcedureCode = V.ProcedureCode " +
-								"	AND VoterID = V.ID) AS AlreadyVoted " +
+		//Come per la query (vedi sotto), si restituisce un risultato in più del massimo per segnalare che i criteri sono poco stringenti
+		VoterSearchIndex index = getVoterSearch(procedureCode);
+		if(index != null)
+			return new ArrayList<>(index.search(similarFirstName, similarLastName, maxResults + 1));
+
+		//Le schede di ciascun votante sono restituite dalla stessa query, anziché con una query per votante
+		String voterQuery = 	"SELECT V.ID, V.FirstName, V.LastName, V.DateOfBirth, (HV.ProcedureCode IS NOT NULL) AS AlreadyVoted, " +
+								"GROUP_CONCAT(VBL.BallotCode ORDER BY VBL.BallotCode) AS BallotCodes " +
 								"FROM Voter AS V " +
-								"WHERE FirstName like ? AND LastName like ? " +
-								"AND ProcedureCode = ? " +
+								"LEFT JOIN HasVoted AS HV ON V.ProcedureCode = HV.ProcedureCode AND V.ID = HV.VoterID " +
+								"LEFT JOIN VoterBallotsList AS VBL ON V.ProcedureCode = VBL.ProcedureCode AND V.ID = VBL.VoterID " +
+								"WHERE V.FirstName LIKE ? ESCAPE '\\\\' AND V.LastName LIKE ? ESCAPE '\\\\' " +
+								"AND V.ProcedureCode = ? " +
+								"GROUP BY V.ID, V.FirstName, V.LastName, V.DateOfBirth, HV.ProcedureCode " +
 								"LIMIT ? ;";
 
-		String ballotsListQuery = 	"SELECT * " +
-									"FROM VoterBallotsList AS VBL " +
-									"WHERE VBL.VoterID = ? " +
-									"AND VBL.ProcedureCode = ? ;" ;
-
 		ArrayList<Person> voters = new ArrayList<>();
 		try (ConnectionManager cManager = dbms.getConnectionManager()) {
-			ResultSet rs = cManager.executeQuery(voterQuery, "%" + similarFirstName + "%", "%" + similarLastName + "%", procedureCode, maxResults + 1);
+			ResultSet rs = cManager.executeQuery(voterQuery, "%" + escapeLike(similarFirstName) + "%", "%" + escapeLike(similarLastName) + "%", procedureCode, maxResults + 1);
 
-			String voterID;
-			ArrayList<Integer> ballotCodesList;
 			while(rs.next()) {
-				voterID = rs.getString("V.ID");
-				ballotCodesList = new ArrayList<>();
-
-				ResultSet rs2 = cManager.executeQuery(ballotsListQuery, voterID, procedureCode);
-				while(rs2.next())
-					ballotCodesList.add(rs2.getInt("VBL.BallotCode"));
-
-				int[] ballotCodes = new int[ballotCodesList.size()];
-				for (int i = 0; i < ballotCodesList.size(); i++)
-					ballotCodes[i] = ballotCodesList.get(i);
-
-				voters.add(new Person(rs.getString("V.FirstName"), rs.getString("V.LastName"), voterID, ballotCodes, !rs.getBoolean("AlreadyVoted"), rs.getString("V.DateOfBirth")));
+				int[] ballotCodes = parseBallotCodes(rs.getString("BallotCodes"));
+				voters.add(new Person(rs.getString("V.FirstName"), rs.getString("V.LastName"), rs.getString("V.ID"), ballotCodes, !rs.getBoolean("AlreadyVoted"), rs.getString("V.DateOfBirth")));
 			}
 		}
 		catch (SQLException e) {
@@ -346,6 +529,32 @@ public class UrnDB extends DB {
 		return voters;
 	}
 
+	/**
+	 * Fa sì che i caratteri jolly di LIKE presenti nei criteri di ricerca vengano cercati letteralmente, come avviene nell'indice in memoria.
+	 * @param text	Il testo da cercare.
+	 * @return	Il testo con '\', '%' e '_' preceduti dal carattere di escape.
+	 */
+	private static String escapeLike(String text) {
+		return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+	/**
+	 * Converte la lista di codici di schede restituita da GROUP_CONCAT (ad esempio "0,2,3") in un array.
+	 * @param ballotCodes	La lista di codici separati da virgole, o null se il votante non ha schede.
+	 * @return	I codici delle schede.
+	 */
+	private int[] parseBallotCodes(String ballotCodes) {
+		if(ballotCodes == null || ballotCodes.isEmpty())
+			return new int[0];
+
+		String[] codes = ballotCodes.split(",");
+		int[] parsed = new int[codes.length];
+		for(int i = 0; i < codes.length; i++)
+			parsed[i] = Integer.parseInt(codes[i]);
+
+		return parsed;
+	}
+
 	/**
 	 * Funzione usata per verificare se esiste già un votante con l'id specificato, legato alla procedura attuale,
 	 * in modo da poter verificare se è possibile l' aggiunzione di un nuovo votante con quell'ID.
@@ -376,10 +585,16 @@ public class UrnDB extends DB {
 		try {
 			cManager.startTransaction();
 
-			cManager.executeUpdate(voterUpdate, procCode, id, fn, ln, LocalDate.parse(birthDate, DateTimeFormatter.ofPattern("d/M/yyyy")), added);
+			LocalDate dateOfBirth = LocalDate.parse(birthDate, DateTimeFormatter.ofPattern("d/M/yyyy"));
+			cManager.executeUpdate(voterUpdate, procCode, id, fn, ln, dateOfBirth, added);
 			enableUser(cManager, procCode, ipStation, id, ballots, true);
 			
 			cManager.commit();
+			indexVoter(procCode, id, ballots);
+
+			VoterSearchIndex search = getVoterSearch(procCode);
+			if(search != null)
+				search.add(id, fn, ln, dateOfBirth.toString());
 		} catch (PEException e) {
 			cManager.rollback();
 			throw e;
@@ -397,6 +612,7 @@ public class UrnDB extends DB {
 			cManager.startTransaction();
 			enableUser(cManager, procCode, ip, id, ballots, false);
 			cManager.commit();
+			indexVoter(procCode, id, ballots);
 		} catch (PEException e){
 			cManager.rollback();
 			throw e;
@@ -408,6 +624,19 @@ public class UrnDB extends DB {
 		}
 	}
 
+	//Riporta nell'elettorato in memoria le schede abilitate ad un votante appena registrato o aggiornato
+	private void indexVoter(int procCode, String voterID, int[] ballots) {
+		VoterIndex index = getVoterIndex(procCode);
+		if(index == null)
+			return;
+
+		ArrayList<Integer> ballotCodes = new ArrayList<>();
+		for(int ballotCode : ballots)
+			ballotCodes.add(ballotCode);
+
+		index.put(voterID, ballotCodes, false);
+	}
+
 	private void enableUser(ConnectionManager cm, int procCode, InetAddress stationIp, String voterID, int[] ballots, boolean newVoter) throws PEException, SQLException {
 		String hasVotedQuery = 	"SELECT * " +
 								"FROM HasVoted " +
@@ -479,15 +708,19 @@ public class UrnDB extends DB {
 	 * e controlla che non abbia già votato.
 	 */
 	private void verifyVoter(int procedureCode, String voterID, HashSet<Integer> ballotCodes) throws PEException {
-		String voterQuery = "SELECT V.*, (HV.ProcedureCode IS NOT NULL) AS AlreadyVoted " +
+		//Votante, voto e schede abilitate sono restituiti da un'unica query
+		String voterQuery = "SELECT V.FirstName, V.LastName, (HV.ProcedureCode IS NOT NULL) AS AlreadyVoted, " +
+							"GROUP_CONCAT(VBL.BallotCode) AS BallotCodes " +
 							"FROM Voter AS V " +
 							"LEFT JOIN HasVoted AS HV ON V.ProcedureCode = HV.ProcedureCode AND V.ID = HV.VoterID " +
-							"WHERE V.ProcedureCode = ? AND V.ID =  ? ;";
+							"LEFT JOIN VoterBallotsList AS VBL ON V.ProcedureCode = VBL.ProcedureCode AND V.ID = VBL.VoterID " +
+							"WHERE V.ProcedureCode = ? AND V.ID = ? " +
+							"GROUP BY V.FirstName, V.LastName, HV.ProcedureCode ;";
 
-		String ballotsListQuery = 	"SELECT * " +
-									"FROM Voter AS V " +
-									"JOIN VoterBallotsList AS VBL ON V.ProcedureCode = VBL.ProcedureCode AND V.ID = VBL.VoterID " +
-									"WHERE V.ProcedureCode = ? AND V.ID = ? ;";
+		//Nei casi regolari è sufficiente l'elettorato in memoria, altrimenti le query individuano l'errore
+		VoterIndex index = getVoterIndex(procedureCode);
+		if(index != null && index.canVote(voterID, ballotCodes))
+			return;
 
 		try (ConnectionManager cManager = dbms.getConnectionManager()) {
 			ResultSet rs = cManager.executeQuery(voterQuery, procedureCode, voterID);
@@ -502,14 +735,10 @@ public class UrnDB extends DB {
 			if(rs.getBoolean("AlreadyVoted"))
 				throw FLRException.FLR_11(voter, 0);
 
-			rs = cManager.executeQuery(ballotsListQuery, procedureCode, voterID);
-
 			int numBallots = 0;
 			HashSet<Integer> foundCodes = new HashSet<>();
 
-			while(rs.next()) {
-				int code = rs.getInt("VBL.BallotCode");
-
+			for(int code : parseBallotCodes(rs.getString("BallotCodes"))) {
 				if(ballotCodes.contains(code) && !foundCodes.contains(code)) {
 					numBallots++;
 					foundCodes.add(code);
@@ -557,6 +786,17 @@ public class UrnDB extends DB {
 										"AND I.ProcedureCode = ? " +
 										"AND I.SessionCode = ? ; ";
 
+		TerminalTopology cached = getTopology(procedureCode, sessionCode);
+		if(cached != null) {
+			try {
+				if(cached.isPostOf(InetAddress.getByName(ipStation), InetAddress.getByName(ipPost)))
+					return;
+			}
+			catch (UnknownHostException ignored) {
+				//Indirizzi non validi: l'errore viene segnalato dalle query
+			}
+		}
+
 		try (ConnectionManager cManager = dbms.getConnectionManager()) {
 			ResultSet rs = cManager.executeQuery(terminalExistenceQuery, ipStation, "Station", procedureCode, sessionCode);
 
@@ -611,10 +851,6 @@ public class UrnDB extends DB {
 								"AND T.IPAddress = ? " +
 								"AND T.Type = 'Station'), ?, ?) ;";
 
-		String nonceDiscriminatorQuery = 	"SELECT MAX(NonceDiscrim) AS MaxNonceDiscrim " +
-												"FROM Vote " +
-												"WHERE ProcedureCode = ? AND BallotCode = ? AND EncryptedNonce = ? ;";
-
 		String voteUpdate = "INSERT INTO Vote(ProcedureCode, BallotCode, EncryptedNonce, NonceDiscrim, EncryptedString, EncryptedKey, EncryptedIV, Signature) "
 								+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?) ;";
 
@@ -623,26 +859,31 @@ public class UrnDB extends DB {
 			cManager.startTransaction();
 			cManager.executeUpdate(hasVotedUpdate, procedureCode, voterID, procedureCode, sessionCode, ipStation.getHostAddress(), docType.toString(), docID);
 
+			//I discriminatori dei nonce sono calcolati con un'unica query, ed i voti inseriti con un unico batch
+			HashMap<String, Integer> nonceDiscriminators = getNonceDiscriminators(cManager, procedureCode, ballots);
+			ArrayList<Object[]> voteRows = new ArrayList<>();
+
 			for(WrittenBallot ballot : ballots) {
 				int ballotCode = ballot.getCode();
 				ArrayList<VotePacket> packets = ballot.getEncryptedVotePackets();
 
 				for(VotePacket packet : packets) {
+					String key = ballotCode + ":" + packet.getSolvedNonce();
+					Integer nonceDiscriminator = nonceDiscriminators.getOrDefault(key, 0);
+					nonceDiscriminators.put(key, nonceDiscriminator + 1);
 
-					ResultSet rs = cManager.executeQuery(nonceDiscriminatorQuery, procedureCode, ballotCode, packet.getSolvedNonce());
-
-					int nonceDiscriminator = 0;
-					if(rs.next()) {
-						nonceDiscriminator = rs.getInt("MaxNonceDiscrim");
-					}
-
-					cManager.executeUpdate(voteUpdate, procedureCode, ballotCode,
+					voteRows.add(new Object[] {procedureCode, ballotCode,
 							packet.getSolvedNonce(), nonceDiscriminator, packet.getEncryptedVote(),
-							packet.getEncryptedKi(), packet.getEncryptedIV(), packet.getSignature());
+							packet.getEncryptedKi(), packet.getEncryptedIV(), packet.getSignature()});
 				}
 			}
 
+			cManager.executeBatch(voteUpdate, voteRows);
 			cManager.commit();
+
+			VoterIndex index = getVoterIndex(procedureCode);
+			if(index != null)
+				index.markVoted(voterID);
 		}
 		catch(SQLException | PEException e) {
 			cManager.rollback();
@@ -652,4 +893,64 @@ public class UrnDB extends DB {
 			cManager.close();
 		}
 	}
+
+	/**
+	 * Funzione che calcola il primo discriminatore libero per ciascuna coppia (scheda, nonce) dei voti da memorizzare.
+	 * <br/>
+	 * Le coppie vengono cercate con una query per blocco di al più {@value #maxNoncePairs} coppie. La lista di ciascun blocco viene
+	 * completata, ripetendone l'ultima coppia, fino ad una delle dimensioni di {@link #noncePairsBuckets}: il testo della query assume così
+	 * solo poche forme, che restano nella cache degli statement delle connessioni anziché sostituirsi l'una all'altra.
+	 * @param cManager		Il ConnectionManager della transazione in corso.
+	 * @param procedureCode	Il codice della procedura.
+	 * @param ballots		Le schede votate.
+	 * @return Mappa "codiceScheda:nonce" -> primo discriminatore libero. Le coppie non ancora presenti nel DB non compaiono nella mappa.
+	 */
+	private HashMap<String, Integer> getNonceDiscriminators(ConnectionManager cManager, int procedureCode, WrittenBallot[] ballots) throws PEException, SQLException {
+		HashMap<String, Integer> nonceDiscriminators = new HashMap<>();
+
+		ArrayList<Object[]> pairs = new ArrayList<>();
+		for(WrittenBallot ballot : ballots)
+			for(VotePacket packet : ballot.getEncryptedVotePackets())
+				pairs.add(new Object[] {ballot.getCode(), packet.getSolvedNonce()});
+
+		for(int from = 0; from < pairs.size(); from += maxNoncePairs) {
+			List<Object[]> block = pairs.subList(from, Math.min(pairs.size(), from + maxNoncePairs));
+
+			int bucket = noncePairsBuckets[0];
+			for(int i = 1; bucket < block.size(); i++)
+				bucket = noncePairsBuckets[i];
+
+			ArrayList<Object> args = new ArrayList<>();
+			args.add(procedureCode);
+			for(int i = 0; i < bucket; i++) {
+				Object[] pair = block.get(Math.min(i, block.size() - 1));
+				args.add(pair[0]);
+				args.add(pair[1]);
+			}
+
+			ResultSet rs = cManager.executeQuery(nonceDiscriminatorQueries.get(bucket), args.toArray());
+			while(rs.next())
+				nonceDiscriminators.put(rs.getInt("BallotCode") + ":" + rs.getString("EncryptedNonce"), rs.getInt("NextNonceDiscrim"));
+		}
+
+		return nonceDiscriminators;
+	}
+
+	//Query per la ricerca dei discriminatori, per ciascuna dimensione della lista delle coppie (scheda, nonce)
+	private static HashMap<Integer, String> buildNonceDiscriminatorQueries() {
+		HashMap<Integer, String> queries = new HashMap<>();
+
+		for(int bucket : noncePairsBuckets) {
+			StringBuilder pairs = new StringBuilder("(?, ?)");
+			for(int i = 1; i < bucket; i++)
+				pairs.append(", (?, ?)");
+
+			queries.put(bucket,	"SELECT BallotCode, EncryptedNonce, MAX(NonceDiscrim) + 1 AS NextNonceDiscrim " +
+								"FROM Vote " +
+								"WHERE ProcedureCode = ? AND (BallotCode, EncryptedNonce) IN (" + pairs + ") " +
+								"GROUP BY BallotCode, EncryptedNonce ;");
+		}
+
+		return queries;
+	}
 }
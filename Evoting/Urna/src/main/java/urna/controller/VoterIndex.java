@@ -0,0 +1,194 @@
+package urna.controller;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copia in memoria dell'elettorato attivo di una procedura: per ciascun votante le schede che può votare e se ha già votato.
+ * <br/>
+ * Le schede abilitate di un votante sono memorizzate come maschera di bit (un bit per ciascuna scheda della procedura), e i votanti
+ * che hanno già votato come insieme di bit, per cui anche elettorati di centinaia di migliaia di votanti occupano pochi MB.
+ * Le letture non acquisiscono alcun lock, mentre le modifiche sono serializzate.
+ * <br/>
+ * L'indice serve solo ad evitare le query nei casi regolari: l'autorità resta il DB, il cui vincolo di unicità su HasVoted
+ * impedisce comunque un secondo voto anche se l'indice non fosse ancora aggiornato.
+ */
+public class VoterIndex {
+	private static final int initialCapacity = 1024;
+
+	private final int procedureCode;
+
+	//Codice scheda -> posizione del bit nella maschera, e viceversa
+	private final Map<Integer, Integer> ballotBits = new HashMap<>();
+	private final int[] bitBallots;
+
+	//ID votante -> posizione del votante negli array sottostanti
+	private final Map<String, Integer> positions = new ConcurrentHashMap<>();
+
+	private volatile AtomicLongArray ballotMasks = new AtomicLongArray(initialCapacity);
+	private volatile AtomicLongArray voted = new AtomicLongArray(initialCapacity / Long.SIZE);
+
+	/**
+	 * Costruttore di un indice vuoto.
+	 * @param procedureCode	Codice della procedura.
+	 * @param ballotCodes	Codici di tutte le schede della procedura.
+	 * @throws IllegalArgumentException Se la procedura ha più di 64 schede.
+	 */
+	public VoterIndex(int procedureCode, int[] ballotCodes) {
+		if(ballotCodes.length > Long.SIZE)
+			throw new IllegalArgumentException("Troppe schede per l'indice dei votanti: " + ballotCodes.length);
+
+		this.procedureCode = procedureCode;
+		this.bitBallots = ballotCodes.clone();
+
+		for(int bit = 0; bit < ballotCodes.length; bit++)
+			ballotBits.put(ballotCodes[bit], bit);
+	}
+
+	/**
+	 * Verifica se l'indice è relativo alla procedura indicata.
+	 * @param procedureCode	Codice della procedura.
+	 * @return True se l'indice è relativo alla procedura, false altrimenti.
+	 */
+	public boolean isFor(int procedureCode) {
+		return this.procedureCode == procedureCode;
+	}
+
+	/**
+	 * Aggiunge un votante, o ne sostituisce le schede abilitate se già presente.
+	 * @param voterID	ID del votante.
+	 * @param ballots	Codici delle schede che il votante può votare.
+	 * @param hasVoted	True se il votante ha già votato.
+	 */
+	public synchronized void put(String voterID, Collection<Integer> ballots, boolean hasVoted) {
+		Integer position = positions.get(voterID);
+		int pos = position == null ? positions.size() : position;
+
+		if(pos >= ballotMasks.length())
+			grow();
+
+		ballotMasks.set(pos, toMask(ballots));
+		if(hasVoted)
+			setVoted(pos);
+
+		//Il votante diventa visibile alle letture solo dopo aver memorizzato i suoi dati
+		if(position == null)
+			positions.put(voterID, pos);
+	}
+
+	/**
+	 * Registra che un votante ha votato. Non ha effetto se il votante non è presente.
+	 * @param voterID ID del votante.
+	 */
+	public synchronized void markVoted(String voterID) {
+		Integer position = positions.get(voterID);
+		if(position != null)
+			setVoted(position);
+	}
+
+	/**
+	 * @param voterID ID del votante.
+	 * @return True se il votante è presente nell'indice, false altrimenti.
+	 */
+	public boolean contains(String voterID) {
+		return positions.containsKey(voterID);
+	}
+
+	/**
+	 * @return Il numero di votanti presenti nell'indice.
+	 */
+	public int size() {
+		return positions.size();
+	}
+
+	/**
+	 * @param voterID ID del votante.
+	 * @return True se il votante è presente e ha già votato, false altrimenti.
+	 */
+	public boolean hasVoted(String voterID) {
+		Integer position = positions.get(voterID);
+		return position != null && isVoted(position);
+	}
+
+	/**
+	 * @param voterID ID del votante.
+	 * @return I codici delle schede che il votante può votare, o null se il votante non è presente.
+	 */
+	public int[] getBallots(String voterID) {
+		Integer position = positions.get(voterID);
+		if(position == null)
+			return null;
+
+		long mask = ballotMasks.get(position);
+		int[] ballots = new int[Long.bitCount(mask)];
+
+		int i = 0;
+		for(int bit = 0; bit < bitBallots.length; bit++)
+			if((mask & (1L << bit)) != 0)
+				ballots[i++] = bitBallots[bit];
+
+		return ballots;
+	}
+
+	/**
+	 * Verifica che il votante sia presente, non abbia già votato e che le schede votate siano esattamente quelle che può votare.
+	 * @param voterID	ID del votante.
+	 * @param ballots	Codici delle schede votate.
+	 * @return True se il voto è ammesso, false se il votante non è presente o se una delle condizioni non è soddisfatta.
+	 */
+	public boolean canVote(String voterID, Collection<Integer> ballots) {
+		Integer position = positions.get(voterID);
+		if(position == null)
+			return false;
+
+		if(isVoted(position))
+			return false;
+
+		for(Integer ballot : ballots)
+			if(!ballotBits.containsKey(ballot))
+				return false;
+
+		return ballotMasks.get(position) == toMask(ballots);
+	}
+
+	private long toMask(Collection<Integer> ballots) {
+		long mask = 0;
+		for(Integer ballot : ballots) {
+			Integer bit = ballotBits.get(ballot);
+			if(bit != null)
+				mask |= 1L << bit;
+		}
+
+		return mask;
+	}
+
+	private boolean isVoted(int position) {
+		return (voted.get(position / Long.SIZE) & (1L << (position % Long.SIZE))) != 0;
+	}
+
+	private void setVoted(int position) {
+		int word = position / Long.SIZE;
+		long bit = 1L << (position % Long.SIZE);
+
+		voted.set(word, voted.get(word) | bit);
+	}
+
+	//Raddoppia la capacità degli array, richiamata solo dalle modifiche
+	private void grow() {
+		int capacity = ballotMasks.length() * 2;
+
+		AtomicLongArray newMasks = new AtomicLongArray(capacity);
+		for(int i = 0; i < ballotMasks.length(); i++)
+			newMasks.set(i, ballotMasks.get(i));
+
+		AtomicLongArray newVoted = new AtomicLongArray(capacity / Long.SIZE);
+		for(int i = 0; i < voted.length(); i++)
+			newVoted.set(i, voted.get(i));
+
+		ballotMasks = newMasks;
+		voted = newVoted;
+	}
+}
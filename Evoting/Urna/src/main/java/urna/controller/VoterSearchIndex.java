@@ -0,0 +1,217 @@
+package urna.controller;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import model.Person;
+
+/**
+ * Indice in memoria dei nomi dei votanti di una procedura, adoperato per la ricerca dei votanti da parte dei seggi.
+ * <br/>
+ * Nomi e cognomi sono normalizzati (minuscoli e senza accenti) e ciascuno è indicizzato per tutte le sue sottostringhe di al più
+ * {@value #maxGram} caratteri: una ricerca esamina solo i votanti che contengono la sottostringa meno frequente tra quelle cercate,
+ * e si interrompe appena trovato il numero di risultati richiesto, per cui la sua durata non dipende dalla dimensione dell'elettorato.
+ * <br/>
+ * Come la query che sostituisce (FirstName LIKE '%nome%' AND LastName LIKE '%cognome%') vengono restituiti i votanti il cui nome
+ * contiene il nome cercato e il cui cognome contiene il cognome cercato. Le schede abilitate e il voto sono letti dall'elettorato
+ * ({@link VoterIndex}), per cui riflettono sempre gli ultimi aggiornamenti.
+ * <br/>
+ * Le ricerche dei diversi seggi vengono eseguite in parallelo, e attendono solo durante l'aggiunta di un votante.
+ */
+public class VoterSearchIndex {
+	private static final int maxGram = 3;
+
+	private final VoterIndex eligibility;
+
+	private final ArrayList<Voter> voters = new ArrayList<>();
+	private final Set<String> ids = new HashSet<>();
+	private final Map<String, IntList> firstNameGrams = new HashMap<>();
+	private final Map<String, IntList> lastNameGrams = new HashMap<>();
+
+	//Le ricerche condividono il lock in lettura, l'aggiunta dei votanti è l'unica a modificare l'indice
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Costruttore di un indice vuoto.
+	 * @param eligibility L'elettorato della procedura, da cui leggere schede abilitate e voti.
+	 */
+	public VoterSearchIndex(VoterIndex eligibility) {
+		this.eligibility = eligibility;
+	}
+
+	/**
+	 * Verifica se l'indice è relativo alla procedura indicata.
+	 * @param procedureCode	Codice della procedura.
+	 * @return True se l'indice è relativo alla procedura, false altrimenti.
+	 */
+	public boolean isFor(int procedureCode) {
+		return eligibility.isFor(procedureCode);
+	}
+
+	/**
+	 * Aggiunge un votante all'indice. Non ha effetto se il votante è già presente.
+	 * @param voterID		ID del votante.
+	 * @param firstName		Nome del votante.
+	 * @param lastName		Cognome del votante.
+	 * @param dateOfBirth	Data di nascita del votante.
+	 */
+	public void add(String voterID, String firstName, String lastName, String dateOfBirth) {
+		Voter voter = new Voter(voterID, firstName, lastName, dateOfBirth);
+
+		lock.writeLock().lock();
+		try {
+			if(!ids.add(voterID))
+				return;
+
+			int position = voters.size();
+			voters.add(voter);
+
+			addGrams(firstNameGrams, voter.normFirstName, position);
+			addGrams(lastNameGrams, voter.normLastName, position);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Il numero di votanti presenti nell'indice.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return voters.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Cerca i votanti il cui nome e cognome contengono quelli indicati, senza distinguere maiuscole e accenti.
+	 * @param firstName	Il nome cercato, o una sua parte (vuoto o null per non porre vincoli sul nome).
+	 * @param lastName	Il cognome cercato, o una sua parte (vuoto o null per non porre vincoli sul cognome).
+	 * @param limit		Il numero massimo di risultati.
+	 * @return I votanti trovati, in ordine di inserimento, con le rispettive schede abilitate.
+	 */
+	public List<Person> search(String firstName, String lastName, int limit) {
+		String first = normalize(firstName), last = normalize(lastName);
+		List<Voter> matches = new ArrayList<>();
+
+		lock.readLock().lock();
+		try {
+			//Si esaminano solo i votanti della lista più corta tra quelle delle sottostringhe cercate
+			IntList candidates = shortest(null, firstNameGrams, first);
+			candidates = shortest(candidates, lastNameGrams, last);
+
+			int numCandidates = candidates == null ? voters.size() : candidates.size;
+
+			for(int i = 0; i < numCandidates && matches.size() < limit; i++) {
+				Voter voter = voters.get(candidates == null ? i : candidates.values[i]);
+
+				if(voter.normFirstName.contains(first) && voter.normLastName.contains(last))
+					matches.add(voter);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		//Schede e voto sono letti dall'elettorato, fuori dal lock
+		List<Person> found = new ArrayList<>(matches.size());
+		for(Voter voter : matches)
+			found.add(toPerson(voter));
+
+		return found;
+	}
+
+	/**
+	 * Normalizza un nome per la ricerca, eliminando accenti e maiuscole.
+	 * @param name Il nome da normalizzare.
+	 * @return Il nome normalizzato, o la stringa vuota se il nome è null.
+	 */
+	static String normalize(String name) {
+		if(name == null)
+			return "";
+
+		String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+		return decomposed.replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+	}
+
+	private Person toPerson(Voter voter) {
+		int[] ballots = eligibility.getBallots(voter.id);
+		return new Person(voter.firstName, voter.lastName, voter.id, ballots == null ? new int[0] : ballots, !eligibility.hasVoted(voter.id), voter.dateOfBirth);
+	}
+
+	//Restituisce la più corta tra la lista attuale e quelle delle sottostringhe di chiave; una sottostringa assente produce una lista vuota
+	private IntList shortest(IntList current, Map<String, IntList> grams, String key) {
+		if(key.isEmpty())
+			return current;
+
+		if(key.length() <= maxGram)
+			return shorter(current, grams.getOrDefault(key, IntList.empty));
+
+		for(int start = 0; start + maxGram <= key.length(); start++)
+			current = shorter(current, grams.getOrDefault(key.substring(start, start + maxGram), IntList.empty));
+
+		return current;
+	}
+
+	private IntList shorter(IntList current, IntList other) {
+		return current == null || other.size < current.size ? other : current;
+	}
+
+	private void addGrams(Map<String, IntList> grams, String name, int position) {
+		//Ogni sottostringa è indicizzata una sola volta per votante, anche se compare più volte nel nome
+		Set<String> added = new HashSet<>();
+
+		for(int start = 0; start < name.length(); start++)
+			for(int end = start + 1; end <= Math.min(name.length(), start + maxGram); end++) {
+				String gram = name.substring(start, end);
+				if(added.add(gram))
+					grams.computeIfAbsent(gram, key -> new IntList()).add(position);
+			}
+	}
+
+	/**
+	 * Dati di un votante, con nome e cognome normalizzati.
+	 */
+	private static class Voter {
+		private final String id, firstName, lastName, dateOfBirth;
+		private final String normFirstName, normLastName;
+
+		Voter(String id, String firstName, String lastName, String dateOfBirth) {
+			this.id = id;
+			this.firstName = firstName;
+			this.lastName = lastName;
+			this.dateOfBirth = dateOfBirth;
+			this.normFirstName = normalize(firstName);
+			this.normLastName = normalize(lastName);
+		}
+	}
+
+	/**
+	 * Lista di posizioni di votanti, in ordine crescente, memorizzata come array di interi.
+	 */
+	private static class IntList {
+		private static final IntList empty = new IntList();
+
+		private int[] values = new int[2];
+		private int size = 0;
+
+		void add(int value) {
+			if(size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+
+			values[size++] = value;
+		}
+	}
+}
@@ -6,9 +6,10 @@ import model.Terminals;
 import utils.Constants;
 
 public class DummyTerminal {
-	private InetAddress ip;
+	//Indirizzo e tipo identificano il terminale nel registro (vedi OnlineTerminals), per cui non possono cambiare
+	private final InetAddress ip;
 	private int port;
-	private Terminals.Type type;
+	private final Terminals.Type type;
 	
 	public DummyTerminal(InetAddress ip, Terminals.Type type) {
 		this.ip = ip;
@@ -33,11 +34,9 @@ public class DummyTerminal {
 	}
 	
 	public InetAddress getIp() { return ip; }
-	public void setIp(InetAddress ip) { this.ip = ip; }
 	
 	public int getPort() { return port; }
 	public void setPort(int port) { this.port = port; }
 	
 	public Terminals.Type getType() { return type; }
-	public void setType(Terminals.Type type) { this.type = type; }
 }
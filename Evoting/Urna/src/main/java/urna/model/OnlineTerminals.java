@@ -0,0 +1,147 @@
+package urna.model;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.Terminals;
+
+/**
+ * Registro dei terminali autenticati presso l'urna, indicizzato per tipo e indirizzo.
+ * <br/>
+ * Le verifiche effettuate dai Service ({@link #contains}, {@link #get}) sono in tempo costante e non bloccano mai.
+ * Le modifiche (attivazione, spegnimento e disattivazione dei terminali) sono rare e serializzate: ad ogni modifica viene
+ * ricostruita una {@link Snapshot} immutabile, che la view e le statistiche leggono senza alcuna sincronizzazione.
+ */
+public class OnlineTerminals {
+	private final Map<Terminals.Type, Map<InetAddress, DummyTerminal>> terminals = new EnumMap<>(Terminals.Type.class);
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+
+	public OnlineTerminals() {
+		for(Terminals.Type type : Terminals.Type.values())
+			terminals.put(type, new ConcurrentHashMap<>());
+	}
+
+	/**
+	 * Registra un terminale autenticato, sostituendo l'eventuale registrazione precedente dello stesso terminale.
+	 * @param ip	L'indirizzo del terminale.
+	 * @param type	Il tipo del terminale.
+	 * @return		Il terminale registrato.
+	 */
+	public synchronized DummyTerminal add(InetAddress ip, Terminals.Type type) {
+		DummyTerminal terminal = new DummyTerminal(ip, type);
+		terminals.get(type).put(ip, terminal);
+
+		refresh();
+		return terminal;
+	}
+
+	/**
+	 * Rimuove un terminale dal registro.
+	 * @param ip	L'indirizzo del terminale.
+	 * @param type	Il tipo del terminale.
+	 * @return		Il terminale rimosso, o null se non era registrato.
+	 */
+	public synchronized DummyTerminal remove(InetAddress ip, Terminals.Type type) {
+		DummyTerminal terminal = terminals.get(type).remove(ip);
+
+		if(terminal != null)
+			refresh();
+
+		return terminal;
+	}
+
+	/**
+	 * Rimuove dal registro tutti i terminali di un tipo.
+	 * @param type	Il tipo dei terminali.
+	 * @return		I terminali rimossi.
+	 */
+	public synchronized List<DummyTerminal> removeAll(Terminals.Type type) {
+		Map<InetAddress, DummyTerminal> ofType = terminals.get(type);
+		List<DummyTerminal> removed = new ArrayList<>(ofType.values());
+
+		ofType.clear();
+		refresh();
+		return removed;
+	}
+
+	/**
+	 * Svuota il registro.
+	 * @return I terminali rimossi.
+	 */
+	public synchronized List<DummyTerminal> clear() {
+		List<DummyTerminal> removed = snapshot.getTerminals();
+
+		for(Map<InetAddress, DummyTerminal> ofType : terminals.values())
+			ofType.clear();
+
+		refresh();
+		return removed;
+	}
+
+	/**
+	 * @param ip	L'indirizzo del terminale.
+	 * @param type	Il tipo del terminale.
+	 * @return		Il terminale registrato, o null se il terminale non è autenticato.
+	 */
+	public DummyTerminal get(InetAddress ip, Terminals.Type type) {
+		return terminals.get(type).get(ip);
+	}
+
+	/**
+	 * @param ip	L'indirizzo del terminale.
+	 * @param type	Il tipo del terminale.
+	 * @return		True se il terminale è autenticato.
+	 */
+	public boolean contains(InetAddress ip, Terminals.Type type) {
+		return terminals.get(type).containsKey(ip);
+	}
+
+	/**
+	 * @return True se nessun terminale è autenticato.
+	 */
+	public boolean isEmpty() {
+		return snapshot.size() == 0;
+	}
+
+	/**
+	 * @return L'ultima fotografia del registro.
+	 */
+	public Snapshot snapshot() {
+		return snapshot;
+	}
+
+	private void refresh() {
+		List<DummyTerminal> all = new ArrayList<>();
+		for(Map<InetAddress, DummyTerminal> ofType : terminals.values())
+			all.addAll(ofType.values());
+
+		snapshot = new Snapshot(all);
+	}
+
+	/**
+	 * Fotografia immutabile del registro, con i terminali ordinati per tipo e il numero di terminali di ciascun tipo.
+	 */
+	public static class Snapshot {
+		private final List<DummyTerminal> terminals;
+		private final Map<Terminals.Type, Integer> counters = new EnumMap<>(Terminals.Type.class);
+
+		private Snapshot(List<DummyTerminal> terminals) {
+			this.terminals = Collections.unmodifiableList(terminals);
+
+			for(Terminals.Type type : Terminals.Type.values())
+				counters.put(type, 0);
+
+			for(DummyTerminal t : terminals)
+				counters.merge(t.getType(), 1, Integer::sum);
+		}
+
+		public List<DummyTerminal> getTerminals() { return terminals; }
+		public int size() { return terminals.size(); }
+		public int count(Terminals.Type type) { return counters.get(type); }
+	}
+}
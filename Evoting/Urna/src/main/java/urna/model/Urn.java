@@ -2,14 +2,19 @@ package urna.model;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.List;
 
+import encryption.CryptoContext;
+import encryption.Hash;
 import exceptions.DEVException;
 import exceptions.PEException;
 import model.AbstrModel;
 import model.EmptyBallot;
 import model.Session;
 import model.Terminals;
+import model.WireCodec;
 import model.State.StateUrn;
 import utils.Logger;
 
@@ -18,6 +23,7 @@ public class Urn extends AbstrModel {
 	private final int numConnection;
 	private int procedureCode = -1, sessionCode = -1;
 	private byte[] pub1_rp, pr2_rp;
+	private CryptoContext signingCrypto = null;
 	
 	private final HashMap<InetAddress, ArrayList<ArrayList<Integer>>> voteNonces;
 	private final HashMap<InetAddress, Integer> postsActivationNonces;
@@ -25,11 +31,13 @@ public class Urn extends AbstrModel {
 	private final HashMap<InetAddress, Integer> substationsActivationNonces;
 	
 	private EmptyBallot[] procedureBallots;
+	private WireCodec.Encoded encodedBallots;
+	private String ballotsHash;
 	
 	private ArrayList<Session> sessions = null;
 	private StateUrn state = StateUrn.NON_ATTIVA;
 	
-	private final ArrayList<DummyTerminal> onlineTerminals = new ArrayList<>();
+	private final OnlineTerminals onlineTerminals = new OnlineTerminals();
 	
 	private int eligibleVoters = -1;
 	private int hasVoted = -1;
@@ -50,6 +58,10 @@ public class Urn extends AbstrModel {
 		this.sessionCode = sessionCode;
 		pub1_rp = pub1;
 		pr2_rp = pr2;
+		
+		synchronized (this) {
+			signingCrypto = null;
+		}
 	}
 	
 	public void setVoteNonces(InetAddress ipPost, ArrayList<ArrayList<Integer>> postNonces) {
@@ -131,8 +143,37 @@ public class Urn extends AbstrModel {
 	public byte[] getPublicKey1() { return pub1_rp; }
 	public byte[] getPrivateKey2() { return pr2_rp;	}
 	
-	public void setProcedureBallots(EmptyBallot[] procedureBallots) { this.procedureBallots = procedureBallots; }
+	/**
+	 * Restituisce il contesto crittografico con la chiave privata 2 del responsabile, adoperata per firmare i pacchetti di voto.
+	 * La chiave viene ricostruita una sola volta per sessione anziché per ogni pacchetto.
+	 * @return Il contesto crittografico per la firma dei pacchetti.
+	 * @throws PEException Se la chiave privata non è valida.
+	 */
+	public synchronized CryptoContext getSigningCrypto() throws PEException {
+		if(signingCrypto == null)
+			signingCrypto = new CryptoContext(null, pr2_rp);
+		
+		return signingCrypto;
+	}
+	
+	/**
+	 * Memorizza le schede della procedura, codificandole una sola volta per tutte le attivazioni dei terminali della sessione.
+	 * Viene inoltre calcolato l'hash della codifica, che permette ai terminali che possiedono già le stesse schede di non riceverle nuovamente.
+	 * @param procedureBallots Le schede della procedura.
+	 * @throws PEException Se non è possibile calcolare l'hash delle schede.
+	 */
+	public void setProcedureBallots(EmptyBallot[] procedureBallots) throws PEException {
+		WireCodec.Encoded encoded = WireCodec.preEncode(procedureBallots);
+		byte[] digest = Hash.computeHash(encoded.getBytes(), 32, "schede della procedura");
+
+		this.procedureBallots = procedureBallots;
+		this.encodedBallots = encoded;
+		this.ballotsHash = Base64.getEncoder().encodeToString(digest);
+	}
+
 	public EmptyBallot[] getProcedureBallots() { return procedureBallots; }
+	public WireCodec.Encoded getEncodedBallots() { return encodedBallots; }
+	public String getBallotsHash() { return ballotsHash; }
 	
 	public StateUrn getState() { return state; }
 	public void setState(StateUrn newState) { state = newState; }
@@ -151,14 +192,14 @@ public class Urn extends AbstrModel {
 		return null;
 	}
 	
-	public void addOnlineTerminal(InetAddress ip, Terminals.Type type) { onlineTerminals.add(new DummyTerminal(ip, type)); }
-	public ArrayList<DummyTerminal> getOnlineTerminals() { return onlineTerminals; }
-	public void resetOnlineTerminals() { onlineTerminals.clear(); }
+	public void addOnlineTerminal(InetAddress ip, Terminals.Type type) { onlineTerminals.add(ip, type); }
+	public OnlineTerminals getOnlineTerminals() { return onlineTerminals; }
+	public List<DummyTerminal> resetOnlineTerminals() { return onlineTerminals.clear(); }
 	
 	public int getEligibleVoters() { return eligibleVoters; }
 	public void setEligibleVoters(int voters) { eligibleVoters = voters; }
 	
-	public int getHasVoted() { return hasVoted; }
-	public void setHasVoted(int hasVoted) { this.hasVoted = hasVoted; }
-	public void increaseHasVoted() { hasVoted++; }
+	public synchronized int getHasVoted() { return hasVoted; }
+	public synchronized void setHasVoted(int hasVoted) { this.hasVoted = hasVoted; }
+	public synchronized void increaseHasVoted() { hasVoted++; }
 }